@@ -4,25 +4,50 @@
 
 import java.lang.classfile.ClassBuilder;
 import java.lang.classfile.ClassFile;
+import java.lang.classfile.ClassModel;
 import java.lang.classfile.CodeBuilder;
+import java.lang.classfile.CodeModel;
+import java.lang.classfile.CodeTransform;
 import java.lang.classfile.FieldBuilder;
+import java.lang.classfile.Instruction;
 import java.lang.classfile.Label;
 import java.lang.classfile.MethodBuilder;
+import java.lang.classfile.MethodModel;
 import java.lang.classfile.Opcode;
+import java.lang.classfile.PseudoInstruction;
 import java.lang.classfile.TypeKind;
 import java.lang.classfile.attribute.ConstantValueAttribute;
 import java.lang.classfile.attribute.ExceptionsAttribute;
 import java.lang.classfile.attribute.SignatureAttribute;
+import java.lang.classfile.constantpool.ConstantPoolBuilder;
+import java.lang.classfile.instruction.BranchInstruction;
+import java.lang.classfile.instruction.DiscontinuedInstruction;
+import java.lang.classfile.instruction.ExceptionCatch;
+import java.lang.classfile.instruction.IncrementInstruction;
+import java.lang.classfile.instruction.LabelTarget;
+import java.lang.classfile.instruction.LoadInstruction;
+import java.lang.classfile.instruction.LookupSwitchInstruction;
 import java.lang.classfile.instruction.OperatorInstruction;
+import java.lang.classfile.instruction.ReturnInstruction;
+import java.lang.classfile.instruction.StoreInstruction;
+import java.lang.classfile.instruction.SwitchCase;
+import java.lang.classfile.instruction.TableSwitchInstruction;
 import java.lang.constant.ClassDesc;
 import java.lang.constant.ConstantDesc;
 import java.lang.constant.DirectMethodHandleDesc;
 import java.lang.constant.DynamicCallSiteDesc;
 import java.lang.constant.MethodTypeDesc;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 public class BackendClassFile {
 
@@ -36,6 +61,27 @@ public static ClassContextClassFile createClass() {
         return new ClassContextClassFile();
     }
 
+    /**
+     * Builds a class by emitting each member and instruction into a class builder as soon as it is given, rather than
+     * recording the class and replaying it when it is built; see {@link ClassContext#stream}.
+     */
+    public static byte[] streamClass(int version, int access, ClassDesc name, ClassDesc superName, @Nullable Collection<ClassDesc> interfaces, @Nullable ClassSignature signature, Consumer<? super ClassContextClassFile> consumer) {
+        return ClassFile.of().build(name, cl -> {
+            cl.withVersion(version, 0);
+            cl.withFlags(access);
+            cl.withSuperclass(superName);
+            if (interfaces != null) {
+                cl.withInterfaceSymbols(interfaces.stream().toList());
+            }
+            if (signature != null) {
+                cl.with(SignatureAttribute.of(parsed(signature)));
+            }
+            var classContext = new ClassContextClassFile();
+            classContext.live = cl;
+            consumer.accept(classContext);
+        });
+    }
+
     public static MethodContextClassFile createMethod(Consumer<? super MethodContextClassFile> consumer) {
         var context = new MethodContextClassFile();
         consumer.accept(context);
@@ -66,11 +112,60 @@ public static CodeContextClassFile createCode() {
         return new CodeContextClassFile();
     }
 
+    private static java.lang.classfile.Signature parsed(Signature signature) {
+        if (signature.parsed instanceof java.lang.classfile.Signature parsed) {
+            return parsed;
+        }
+        var parsed = java.lang.classfile.Signature.parseFrom(signature.signature());
+        signature.parsed = parsed;
+        return parsed;
+    }
+
+    private static java.lang.classfile.MethodSignature parsed(MethodSignature signature) {
+        if (signature.parsed instanceof java.lang.classfile.MethodSignature parsed) {
+            return parsed;
+        }
+        var parsed = java.lang.classfile.MethodSignature.parseFrom(signature.signature());
+        signature.parsed = parsed;
+        return parsed;
+    }
+
+    private static java.lang.classfile.ClassSignature parsed(ClassSignature signature) {
+        if (signature.parsed instanceof java.lang.classfile.ClassSignature parsed) {
+            return parsed;
+        }
+        var parsed = java.lang.classfile.ClassSignature.parseFrom(signature.signature());
+        signature.parsed = parsed;
+        return parsed;
+    }
+
     public static final class ClassContextClassFile extends ImplClassContext<ClassContextClassFile, FieldContextClassFile, MethodContextClassFile> {
         private final List<Consumer<ClassBuilder>> classVisitors = new ArrayList<>();
+        private final Map<Consumer<ClassBuilder>, MethodEntry> methods = new IdentityHashMap<>();
+        private @Nullable MethodCache methodCache;
+        // Set when streaming, to the builder the class is emitted into as soon as it is given rather than recorded
+        private @Nullable ClassBuilder live;
+
+        private record MethodEntry(String name, int access, MethodTypeDesc descriptor, @Nullable MethodSignature signature, @Nullable List<ClassDesc> exceptions, Supplier<MethodContextClassFile> recorded) {
+            MethodCache.@Nullable MethodKey key() {
+                var context = recorded.get();
+                if (context.opaque) {
+                    return null;
+                }
+                return new MethodCache.MethodKey(name, access, descriptor, signature == null ? null : signature.signature(), exceptions, context.structure);
+            }
+        }
+
+        private record PreviousBuild(int version, ClassDesc name, ClassDesc superName, boolean countInvocations, ClassModel model, Map<MethodCache.MethodKey, MethodModel> methods, int generation) {}
 
         private ClassContextClassFile() {}
 
+        @Override
+        public ClassContextClassFile methodCache(MethodCache cache) {
+            this.methodCache = cache;
+            return this;
+        }
+
         @Override
         public ClassContextClassFile constructor(int access, MethodTypeDesc descriptor, @Nullable Collection<ClassDesc> exceptions, Consumer<? super MethodContextClassFile> remainder) {
             return method("<init>", access, descriptor, null, exceptions, remainder);
@@ -78,26 +173,46 @@ public ClassContextClassFile constructor(int access, MethodTypeDesc descriptor,
 
         @Override
         public ClassContextClassFile method(String name, int access, MethodTypeDesc descriptor, @Nullable MethodSignature signature, @Nullable Collection<ClassDesc> exceptions, Consumer<? super MethodContextClassFile> remainder) {
-            var methodContext = createMethod(remainder);
-            classVisitors.add(b -> b.withMethod(name, descriptor, access, m -> {
+            var exceptionsList = exceptions == null ? null : List.copyOf(exceptions);
+            if (live != null) {
+                live.withMethod(name, descriptor, access, m -> {
+                    if (signature != null) {
+                        m.with(SignatureAttribute.of(parsed(signature)));
+                    }
+                    if (exceptionsList != null) {
+                        m.with(ExceptionsAttribute.ofSymbols(exceptionsList));
+                    }
+                    var methodContext = new MethodContextClassFile();
+                    methodContext.live = m;
+                    methodContext.prologue = countInvocations ? createCode(code -> countInvocation(code, name, descriptor)) : null;
+                    remainder.accept(methodContext);
+                });
+                return this;
+            }
+            var recorded = deferredRecording(() -> createMethod(remainder));
+            Consumer<ClassBuilder> visitor = b -> b.withMethod(name, descriptor, access, m -> {
+                var methodContext = recorded.get();
                 if (signature != null) {
-                    m.with(SignatureAttribute.of(java.lang.classfile.Signature.parseFrom(signature.signature())));
+                    m.with(SignatureAttribute.of(parsed(signature)));
                 }
-                if (exceptions != null) {
-                    m.with(ExceptionsAttribute.ofSymbols(exceptions.stream().toList()));
+                if (exceptionsList != null) {
+                    m.with(ExceptionsAttribute.ofSymbols(exceptionsList));
                 }
+                methodContext.prologue = countInvocations ? createCode(code -> countInvocation(code, name, descriptor)) : null;
                 methodContext.apply(m);
-            }));
+            });
+            classVisitors.add(visitor);
+            methods.put(visitor, new MethodEntry(name, access, descriptor, signature, exceptionsList, recorded));
             return this;
         }
 
         @Override
         public ClassContextClassFile field(String name, int access, ClassDesc descriptor, @Nullable Signature signature, @Nullable ConstantDesc constant, Consumer<? super FieldContextClassFile> remainder) {
             var fieldContext = createField(remainder);
-            classVisitors.add(b -> b.withField(name, descriptor, f -> {
+            emit(b -> b.withField(name, descriptor, f -> {
                 f.withFlags(access);
                 if (signature != null) {
-                    f.with(SignatureAttribute.of(java.lang.classfile.Signature.parseFrom(signature.signature())));
+                    f.with(SignatureAttribute.of(parsed(signature)));
                 }
                 if (constant != null) {
                     f.with(ConstantValueAttribute.of(constant));
@@ -109,25 +224,94 @@ public ClassContextClassFile field(String name, int access, ClassDesc descriptor
 
         @Override
         public byte[] build(int version, int access, ClassDesc name, ClassDesc superName, @Nullable Collection<ClassDesc> interfaces, @Nullable ClassSignature signature) {
+            if (live != null) {
+                throw new IllegalStateException("A streaming class context is built when its consumer returns");
+            }
+            // Slots of the class data added in parallel are only given their final indices once every method is recorded
+            awaitRecorded();
             var classFile = ClassFile.of();
-            return classFile.build(name, cl -> {
+            var keys = new IdentityHashMap<Consumer<ClassBuilder>, MethodCache.MethodKey>();
+            PreviousBuild previous = null;
+            if (methodCache != null) {
+                methods.forEach((visitor, entry) -> {
+                    var key = entry.key();
+                    if (key != null) {
+                        keys.put(visitor, key);
+                    }
+                });
+                if (methodCache.previous instanceof PreviousBuild previousBuild && previousBuild.version() == version && previousBuild.name().equals(name) && previousBuild.superName().equals(superName) && previousBuild.countInvocations() == countInvocations && previousBuild.generation() < MethodCache.MAX_INCREMENTAL_BUILDS) {
+                    previous = previousBuild;
+                }
+            }
+
+            var reused = new IdentityHashMap<Consumer<ClassBuilder>, MethodModel>();
+            if (previous != null) {
+                for (var entry : keys.entrySet()) {
+                    var model = previous.methods().get(entry.getValue());
+                    if (model != null) {
+                        reused.put(entry.getKey(), model);
+                    }
+                }
+            }
+
+            Consumer<ClassBuilder> handler = cl -> {
                 cl.withVersion(version, 0);
                 cl.withSuperclass(superName);
                 if (interfaces != null) {
                     cl.withInterfaceSymbols(interfaces.stream().toList());
                 }
                 if (signature != null) {
-                    cl.with(SignatureAttribute.of(java.lang.classfile.Signature.parseFrom(signature.signature())));
+                    cl.with(SignatureAttribute.of(parsed(signature)));
                 }
-                apply(cl);
-            });
+                for (var visitor : classVisitors) {
+                    var model = reused.get(visitor);
+                    if (model != null) {
+                        cl.with(model);
+                    } else {
+                        visitor.accept(cl);
+                    }
+                }
+            };
+            byte[] bytes;
+            if (reused.isEmpty()) {
+                bytes = classFile.build(name, handler);
+            } else {
+                // Sharing the previous constant pool lets methods from the previous model be copied without being rewritten
+                var pool = ConstantPoolBuilder.of(previous.model());
+                bytes = classFile.build(pool.classEntry(name), pool, handler);
+            }
+
+            if (methodCache != null) {
+                var model = classFile.parse(bytes);
+                var models = new HashMap<String, MethodModel>();
+                for (var method : model.methods()) {
+                    models.put(method.methodName().stringValue() + method.methodType().stringValue(), method);
+                }
+                var built = new HashMap<MethodCache.MethodKey, MethodModel>();
+                for (var key : keys.values()) {
+                    var method = models.get(key.name() + key.descriptor().descriptorString());
+                    if (method != null) {
+                        built.put(key, method);
+                    }
+                }
+                methodCache.previous = new PreviousBuild(version, name, superName, countInvocations, model, Map.copyOf(built), reused.isEmpty() ? 0 : previous.generation() + 1);
+            }
+            return bytes;
         }
 
         public ClassContextClassFile builder(Consumer<ClassBuilder> visitor) {
-            classVisitors.add(visitor);
+            emit(visitor);
             return this;
         }
 
+        private void emit(Consumer<ClassBuilder> visitor) {
+            if (live != null) {
+                visitor.accept(live);
+            } else {
+                classVisitors.add(visitor);
+            }
+        }
+
         public void apply(ClassBuilder classBuilder) {
             for (var visitor : classVisitors) {
                 visitor.accept(classBuilder);
@@ -137,11 +321,22 @@ public void apply(ClassBuilder classBuilder) {
 
     public static final class MethodContextClassFile extends ImplMethodContext<MethodContextClassFile, CodeContextClassFile> {
         private final List<Consumer<MethodBuilder>> methodVisitors = new ArrayList<>();
+        private final List<Object> structure = new ArrayList<>();
+        private boolean opaque;
+        // Set by the class context while building, to code emitted before the method's own
+        private @Nullable CodeContextClassFile prologue;
+        // Set when streaming, to the builder the method is emitted into as soon as it is given rather than recorded
+        private @Nullable MethodBuilder live;
 
         private MethodContextClassFile() {}
 
         public MethodContextClassFile builder(Consumer<MethodBuilder> visitor) {
-            methodVisitors.add(visitor);
+            opaque = true;
+            if (live != null) {
+                visitor.accept(live);
+            } else {
+                methodVisitors.add(visitor);
+            }
             return this;
         }
 
@@ -153,8 +348,26 @@ public void apply(MethodBuilder methodBuilder) {
 
         @Override
         public MethodContextClassFile code(Consumer<? super CodeContextClassFile> consumer) {
+            if (live != null) {
+                live.withCode(cb -> {
+                    if (prologue != null) {
+                        prologue.apply(cb);
+                    }
+                    var codeContext = new CodeContextClassFile();
+                    codeContext.live = cb;
+                    consumer.accept(codeContext);
+                });
+                return this;
+            }
             var codeContext = createCode(consumer);
-            methodVisitors.add(b -> b.withCode(codeContext::apply));
+            structure.add(List.of("code", codeContext.structure));
+            opaque |= codeContext.opaque;
+            methodVisitors.add(b -> b.withCode(cb -> {
+                if (prologue != null) {
+                    prologue.apply(cb);
+                }
+                codeContext.apply(cb);
+            }));
             return this;
         }
     }
@@ -178,11 +391,31 @@ public void apply(FieldBuilder fieldBuilder) {
 
     public static final class CodeContextClassFile extends ImplCodeContext<CodeContextClassFile> {
         private final List<Consumer<CodeBuilder>> codeVisitors = new ArrayList<>();
+        // A structural description of the recorded code, for MethodCache; opaque if escape hatches were used
+        private final List<Object> structure = new ArrayList<>();
+        private boolean opaque;
+        // Set when streaming, to the builder code is emitted into as soon as it is given rather than recorded
+        private @Nullable CodeBuilder live;
 
         private CodeContextClassFile() {}
 
+        private void record(Object... parts) {
+            if (live == null) {
+                structure.add(List.of(parts));
+            }
+        }
+
+        private void emit(Consumer<CodeBuilder> visitor) {
+            if (live != null) {
+                visitor.accept(live);
+            } else {
+                codeVisitors.add(visitor);
+            }
+        }
+
         public CodeContextClassFile builder(Consumer<CodeBuilder> visitor) {
-            codeVisitors.add(visitor);
+            opaque = true;
+            emit(visitor);
             return this;
         }
 
@@ -193,19 +426,22 @@ public void apply(CodeBuilder codeBuilder) {
         }
 
         public CodeContextClassFile instruction(Opcode opcode) {
-            codeVisitors.add(b -> b.accept(OperatorInstruction.of(opcode)));
+            record("instruction", opcode);
+            emit(b -> b.accept(OperatorInstruction.of(opcode)));
             return this;
         }
 
         @Override
         public CodeContextClassFile constant(ConstantDesc constant) {
-            codeVisitors.add(b -> b.loadConstant(constant));
+            record("constant", constant);
+            emit(b -> b.loadConstant(ClassDataTracker.resolve(constant)));
             return this;
         }
 
         @Override
         public CodeContextClassFile load(ClassDesc descriptor, int index) {
-            codeVisitors.add(b -> b.loadLocal(
+            record("load", descriptor, index);
+            emit(b -> b.loadLocal(
                 TypeKind.from(descriptor), index
             ));
             return this;
@@ -213,7 +449,8 @@ public CodeContextClassFile load(ClassDesc descriptor, int index) {
 
         @Override
         public CodeContextClassFile store(ClassDesc descriptor, int index) {
-            codeVisitors.add(b -> b.storeLocal(
+            record("store", descriptor, index);
+            emit(b -> b.storeLocal(
                 TypeKind.from(descriptor), index
             ));
             return this;
@@ -221,7 +458,8 @@ public CodeContextClassFile store(ClassDesc descriptor, int index) {
 
         @Override
         public CodeContextClassFile newArray(ClassDesc descriptor) {
-            codeVisitors.add(b -> {
+            record("newArray", descriptor);
+            emit(b -> {
                 if (descriptor.isPrimitive()) {
                     b.newarray(TypeKind.from(descriptor));
                 } else {
@@ -231,27 +469,59 @@ public CodeContextClassFile newArray(ClassDesc descriptor) {
             return this;
         }
 
+        @Override
+        public CodeContextClassFile arrayLength() {
+            record("arrayLength");
+            emit(CodeBuilder::arraylength);
+            return this;
+        }
+
+        @Override
+        public CodeContextClassFile arrayLoad(ClassDesc descriptor) {
+            record("arrayLoad", descriptor);
+            emit(b -> b.arrayLoad(TypeKind.from(descriptor)));
+            return this;
+        }
+
+        @Override
+        public CodeContextClassFile arrayStore(ClassDesc descriptor) {
+            record("arrayStore", descriptor);
+            emit(b -> b.arrayStore(TypeKind.from(descriptor)));
+            return this;
+        }
+
         @Override
         public CodeContextClassFile instanceOf(ClassDesc descriptor) {
-            codeVisitors.add(b -> b.instanceOf(descriptor));
+            record("instanceOf", descriptor);
+            emit(b -> b.instanceOf(descriptor));
             return this;
         }
 
         @Override
         public CodeContextClassFile checkCast(ClassDesc descriptor) {
-            codeVisitors.add(b -> b.checkcast(descriptor));
+            record("checkCast", descriptor);
+            emit(b -> b.checkcast(descriptor));
             return this;
         }
 
         @Override
         public CodeContextClassFile returnValue(ClassDesc descriptor) {
-            codeVisitors.add(b -> b.return_(TypeKind.from(descriptor)));
+            record("returnValue", descriptor);
+            emit(b -> b.return_(TypeKind.from(descriptor)));
+            return this;
+        }
+
+        @Override
+        public CodeContextClassFile throwException() {
+            record("throwException");
+            emit(CodeBuilder::athrow);
             return this;
         }
 
         @Override
         public CodeContextClassFile field(DirectMethodHandleDesc.Kind operation, ClassDesc owner, String name, ClassDesc descriptor) {
-            codeVisitors.add(b -> b.fieldAccess(switch (operation) {
+            record("field", operation, owner, name, descriptor);
+            emit(b -> b.fieldAccess(switch (operation) {
                 case STATIC_GETTER -> Opcode.GETSTATIC;
                 case STATIC_SETTER -> Opcode.PUTSTATIC;
                 case GETTER -> Opcode.GETFIELD;
@@ -269,7 +539,8 @@ public CodeContextClassFile method(DirectMethodHandleDesc.Kind operation, ClassD
                 }
                 return newInstance(owner, descriptor);
             }
-            codeVisitors.add(b -> b.invoke(switch (operation) {
+            record("method", operation, owner, name, descriptor);
+            emit(b -> b.invoke(switch (operation) {
                 case STATIC, INTERFACE_STATIC -> Opcode.INVOKESTATIC;
                 case VIRTUAL -> Opcode.INVOKEVIRTUAL;
                 case INTERFACE_VIRTUAL -> Opcode.INVOKEINTERFACE;
@@ -281,7 +552,8 @@ public CodeContextClassFile method(DirectMethodHandleDesc.Kind operation, ClassD
 
         @Override
         public CodeContextClassFile newInstance(ClassDesc owner, MethodTypeDesc constructorDescriptor) {
-            codeVisitors.add(b -> {
+            record("newInstance", owner, constructorDescriptor);
+            emit(b -> {
                 b.new_(owner);
                 b.dup();
                 b.invoke(Opcode.INVOKESPECIAL, owner, "<init>", constructorDescriptor, false);
@@ -291,22 +563,22 @@ public CodeContextClassFile newInstance(ClassDesc owner, MethodTypeDesc construc
 
         @Override
         public CodeContextClassFile invokeDynamic(String name, MethodTypeDesc descriptor, DirectMethodHandleDesc bootstrap, Collection<ConstantDesc> bootstrapArguments) {
-            codeVisitors.add(b -> {
-                var args = bootstrapArguments.toArray(ConstantDesc[]::new);
-                b.invokedynamic(DynamicCallSiteDesc.of(
-                    bootstrap, name, descriptor, args
-                ));
-            });
+            var arguments = List.copyOf(bootstrapArguments);
+            record("invokeDynamic", name, descriptor, bootstrap, arguments);
+            emit(b -> b.invokedynamic(DynamicCallSiteDesc.of(
+                bootstrap, name, descriptor, arguments.stream().map(ClassDataTracker::resolve).toArray(ConstantDesc[]::new)
+            )));
             return this;
         }
 
         public CodeContextClassFile jump(Opcode instruction, Consumer<? super CodeContextClassFile> skip) {
-            codeVisitors.add(b -> {
+            var skipContext = createCode(skip);
+            record("jump", instruction, skipContext.structure);
+            opaque |= skipContext.opaque;
+            emit(b -> {
                 Label label = b.newLabel();
                 b.branch(instruction, label);
 
-                BackendClassFile.CodeContextClassFile skipContext = new BackendClassFile.CodeContextClassFile();
-                skip.accept(skipContext);
                 skipContext.apply(b);
 
                 b.labelBinding(label);
@@ -314,9 +586,231 @@ public CodeContextClassFile jump(Opcode instruction, Consumer<? super CodeContex
             return this;
         }
 
+        @Override
+        public CodeContextClassFile ifThenElse(Consumer<? super CodeContext<?>> whenTrue, Consumer<? super CodeContext<?>> whenFalse) {
+            var trueContext = createCode(whenTrue);
+            var falseContext = createCode(whenFalse);
+            record("ifThenElse", trueContext.structure, falseContext.structure);
+            opaque |= trueContext.opaque || falseContext.opaque;
+            emit(b -> {
+                Label otherwise = b.newLabel();
+                Label end = b.newLabel();
+                b.ifeq(otherwise);
+                trueContext.apply(b);
+                b.goto_(end);
+                b.labelBinding(otherwise);
+                falseContext.apply(b);
+                b.labelBinding(end);
+            });
+            return this;
+        }
+
+        @Override
+        public CodeContextClassFile tryCatch(Consumer<? super CodeContext<?>> body, ClassDesc exceptionType, Consumer<? super CodeContext<?>> handler) {
+            var bodyContext = createCode(body);
+            var handlerContext = createCode(handler);
+            record("tryCatch", bodyContext.structure, exceptionType, handlerContext.structure);
+            opaque |= bodyContext.opaque || handlerContext.opaque;
+            emit(b -> {
+                Label start = b.newLabel();
+                Label end = b.newLabel();
+                Label handlerStart = b.newLabel();
+                Label after = b.newLabel();
+                b.labelBinding(start);
+                bodyContext.apply(b);
+                b.labelBinding(end);
+                b.goto_(after);
+                b.labelBinding(handlerStart);
+                handlerContext.apply(b);
+                b.labelBinding(after);
+                // Added after the body, so that blocks nested within it come first in the exception table
+                b.exceptionCatch(start, end, handlerStart, exceptionType);
+            });
+            return this;
+        }
+
+        @Override
+        public CodeContextClassFile countedLoop(int indexLocal, int boundLocal, int stride, Consumer<? super CodeContext<?>> body, @Nullable Consumer<? super CodeContext<?>> remainder) {
+            if (stride < 1 || stride > Short.MAX_VALUE) {
+                throw new IllegalArgumentException("Invalid loop stride: " + stride);
+            }
+            var bodyContext = createCode(body);
+            var remainderContext = remainder == null ? null : createCode(remainder);
+            record("countedLoop", indexLocal, boundLocal, stride, bodyContext.structure, remainderContext == null ? List.of() : List.of(remainderContext.structure));
+            opaque |= bodyContext.opaque || (remainderContext != null && remainderContext.opaque);
+            var peeled = remainderContext != null && stride > 1;
+            emit(b -> {
+                b.istore(boundLocal);
+                b.iconst_0();
+                b.istore(indexLocal);
+                if (peeled) {
+                    b.iinc(boundLocal, 1 - stride);
+                }
+                loop(b, indexLocal, boundLocal, stride, bodyContext);
+                if (remainderContext != null) {
+                    if (peeled) {
+                        b.iinc(boundLocal, stride - 1);
+                    }
+                    loop(b, indexLocal, boundLocal, 1, remainderContext);
+                }
+            });
+            return this;
+        }
+
+        // Emits the same shape javac does for a for loop: the condition at the bottom, entered by a jump
+        private static void loop(CodeBuilder b, int indexLocal, int boundLocal, int stride, CodeContextClassFile body) {
+            Label start = b.newLabel();
+            Label condition = b.newLabel();
+            b.goto_(condition);
+            b.labelBinding(start);
+            body.apply(b);
+            b.iinc(indexLocal, stride);
+            b.labelBinding(condition);
+            b.iload(indexLocal);
+            b.iload(boundLocal);
+            b.if_icmplt(start);
+        }
+
+        @Override
+        CodeContextClassFile switchCases(int[] keys, List<? extends Consumer<? super CodeContext<?>>> cases, Consumer<? super CodeContext<?>> defaultCase, boolean table) {
+            var caseContexts = new ArrayList<CodeContextClassFile>(cases.size());
+            for (var body : cases) {
+                caseContexts.add(createCode(body));
+            }
+            var defaultContext = createCode(defaultCase);
+            record(table ? "tableSwitch" : "lookupSwitch", Arrays.stream(keys).boxed().toList(), caseContexts.stream().map(context -> context.structure).toList(), defaultContext.structure);
+            opaque |= defaultContext.opaque || caseContexts.stream().anyMatch(context -> context.opaque);
+            emit(b -> {
+                Label otherwise = b.newLabel();
+                Label end = b.newLabel();
+                var switchCases = new ArrayList<SwitchCase>(keys.length);
+                for (var key : keys) {
+                    switchCases.add(SwitchCase.of(key, b.newLabel()));
+                }
+                if (table) {
+                    b.tableswitch(keys[0], keys[keys.length - 1], otherwise, switchCases);
+                } else {
+                    b.lookupswitch(otherwise, switchCases);
+                }
+                for (int i = 0; i < keys.length; i++) {
+                    b.labelBinding(switchCases.get(i).target());
+                    caseContexts.get(i).apply(b);
+                    b.goto_(end);
+                }
+                b.labelBinding(otherwise);
+                defaultContext.apply(b);
+                b.labelBinding(end);
+            });
+            return this;
+        }
+
+        @Override
+        CodeContextClassFile inlineCode(CodeContext<?> fragment, int firstLocal) {
+            if (!(fragment instanceof CodeContextClassFile fragmentContext)) {
+                throw new IllegalArgumentException("Cannot inline code from another backend: " + fragment);
+            }
+            record("inline", fragmentContext.structure, firstLocal);
+            opaque |= fragmentContext.opaque;
+            emit(b -> {
+                Label end = b.newLabel();
+                b.transforming(inlining(firstLocal, end), fragmentContext::apply);
+                b.labelBinding(end);
+            });
+            return this;
+        }
+
+        @Override
+        CodeContextClassFile inlineMethod(byte[] classBytes, String name, MethodTypeDesc descriptor, int firstLocal) {
+            record("inlineMethod", ByteBuffer.wrap(classBytes), name, descriptor, firstLocal);
+            var classModel = ClassFile.of(ClassFile.DebugElementsOption.DROP_DEBUG, ClassFile.LineNumbersOption.DROP_LINE_NUMBERS).parse(classBytes);
+            var code = classModel.methods().stream()
+                .filter(method -> method.methodName().equalsString(name) && method.methodType().equalsString(descriptor.descriptorString()))
+                .findFirst()
+                .flatMap(MethodModel::code)
+                .orElseThrow(() -> new IllegalArgumentException("Cannot find code of method " + name + descriptor.descriptorString() + " in " + classModel.thisClass().asInternalName()));
+            emit(b -> {
+                Label end = b.newLabel();
+                b.transforming(inlining(firstLocal, end), inner -> copy(inner, code));
+                b.labelBinding(end);
+            });
+            return this;
+        }
+
+        // Shifts the locals of inlined code and turns its returns into jumps to its end
+        private static CodeTransform inlining(int firstLocal, Label end) {
+            return (b, element) -> {
+                switch (element) {
+                    case LoadInstruction load -> b.loadLocal(load.typeKind(), load.slot() + firstLocal);
+                    case StoreInstruction store -> b.storeLocal(store.typeKind(), store.slot() + firstLocal);
+                    case IncrementInstruction increment -> b.iinc(increment.slot() + firstLocal, increment.constant());
+                    case ReturnInstruction ignored -> b.goto_(end);
+                    case DiscontinuedInstruction ignored -> throw new IllegalArgumentException("Cannot inline code using subroutines");
+                    default -> b.with(element);
+                }
+            };
+        }
+
+        // Copies the instructions of another class's method, with its labels replaced by ones from this builder
+        private static void copy(CodeBuilder b, CodeModel code) {
+            var labels = new HashMap<Label, Label>();
+            Function<Label, Label> mapped = label -> labels.computeIfAbsent(label, ignored -> b.newLabel());
+            for (var element : code) {
+                switch (element) {
+                    case LabelTarget target -> b.labelBinding(mapped.apply(target.label()));
+                    case ExceptionCatch entry -> b.exceptionCatch(mapped.apply(entry.tryStart()), mapped.apply(entry.tryEnd()), mapped.apply(entry.handler()), entry.catchType());
+                    // Debug information refers to the original method's locals and lines
+                    case PseudoInstruction ignored -> {}
+                    case BranchInstruction branch -> b.branch(branch.opcode(), mapped.apply(branch.target()));
+                    case TableSwitchInstruction tableSwitch -> b.tableswitch(
+                        tableSwitch.lowValue(),
+                        tableSwitch.highValue(),
+                        mapped.apply(tableSwitch.defaultTarget()),
+                        tableSwitch.cases().stream().map(switchCase -> SwitchCase.of(switchCase.caseValue(), mapped.apply(switchCase.target()))).toList()
+                    );
+                    case LookupSwitchInstruction lookupSwitch -> b.lookupswitch(
+                        mapped.apply(lookupSwitch.defaultTarget()),
+                        lookupSwitch.cases().stream().map(switchCase -> SwitchCase.of(switchCase.caseValue(), mapped.apply(switchCase.target()))).toList()
+                    );
+                    case DiscontinuedInstruction ignored -> throw new IllegalArgumentException("Cannot inline code using subroutines");
+                    case Instruction instruction -> b.with(instruction);
+                    default -> {}
+                }
+            }
+        }
+
         @Override
         public CodeContextClassFile loadThis() {
-            codeVisitors.add(b -> b.loadLocal(TypeKind.REFERENCE, 0));
+            record("loadThis");
+            emit(b -> b.loadLocal(TypeKind.REFERENCE, 0));
+            return this;
+        }
+
+        @Override
+        public CodeContextClassFile convert(ClassDesc from, ClassDesc to) {
+            record("convert", from, to);
+            var fromKind = TypeKind.from(from);
+            var toKind = TypeKind.from(to);
+            if (fromKind == TypeKind.REFERENCE || fromKind == TypeKind.VOID || toKind == TypeKind.REFERENCE || toKind == TypeKind.VOID) {
+                throw new IllegalArgumentException("Cannot convert from " + from.descriptorString() + " to " + to.descriptorString());
+            }
+            emit(b -> b.conversion(fromKind, toKind));
+            return this;
+        }
+
+        @Override
+        public CodeContextClassFile pop(ClassDesc descriptor) {
+            record("pop", descriptor);
+            var size = TypeKind.from(descriptor).slotSize();
+            if (size == 0) {
+                return this;
+            }
+            emit(b -> {
+                if (size == 2) {
+                    b.pop2();
+                } else {
+                    b.pop();
+                }
+            });
             return this;
         }
     }
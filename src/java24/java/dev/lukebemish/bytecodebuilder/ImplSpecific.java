@@ -1,5 +1,9 @@
 package dev.lukebemish.bytecodebuilder;
 
+import org.jspecify.annotations.Nullable;
+
+import java.lang.constant.ClassDesc;
+import java.util.Collection;
 import java.util.function.Consumer;
 
 non-sealed abstract class ImplClassContext<T extends ImplClassContext<T, F, M>, F extends FieldContext<F>, M extends ImplMethodContext<M, ?>> extends ClassContext<T, F, M> {
@@ -10,6 +14,10 @@
     public static ClassContext<?, ?, ?> create() {
         return BackendClassFile.createClass();
     }
+
+    public static byte[] stream(int version, int access, ClassDesc name, ClassDesc superName, @Nullable Collection<ClassDesc> interfaces, @Nullable ClassSignature signature, Consumer<? super ClassContext<?, ?, ?>> consumer) {
+        return BackendClassFile.streamClass(version, access, name, superName, interfaces, signature, consumer);
+    }
 }
 
 non-sealed abstract class ImplMethodContext<T extends ImplMethodContext<T, C>, C extends ImplCodeContext<C>> extends MethodContext<T, C> {
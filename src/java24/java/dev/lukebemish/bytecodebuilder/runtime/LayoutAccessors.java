@@ -0,0 +1,339 @@
+package dev.lukebemish.bytecodebuilder.runtime;
+
+import dev.lukebemish.bytecodebuilder.ClassContext;
+import dev.lukebemish.bytecodebuilder.CodeContext;
+import dev.lukebemish.bytecodebuilder.Constants;
+import org.jspecify.annotations.Nullable;
+
+import java.lang.constant.ClassDesc;
+import java.lang.constant.ConstantDesc;
+import java.lang.constant.ConstantDescs;
+import java.lang.constant.DirectMethodHandleDesc;
+import java.lang.constant.DynamicConstantDesc;
+import java.lang.constant.MethodTypeDesc;
+import java.lang.foreign.GroupLayout;
+import java.lang.foreign.MemoryLayout;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.SequenceLayout;
+import java.lang.foreign.ValueLayout;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Generates typed accessors of structured off-heap memory, either as {@linkplain #accessors static accessor methods}
+ * or as {@linkplain #view views}. A view implements an interface over a group layout, each of
+ * whose abstract methods accesses the member of the layout with the same name:
+ * <ul>
+ *     <li>{@code T name()} and {@code void name(T value)} read and write a value member whose carrier is {@code T}</li>
+ *     <li>{@code T name(long index)} and {@code void name(long index, T value)} read and write an element of a
+ *     sequence of values</li>
+ *     <li>{@code V name()} and {@code V name(long index)} return a view, of the interface {@code V}, of a nested
+ *     group or of an element of a sequence of groups</li>
+ * </ul>
+ * Each access goes through a var handle for the member, loaded as a constant, which applies the member's offset
+ * within the group computed when the view is generated, so that it folds to a plain memory access once compiled.
+ * Views are generated as hidden classes holding only a segment and the offset of the group, so creating one is cheap
+ * and usually optimized away entirely.
+ * <p>
+ * Generated classes are cached by the class of the lookup they are generated with, so that asking again for the same
+ * type and layout gives the same class.
+ */
+public final class LayoutAccessors {
+    private LayoutAccessors() {}
+
+    private static final ClassDesc CD_MEMORY_LAYOUT = Constants.from(MemoryLayout.class);
+    private static final ClassDesc CD_MEMORY_SEGMENT = Constants.from(MemorySegment.class);
+    private static final MethodTypeDesc VIEW_CONSTRUCTOR = MethodTypeDesc.of(ConstantDescs.CD_void, CD_MEMORY_SEGMENT, ConstantDescs.CD_long);
+
+    private record Shape(int lookupModes, Class<?> type, GroupLayout layout) {}
+
+    private record AccessorShape(int lookupModes, GroupLayout layout) {}
+
+    // Held by the lookup class, so that generated classes are released along with it
+    private static final ClassValue<ConcurrentHashMap<Shape, MethodHandle>> VIEWS = new ClassValue<>() {
+        @Override
+        protected ConcurrentHashMap<Shape, MethodHandle> computeValue(Class<?> type) {
+            return new ConcurrentHashMap<>();
+        }
+    };
+    private static final ClassValue<ConcurrentHashMap<AccessorShape, MethodHandles.Lookup>> ACCESSORS = new ClassValue<>() {
+        @Override
+        protected ConcurrentHashMap<AccessorShape, MethodHandles.Lookup> computeValue(Class<?> type) {
+            return new ConcurrentHashMap<>();
+        }
+    };
+
+    /**
+     * Generates a hidden class of static methods accessing each value reachable from a group layout through named
+     * members, nested groups, and sequences. A value reached through members named {@code a}, {@code b}, and {@code c}
+     * in turn is read by {@code T a$b$c(MemorySegment segment, long offset, long... indices)} and written by
+     * {@code void a$b$c(MemorySegment segment, long offset, long... indices, T value)}, where {@code T} is the carrier
+     * of the value, {@code offset} is the offset of the group within the segment, and there is an index for each
+     * sequence along the way.
+     * @return a lookup on the generated class
+     * @throws IllegalAccessException if the lookup cannot define hidden classes
+     */
+    public static MethodHandles.Lookup accessors(MethodHandles.Lookup lookup, GroupLayout layout) throws IllegalAccessException {
+        var cache = ACCESSORS.get(lookup.lookupClass());
+        var shape = new AccessorShape(lookup.lookupModes(), layout);
+        var existing = cache.get(shape);
+        if (existing != null) {
+            return existing;
+        }
+
+        var accessors = new ArrayList<Accessor>();
+        collect(layout, "", List.of(), 0, accessors);
+        ClassDesc target = GeneratedNames.generatedName(lookup, "$$LayoutAccessors");
+        var hiddenLookup = ClassContext.hidden(
+            lookup,
+            true,
+            Set.of(),
+            65,
+            Modifier.PUBLIC | Modifier.FINAL,
+            target,
+            ConstantDescs.CD_Object,
+            List.of(),
+            null,
+            (context, tracker) -> {
+                var layoutConstant = tracker.dataConstant(CD_MEMORY_LAYOUT, layout);
+                for (var accessor : accessors) {
+                    var coordinates = new ArrayList<ClassDesc>();
+                    coordinates.add(CD_MEMORY_SEGMENT);
+                    coordinates.add(ConstantDescs.CD_long);
+                    for (int i = 0; i < accessor.indices(); i++) {
+                        coordinates.add(ConstantDescs.CD_long);
+                    }
+                    var carrier = Constants.from(accessor.value().carrier());
+                    var handle = Constants.layoutVarHandle(layoutConstant, accessor.path().toArray(ConstantDesc[]::new));
+                    context.method(accessor.name(), Modifier.PUBLIC | Modifier.STATIC, MethodTypeDesc.of(carrier, coordinates), null, null, method -> method.code(code -> {
+                        code.constant(handle);
+                        loadCoordinates(code, coordinates);
+                        code.method(DirectMethodHandleDesc.Kind.VIRTUAL, ConstantDescs.CD_VarHandle, "get", MethodTypeDesc.of(carrier, coordinates));
+                        code.returnValue(carrier);
+                    }));
+                    var setterParameters = new ArrayList<>(coordinates);
+                    setterParameters.add(carrier);
+                    context.method(accessor.name(), Modifier.PUBLIC | Modifier.STATIC, MethodTypeDesc.of(ConstantDescs.CD_void, setterParameters), null, null, method -> method.code(code -> {
+                        code.constant(handle);
+                        loadCoordinates(code, setterParameters);
+                        code.method(DirectMethodHandleDesc.Kind.VIRTUAL, ConstantDescs.CD_VarHandle, "set", MethodTypeDesc.of(ConstantDescs.CD_void, setterParameters));
+                        code.returnValue(ConstantDescs.CD_void);
+                    }));
+                }
+            }
+        );
+        existing = cache.putIfAbsent(shape, hiddenLookup);
+        return existing == null ? hiddenLookup : existing;
+    }
+
+    private record Accessor(String name, List<ConstantDesc> path, int indices, ValueLayout value) {}
+
+    private static void collect(GroupLayout group, String prefix, List<ConstantDesc> path, int indices, List<Accessor> accessors) {
+        for (var member : group.memberLayouts()) {
+            if (member.name().isEmpty()) {
+                continue;
+            }
+            var name = member.name().get();
+            if (name.isEmpty() || name.chars().anyMatch(c -> ".;[/<>".indexOf(c) >= 0)) {
+                throw new IllegalArgumentException("Member name " + name + " of " + group + " cannot name a method");
+            }
+            var memberPath = new ArrayList<>(path);
+            memberPath.add(Constants.groupElement(name));
+            var memberIndices = indices;
+            var element = member;
+            while (element instanceof SequenceLayout sequence) {
+                memberPath.add(Constants.sequenceElement());
+                memberIndices++;
+                element = sequence.elementLayout();
+            }
+            if (element instanceof ValueLayout value) {
+                accessors.add(new Accessor(prefix + name, List.copyOf(memberPath), memberIndices, value));
+            } else if (element instanceof GroupLayout nested) {
+                collect(nested, prefix + name + "$", memberPath, memberIndices, accessors);
+            }
+        }
+    }
+
+    private static void loadCoordinates(CodeContext<?> code, List<ClassDesc> parameters) {
+        var slot = 0;
+        for (var parameter : parameters) {
+            code.load(parameter, slot);
+            slot += Constants.sizeOf(parameter);
+        }
+    }
+
+    /**
+     * Generates a view of a group layout.
+     * @param type the interface the view implements
+     * @return a handle taking a segment and the offset of the group within it, and returning a view of the group there
+     * @throws IllegalAccessException if the lookup cannot access the interface
+     */
+    public static MethodHandle view(MethodHandles.Lookup lookup, Class<?> type, GroupLayout layout) throws IllegalAccessException {
+        lookup.accessClass(type);
+        var cache = VIEWS.get(lookup.lookupClass());
+        var shape = new Shape(lookup.lookupModes(), type, layout);
+        var existing = cache.get(shape);
+        if (existing != null) {
+            return existing;
+        }
+        if (!type.isInterface()) {
+            throw new IllegalArgumentException("Type " + type.getName() + " is not an interface");
+        }
+
+        var members = new HashMap<String, MemoryLayout>();
+        for (var member : layout.memberLayouts()) {
+            member.name().ifPresent(name -> members.put(name, member));
+        }
+        var methods = new HashMap<Method, MethodHandle>();
+        for (var method : type.getMethods()) {
+            if (!Modifier.isAbstract(method.getModifiers())) {
+                continue;
+            }
+            var member = members.get(method.getName());
+            if (member == null) {
+                throw new IllegalArgumentException("Layout " + layout + " has no member named " + method.getName() + " for " + method);
+            }
+            var group = group(member);
+            if (group != null) {
+                // Views of nested groups are created through their constructors, which are hidden from this class
+                if (!method.getReturnType().isInterface()) {
+                    throw new IllegalArgumentException("Method " + method + " must return an interface to view group " + member);
+                }
+                var constructor = view(lookup, method.getReturnType(), group);
+                var offset = member instanceof SequenceLayout
+                    ? layout.byteOffsetHandle(MemoryLayout.PathElement.groupElement(method.getName()), MemoryLayout.PathElement.sequenceElement())
+                    : layout.byteOffsetHandle(MemoryLayout.PathElement.groupElement(method.getName()));
+                var nested = MethodHandles.collectArguments(constructor, 1, offset);
+                methods.put(method, nested.asType(nested.type().changeReturnType(method.getReturnType())));
+            }
+        }
+
+        ClassDesc target = GeneratedNames.generatedName(lookup, "$$LayoutView");
+        var hiddenLookup = ClassContext.hidden(
+            lookup,
+            true,
+            Set.of(),
+            65,
+            Modifier.FINAL,
+            target,
+            ConstantDescs.CD_Object,
+            List.of(Constants.from(type)),
+            null,
+            (context, tracker) -> {
+                var layoutConstant = tracker.dataConstant(CD_MEMORY_LAYOUT, layout);
+                context.field("segment", Modifier.PRIVATE | Modifier.FINAL, CD_MEMORY_SEGMENT, null, null, field -> {});
+                context.field("offset", Modifier.PRIVATE | Modifier.FINAL, ConstantDescs.CD_long, null, null, field -> {});
+
+                context.constructor(
+                    Modifier.PRIVATE,
+                    VIEW_CONSTRUCTOR,
+                    null,
+                    method -> method.code(code -> {
+                        code.loadThis();
+                        code.method(DirectMethodHandleDesc.Kind.SPECIAL, ConstantDescs.CD_Object, "<init>", MethodTypeDesc.of(ConstantDescs.CD_void));
+                        code.loadThis();
+                        code.load(CD_MEMORY_SEGMENT, 1);
+                        code.field(DirectMethodHandleDesc.Kind.SETTER, target, "segment", CD_MEMORY_SEGMENT);
+                        code.loadThis();
+                        code.load(ConstantDescs.CD_long, 2);
+                        code.field(DirectMethodHandleDesc.Kind.SETTER, target, "offset", ConstantDescs.CD_long);
+                        code.returnValue(ConstantDescs.CD_void);
+                    })
+                );
+
+                for (var method : type.getMethods()) {
+                    if (!Modifier.isAbstract(method.getModifiers())) {
+                        continue;
+                    }
+                    var member = members.get(method.getName());
+                    var nested = methods.get(method);
+                    var nestedConstant = nested == null ? null : tracker.dataConstant(ConstantDescs.CD_MethodHandle, nested);
+                    var methodType = MethodType.methodType(method.getReturnType(), method.getParameterTypes());
+                    context.method(
+                        method.getName(),
+                        Modifier.PUBLIC | Modifier.FINAL,
+                        Constants.from(methodType),
+                        null,
+                        null,
+                        m -> m.code(code -> access(code, layoutConstant, target, method, member, nestedConstant))
+                    );
+                }
+            }
+        );
+
+        try {
+            var constructor = hiddenLookup.findConstructor(hiddenLookup.lookupClass(), MethodType.methodType(void.class, MemorySegment.class, long.class));
+            var view = constructor.asType(MethodType.methodType(type, MemorySegment.class, long.class));
+            existing = cache.putIfAbsent(shape, view);
+            return existing == null ? view : existing;
+        } catch (NoSuchMethodException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void access(CodeContext<?> code, DynamicConstantDesc<?> layout, ClassDesc target, Method method, MemoryLayout member, @Nullable DynamicConstantDesc<?> nested) {
+        var parameters = method.getParameterTypes();
+        var returnType = method.getReturnType();
+        var indexed = member instanceof SequenceLayout;
+        var element = member instanceof SequenceLayout sequence ? sequence.elementLayout() : member;
+        var value = element instanceof ValueLayout valueLayout ? valueLayout : null;
+
+        var setter = returnType == void.class;
+        var valid = parameters.length == (indexed ? 1 : 0) + (setter ? 1 : 0) && (!indexed || parameters[0] == long.class);
+        if (value != null) {
+            valid &= (setter ? parameters.length > 0 && parameters[parameters.length - 1] == value.carrier() : returnType == value.carrier());
+        } else {
+            valid &= nested != null && !setter;
+        }
+        if (!valid) {
+            throw new IllegalArgumentException("Method " + method + " does not match member " + member);
+        }
+
+        var coordinates = indexed ? List.of(CD_MEMORY_SEGMENT, ConstantDescs.CD_long, ConstantDescs.CD_long) : List.of(CD_MEMORY_SEGMENT, ConstantDescs.CD_long);
+        if (nested != null) {
+            code.constant(nested);
+        } else {
+            code.constant(indexed
+                ? Constants.layoutVarHandle(layout, Constants.groupElement(method.getName()), Constants.sequenceElement())
+                : Constants.layoutVarHandle(layout, Constants.groupElement(method.getName())));
+        }
+        code.loadThis();
+        code.field(DirectMethodHandleDesc.Kind.GETTER, target, "segment", CD_MEMORY_SEGMENT);
+        code.loadThis();
+        code.field(DirectMethodHandleDesc.Kind.GETTER, target, "offset", ConstantDescs.CD_long);
+        if (indexed) {
+            code.load(ConstantDescs.CD_long, 1);
+        }
+
+        if (nested != null) {
+            code.method(DirectMethodHandleDesc.Kind.VIRTUAL, ConstantDescs.CD_MethodHandle, "invokeExact", MethodTypeDesc.of(Constants.from(returnType), coordinates));
+            code.returnValue(Constants.from(returnType));
+        } else if (setter) {
+            var carrier = Constants.from(value.carrier());
+            code.load(carrier, indexed ? 3 : 1);
+            var arguments = new ArrayList<>(coordinates);
+            arguments.add(carrier);
+            code.method(DirectMethodHandleDesc.Kind.VIRTUAL, ConstantDescs.CD_VarHandle, "set", MethodTypeDesc.of(ConstantDescs.CD_void, arguments));
+            code.returnValue(ConstantDescs.CD_void);
+        } else {
+            var carrier = Constants.from(value.carrier());
+            code.method(DirectMethodHandleDesc.Kind.VIRTUAL, ConstantDescs.CD_VarHandle, "get", MethodTypeDesc.of(carrier, coordinates));
+            code.returnValue(carrier);
+        }
+    }
+
+    private static @Nullable GroupLayout group(MemoryLayout member) {
+        if (member instanceof SequenceLayout sequence) {
+            member = sequence.elementLayout();
+        }
+        return member instanceof GroupLayout group ? group : null;
+    }
+}
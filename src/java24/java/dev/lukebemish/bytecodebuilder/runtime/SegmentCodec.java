@@ -0,0 +1,288 @@
+package dev.lukebemish.bytecodebuilder.runtime;
+
+import dev.lukebemish.bytecodebuilder.ClassContext;
+import dev.lukebemish.bytecodebuilder.ClassDataTracker;
+import dev.lukebemish.bytecodebuilder.CodeContext;
+import dev.lukebemish.bytecodebuilder.Constants;
+
+import java.lang.constant.ClassDesc;
+import java.lang.constant.ConstantDescs;
+import java.lang.constant.DirectMethodHandleDesc;
+import java.lang.constant.MethodTypeDesc;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A binary codec for a record or value class, like {@link RecordCodec} but encoding to and from a memory segment at a
+ * given offset. Primitive components are written unaligned in native byte order without boxing, strings are written
+ * as their UTF-8 length followed by their bytes, and nested records are inlined into their parent. Offsets of
+ * components following only fixed-size components are constants folded into each access.
+ * @param <T> the type encoded
+ */
+public abstract class SegmentCodec<T> {
+    private static final ClassDesc CD_MEMORY_SEGMENT = Constants.from(MemorySegment.class);
+    private static final ClassDesc CD_SEGMENT_CODEC = Constants.from(SegmentCodec.class);
+    private static final ClassDesc CD_VALUE_LAYOUT = Constants.from(ValueLayout.class);
+    private static final ClassDesc CD_LONG = Constants.from(Long.class);
+
+    private record Access(String layout, Class<?> layoutType, long size) {}
+
+    private static final Map<Class<?>, Access> ACCESSES = Map.of(
+        boolean.class, new Access("JAVA_BOOLEAN", ValueLayout.OfBoolean.class, 1),
+        byte.class, new Access("JAVA_BYTE", ValueLayout.OfByte.class, 1),
+        char.class, new Access("JAVA_CHAR_UNALIGNED", ValueLayout.OfChar.class, 2),
+        short.class, new Access("JAVA_SHORT_UNALIGNED", ValueLayout.OfShort.class, 2),
+        int.class, new Access("JAVA_INT_UNALIGNED", ValueLayout.OfInt.class, 4),
+        long.class, new Access("JAVA_LONG_UNALIGNED", ValueLayout.OfLong.class, 8),
+        float.class, new Access("JAVA_FLOAT_UNALIGNED", ValueLayout.OfFloat.class, 4),
+        double.class, new Access("JAVA_DOUBLE_UNALIGNED", ValueLayout.OfDouble.class, 8)
+    );
+
+    protected SegmentCodec() {}
+
+    /**
+     * Encodes a value at an offset of a segment.
+     * @return the offset just past the encoded value
+     */
+    public abstract long encode(T value, MemorySegment segment, long offset);
+
+    /**
+     * Decodes the value encoded at an offset of a segment.
+     */
+    public abstract T decode(MemorySegment segment, long offset);
+
+    /**
+     * {@return the offset just past the value encoded at an offset of a segment}
+     */
+    public abstract long skip(MemorySegment segment, long offset);
+
+    /**
+     * Generates a codec for a record class, accessing it as {@link RecordCodec#of(MethodHandles.Lookup, Class)} does.
+     * @throws IllegalAccessException if the lookup cannot access the record's accessors or canonical constructor
+     */
+    public static <T extends Record> SegmentCodec<T> of(MethodHandles.Lookup lookup, Class<T> type) throws IllegalAccessException {
+        return generate(lookup, RecordCodec.shape(lookup, type, new HashSet<>()));
+    }
+
+    /**
+     * Generates a codec for a value class, given the fields making up its state and a constructor taking those fields'
+     * values in order.
+     * @throws IllegalAccessException if the lookup cannot access the fields or constructor
+     */
+    public static <T> SegmentCodec<T> of(MethodHandles.Lookup lookup, Class<T> type, List<Field> components, Constructor<T> constructor) throws IllegalAccessException {
+        return generate(lookup, RecordCodec.shape(lookup, type, components, constructor));
+    }
+
+    // The offset of the next component is the offset held in a local plus a delta known while generating
+    private static final class Position {
+        private final int local;
+        private long delta;
+
+        private Position(int local) {
+            this.local = local;
+        }
+
+        private void load(CodeContext<?> code) {
+            code.load(ConstantDescs.CD_long, local);
+            if (delta != 0) {
+                code.constant(delta);
+                code.method(DirectMethodHandleDesc.Kind.STATIC, CD_LONG, "sum", MethodTypeDesc.of(ConstantDescs.CD_long, ConstantDescs.CD_long, ConstantDescs.CD_long));
+            }
+        }
+
+        // Stores the offset on the stack, just past a component of unknown size
+        private void reset(CodeContext<?> code) {
+            code.store(ConstantDescs.CD_long, local);
+            delta = 0;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> SegmentCodec<T> generate(MethodHandles.Lookup lookup, RecordCodec.Shape shape) throws IllegalAccessException {
+        ClassDesc target = GeneratedNames.generatedName(lookup, "$$SegmentCodec");
+        var hiddenLookup = ClassContext.hidden(
+            lookup,
+            true,
+            shape.anyDirect() ? Set.of(MethodHandles.Lookup.ClassOption.NESTMATE) : Set.of(),
+            65,
+            Modifier.FINAL,
+            target,
+            CD_SEGMENT_CODEC,
+            List.of(),
+            null,
+            (context, tracker) -> {
+                context.constructor(
+                    Modifier.PRIVATE,
+                    MethodTypeDesc.of(ConstantDescs.CD_void),
+                    null,
+                    method -> method.code(code -> {
+                        code.loadThis();
+                        code.method(DirectMethodHandleDesc.Kind.SPECIAL, CD_SEGMENT_CODEC, "<init>", MethodTypeDesc.of(ConstantDescs.CD_void));
+                        code.returnValue(ConstantDescs.CD_void);
+                    })
+                );
+
+                context.method(
+                    "encode",
+                    Modifier.PUBLIC | Modifier.FINAL,
+                    MethodTypeDesc.of(ConstantDescs.CD_long, ConstantDescs.CD_Object, CD_MEMORY_SEGMENT, ConstantDescs.CD_long),
+                    null,
+                    null,
+                    method -> method.code(code -> {
+                        code.load(ConstantDescs.CD_Object, 1);
+                        code.checkCast(Constants.from(shape.type()));
+                        code.store(Constants.from(shape.type()), 1);
+                        var position = new Position(3);
+                        encode(code, tracker, shape, 1, 5, position);
+                        position.load(code);
+                        code.returnValue(ConstantDescs.CD_long);
+                    })
+                );
+
+                context.method(
+                    "decode",
+                    Modifier.PUBLIC | Modifier.FINAL,
+                    MethodTypeDesc.of(ConstantDescs.CD_Object, CD_MEMORY_SEGMENT, ConstantDescs.CD_long),
+                    null,
+                    null,
+                    method -> method.code(code -> {
+                        decode(code, tracker, shape, new Position(2));
+                        code.returnValue(ConstantDescs.CD_Object);
+                    })
+                );
+
+                context.method(
+                    "skip",
+                    Modifier.PUBLIC | Modifier.FINAL,
+                    MethodTypeDesc.of(ConstantDescs.CD_long, CD_MEMORY_SEGMENT, ConstantDescs.CD_long),
+                    null,
+                    null,
+                    method -> method.code(code -> {
+                        var position = new Position(2);
+                        skip(code, shape, position);
+                        position.load(code);
+                        code.returnValue(ConstantDescs.CD_long);
+                    })
+                );
+            }
+        );
+
+        try {
+            return (SegmentCodec<T>) hiddenLookup.findConstructor(hiddenLookup.lookupClass(), MethodType.methodType(void.class)).invoke();
+        } catch (Throwable t) {
+            throw new IllegalStateException("Could not create codec for " + shape.type().getName(), t);
+        }
+    }
+
+    private static void encode(CodeContext<?> code, ClassDataTracker tracker, RecordCodec.Shape shape, int local, int nextLocal, Position position) {
+        for (var component : shape.components()) {
+            var type = Constants.from(component.type());
+            if (component.nested() != null) {
+                RecordCodec.read(code, tracker, shape, component, local);
+                code.store(type, nextLocal);
+                encode(code, tracker, component.nested(), nextLocal, nextLocal + 1, position);
+            } else if (component.type() == String.class) {
+                code.load(CD_MEMORY_SEGMENT, 2);
+                position.load(code);
+                RecordCodec.read(code, tracker, shape, component, local);
+                code.method(DirectMethodHandleDesc.Kind.STATIC, CD_SEGMENT_CODEC, "putString", MethodTypeDesc.of(ConstantDescs.CD_long, CD_MEMORY_SEGMENT, ConstantDescs.CD_long, ConstantDescs.CD_String));
+                position.reset(code);
+            } else {
+                var access = access(component.type());
+                var layoutType = Constants.from(access.layoutType());
+                code.load(CD_MEMORY_SEGMENT, 2);
+                code.field(DirectMethodHandleDesc.Kind.STATIC_GETTER, CD_VALUE_LAYOUT, access.layout(), layoutType);
+                position.load(code);
+                RecordCodec.read(code, tracker, shape, component, local);
+                code.method(DirectMethodHandleDesc.Kind.INTERFACE_VIRTUAL, CD_MEMORY_SEGMENT, "set", MethodTypeDesc.of(ConstantDescs.CD_void, layoutType, ConstantDescs.CD_long, type));
+                position.delta += access.size();
+            }
+        }
+    }
+
+    private static void decode(CodeContext<?> code, ClassDataTracker tracker, RecordCodec.Shape shape, Position position) {
+        code.constant(tracker.dataConstant(ConstantDescs.CD_MethodHandle, shape.constructor()));
+        for (var component : shape.components()) {
+            var type = Constants.from(component.type());
+            if (component.nested() != null) {
+                decode(code, tracker, component.nested(), position);
+            } else if (component.type() == String.class) {
+                code.load(CD_MEMORY_SEGMENT, 1);
+                position.load(code);
+                code.method(DirectMethodHandleDesc.Kind.STATIC, CD_SEGMENT_CODEC, "getString", MethodTypeDesc.of(ConstantDescs.CD_String, CD_MEMORY_SEGMENT, ConstantDescs.CD_long));
+                skipString(code, position);
+            } else {
+                var access = access(component.type());
+                var layoutType = Constants.from(access.layoutType());
+                code.load(CD_MEMORY_SEGMENT, 1);
+                code.field(DirectMethodHandleDesc.Kind.STATIC_GETTER, CD_VALUE_LAYOUT, access.layout(), layoutType);
+                position.load(code);
+                code.method(DirectMethodHandleDesc.Kind.INTERFACE_VIRTUAL, CD_MEMORY_SEGMENT, "get", MethodTypeDesc.of(type, layoutType, ConstantDescs.CD_long));
+                position.delta += access.size();
+            }
+        }
+        code.method(DirectMethodHandleDesc.Kind.VIRTUAL, ConstantDescs.CD_MethodHandle, "invokeExact", Constants.from(shape.constructor().type()));
+    }
+
+    private static void skip(CodeContext<?> code, RecordCodec.Shape shape, Position position) {
+        for (var component : shape.components()) {
+            if (component.nested() != null) {
+                skip(code, component.nested(), position);
+            } else if (component.type() == String.class) {
+                skipString(code, position);
+            } else {
+                position.delta += access(component.type()).size();
+            }
+        }
+    }
+
+    private static void skipString(CodeContext<?> code, Position position) {
+        code.load(CD_MEMORY_SEGMENT, 1);
+        position.load(code);
+        code.method(DirectMethodHandleDesc.Kind.STATIC, CD_SEGMENT_CODEC, "skipString", MethodTypeDesc.of(ConstantDescs.CD_long, CD_MEMORY_SEGMENT, ConstantDescs.CD_long));
+        position.reset(code);
+    }
+
+    private static Access access(Class<?> type) {
+        var access = ACCESSES.get(type);
+        if (access == null) {
+            throw new IllegalArgumentException("Unsupported component type " + type.getName());
+        }
+        return access;
+    }
+
+    protected static long putString(MemorySegment segment, long offset, String value) {
+        if (value == null) {
+            segment.set(ValueLayout.JAVA_INT_UNALIGNED, offset, -1);
+            return offset + 4;
+        }
+        var bytes = value.getBytes(StandardCharsets.UTF_8);
+        segment.set(ValueLayout.JAVA_INT_UNALIGNED, offset, bytes.length);
+        MemorySegment.copy(bytes, 0, segment, ValueLayout.JAVA_BYTE, offset + 4, bytes.length);
+        return offset + 4 + bytes.length;
+    }
+
+    protected static String getString(MemorySegment segment, long offset) {
+        var length = segment.get(ValueLayout.JAVA_INT_UNALIGNED, offset);
+        if (length == -1) {
+            return null;
+        }
+        var bytes = new byte[length];
+        MemorySegment.copy(segment, ValueLayout.JAVA_BYTE, offset + 4, bytes, 0, length);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    protected static long skipString(MemorySegment segment, long offset) {
+        return offset + 4 + Math.max(0, segment.get(ValueLayout.JAVA_INT_UNALIGNED, offset));
+    }
+}
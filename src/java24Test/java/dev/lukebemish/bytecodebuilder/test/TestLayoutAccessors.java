@@ -0,0 +1,99 @@
+package dev.lukebemish.bytecodebuilder.test;
+
+import dev.lukebemish.bytecodebuilder.runtime.LayoutAccessors;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.GroupLayout;
+import java.lang.foreign.MemoryLayout;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+import static dev.lukebemish.bytecodebuilder.test.Checks.check;
+
+public class TestLayoutAccessors {
+    private static final GroupLayout POINT = MemoryLayout.structLayout(
+        ValueLayout.JAVA_INT.withName("x"),
+        ValueLayout.JAVA_INT.withName("y")
+    );
+
+    private static final GroupLayout SHAPE = MemoryLayout.structLayout(
+        ValueLayout.JAVA_LONG.withName("id"),
+        POINT.withName("origin"),
+        MemoryLayout.sequenceLayout(3, POINT).withName("corners"),
+        MemoryLayout.sequenceLayout(4, ValueLayout.JAVA_DOUBLE).withName("weights")
+    );
+
+    public interface Point {
+        int x();
+        void x(int value);
+        int y();
+        void y(int value);
+    }
+
+    public interface Shape {
+        long id();
+        void id(long value);
+        Point origin();
+        Point corners(long index);
+        double weights(long index);
+        void weights(long index, double value);
+    }
+
+    public static void main(String[] args) throws Throwable {
+        var lookup = MethodHandles.lookup();
+        var view = LayoutAccessors.view(lookup, Shape.class, SHAPE);
+        if (LayoutAccessors.view(lookup, Shape.class, SHAPE) != view) {
+            throw new AssertionError("Expected the view to be reused for the same type and layout");
+        }
+
+        try (var arena = Arena.ofConfined()) {
+            var segment = arena.allocate(SHAPE.byteSize() * 2, SHAPE.byteAlignment());
+            // The second shape checks that the offset of the group is applied
+            var offset = SHAPE.byteSize();
+            var shape = (Shape) view.invokeExact(segment, offset);
+            shape.id(1L << 40);
+            shape.origin().x(3);
+            shape.origin().y(-4);
+            for (int i = 0; i < 3; i++) {
+                shape.corners(i).x(i * 10);
+                shape.corners(i).y(i * 10 + 1);
+            }
+            shape.weights(2, 1.5);
+
+            check(segment.get(ValueLayout.JAVA_LONG, offset), 1L << 40);
+            check(segment.get(ValueLayout.JAVA_INT, offset + 8), 3);
+            check(segment.get(ValueLayout.JAVA_INT, offset + 12), -4);
+            check(segment.get(ValueLayout.JAVA_INT, offset + 16 + 2 * 8 + 4), 21);
+            check(segment.get(ValueLayout.JAVA_DOUBLE, offset + 40 + 2 * 8), 1.5);
+            check(segment.get(ValueLayout.JAVA_LONG, 0), 0L);
+
+            var accessors = LayoutAccessors.accessors(lookup, SHAPE);
+            if (LayoutAccessors.accessors(lookup, SHAPE) != accessors) {
+                throw new AssertionError("Expected the accessors to be reused for the same layout");
+            }
+            var type = accessors.lookupClass();
+            var id = accessors.findStatic(type, "id", MethodType.methodType(long.class, MemorySegment.class, long.class));
+            var originY = accessors.findStatic(type, "origin$y", MethodType.methodType(int.class, MemorySegment.class, long.class));
+            var cornerY = accessors.findStatic(type, "corners$y", MethodType.methodType(int.class, MemorySegment.class, long.class, long.class));
+            var setCornerX = accessors.findStatic(type, "corners$x", MethodType.methodType(void.class, MemorySegment.class, long.class, long.class, int.class));
+            var weight = accessors.findStatic(type, "weights", MethodType.methodType(double.class, MemorySegment.class, long.class, long.class));
+
+            check((long) id.invokeExact(segment, offset), 1L << 40);
+            check((int) originY.invokeExact(segment, offset), -4);
+            check((int) cornerY.invokeExact(segment, offset, 1L), 11);
+            check((double) weight.invokeExact(segment, offset, 2L), 1.5);
+            setCornerX.invokeExact(segment, offset, 1L, 99);
+            check(shape.corners(1).x(), 99);
+        }
+
+        try {
+            LayoutAccessors.view(lookup, Point.class, SHAPE);
+            throw new AssertionError("Expected a layout without the interface's members to be rejected");
+        } catch (IllegalArgumentException expected) {
+            // expected
+        }
+        System.out.println("Accessed memory through generated layout views and accessors");
+    }
+}
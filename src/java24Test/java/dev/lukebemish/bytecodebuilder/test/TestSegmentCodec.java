@@ -0,0 +1,52 @@
+package dev.lukebemish.bytecodebuilder.test;
+
+import dev.lukebemish.bytecodebuilder.runtime.SegmentCodec;
+
+import java.lang.foreign.Arena;
+import java.lang.invoke.MethodHandles;
+import java.util.List;
+
+import static dev.lukebemish.bytecodebuilder.test.Checks.check;
+
+public class TestSegmentCodec {
+    private record Point(int x, int y) {}
+
+    private record Shape(String name, Point origin, boolean filled, double scale, char marker, long id, byte flags) {}
+
+    private static final class Value {
+        private final String label;
+        private final short weight;
+
+        private Value(String label, short weight) {
+            this.label = label;
+            this.weight = weight;
+        }
+    }
+
+    public static void main(String[] args) throws Throwable {
+        var codec = SegmentCodec.of(MethodHandles.lookup(), Shape.class);
+        var shape = new Shape("square", new Point(3, -4), true, 1.5, 'x', 1L << 40, (byte) 7);
+        var empty = new Shape(null, new Point(0, 0), false, 0, ' ', 0, (byte) 0);
+        try (var arena = Arena.ofConfined()) {
+            var segment = arena.allocate(128);
+            var second = codec.encode(shape, segment, 3);
+            var end = codec.encode(empty, segment, second);
+            check(codec.skip(segment, 3), second);
+            check(codec.skip(segment, second), end);
+            check(codec.decode(segment, 3), shape);
+            check(codec.decode(segment, second), empty);
+
+            var valueCodec = SegmentCodec.of(
+                MethodHandles.lookup(),
+                Value.class,
+                List.of(Value.class.getDeclaredField("label"), Value.class.getDeclaredField("weight")),
+                Value.class.getDeclaredConstructor(String.class, short.class)
+            );
+            valueCodec.encode(new Value("heavy", (short) 300), segment, 0);
+            var value = valueCodec.decode(segment, 0);
+            check(value.label, "heavy");
+            check(value.weight, (short) 300);
+        }
+        System.out.println("Round-tripped records through generated segment codecs");
+    }
+}
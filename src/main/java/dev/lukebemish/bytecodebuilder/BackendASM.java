@@ -1,6 +1,9 @@
 package dev.lukebemish.bytecodebuilder;
 
 import org.jspecify.annotations.Nullable;
+import org.objectweb.asm.AnnotationVisitor;
+import org.objectweb.asm.Attribute;
+import org.objectweb.asm.ClassReader;
 import org.objectweb.asm.ClassVisitor;
 import org.objectweb.asm.ClassWriter;
 import org.objectweb.asm.ConstantDynamic;
@@ -10,17 +13,28 @@
 import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.Type;
+import org.objectweb.asm.TypePath;
 
 import java.lang.constant.ClassDesc;
 import java.lang.constant.ConstantDesc;
+import java.lang.constant.ConstantDescs;
 import java.lang.constant.DirectMethodHandleDesc;
 import java.lang.constant.DynamicConstantDesc;
 import java.lang.constant.MethodHandleDesc;
 import java.lang.constant.MethodTypeDesc;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 /**
  * The contents of this class rely on ASM being present at runtime. Note that simply depending on BytecodeBuilder does
@@ -40,6 +54,26 @@ public static ClassContextASM createClass() {
         return new ClassContextASM();
     }
 
+    /**
+     * Builds a class by emitting each member and instruction into a class writer as soon as it is given, rather than
+     * recording the class and replaying it when it is built; see {@link ClassContext#stream}.
+     */
+    public static byte[] streamClass(int version, int access, ClassDesc name, ClassDesc superName, @Nullable Collection<ClassDesc> interfaces, @Nullable ClassSignature signature, Consumer<? super ClassContextASM> consumer) {
+        var previousConversions = CONVERSIONS.get();
+        CONVERSIONS.set(new Conversions());
+        try {
+            var writer = new ClassWriter(ClassWriter.COMPUTE_FRAMES | ClassWriter.COMPUTE_MAXS);
+            writer.visit(version, access, ConstantsASM.internalName(name), signature == null ? null : signature.signature(), ConstantsASM.internalName(superName), interfaces == null ? null : interfaces.stream().map(ConstantsASM::internalName).toArray(String[]::new));
+            var classContext = new ClassContextASM();
+            classContext.live = writer;
+            consumer.accept(classContext);
+            writer.visitEnd();
+            return writer.toByteArray();
+        } finally {
+            CONVERSIONS.set(previousConversions);
+        }
+    }
+
     public static FieldContextASM createField(Consumer<? super FieldContextASM> consumer) {
         var fieldContext = new FieldContextASM();
         consumer.accept(fieldContext);
@@ -70,16 +104,84 @@ public static CodeContextASM createCode() {
         return new CodeContextASM();
     }
 
+    /**
+     * Specializes a generic class compiled by javac, replacing some of its class type variables with primitive types.
+     * Fields, parameters, return values, and locals whose generic type is exactly one of those type variables, or a
+     * one-dimensional array of one, become the primitive type or an array of it; loads, stores, array accesses, and
+     * comparisons of them become their primitive forms, and {@code equals}, {@code hashCode}, {@code compareTo}, and
+     * {@code toString} on them become the static methods of their wrapper type. The generic methods of
+     * {@link java.util.Arrays} taking such arrays become their primitive overloads. Values are boxed where they meet code
+     * expecting a reference. Methods that change descriptor keep their original descriptor as a bridge; a bridge copies
+     * arrays of a replaced type variable element by element to and from their erased form, so writes to such an array
+     * through a bridge are not seen by the other side. Signatures, inner class, and nest attributes are dropped, so nested
+     * classes of the template are not specialized along with it.
+     * @param template the bytes of the generic class
+     * @param name the name of the specialized class; references to the template within it are renamed to this
+     * @param bindings the primitive type to replace each type variable with, by name
+     * @return the bytes of the specialized class
+     * @throws IllegalArgumentException if a binding is not a primitive type or not a type variable of the template, or
+     * if the template uses a value of a specialized type variable in a way that cannot be specialized
+     */
+    public static byte[] specialize(byte[] template, ClassDesc name, Map<String, ClassDesc> bindings) {
+        var types = new HashMap<String, Type>();
+        for (var binding : bindings.entrySet()) {
+            if (!binding.getValue().isPrimitive() || binding.getValue().equals(ConstantDescs.CD_void)) {
+                throw new IllegalArgumentException("Type variable " + binding.getKey() + " must be bound to a primitive type, not " + binding.getValue().displayName());
+            }
+            types.put(binding.getKey(), ConstantsASM.toAsm(binding.getValue()));
+        }
+        var reader = new ClassReader(template);
+        var context = createClass(c -> c.asm(cv -> Specializer.specialize(cv, reader, ConstantsASM.internalName(name), types)));
+        return context.build(
+            reader.readUnsignedShort(6),
+            reader.getAccess(),
+            name,
+            ClassDesc.ofInternalName(reader.getSuperName()),
+            Arrays.stream(reader.getInterfaces()).map(ClassDesc::ofInternalName).toList(),
+            null
+        );
+    }
+
     public static final class ClassContextASM extends ClassContext<ClassContextASM, FieldContextASM, MethodContextASM> {
         private final List<Consumer<ClassVisitor>> classVisitors = new ArrayList<>();
+        private final Map<Consumer<ClassVisitor>, MethodEntry> methods = new IdentityHashMap<>();
+        private @Nullable MethodCache methodCache;
+        // Set when streaming, to the visitor the class is emitted into as soon as it is given rather than recorded
+        private @Nullable ClassVisitor live;
+
+        private record MethodEntry(String name, int access, MethodTypeDesc descriptor, @Nullable MethodSignature signature, @Nullable List<ClassDesc> exceptions, Supplier<MethodContextASM> recorded) {
+            MethodCache.@Nullable MethodKey key() {
+                var context = recorded.get();
+                if (context.opaque) {
+                    return null;
+                }
+                return new MethodCache.MethodKey(name, access, descriptor, signature == null ? null : signature.signature(), exceptions, context.structure);
+            }
+        }
+
+        private record PreviousBuild(int version, ClassDesc name, ClassDesc superName, boolean countInvocations, byte[] bytes, Set<MethodCache.MethodKey> methods, int generation) {}
 
         private ClassContextASM() {}
 
+        @Override
+        public ClassContextASM methodCache(MethodCache cache) {
+            this.methodCache = cache;
+            return this;
+        }
+
         public ClassContextASM asm(Consumer<ClassVisitor> consumer) {
-            classVisitors.add(consumer);
+            emit(consumer);
             return this;
         }
 
+        private void emit(Consumer<ClassVisitor> visitor) {
+            if (live != null) {
+                visitor.accept(live);
+            } else {
+                classVisitors.add(visitor);
+            }
+        }
+
         @Override
         public ClassContextASM constructor(int access, MethodTypeDesc descriptor, @Nullable Collection<ClassDesc> exceptions, Consumer<? super MethodContextASM> remainder) {
             return method("<init>", access, descriptor, null, exceptions, remainder);
@@ -95,13 +197,27 @@ public ClassContextASM method(String name, int access, MethodTypeDesc descriptor
                 }
             }
 
-            var methodContext = createMethod(remainder);
+            if (live != null) {
+                var mv = live.visitMethod(access, name, ConstantsASM.descriptor(descriptor), signature == null ? null : signature.signature(), exceptionsNames);
+                var methodContext = new MethodContextASM();
+                methodContext.live = mv;
+                methodContext.prologue = countInvocations ? createCode(code -> countInvocation(code, name, descriptor)) : null;
+                remainder.accept(methodContext);
+                mv.visitEnd();
+                return this;
+            }
+
+            var recorded = deferredRecording(() -> createMethod(remainder));
 
-            classVisitors.add(cv -> {
-                var mv = cv.visitMethod(access, name, descriptor.descriptorString(), signature == null ? null : signature.signature(), exceptionsNames);
+            Consumer<ClassVisitor> visitor = cv -> {
+                var methodContext = recorded.get();
+                var mv = cv.visitMethod(access, name, ConstantsASM.descriptor(descriptor), signature == null ? null : signature.signature(), exceptionsNames);
+                methodContext.prologue = countInvocations ? createCode(code -> countInvocation(code, name, descriptor)) : null;
                 methodContext.apply(mv);
                 mv.visitEnd();
-            });
+            };
+            classVisitors.add(visitor);
+            methods.put(visitor, new MethodEntry(name, access, descriptor, signature, exceptions == null ? null : List.copyOf(exceptions), recorded));
             return this;
         }
 
@@ -127,7 +243,7 @@ public ClassContextASM field(String name, int access, ClassDesc descriptor, @Nul
 
             var fieldContext = createField(remainder);
 
-            classVisitors.add(cv -> {
+            emit(cv -> {
                 var fv = cv.visitField(access, name, descriptor.descriptorString(), signature == null ? null : signature.signature(), constValue);
                 fieldContext.apply(fv);
                 fv.visitEnd();
@@ -143,11 +259,102 @@ public void apply(ClassVisitor classVisitor) {
 
         @Override
         public byte[] build(int version, int access, ClassDesc name, ClassDesc superName, @Nullable Collection<ClassDesc> interfaces, @Nullable ClassSignature signature) {
-            var cv = new ClassWriter(ClassWriter.COMPUTE_FRAMES | ClassWriter.COMPUTE_MAXS);
-            cv.visit(version, access, ConstantsASM.toAsm(name).getInternalName(), signature == null ? null : signature.signature(), ConstantsASM.toAsm(superName).getInternalName(), interfaces == null ? null : interfaces.stream().map(ConstantsASM::toAsm).map(Type::getInternalName).toArray(String[]::new));
-            apply(cv);
-            cv.visitEnd();
-            return cv.toByteArray();
+            if (live != null) {
+                throw new IllegalStateException("A streaming class context is built when its consumer returns");
+            }
+            // Slots of the class data added in parallel are only given their final indices once every method is recorded
+            awaitRecorded();
+            var previousConversions = CONVERSIONS.get();
+            CONVERSIONS.set(new Conversions());
+            try {
+                var keys = new IdentityHashMap<Consumer<ClassVisitor>, MethodCache.MethodKey>();
+                PreviousBuild previous = null;
+                if (methodCache != null) {
+                    methods.forEach((visitor, entry) -> {
+                        var key = entry.key();
+                        if (key != null) {
+                            keys.put(visitor, key);
+                        }
+                    });
+                    if (methodCache.previous instanceof PreviousBuild previousBuild && previousBuild.version() == version && previousBuild.name().equals(name) && previousBuild.superName().equals(superName) && previousBuild.countInvocations() == countInvocations && previousBuild.generation() < MethodCache.MAX_INCREMENTAL_BUILDS) {
+                        previous = previousBuild;
+                    }
+                }
+
+                var reusable = new HashMap<String, MethodCache.MethodKey>();
+                if (previous != null) {
+                    for (var key : keys.values()) {
+                        if (previous.methods().contains(key)) {
+                            reusable.put(key.name() + ConstantsASM.descriptor(key.descriptor()), key);
+                        }
+                    }
+                }
+                var reader = reusable.isEmpty() ? null : new ClassReader(previous.bytes());
+
+                // Encoded in parallel, each method's frames are computed in its own fragment and copied from there
+                var flags = parallel == null ? ClassWriter.COMPUTE_FRAMES | ClassWriter.COMPUTE_MAXS : 0;
+                // A writer constructed from a reader copies methods read into it unchanged, frames and all
+                var writer = reader == null ? new ClassWriter(flags) : new ClassWriter(reader, flags);
+                writer.visit(version, access, ConstantsASM.internalName(name), signature == null ? null : signature.signature(), ConstantsASM.internalName(superName), interfaces == null ? null : interfaces.stream().map(ConstantsASM::internalName).toArray(String[]::new));
+                var copied = new HashSet<MethodCache.MethodKey>();
+                if (reader != null) {
+                    reader.accept(new ClassVisitor(Opcodes.ASM9) {
+                        @Override
+                        public @Nullable MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+                            var key = reusable.get(name + descriptor);
+                            if (key == null) {
+                                return null;
+                            }
+                            copied.add(key);
+                            return writer.visitMethod(access, name, descriptor, signature, exceptions);
+                        }
+                    }, 0);
+                }
+                var fragments = new ArrayList<Supplier<byte[]>>();
+                for (var visitor : classVisitors) {
+                    var key = keys.get(visitor);
+                    if (key == null || !copied.contains(key)) {
+                        if (parallel == null) {
+                            visitor.accept(writer);
+                        } else {
+                            fragments.add(deferred(() -> fragment(version, access, name, superName, interfaces, visitor)));
+                        }
+                    }
+                }
+                for (var fragment : fragments) {
+                    new ClassReader(fragment.get()).accept(new ClassVisitor(Opcodes.ASM9, writer) {
+                        @Override
+                        public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {}
+
+                        @Override
+                        public void visitEnd() {}
+                    }, 0);
+                }
+                writer.visitEnd();
+                var bytes = writer.toByteArray();
+
+                if (methodCache != null) {
+                    methodCache.previous = new PreviousBuild(version, name, superName, countInvocations, bytes, Set.copyOf(keys.values()), reader == null ? 0 : previous.generation() + 1);
+                }
+                return bytes;
+            } finally {
+                CONVERSIONS.set(previousConversions);
+            }
+        }
+    }
+
+    // Encodes part of a class on its own, so that parts may be encoded concurrently and then copied into the class in order
+    private static byte[] fragment(int version, int access, ClassDesc name, ClassDesc superName, @Nullable Collection<ClassDesc> interfaces, Consumer<ClassVisitor> visitor) {
+        var previousConversions = CONVERSIONS.get();
+        CONVERSIONS.set(new Conversions());
+        try {
+            var writer = new ClassWriter(ClassWriter.COMPUTE_FRAMES | ClassWriter.COMPUTE_MAXS);
+            writer.visit(version, access, ConstantsASM.internalName(name), null, ConstantsASM.internalName(superName), interfaces == null ? null : interfaces.stream().map(ConstantsASM::internalName).toArray(String[]::new));
+            visitor.accept(writer);
+            writer.visitEnd();
+            return writer.toByteArray();
+        } finally {
+            CONVERSIONS.set(previousConversions);
         }
     }
 
@@ -170,18 +377,45 @@ public void apply(FieldVisitor fieldVisitor) {
 
     public static final class MethodContextASM extends MethodContext<MethodContextASM, CodeContextASM> {
         private final List<Consumer<MethodVisitor>> methodVisitors = new ArrayList<>();
+        private final List<Object> structure = new ArrayList<>();
+        private boolean opaque;
+        // Set by the class context while building, to code emitted before the method's own
+        private @Nullable CodeContextASM prologue;
+        // Set when streaming, to the visitor the method is emitted into as soon as it is given rather than recorded
+        private @Nullable MethodVisitor live;
 
         private MethodContextASM() {}
 
         public MethodContextASM asm(Consumer<MethodVisitor> consumer) {
-            methodVisitors.add(consumer);
+            opaque = true;
+            if (live != null) {
+                consumer.accept(live);
+            } else {
+                methodVisitors.add(consumer);
+            }
             return this;
         }
 
         public MethodContextASM code(Consumer<? super CodeContextASM> consumer, int maxStack, int maxLocal) {
+            if (live != null) {
+                live.visitCode();
+                if (prologue != null) {
+                    prologue.apply(live);
+                }
+                var codeContext = new CodeContextASM();
+                codeContext.live = live;
+                consumer.accept(codeContext);
+                live.visitMaxs(maxStack, maxLocal);
+                return this;
+            }
             var codeContext = createCode(consumer);
+            structure.add(List.of("code", codeContext.structure, maxStack, maxLocal));
+            opaque |= codeContext.opaque;
             methodVisitors.add(mv -> {
                 mv.visitCode();
+                if (prologue != null) {
+                    prologue.apply(mv);
+                }
                 codeContext.apply(mv);
                 mv.visitMaxs(maxStack, maxLocal);
             });
@@ -202,22 +436,44 @@ public void apply(MethodVisitor methodVisitor) {
 
     public static final class CodeContextASM extends CodeContext<CodeContextASM> {
         private final List<Consumer<MethodVisitor>> codeVisitors = new ArrayList<>();
+        // A structural description of the recorded code, for MethodCache; opaque if escape hatches were used
+        private final List<Object> structure = new ArrayList<>();
+        private boolean opaque;
+        // Set when streaming, to the visitor code is emitted into as soon as it is given rather than recorded
+        private @Nullable MethodVisitor live;
 
         private CodeContextASM() {}
 
+        private void record(Object... parts) {
+            if (live == null) {
+                structure.add(List.of(parts));
+            }
+        }
+
+        private void emit(Consumer<MethodVisitor> visitor) {
+            if (live != null) {
+                visitor.accept(live);
+            } else {
+                codeVisitors.add(visitor);
+            }
+        }
+
         public CodeContextASM asm(Consumer<MethodVisitor> consumer) {
-            codeVisitors.add(consumer);
+            opaque = true;
+            emit(consumer);
             return this;
         }
 
         public CodeContextASM instruction(int opcode) {
-            codeVisitors.add(mv -> mv.visitInsn(opcode));
+            record("instruction", opcode);
+            emit(mv -> mv.visitInsn(opcode));
             return this;
         }
 
         @Override
         public CodeContextASM constant(ConstantDesc constant) {
-            codeVisitors.add(mv -> {
+            record("constant", constant);
+            emit(mv -> {
                 switch (constant) {
                     case Integer i -> {
                         int iInt = i;
@@ -265,7 +521,13 @@ public CodeContextASM constant(ConstantDesc constant) {
                             mv.visitLdcInsn(d);
                         }
                     }
-                    default -> mv.visitLdcInsn(ConstantsASM.toAsm(constant));
+                    default -> {
+                        if (ConstantDescs.NULL.equals(constant)) {
+                            mv.visitInsn(Opcodes.ACONST_NULL);
+                        } else {
+                            mv.visitLdcInsn(ConstantsASM.toAsm(constant));
+                        }
+                    }
                 }
             });
             return this;
@@ -273,60 +535,95 @@ public CodeContextASM constant(ConstantDesc constant) {
 
         @Override
         public CodeContextASM load(ClassDesc descriptor, int index) {
-            codeVisitors.add(mv -> mv.visitVarInsn(ConstantsASM.toAsm(descriptor).getOpcode(Opcodes.ILOAD), index));
+            record("load", descriptor, index);
+            emit(mv -> mv.visitVarInsn(ConstantsASM.toAsm(descriptor).getOpcode(Opcodes.ILOAD), index));
             return this;
         }
 
         @Override
         public CodeContextASM store(ClassDesc descriptor, int index) {
-            codeVisitors.add(mv -> mv.visitVarInsn(ConstantsASM.toAsm(descriptor).getOpcode(Opcodes.ISTORE), index));
+            record("store", descriptor, index);
+            emit(mv -> mv.visitVarInsn(ConstantsASM.toAsm(descriptor).getOpcode(Opcodes.ISTORE), index));
             return this;
         }
 
         @Override
         public CodeContextASM newArray(ClassDesc descriptor) {
-            codeVisitors.add(mv -> {
+            record("newArray", descriptor);
+            emit(mv -> {
                 if (ConstantsASM.toAsm(descriptor).getSort() <= Type.DOUBLE) {
                     // primitive type
                     mv.visitIntInsn(Opcodes.NEWARRAY, Opcodes.T_BOOLEAN + ConstantsASM.toAsm(descriptor).getSort() - Type.BOOLEAN);
                 } else {
-                    mv.visitTypeInsn(Opcodes.ANEWARRAY, ConstantsASM.toAsm(descriptor).getInternalName());
+                    mv.visitTypeInsn(Opcodes.ANEWARRAY, ConstantsASM.internalName(descriptor));
                 }
             });
             return this;
         }
 
+        @Override
+        public CodeContextASM arrayLength() {
+            record("arrayLength");
+            emit(mv -> mv.visitInsn(Opcodes.ARRAYLENGTH));
+            return this;
+        }
+
+        @Override
+        public CodeContextASM arrayLoad(ClassDesc descriptor) {
+            record("arrayLoad", descriptor);
+            emit(mv -> mv.visitInsn(ConstantsASM.toAsm(descriptor).getOpcode(Opcodes.IALOAD)));
+            return this;
+        }
+
+        @Override
+        public CodeContextASM arrayStore(ClassDesc descriptor) {
+            record("arrayStore", descriptor);
+            emit(mv -> mv.visitInsn(ConstantsASM.toAsm(descriptor).getOpcode(Opcodes.IASTORE)));
+            return this;
+        }
+
         @Override
         public CodeContextASM instanceOf(ClassDesc descriptor) {
-            codeVisitors.add(mv -> mv.visitTypeInsn(Opcodes.INSTANCEOF, ConstantsASM.toAsm(descriptor).getInternalName()));
+            record("instanceOf", descriptor);
+            emit(mv -> mv.visitTypeInsn(Opcodes.INSTANCEOF, ConstantsASM.internalName(descriptor)));
             return this;
         }
 
         @Override
         public CodeContextASM checkCast(ClassDesc descriptor) {
-            codeVisitors.add(mv -> mv.visitTypeInsn(Opcodes.CHECKCAST, ConstantsASM.toAsm(descriptor).getInternalName()));
+            record("checkCast", descriptor);
+            emit(mv -> mv.visitTypeInsn(Opcodes.CHECKCAST, ConstantsASM.internalName(descriptor)));
             return this;
         }
 
         @Override
         public CodeContextASM returnValue(ClassDesc descriptor) {
+            record("returnValue", descriptor);
             if (descriptor.descriptorString().equals("V")) {
-                codeVisitors.add(mv -> mv.visitInsn(Opcodes.RETURN));
+                emit(mv -> mv.visitInsn(Opcodes.RETURN));
                 return this;
             }
-            codeVisitors.add(mv -> mv.visitInsn(ConstantsASM.toAsm(descriptor).getOpcode(Opcodes.IRETURN)));
+            emit(mv -> mv.visitInsn(ConstantsASM.toAsm(descriptor).getOpcode(Opcodes.IRETURN)));
+            return this;
+        }
+
+        @Override
+        public CodeContextASM throwException() {
+            record("throwException");
+            emit(mv -> mv.visitInsn(Opcodes.ATHROW));
             return this;
         }
 
         @Override
         public CodeContextASM field(DirectMethodHandleDesc.Kind operation, ClassDesc owner, String name, ClassDesc descriptor) {
-            codeVisitors.add(mv -> mv.visitFieldInsn(switch (operation) {
+            record("field", operation, owner, name, descriptor);
+            emit(mv -> mv.visitFieldInsn(switch (operation) {
                 case STATIC_GETTER -> Opcodes.GETSTATIC;
                 case STATIC_SETTER -> Opcodes.PUTSTATIC;
                 case GETTER -> Opcodes.GETFIELD;
                 case SETTER -> Opcodes.PUTFIELD;
                 default -> throw new IllegalArgumentException("Invalid field operation: " + operation);
-            }, ConstantsASM.toAsm(owner).getInternalName(), name, descriptor.descriptorString()));
+            }, ConstantsASM.internalName(owner), name, descriptor.descriptorString()));
             return this;
         }
 
@@ -338,39 +635,50 @@ public CodeContextASM method(DirectMethodHandleDesc.Kind operation, ClassDesc ow
                 }
                 return newInstance(owner, descriptor);
             }
-            codeVisitors.add(mv -> mv.visitMethodInsn(switch (operation) {
+            record("method", operation, owner, name, descriptor);
+            emit(mv -> mv.visitMethodInsn(switch (operation) {
                 case STATIC, INTERFACE_STATIC -> Opcodes.INVOKESTATIC;
                 case VIRTUAL -> Opcodes.INVOKEVIRTUAL;
                 case INTERFACE_VIRTUAL -> Opcodes.INVOKEINTERFACE;
                 case SPECIAL, INTERFACE_SPECIAL -> Opcodes.INVOKESPECIAL;
                 default -> throw new IllegalArgumentException("Invalid method operation: " + operation);
-            }, ConstantsASM.toAsm(owner).getInternalName(), name, descriptor.descriptorString(), operation.isInterface));
+            }, ConstantsASM.internalName(owner), name, ConstantsASM.descriptor(descriptor), operation.isInterface));
             return this;
         }
 
         @Override
         public CodeContextASM newInstance(ClassDesc owner, MethodTypeDesc constructorDescriptor) {
-            codeVisitors.add(mv -> {
-                mv.visitTypeInsn(Opcodes.NEW, ConstantsASM.toAsm(owner).getInternalName());
+            record("newInstance", owner, constructorDescriptor);
+            emit(mv -> {
+                mv.visitTypeInsn(Opcodes.NEW, ConstantsASM.internalName(owner));
                 mv.visitInsn(Opcodes.DUP);
-                mv.visitMethodInsn(Opcodes.INVOKESPECIAL, ConstantsASM.toAsm(owner).getInternalName(), "<init>", constructorDescriptor.descriptorString(), false);
+                mv.visitMethodInsn(Opcodes.INVOKESPECIAL, ConstantsASM.internalName(owner), "<init>", ConstantsASM.descriptor(constructorDescriptor), false);
             });
             return this;
         }
 
         @Override
         public CodeContextASM invokeDynamic(String name, MethodTypeDesc descriptor, DirectMethodHandleDesc bootstrap, Collection<ConstantDesc> bootstrapArguments) {
-            codeVisitors.add(mv -> mv.visitInvokeDynamicInsn(name, descriptor.descriptorString(), ConstantsASM.toAsm(bootstrap), bootstrapArguments.stream().map(ConstantsASM::toAsm).toArray()));
+            record("invokeDynamic", name, descriptor, bootstrap, List.copyOf(bootstrapArguments));
+            var arguments = bootstrapArguments.toArray(ConstantDesc[]::new);
+            emit(mv -> {
+                var asmArguments = new Object[arguments.length];
+                for (int i = 0; i < arguments.length; i++) {
+                    asmArguments[i] = ConstantsASM.toAsm(arguments[i]);
+                }
+                mv.visitInvokeDynamicInsn(name, ConstantsASM.descriptor(descriptor), ConstantsASM.toAsm(bootstrap), asmArguments);
+            });
             return this;
         }
 
         public CodeContextASM jump(int instruction, Consumer<? super CodeContextASM> skip) {
-            codeVisitors.add(mv -> {
+            CodeContextASM skipContext = createCode(skip);
+            record("jump", instruction, skipContext.structure);
+            opaque |= skipContext.opaque;
+            emit(mv -> {
                 Label label = new Label();
                 mv.visitJumpInsn(instruction, label);
 
-                CodeContextASM skipContext = new CodeContextASM();
-                skip.accept(skipContext);
                 skipContext.apply(mv);
 
                 mv.visitLabel(label);
@@ -378,9 +686,235 @@ public CodeContextASM jump(int instruction, Consumer<? super CodeContextASM> ski
             return this;
         }
 
+        @Override
+        public CodeContextASM ifThenElse(Consumer<? super CodeContext<?>> whenTrue, Consumer<? super CodeContext<?>> whenFalse) {
+            CodeContextASM trueContext = createCode(whenTrue);
+            CodeContextASM falseContext = createCode(whenFalse);
+            record("ifThenElse", trueContext.structure, falseContext.structure);
+            opaque |= trueContext.opaque || falseContext.opaque;
+            emit(mv -> {
+                Label otherwise = new Label();
+                Label end = new Label();
+                mv.visitJumpInsn(Opcodes.IFEQ, otherwise);
+                trueContext.apply(mv);
+                mv.visitJumpInsn(Opcodes.GOTO, end);
+                mv.visitLabel(otherwise);
+                falseContext.apply(mv);
+                mv.visitLabel(end);
+            });
+            return this;
+        }
+
+        @Override
+        public CodeContextASM tryCatch(Consumer<? super CodeContext<?>> body, ClassDesc exceptionType, Consumer<? super CodeContext<?>> handler) {
+            CodeContextASM bodyContext = createCode(body);
+            CodeContextASM handlerContext = createCode(handler);
+            record("tryCatch", bodyContext.structure, exceptionType, handlerContext.structure);
+            opaque |= bodyContext.opaque || handlerContext.opaque;
+            emit(mv -> {
+                Label start = new Label();
+                Label end = new Label();
+                Label handlerStart = new Label();
+                Label after = new Label();
+                mv.visitLabel(start);
+                bodyContext.apply(mv);
+                mv.visitLabel(end);
+                mv.visitJumpInsn(Opcodes.GOTO, after);
+                mv.visitLabel(handlerStart);
+                handlerContext.apply(mv);
+                mv.visitLabel(after);
+                // Visited after the body, so that blocks nested within it come first in the exception table
+                mv.visitTryCatchBlock(start, end, handlerStart, ConstantsASM.internalName(exceptionType));
+            });
+            return this;
+        }
+
+        @Override
+        public CodeContextASM countedLoop(int indexLocal, int boundLocal, int stride, Consumer<? super CodeContext<?>> body, @Nullable Consumer<? super CodeContext<?>> remainder) {
+            if (stride < 1 || stride > Short.MAX_VALUE) {
+                throw new IllegalArgumentException("Invalid loop stride: " + stride);
+            }
+            CodeContextASM bodyContext = createCode(body);
+            @Nullable CodeContextASM remainderContext = remainder == null ? null : createCode(remainder);
+            record("countedLoop", indexLocal, boundLocal, stride, bodyContext.structure, remainderContext == null ? List.of() : List.of(remainderContext.structure));
+            opaque |= bodyContext.opaque || (remainderContext != null && remainderContext.opaque);
+            var peeled = remainderContext != null && stride > 1;
+            emit(mv -> {
+                mv.visitVarInsn(Opcodes.ISTORE, boundLocal);
+                mv.visitInsn(Opcodes.ICONST_0);
+                mv.visitVarInsn(Opcodes.ISTORE, indexLocal);
+                if (peeled) {
+                    mv.visitIincInsn(boundLocal, 1 - stride);
+                }
+                loop(mv, indexLocal, boundLocal, stride, bodyContext);
+                if (remainderContext != null) {
+                    if (peeled) {
+                        mv.visitIincInsn(boundLocal, stride - 1);
+                    }
+                    loop(mv, indexLocal, boundLocal, 1, remainderContext);
+                }
+            });
+            return this;
+        }
+
+        // Emits the same shape javac does for a for loop: the condition at the bottom, entered by a jump
+        private static void loop(MethodVisitor mv, int indexLocal, int boundLocal, int stride, CodeContextASM body) {
+            Label start = new Label();
+            Label condition = new Label();
+            mv.visitJumpInsn(Opcodes.GOTO, condition);
+            mv.visitLabel(start);
+            body.apply(mv);
+            mv.visitIincInsn(indexLocal, stride);
+            mv.visitLabel(condition);
+            mv.visitVarInsn(Opcodes.ILOAD, indexLocal);
+            mv.visitVarInsn(Opcodes.ILOAD, boundLocal);
+            mv.visitJumpInsn(Opcodes.IF_ICMPLT, start);
+        }
+
         @Override
         public CodeContextASM loadThis() {
-            codeVisitors.add(mv -> mv.visitVarInsn(Opcodes.ALOAD, 0));
+            record("loadThis");
+            emit(mv -> mv.visitVarInsn(Opcodes.ALOAD, 0));
+            return this;
+        }
+
+        @Override
+        public CodeContextASM convert(ClassDesc from, ClassDesc to) {
+            record("convert", from, to);
+            if (!from.isPrimitive() || !to.isPrimitive() || from.descriptorString().equals("V") || to.descriptorString().equals("V")) {
+                throw new IllegalArgumentException("Cannot convert from " + from.descriptorString() + " to " + to.descriptorString());
+            }
+            var fromSort = computationalSort(ConstantsASM.toAsm(from).getSort());
+            var toType = ConstantsASM.toAsm(to).getSort();
+            var toSort = computationalSort(toType);
+            emit(mv -> {
+                if (fromSort != toSort) {
+                    mv.visitInsn(switch (fromSort) {
+                        case Type.INT -> switch (toSort) {
+                            case Type.LONG -> Opcodes.I2L;
+                            case Type.FLOAT -> Opcodes.I2F;
+                            default -> Opcodes.I2D;
+                        };
+                        case Type.LONG -> switch (toSort) {
+                            case Type.INT -> Opcodes.L2I;
+                            case Type.FLOAT -> Opcodes.L2F;
+                            default -> Opcodes.L2D;
+                        };
+                        case Type.FLOAT -> switch (toSort) {
+                            case Type.INT -> Opcodes.F2I;
+                            case Type.LONG -> Opcodes.F2L;
+                            default -> Opcodes.F2D;
+                        };
+                        default -> switch (toSort) {
+                            case Type.INT -> Opcodes.D2I;
+                            case Type.LONG -> Opcodes.D2L;
+                            default -> Opcodes.D2F;
+                        };
+                    });
+                }
+                switch (toType) {
+                    case Type.BOOLEAN -> {
+                        mv.visitInsn(Opcodes.ICONST_1);
+                        mv.visitInsn(Opcodes.IAND);
+                    }
+                    case Type.BYTE -> mv.visitInsn(Opcodes.I2B);
+                    case Type.CHAR -> mv.visitInsn(Opcodes.I2C);
+                    case Type.SHORT -> mv.visitInsn(Opcodes.I2S);
+                    default -> {}
+                }
+            });
+            return this;
+        }
+
+        private static int computationalSort(int sort) {
+            return switch (sort) {
+                case Type.BOOLEAN, Type.BYTE, Type.CHAR, Type.SHORT, Type.INT -> Type.INT;
+                default -> sort;
+            };
+        }
+
+        @Override
+        public CodeContextASM pop(ClassDesc descriptor) {
+            record("pop", descriptor);
+            var size = Constants.sizeOf(descriptor);
+            if (size == 0) {
+                return this;
+            }
+            emit(mv -> mv.visitInsn(size == 2 ? Opcodes.POP2 : Opcodes.POP));
+            return this;
+        }
+
+        @Override
+        CodeContextASM switchCases(int[] keys, List<? extends Consumer<? super CodeContext<?>>> cases, Consumer<? super CodeContext<?>> defaultCase, boolean table) {
+            var caseContexts = new ArrayList<CodeContextASM>(cases.size());
+            for (var body : cases) {
+                caseContexts.add(createCode(body));
+            }
+            CodeContextASM defaultContext = createCode(defaultCase);
+            record(table ? "tableSwitch" : "lookupSwitch", Arrays.stream(keys).boxed().toList(), caseContexts.stream().map(context -> context.structure).toList(), defaultContext.structure);
+            opaque |= defaultContext.opaque || caseContexts.stream().anyMatch(context -> context.opaque);
+            emit(mv -> {
+                Label otherwise = new Label();
+                Label end = new Label();
+                var labels = new Label[keys.length];
+                for (int i = 0; i < labels.length; i++) {
+                    labels[i] = new Label();
+                }
+                if (table) {
+                    mv.visitTableSwitchInsn(keys[0], keys[keys.length - 1], otherwise, labels);
+                } else {
+                    mv.visitLookupSwitchInsn(otherwise, keys, labels);
+                }
+                for (int i = 0; i < labels.length; i++) {
+                    mv.visitLabel(labels[i]);
+                    caseContexts.get(i).apply(mv);
+                    mv.visitJumpInsn(Opcodes.GOTO, end);
+                }
+                mv.visitLabel(otherwise);
+                defaultContext.apply(mv);
+                mv.visitLabel(end);
+            });
+            return this;
+        }
+
+        @Override
+        CodeContextASM inlineCode(CodeContext<?> fragment, int firstLocal) {
+            if (!(fragment instanceof CodeContextASM fragmentContext)) {
+                throw new IllegalArgumentException("Cannot inline code from another backend: " + fragment);
+            }
+            record("inline", fragmentContext.structure, firstLocal);
+            opaque |= fragmentContext.opaque;
+            emit(mv -> {
+                Label end = new Label();
+                fragmentContext.apply(new InliningVisitor(mv, firstLocal, end));
+                mv.visitLabel(end);
+            });
+            return this;
+        }
+
+        @Override
+        CodeContextASM inlineMethod(byte[] classBytes, String name, MethodTypeDesc descriptor, int firstLocal) {
+            record("inlineMethod", ByteBuffer.wrap(classBytes), name, descriptor, firstLocal);
+            var reader = new ClassReader(classBytes);
+            var methodDescriptor = descriptor.descriptorString();
+            emit(mv -> {
+                Label end = new Label();
+                var found = new boolean[1];
+                reader.accept(new ClassVisitor(Opcodes.ASM9) {
+                    @Override
+                    public @Nullable MethodVisitor visitMethod(int access, String methodName, String methodDesc, String signature, String[] exceptions) {
+                        if (methodName.equals(name) && methodDesc.equals(methodDescriptor)) {
+                            found[0] = true;
+                            return new InliningVisitor(mv, firstLocal, end);
+                        }
+                        return null;
+                    }
+                }, ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+                if (!found[0]) {
+                    throw new IllegalArgumentException("Cannot find method " + name + methodDescriptor + " in " + reader.getClassName());
+                }
+                mv.visitLabel(end);
+            });
             return this;
         }
 
@@ -391,6 +925,122 @@ public void apply(MethodVisitor methodVisitor) {
         }
     }
 
+    // Forwards only the instructions of a method body, shifting its locals and turning its returns into jumps to its end
+    private static final class InliningVisitor extends MethodVisitor {
+        private final int firstLocal;
+        private final Label end;
+
+        private InliningVisitor(MethodVisitor methodVisitor, int firstLocal, Label end) {
+            super(Opcodes.ASM9, methodVisitor);
+            this.firstLocal = firstLocal;
+            this.end = end;
+        }
+
+        @Override
+        public void visitInsn(int opcode) {
+            if (opcode >= Opcodes.IRETURN && opcode <= Opcodes.RETURN) {
+                super.visitJumpInsn(Opcodes.GOTO, end);
+            } else {
+                super.visitInsn(opcode);
+            }
+        }
+
+        @Override
+        public void visitVarInsn(int opcode, int varIndex) {
+            if (opcode == Opcodes.RET) {
+                throw new IllegalArgumentException("Cannot inline code using subroutines");
+            }
+            super.visitVarInsn(opcode, varIndex + firstLocal);
+        }
+
+        @Override
+        public void visitIincInsn(int varIndex, int increment) {
+            super.visitIincInsn(varIndex + firstLocal, increment);
+        }
+
+        @Override
+        public void visitJumpInsn(int opcode, Label label) {
+            if (opcode == Opcodes.JSR) {
+                throw new IllegalArgumentException("Cannot inline code using subroutines");
+            }
+            super.visitJumpInsn(opcode, label);
+        }
+
+        @Override
+        public void visitParameter(String name, int access) {}
+
+        @Override
+        public @Nullable AnnotationVisitor visitAnnotationDefault() {
+            return null;
+        }
+
+        @Override
+        public @Nullable AnnotationVisitor visitAnnotation(String descriptor, boolean visible) {
+            return null;
+        }
+
+        @Override
+        public @Nullable AnnotationVisitor visitTypeAnnotation(int typeRef, TypePath typePath, String descriptor, boolean visible) {
+            return null;
+        }
+
+        @Override
+        public void visitAnnotableParameterCount(int parameterCount, boolean visible) {}
+
+        @Override
+        public @Nullable AnnotationVisitor visitParameterAnnotation(int parameter, String descriptor, boolean visible) {
+            return null;
+        }
+
+        @Override
+        public void visitAttribute(Attribute attribute) {}
+
+        @Override
+        public void visitCode() {}
+
+        @Override
+        public void visitFrame(int type, int numLocal, Object[] local, int numStack, Object[] stack) {}
+
+        @Override
+        public @Nullable AnnotationVisitor visitInsnAnnotation(int typeRef, TypePath typePath, String descriptor, boolean visible) {
+            return null;
+        }
+
+        @Override
+        public @Nullable AnnotationVisitor visitTryCatchAnnotation(int typeRef, TypePath typePath, String descriptor, boolean visible) {
+            return null;
+        }
+
+        @Override
+        public void visitLocalVariable(String name, String descriptor, String signature, Label start, Label end, int index) {}
+
+        @Override
+        public @Nullable AnnotationVisitor visitLocalVariableAnnotation(int typeRef, TypePath typePath, Label[] start, Label[] end, int[] index, String descriptor, boolean visible) {
+            return null;
+        }
+
+        @Override
+        public void visitLineNumber(int line, Label start) {}
+
+        @Override
+        public void visitMaxs(int maxStack, int maxLocals) {}
+
+        @Override
+        public void visitEnd() {}
+    }
+
+    /**
+     * Identity-keyed cache of conversions from constant descriptors to their ASM counterparts, scoped to a single
+     * {@link ClassContextASM#build} so that the same descriptor object is only converted once per class.
+     */
+    private static final class Conversions {
+        private final IdentityHashMap<Object, Object> asm = new IdentityHashMap<>();
+        private final IdentityHashMap<ClassDesc, String> internalNames = new IdentityHashMap<>();
+        private final IdentityHashMap<MethodTypeDesc, String> descriptors = new IdentityHashMap<>();
+    }
+
+    private static final ThreadLocal<@Nullable Conversions> CONVERSIONS = new ThreadLocal<>();
+
     public static final class ConstantsASM {
         private ConstantsASM() {}
 
@@ -438,27 +1088,37 @@ public static DynamicConstantDesc<?> from(ConstantDynamic constantDynamic) {
         }
 
         public static Type toAsm(ClassDesc classDesc) {
-            return Type.getType(classDesc.descriptorString());
+            return convert(classDesc, d -> Type.getType(d.descriptorString()));
         }
 
         public static Type toAsm(MethodTypeDesc methodTypeDesc) {
-            return Type.getMethodType(methodTypeDesc.descriptorString());
+            return convert(methodTypeDesc, d -> Type.getMethodType(d.descriptorString()));
         }
 
         public static Handle toAsm(DirectMethodHandleDesc methodHandleDesc) {
-            return new Handle(
-                methodHandleDesc.kind().refKind,
-                Type.getType(methodHandleDesc.owner().descriptorString()).getInternalName(),
-                methodHandleDesc.methodName(),
-                methodHandleDesc.lookupDescriptor(),
-                methodHandleDesc.kind().isInterface
-            );
+            return convert(methodHandleDesc, d -> new Handle(
+                d.kind().refKind,
+                internalName(d.owner()),
+                d.methodName(),
+                d.lookupDescriptor(),
+                d.kind().isInterface
+            ));
         }
 
         public static ConstantDynamic toAsm(DynamicConstantDesc<?> dynamicConstantDesc) {
-            Object[] args = dynamicConstantDesc.bootstrapArgsList().stream()
-                .map(ConstantsASM::toAsm)
-                .toArray(Object[]::new);
+            // Primitive class descriptors are dynamic constants too, but are cached as types by toAsm(ClassDesc)
+            if (dynamicConstantDesc instanceof ClassDesc) {
+                return toConstantDynamic(dynamicConstantDesc);
+            }
+            return convert(dynamicConstantDesc, d -> toConstantDynamic(d instanceof ClassDataTracker.Slot slot ? slot.resolved() : d));
+        }
+
+        private static ConstantDynamic toConstantDynamic(DynamicConstantDesc<?> dynamicConstantDesc) {
+            var bootstrapArgs = dynamicConstantDesc.bootstrapArgs();
+            Object[] args = new Object[bootstrapArgs.length];
+            for (int i = 0; i < args.length; i++) {
+                args[i] = toAsm(bootstrapArgs[i]);
+            }
             return new ConstantDynamic(
                 dynamicConstantDesc.constantName(),
                 dynamicConstantDesc.constantType().descriptorString(),
@@ -467,6 +1127,45 @@ public static ConstantDynamic toAsm(DynamicConstantDesc<?> dynamicConstantDesc)
             );
         }
 
+        static String internalName(ClassDesc classDesc) {
+            var conversions = CONVERSIONS.get();
+            if (conversions == null) {
+                return toAsm(classDesc).getInternalName();
+            }
+            var internalName = conversions.internalNames.get(classDesc);
+            if (internalName == null) {
+                internalName = toAsm(classDesc).getInternalName();
+                conversions.internalNames.put(classDesc, internalName);
+            }
+            return internalName;
+        }
+
+        static String descriptor(MethodTypeDesc methodTypeDesc) {
+            var conversions = CONVERSIONS.get();
+            if (conversions == null) {
+                return methodTypeDesc.descriptorString();
+            }
+            var descriptor = conversions.descriptors.get(methodTypeDesc);
+            if (descriptor == null) {
+                descriptor = methodTypeDesc.descriptorString();
+                conversions.descriptors.put(methodTypeDesc, descriptor);
+            }
+            return descriptor;
+        }
+
+        private static <D, A> A convert(D desc, Function<D, A> conversion) {
+            var conversions = CONVERSIONS.get();
+            if (conversions == null) {
+                return conversion.apply(desc);
+            }
+            @SuppressWarnings("unchecked") var converted = (A) conversions.asm.get(desc);
+            if (converted == null) {
+                converted = conversion.apply(desc);
+                conversions.asm.put(desc, converted);
+            }
+            return converted;
+        }
+
         public static Object toAsm(ConstantDesc constantDesc) {
             return switch (constantDesc) {
                 case DynamicConstantDesc<?> dynamicConstantDesc -> toAsm(dynamicConstantDesc);
@@ -1,17 +1,73 @@
 package dev.lukebemish.bytecodebuilder;
 
+import dev.lukebemish.bytecodebuilder.aot.PregeneratedClasses;
 import org.jspecify.annotations.Nullable;
 
 import java.lang.constant.ClassDesc;
 import java.lang.constant.ConstantDesc;
+import java.lang.constant.ConstantDescs;
+import java.lang.constant.DirectMethodHandleDesc;
+import java.lang.constant.DynamicConstantDesc;
 import java.lang.constant.MethodTypeDesc;
 import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 public abstract sealed class ClassContext<T extends ClassContext<T, F, M>, F extends FieldContext<F>, M extends MethodContext<M, ?>> permits ImplClassContext, BackendASM.ClassContextASM {
+    private static final ClassDesc CD_LONG_ADDER = ClassDesc.of("java.util.concurrent.atomic.LongAdder");
+    private static final DirectMethodHandleDesc COUNTER_BOOTSTRAP = ConstantDescs.ofConstantBootstrap(
+        ClassDesc.of("dev.lukebemish.bytecodebuilder.runtime.InvocationCounters"),
+        "counter",
+        CD_LONG_ADDER,
+        ConstantDescs.CD_String
+    );
+
+    // Held separately so that the executor's threads are only set up once something is generated asynchronously
+    private static final class Generation {
+        private static final Executor EXECUTOR;
+
+        static {
+            var threads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+            var executor = new ThreadPoolExecutor(
+                threads,
+                threads,
+                30,
+                TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(),
+                Thread.ofPlatform().daemon().name("BytecodeBuilder-generator-", 0).factory()
+            );
+            executor.allowCoreThreadTimeOut(true);
+            EXECUTOR = executor;
+        }
+    }
+
+    boolean countInvocations = Boolean.getBoolean("dev.lukebemish.bytecodebuilder.countInvocations");
+    @Nullable Executor parallel;
+    // Set by the tracker of the class data of the class being generated, if there is one
+    @Nullable ClassDataTracker classData;
+    // Methods recorded in parallel, in declaration order, and how many of them from the start are known to be recorded
+    private final List<Supplier<?>> recording = Collections.synchronizedList(new ArrayList<>());
+    private final AtomicInteger recorded = new AtomicInteger();
+
     protected ClassContext() {}
 
     public abstract ClassContext<T, F, M> constructor(int access, MethodTypeDesc descriptor, @Nullable Collection<ClassDesc> exceptions, Consumer<? super M> remainder);
@@ -20,6 +76,108 @@ protected ClassContext() {}
 
     public abstract ClassContext<T, F, M> field(String name, int access, ClassDesc descriptor, @Nullable Signature signature, @Nullable ConstantDesc constant, Consumer<? super F> remainder);
 
+    /**
+     * Attaches a cache that {@link #build} will reuse the encoded form of unchanged methods from, and record the methods
+     * it builds into.
+     * @see MethodCache
+     */
+    public abstract ClassContext<T, F, M> methodCache(MethodCache cache);
+
+    /**
+     * Sets whether methods built by this context should increment a counter on entry, which can be read back through
+     * {@link dev.lukebemish.bytecodebuilder.runtime.InvocationCounters}. Only code given through
+     * {@link MethodContext#code} is counted. Defaults to the value of the
+     * {@code dev.lukebemish.bytecodebuilder.countInvocations} system property, or off if it is not set.
+     */
+    public final ClassContext<T, F, M> countInvocations(boolean countInvocations) {
+        this.countInvocations = countInvocations;
+        return this;
+    }
+
+    /**
+     * Sets an executor to record the methods of this context on concurrently, each as soon as it is declared, rather
+     * than recording each on the declaring thread. Where the backend supports it, {@link #build} also encodes methods
+     * concurrently. Methods still appear in the built class in the order they were declared. The consumers given to
+     * {@link #method} and {@link #constructor} must then be safe to run concurrently with each other and with the rest
+     * of the declaring code; {@link ClassDataTracker} is, and still orders slots by declaration, so the class built is
+     * the same as if methods were recorded serially. To do so, each method adds to slots of its own without waiting for
+     * any other, which are only given their final indices once every method is recorded. Work the executor has not
+     * started by the time it is needed is run by the thread needing it, so the executor may be bounded or shared with
+     * that thread. Defaults to {@code null}, recording methods serially.
+     */
+    public final ClassContext<T, F, M> parallel(@Nullable Executor executor) {
+        this.parallel = executor;
+        return this;
+    }
+
+    // Records a method on the parallel executor if there is one, or immediately otherwise
+    final <R> Supplier<R> deferredRecording(Supplier<R> work) {
+        if (parallel == null) {
+            return deferred(work);
+        }
+        var segment = classData == null ? null : classData.methodSegment();
+        Supplier<R> result = deferred(() -> {
+            var previous = ClassDataTracker.RECORDING.get();
+            ClassDataTracker.RECORDING.set(segment);
+            try {
+                return work.get();
+            } finally {
+                ClassDataTracker.RECORDING.set(previous);
+            }
+        });
+        recording.add(result);
+        return result;
+    }
+
+    // Waits for the first count methods declared to be recorded, running any not yet started on this thread
+    private void awaitRecorded(int count) {
+        for (int i = recorded.get(); i < count; i++) {
+            recording.get(i).get();
+            recorded.accumulateAndGet(i + 1, Math::max);
+        }
+    }
+
+    // Waits for every method declared so far to be recorded
+    final void awaitRecorded() {
+        awaitRecorded(recording.size());
+    }
+
+    // Runs work on the parallel executor if there is one, or immediately otherwise
+    final <R> Supplier<R> deferred(Supplier<R> work) {
+        var executor = parallel;
+        if (executor == null) {
+            var result = work.get();
+            return () -> result;
+        }
+        var task = new FutureTask<>(work::get);
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException ignored) {
+            // Run by the building thread instead
+        }
+        return () -> {
+            task.run();
+            try {
+                return task.get();
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException runtimeException) {
+                    throw runtimeException;
+                } else if (e.getCause() instanceof Error error) {
+                    throw error;
+                }
+                throw new IllegalStateException(e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(e);
+            }
+        };
+    }
+
+    static void countInvocation(CodeContext<?> code, String name, MethodTypeDesc descriptor) {
+        code.constant(DynamicConstantDesc.ofNamed(COUNTER_BOOTSTRAP, name, CD_LONG_ADDER, descriptor.descriptorString()));
+        code.method(DirectMethodHandleDesc.Kind.VIRTUAL, CD_LONG_ADDER, "increment", MethodTypeDesc.of(ConstantDescs.CD_void));
+    }
+
     public abstract byte[] build(int version, int access, ClassDesc name, ClassDesc superName, @Nullable Collection<ClassDesc> interfaces, @Nullable ClassSignature signature);
 
     public static ClassContext<?, ?, ?> create(Consumer<? super ClassContext<?, ?, ?>> consumer) {
@@ -30,17 +188,158 @@ protected ClassContext() {}
         return ImplClassContext.create();
     }
 
+    /**
+     * Builds a class in one pass, emitting each member and instruction into the backend's class writer as soon as it is
+     * given, rather than recording the whole class and replaying it when it is built. Memory use then stays flat however
+     * large the class is, and encoding overlaps with generation instead of following it. As the header is written
+     * first, it must be known up front, and the class is built when the consumer returns; the context given to the
+     * consumer must not be used afterwards, and its {@link #build} must not be called. Nested constructs such as
+     * {@link CodeContext#ifThenElse} are still recorded until they are complete. Settings that rely on the whole class
+     * having been recorded, such as {@link #methodCache} and {@link #parallel}, have no effect.
+     * @return the built class
+     */
+    public static byte[] stream(int version, int access, ClassDesc name, ClassDesc superName, @Nullable Collection<ClassDesc> interfaces, @Nullable ClassSignature signature, Consumer<? super ClassContext<?, ?, ?>> consumer) {
+        return ImplClassContext.stream(version, access, name, superName, interfaces, signature, consumer);
+    }
+
+    /**
+     * Like {@link #hidden(MethodHandles.Lookup, boolean, Set, int, int, ClassDesc, ClassDesc, Collection, ClassSignature, BiConsumer)},
+     * but first checks for a class generated ahead of time under the given key by a
+     * {@link dev.lukebemish.bytecodebuilder.aot.ClassGenerator}, only spinning a hidden class if none is found. A class
+     * found is an ordinary named class, whose name and header are those it was generated with rather than those given
+     * here, and which the options do not apply to. As it cannot be a nestmate of the lookup class or carry class data,
+     * neither may the class spun in its place.
+     * @throws IllegalArgumentException if the options include {@link MethodHandles.Lookup.ClassOption#NESTMATE}, or if
+     * the consumer adds to the class data
+     */
+    public static MethodHandles.Lookup hidden(String pregeneratedKey, MethodHandles.Lookup lookup, boolean initialize, Set<MethodHandles.Lookup.ClassOption> options, int version, int access, ClassDesc name, ClassDesc superName, @Nullable Collection<ClassDesc> interfaces, @Nullable ClassSignature signature, BiConsumer<? super ClassContext<?, ?, ?>, ClassDataTracker> consumer) throws IllegalAccessException {
+        if (options.contains(MethodHandles.Lookup.ClassOption.NESTMATE)) {
+            throw new IllegalArgumentException("Class pre-generated under key " + pregeneratedKey + " cannot be a nestmate of the lookup class");
+        }
+        var pregenerated = PregeneratedClasses.find(lookup, pregeneratedKey, initialize);
+        if (pregenerated != null) {
+            return pregenerated;
+        }
+        return spin(pregeneratedKey, lookup, initialize, options, version, access, name, superName, interfaces, signature, consumer);
+    }
+
     public static MethodHandles.Lookup hidden(MethodHandles.Lookup lookup, boolean initialize, Set<MethodHandles.Lookup.ClassOption> options, int version, int access, ClassDesc name, ClassDesc superName, @Nullable Collection<ClassDesc> interfaces, @Nullable ClassSignature signature, BiConsumer<? super ClassContext<?, ?, ?>, ClassDataTracker> consumer) throws IllegalAccessException {
+        return spin(null, lookup, initialize, options, version, access, name, superName, interfaces, signature, consumer);
+    }
+
+    // Spins a hidden class; one spun in place of a pre-generated class may not add to its class data
+    private static MethodHandles.Lookup spin(@Nullable String pregeneratedKey, MethodHandles.Lookup lookup, boolean initialize, Set<MethodHandles.Lookup.ClassOption> options, int version, int access, ClassDesc name, ClassDesc superName, @Nullable Collection<ClassDesc> interfaces, @Nullable ClassSignature signature, BiConsumer<? super ClassContext<?, ?, ?>, ClassDataTracker> consumer) throws IllegalAccessException {
         var context = create();
-        var tracker = new ClassDataTracker();
+        var tracker = new ClassDataTracker(context, pregeneratedKey);
         consumer.accept(context, tracker);
 
         var bytes = context.build(version, access, name, superName, interfaces, signature);
 
-        if (tracker.data.isEmpty()) {
+        var data = tracker.values();
+        if (data.isEmpty()) {
             return lookup.defineHiddenClass(bytes, initialize, options.toArray(MethodHandles.Lookup.ClassOption[]::new));
         } else {
-            return lookup.defineHiddenClassWithClassData(bytes, tracker.data.stream().map(ClassDataTracker.DataValue::resolve).toList(), initialize, options.toArray(MethodHandles.Lookup.ClassOption[]::new));
+            return lookup.defineHiddenClassWithClassData(bytes, data.stream().map(ClassDataTracker.DataValue::resolve).toList(), initialize, options.toArray(MethodHandles.Lookup.ClassOption[]::new));
+        }
+    }
+
+    /**
+     * Generates and defines several hidden classes as one nest, so that each can reach the private members of the
+     * others. The first class is the nest host, defined with the given lookup and options; the rest are defined as
+     * {@linkplain MethodHandles.Lookup.ClassOption#NESTMATE nestmates} of it. References from one class to another
+     * should be made through the {@link NestTracker} given to each consumer. No class is initialized until every class
+     * of the nest is defined. As a class's superclass and interfaces are named in it, they must not be classes of the
+     * nest.
+     * @return a lookup on each class, in the order the classes were given
+     */
+    public static List<MethodHandles.Lookup> nest(MethodHandles.Lookup lookup, boolean initialize, Set<MethodHandles.Lookup.ClassOption> options, int version, List<NestMember> members) throws IllegalAccessException {
+        if (members.isEmpty()) {
+            throw new IllegalArgumentException("A nest must have a host");
+        }
+        var indices = new HashMap<ClassDesc, Integer>();
+        var superNames = new HashMap<ClassDesc, ClassDesc>();
+        for (int i = 0; i < members.size(); i++) {
+            var member = members.get(i);
+            if (indices.putIfAbsent(member.name(), i) != null) {
+                throw new IllegalArgumentException("Class " + member.name().displayName() + " appears more than once in the nest");
+            }
+            superNames.put(member.name(), member.superName());
+        }
+        for (var member : members) {
+            var supertypes = new ArrayList<ClassDesc>();
+            supertypes.add(member.superName());
+            if (member.interfaces() != null) {
+                supertypes.addAll(member.interfaces());
+            }
+            for (var supertype : supertypes) {
+                if (indices.containsKey(supertype)) {
+                    throw new IllegalArgumentException("Class " + member.name().displayName() + " cannot extend or implement " + supertype.displayName() + " of its own nest, as hidden classes cannot be named");
+                }
+            }
         }
+        var table = new Class<?>[members.size()];
+
+        var lookups = new ArrayList<MethodHandles.Lookup>();
+        for (var member : members) {
+            var context = create();
+            var tracker = new NestTracker(context, indices, superNames, table);
+            member.consumer().accept(context, tracker);
+            var bytes = context.build(version, member.access(), member.name(), member.superName(), member.interfaces(), member.signature());
+
+            var definer = lookups.isEmpty() ? lookup : lookups.getFirst();
+            var memberOptions = new HashSet<>(options);
+            if (!lookups.isEmpty()) {
+                memberOptions.add(MethodHandles.Lookup.ClassOption.NESTMATE);
+            }
+            var data = tracker.data().values();
+            var defined = data.isEmpty()
+                ? definer.defineHiddenClass(bytes, false, memberOptions.toArray(MethodHandles.Lookup.ClassOption[]::new))
+                : definer.defineHiddenClassWithClassData(bytes, data.stream().map(ClassDataTracker.DataValue::resolve).toList(), false, memberOptions.toArray(MethodHandles.Lookup.ClassOption[]::new));
+            table[lookups.size()] = defined.lookupClass();
+            lookups.add(defined);
+        }
+        if (initialize) {
+            for (var defined : lookups) {
+                defined.ensureInitialized(defined.lookupClass());
+            }
+        }
+        return List.copyOf(lookups);
+    }
+
+    /**
+     * {@return the executor asynchronous generation runs on} Its threads are platform threads, so that defining classes
+     * never pins the carrier of a virtual thread, and it may be used to run other generation work off of
+     * latency-sensitive threads.
+     */
+    public static Executor generationExecutor() {
+        return Generation.EXECUTOR;
+    }
+
+    /**
+     * Like {@link #hidden(String, MethodHandles.Lookup, boolean, Set, int, int, ClassDesc, ClassDesc, Collection, ClassSignature, BiConsumer)},
+     * but generates and defines the class on the {@linkplain #generationExecutor() generation executor}.
+     */
+    public static CompletableFuture<MethodHandles.Lookup> hiddenAsync(String pregeneratedKey, MethodHandles.Lookup lookup, boolean initialize, Set<MethodHandles.Lookup.ClassOption> options, int version, int access, ClassDesc name, ClassDesc superName, @Nullable Collection<ClassDesc> interfaces, @Nullable ClassSignature signature, BiConsumer<? super ClassContext<?, ?, ?>, ClassDataTracker> consumer) {
+        return async(() -> hidden(pregeneratedKey, lookup, initialize, options, version, access, name, superName, interfaces, signature, consumer));
+    }
+
+    /**
+     * Like {@link #hidden(MethodHandles.Lookup, boolean, Set, int, int, ClassDesc, ClassDesc, Collection, ClassSignature, BiConsumer)},
+     * but generates and defines the class on the {@linkplain #generationExecutor() generation executor}.
+     */
+    public static CompletableFuture<MethodHandles.Lookup> hiddenAsync(MethodHandles.Lookup lookup, boolean initialize, Set<MethodHandles.Lookup.ClassOption> options, int version, int access, ClassDesc name, ClassDesc superName, @Nullable Collection<ClassDesc> interfaces, @Nullable ClassSignature signature, BiConsumer<? super ClassContext<?, ?, ?>, ClassDataTracker> consumer) {
+        return async(() -> hidden(lookup, initialize, options, version, access, name, superName, interfaces, signature, consumer));
+    }
+
+    private static <R> CompletableFuture<R> async(Callable<R> generation) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return generation.call();
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            }
+        }, generationExecutor());
     }
 }
@@ -1,12 +1,37 @@
 package dev.lukebemish.bytecodebuilder;
 
+import org.jspecify.annotations.Nullable;
+
 import java.lang.constant.ClassDesc;
+import java.lang.constant.ConstantDesc;
+import java.lang.constant.ConstantDescs;
+import java.lang.constant.DirectMethodHandleDesc;
 import java.lang.constant.DynamicConstantDesc;
+import java.lang.constant.MethodHandleDesc;
+import java.lang.constant.MethodTypeDesc;
 import java.util.ArrayList;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Supplier;
 
+/**
+ * Tracks the values making up the class data of a hidden class being generated. Each value is given its own slot,
+ * whose index never changes once handed out. Slots may be handed out from several threads at once, such as while
+ * methods are recorded {@linkplain ClassContext#parallel in parallel}. Each such method then adds to slots of its own
+ * without waiting for any other, and the constants handed out only take on their final indices when the class is
+ * built, in the order the methods adding them were declared in, so the same generation always gives the same class.
+ */
 public final class ClassDataTracker {
+    private static final ClassDesc CD_SUPPLIER = ClassDesc.of("java.util.function.Supplier");
+    private static final DirectMethodHandleDesc SUPPLIER_GET = MethodHandleDesc.ofMethod(
+        DirectMethodHandleDesc.Kind.INTERFACE_VIRTUAL,
+        CD_SUPPLIER,
+        "get",
+        MethodTypeDesc.of(ConstantDescs.CD_Object)
+    );
+
     sealed interface DataValue {
         Object resolve();
 
@@ -24,19 +49,180 @@ public Object resolve() {
         }
     }
 
-    final List<DataValue> data = new ArrayList<>();
+    // The slots added by one method recorded in parallel, or by the declaring code between such methods
+    static final class Segment {
+        private final ClassDataTracker tracker;
+        private final boolean declaring;
+        private final List<DataValue> values = new ArrayList<>();
+
+        private Segment(ClassDataTracker tracker, boolean declaring) {
+            this.tracker = tracker;
+            this.declaring = declaring;
+        }
+    }
+
+    // A slot added by a method recorded in parallel, whose index is only known once the methods declared before it are
+    // recorded; the backends encode its final index in its place. Its name is never reused, so that it is never equal
+    // to a slot of another build.
+    static final class Slot extends DynamicConstantDesc<Object> {
+        private static final AtomicLong NAMES = new AtomicLong();
+
+        private final Segment segment;
+        private final int index;
+
+        private Slot(ClassDesc descriptor, Segment segment, int index) {
+            super(ConstantDescs.BSM_CLASS_DATA_AT, "slot$" + NAMES.getAndIncrement(), descriptor, index);
+            this.segment = segment;
+            this.index = index;
+        }
+
+        DynamicConstantDesc<?> resolved() {
+            return Constants.classDataAt(constantType(), segment.tracker.offset(segment) + index);
+        }
+    }
+
+    // Set while a method is recorded in parallel, to the segment it adds its slots to
+    static final ThreadLocal<@Nullable Segment> RECORDING = new ThreadLocal<>();
 
-    ClassDataTracker() {}
+    private final ClassContext<?, ?, ?> context;
+    // Set when spinning a class in place of one pre-generated under this key, which could not carry class data
+    private final @Nullable String pregeneratedKey;
+    // Guarded by this; in declaration order
+    private final List<Segment> segments = new ArrayList<>();
+    private boolean methodSegments;
+    private @Nullable Map<Segment, Integer> offsets;
+
+    ClassDataTracker(ClassContext<?, ?, ?> context) {
+        this(context, null);
+    }
+
+    ClassDataTracker(ClassContext<?, ?, ?> context, @Nullable String pregeneratedKey) {
+        this.context = context;
+        this.pregeneratedKey = pregeneratedKey;
+        context.classData = this;
+    }
+
+    // Starts the segment of a method declared to be recorded in parallel
+    synchronized Segment methodSegment() {
+        var segment = new Segment(this, false);
+        segments.add(segment);
+        methodSegments = true;
+        return segment;
+    }
+
+    private synchronized DynamicConstantDesc<?> add(ClassDesc descriptor, DataValue value) {
+        if (pregeneratedKey != null) {
+            throw new IllegalArgumentException("Class pre-generated under key " + pregeneratedKey + " cannot carry class data");
+        }
+        var segment = RECORDING.get();
+        if (segment == null || segment.tracker != this) {
+            if (segments.isEmpty() || !segments.getLast().declaring) {
+                segments.add(new Segment(this, true));
+            }
+            segment = segments.getLast();
+        }
+        segment.values.add(value);
+        offsets = null;
+        var index = segment.values.size() - 1;
+        if (!methodSegments) {
+            // Every slot so far was added by the declaring code, so the index is already final
+            return Constants.classDataAt(descriptor, index);
+        }
+        return new Slot(descriptor, segment, index);
+    }
+
+    // Only called once every method declared before the segment is recorded
+    private synchronized int offset(Segment segment) {
+        if (offsets == null) {
+            var computed = new IdentityHashMap<Segment, Integer>();
+            var offset = 0;
+            for (var each : segments) {
+                computed.put(each, offset);
+                offset += each.values.size();
+            }
+            offsets = computed;
+        }
+        return offsets.get(segment);
+    }
+
+    List<DataValue> values() {
+        context.awaitRecorded();
+        synchronized (this) {
+            var values = new ArrayList<DataValue>();
+            for (var segment : segments) {
+                values.addAll(segment.values);
+            }
+            return List.copyOf(values);
+        }
+    }
+
+    // Replaces the slots added in parallel anywhere within a constant with their final indices
+    static ConstantDesc resolve(ConstantDesc constant) {
+        if (constant instanceof Slot slot) {
+            return slot.resolved();
+        }
+        if (constant instanceof DynamicConstantDesc<?> dynamic) {
+            var args = dynamic.bootstrapArgs();
+            var changed = false;
+            for (int i = 0; i < args.length; i++) {
+                var resolved = resolve(args[i]);
+                changed |= resolved != args[i];
+                args[i] = resolved;
+            }
+            if (changed) {
+                return DynamicConstantDesc.ofNamed(dynamic.bootstrapMethod(), dynamic.constantName(), dynamic.constantType(), args);
+            }
+        }
+        return constant;
+    }
 
     public DynamicConstantDesc<?> dataConstant(ClassDesc descriptor, Object value) {
-        var idx = data.size();
-        data.add(new DataValue.Direct(value));
-        return Constants.classDataAt(descriptor, idx);
+        return add(descriptor, new DataValue.Direct(value));
     }
 
     public DynamicConstantDesc<?> delayedDataConstant(ClassDesc descriptor, Supplier<Object> value) {
-        var idx = data.size();
-        data.add(new DataValue.Lazy(value));
-        return Constants.classDataAt(descriptor, idx);
+        return add(descriptor, new DataValue.Lazy(value));
+    }
+
+    /**
+     * Adds a supplier to the class data, returning a constant that calls it the first time the constant is loaded,
+     * rather than when the class is defined as with {@link #delayedDataConstant}.
+     * @see Constants#lazyConstant
+     */
+    public DynamicConstantDesc<?> lazyDataConstant(String name, ClassDesc descriptor, Supplier<?> value) {
+        return Constants.lazyConstant(name, descriptor, SUPPLIER_GET, add(CD_SUPPLIER, new DataValue.Direct(value)));
+    }
+
+    /**
+     * Adds a copy of a table to the class data, returning a constant that loads it without any decoding. Each load of
+     * the constant gives the same array, which generated code must not modify.
+     * @see Constants#packedArray(byte[])
+     */
+    public DynamicConstantDesc<?> arrayConstant(byte[] values) {
+        return dataConstant(ConstantDescs.CD_byte.arrayType(), values.clone());
+    }
+
+    public DynamicConstantDesc<?> arrayConstant(short[] values) {
+        return dataConstant(ConstantDescs.CD_short.arrayType(), values.clone());
+    }
+
+    public DynamicConstantDesc<?> arrayConstant(char[] values) {
+        return dataConstant(ConstantDescs.CD_char.arrayType(), values.clone());
+    }
+
+    public DynamicConstantDesc<?> arrayConstant(int[] values) {
+        return dataConstant(ConstantDescs.CD_int.arrayType(), values.clone());
+    }
+
+    public DynamicConstantDesc<?> arrayConstant(long[] values) {
+        return dataConstant(ConstantDescs.CD_long.arrayType(), values.clone());
+    }
+
+    /**
+     * Adds an immutable copy of a map to the class data, returning a constant of type {@link java.util.Map} that loads
+     * it.
+     */
+    public DynamicConstantDesc<?> mapConstant(Map<?, ?> map) {
+        return dataConstant(ConstantDescs.CD_Map, Map.copyOf(map));
     }
 }
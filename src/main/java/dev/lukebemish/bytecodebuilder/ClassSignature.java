@@ -1,8 +1,16 @@
 package dev.lukebemish.bytecodebuilder;
 
+import org.jspecify.annotations.Nullable;
+
 public final class ClassSignature {
     private final String signature;
 
+    /**
+     * Backend-specific parsed form of this signature, filled in lazily by backends that need one so that a given
+     * signature is only ever parsed once.
+     */
+    @Nullable Object parsed;
+
     private ClassSignature(String signature) {
         this.signature = signature;
     }
@@ -11,6 +19,32 @@ public String signature() {
         return signature;
     }
 
+    @Override
+    public boolean equals(Object o) {
+        return this == o || o instanceof ClassSignature other && signature.equals(other.signature);
+    }
+
+    @Override
+    public int hashCode() {
+        return signature.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return signature;
+    }
+
+    /**
+     * Parses a class signature, as found in a {@code Signature} attribute on a class.
+     * @param signature the signature to parse
+     * @return the parsed signature
+     * @throws IllegalArgumentException if the signature is malformed
+     */
+    public static ClassSignature parse(String signature) {
+        SignatureParser.validateClass(signature);
+        return new ClassSignature(signature);
+    }
+
     public static final class Builder {
         private final StringBuilder signature = new StringBuilder();
 
@@ -28,7 +62,7 @@ public ClassSignature build(Signature superClass, Signature... interfaces) {
             if (!signature.isEmpty()) {
                 full.append('<').append(signature).append('>');
             }
-            signature.append(superClass.signature());
+            full.append(superClass.signature());
             for (Signature interfaceSignature : interfaces) {
                 full.append(interfaceSignature.signature());
             }
@@ -36,7 +70,7 @@ public ClassSignature build(Signature superClass, Signature... interfaces) {
         }
     }
 
-    public Builder create() {
+    public static Builder create() {
         return new Builder();
     }
 }
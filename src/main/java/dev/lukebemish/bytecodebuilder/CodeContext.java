@@ -1,13 +1,29 @@
 package dev.lukebemish.bytecodebuilder;
 
+import org.jspecify.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.lang.constant.ClassDesc;
 import java.lang.constant.ConstantDesc;
+import java.lang.constant.ConstantDescs;
 import java.lang.constant.DirectMethodHandleDesc;
+import java.lang.constant.DynamicCallSiteDesc;
 import java.lang.constant.MethodTypeDesc;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
 import java.util.function.Consumer;
+import java.util.stream.IntStream;
 
 public abstract sealed class CodeContext<T extends CodeContext<T>> permits ImplCodeContext, BackendASM.CodeContextASM {
+    private static final ClassDesc CD_MEMORY_SEGMENT = ClassDesc.of("java.lang.foreign.MemorySegment");
+    private static final ClassDesc CD_MATH = ClassDesc.of("java.lang.Math");
+
     protected CodeContext() {}
 
     public abstract CodeContext<T> constant(ConstantDesc constant);
@@ -18,12 +34,31 @@ protected CodeContext() {}
 
     public abstract CodeContext<T> newArray(ClassDesc descriptor);
 
+    public abstract CodeContext<T> arrayLength();
+
+    /**
+     * Loads an element from an array, given the array and an int index on the stack.
+     * @param descriptor the component type of the array
+     */
+    public abstract CodeContext<T> arrayLoad(ClassDesc descriptor);
+
+    /**
+     * Stores an element to an array, given the array, an int index and the value on the stack.
+     * @param descriptor the component type of the array
+     */
+    public abstract CodeContext<T> arrayStore(ClassDesc descriptor);
+
     public abstract CodeContext<T> instanceOf(ClassDesc descriptor);
 
     public abstract CodeContext<T> checkCast(ClassDesc descriptor);
 
     public abstract CodeContext<T> returnValue(ClassDesc descriptor);
 
+    /**
+     * Throws the exception on top of the stack.
+     */
+    public abstract CodeContext<T> throwException();
+
     public abstract CodeContext<T> field(DirectMethodHandleDesc.Kind operation, ClassDesc owner, String name, ClassDesc descriptor);
 
     public abstract CodeContext<T> method(DirectMethodHandleDesc.Kind operation, ClassDesc owner, String name, MethodTypeDesc descriptor);
@@ -32,8 +67,172 @@ protected CodeContext() {}
 
     public abstract CodeContext<T> invokeDynamic(String name, MethodTypeDesc descriptor, DirectMethodHandleDesc bootstrap, Collection<ConstantDesc> bootstrapArguments);
 
+    public CodeContext<T> invokeDynamic(DynamicCallSiteDesc callSite) {
+        return invokeDynamic(callSite.invocationName(), callSite.invocationType(), (DirectMethodHandleDesc) callSite.bootstrapMethod(), List.of(callSite.bootstrapArgs()));
+    }
+
     public abstract CodeContext<T> loadThis();
 
+    /**
+     * Converts the primitive value on top of the stack from one primitive type to another, as the JVM's primitive
+     * conversion instructions would.
+     */
+    public abstract CodeContext<T> convert(ClassDesc from, ClassDesc to);
+
+    public abstract CodeContext<T> pop(ClassDesc descriptor);
+
+    /**
+     * Pops an int, and runs {@code whenTrue} if it is non-zero or {@code whenFalse} otherwise. Both branches must leave
+     * the same types on the stack.
+     */
+    public abstract CodeContext<T> ifThenElse(Consumer<? super CodeContext<?>> whenTrue, Consumer<? super CodeContext<?>> whenFalse);
+
+    /**
+     * Runs {@code body}, and if it throws an exception of the given type, runs {@code handler} in its place, starting
+     * with the exception on the stack. Anything on the stack before the body is lost if an exception is caught, so the
+     * stack should be empty; both must leave the same types on the stack.
+     */
+    public abstract CodeContext<T> tryCatch(Consumer<? super CodeContext<?>> body, ClassDesc exceptionType, Consumer<? super CodeContext<?>> handler);
+
+    /**
+     * Pops an int, and runs the case at its offset from {@code low}, or {@code defaultCase} if there is no such case,
+     * through a {@code tableswitch} instruction. Every case must leave the same types on the stack.
+     */
+    public CodeContext<T> tableSwitch(int low, List<? extends Consumer<? super CodeContext<?>>> cases, Consumer<? super CodeContext<?>> defaultCase) {
+        if (cases.isEmpty() || (long) low + cases.size() - 1 > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Invalid table switch of " + cases.size() + " cases from " + low);
+        }
+        var keys = new int[cases.size()];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = low + i;
+        }
+        return switchCases(keys, List.copyOf(cases), defaultCase, true);
+    }
+
+    /**
+     * Pops an int, and runs the case whose key it equals, or {@code defaultCase} if there is none, through a
+     * {@code lookupswitch} instruction. Every case must leave the same types on the stack.
+     * @param keys the distinct keys of the cases, in the same order as the cases
+     */
+    public CodeContext<T> lookupSwitch(int[] keys, List<? extends Consumer<? super CodeContext<?>>> cases, Consumer<? super CodeContext<?>> defaultCase) {
+        if (keys.length != cases.size()) {
+            throw new IllegalArgumentException("Lookup switch has " + keys.length + " keys but " + cases.size() + " cases");
+        }
+        // The instruction requires its keys in ascending order
+        var order = IntStream.range(0, keys.length).boxed().sorted(Comparator.comparingInt(i -> keys[i])).toList();
+        var sortedKeys = new int[keys.length];
+        var sortedCases = new ArrayList<Consumer<? super CodeContext<?>>>(keys.length);
+        for (int i = 0; i < keys.length; i++) {
+            sortedKeys[i] = keys[order.get(i)];
+            sortedCases.add(cases.get(order.get(i)));
+            if (i > 0 && sortedKeys[i] == sortedKeys[i - 1]) {
+                throw new IllegalArgumentException("Lookup switch has duplicate key " + sortedKeys[i]);
+            }
+        }
+        return switchCases(sortedKeys, sortedCases, defaultCase, false);
+    }
+
+    /**
+     * Emits a counted loop in the shape the JIT recognizes for range check elimination, unrolling and vectorization:
+     * an int index starting at zero and stepping by a constant stride, compared against a bound that is stored once
+     * in a local and never changes in the loop. The bound is taken from the top of the stack. Values carried across
+     * iterations should be accumulated into locals, and the body must leave the stack as it found it.
+     * <p>
+     * If a remainder is given, the body only runs while a full stride of indices remains below the bound, after
+     * which the remainder runs once for each index left. In that case the bound must not be negative.
+     * @param indexLocal the local holding the index, which the body may read but must not write
+     * @param boundLocal the local holding the bound
+     * @param stride the amount the index increases by each time the body runs
+     * @param body the main loop body
+     * @param remainder the post-loop body, run for each remaining index
+     */
+    public abstract CodeContext<T> countedLoop(int indexLocal, int boundLocal, int stride, Consumer<? super CodeContext<?>> body, @Nullable Consumer<? super CodeContext<?>> remainder);
+
+    public CodeContext<T> countedLoop(int indexLocal, int boundLocal, Consumer<? super CodeContext<?>> body) {
+        return countedLoop(indexLocal, boundLocal, 1, body, null);
+    }
+
+    /**
+     * Emits a counted loop over every index of the array in {@code arrayLocal}, with the array's length as the bound.
+     * @see #countedLoop(int, int, int, Consumer, Consumer)
+     */
+    public CodeContext<T> arrayLoop(ClassDesc arrayDescriptor, int arrayLocal, int indexLocal, int boundLocal, Consumer<? super CodeContext<?>> body) {
+        load(arrayDescriptor, arrayLocal);
+        arrayLength();
+        return countedLoop(indexLocal, boundLocal, body);
+    }
+
+    /**
+     * Emits a counted loop over every element of a {@code MemorySegment} in {@code segmentLocal}, with the number of
+     * whole elements of the given size in the segment as the bound. The index counts elements, not bytes; segments
+     * with more than {@link Integer#MAX_VALUE} elements cause an {@link ArithmeticException}.
+     * @see #countedLoop(int, int, int, Consumer, Consumer)
+     */
+    public CodeContext<T> segmentLoop(int segmentLocal, long elementSize, int indexLocal, int boundLocal, Consumer<? super CodeContext<?>> body) {
+        load(CD_MEMORY_SEGMENT, segmentLocal);
+        method(DirectMethodHandleDesc.Kind.INTERFACE_VIRTUAL, CD_MEMORY_SEGMENT, "byteSize", MethodTypeDesc.of(ConstantDescs.CD_long));
+        constant(elementSize);
+        method(DirectMethodHandleDesc.Kind.STATIC, CD_MATH, "floorDiv", MethodTypeDesc.of(ConstantDescs.CD_long, ConstantDescs.CD_long, ConstantDescs.CD_long));
+        method(DirectMethodHandleDesc.Kind.STATIC, CD_MATH, "toIntExact", MethodTypeDesc.of(ConstantDescs.CD_int, ConstantDescs.CD_long));
+        return countedLoop(indexLocal, boundLocal, body);
+    }
+
+    /**
+     * Inlines a fragment of code as if it were the body of a method taking the given arguments, such as the body of
+     * another generated method built from the same consumer. The arguments are popped from the stack into locals
+     * starting at {@code firstLocal}, the fragment's locals are shifted to start there, and each return in the fragment
+     * becomes a jump past its end, leaving any return value on the stack. The fragment must leave nothing else on the
+     * stack when it returns, and if it catches exceptions, nothing should be on the stack below its arguments.
+     * @param arguments a descriptor whose parameters are the fragment's arguments, including any receiver
+     */
+    public CodeContext<T> inline(CodeContext<?> fragment, MethodTypeDesc arguments, int firstLocal) {
+        storeArguments(arguments, firstLocal);
+        return inlineCode(fragment, firstLocal);
+    }
+
+    /**
+     * Inlines the body of an existing method, read from its class file, as {@link #inline(CodeContext, MethodTypeDesc, int)}
+     * does for a fragment; the receiver of an instance method is taken as its first argument. The method's body must be
+     * able to run from the class being generated, so it should only reference members accessible from there.
+     */
+    public CodeContext<T> inline(Method method, int firstLocal) {
+        if (Modifier.isAbstract(method.getModifiers()) || Modifier.isNative(method.getModifiers())) {
+            throw new IllegalArgumentException("Method " + method + " has no code to inline");
+        }
+        var declaring = method.getDeclaringClass();
+        var descriptor = Constants.from(MethodType.methodType(method.getReturnType(), method.getParameterTypes()));
+        var arguments = Modifier.isStatic(method.getModifiers()) ? descriptor : descriptor.insertParameterTypes(0, Constants.from(declaring));
+        byte[] bytes;
+        try (var stream = declaring.getResourceAsStream("/" + declaring.getName().replace('.', '/') + ".class")) {
+            if (stream == null) {
+                throw new IllegalArgumentException("Cannot find class file of " + declaring.getName());
+            }
+            bytes = stream.readAllBytes();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        storeArguments(arguments, firstLocal);
+        return inlineMethod(bytes, method.getName(), descriptor, firstLocal);
+    }
+
+    private void storeArguments(MethodTypeDesc arguments, int firstLocal) {
+        var slots = new int[arguments.parameterCount()];
+        var slot = firstLocal;
+        for (int i = 0; i < slots.length; i++) {
+            slots[i] = slot;
+            slot += Constants.sizeOf(arguments.parameterType(i));
+        }
+        for (int i = slots.length - 1; i >= 0; i--) {
+            store(arguments.parameterType(i), slots[i]);
+        }
+    }
+
+    abstract CodeContext<T> switchCases(int[] keys, List<? extends Consumer<? super CodeContext<?>>> cases, Consumer<? super CodeContext<?>> defaultCase, boolean table);
+
+    abstract CodeContext<T> inlineCode(CodeContext<?> fragment, int firstLocal);
+
+    abstract CodeContext<T> inlineMethod(byte[] classBytes, String name, MethodTypeDesc descriptor, int firstLocal);
+
     public static CodeContext<?> create(Consumer<? super CodeContext<?>> consumer) {
         return ImplCodeContext.create(consumer);
     }
@@ -4,15 +4,73 @@
 import java.lang.constant.Constable;
 import java.lang.constant.ConstantDesc;
 import java.lang.constant.ConstantDescs;
+import java.lang.constant.DirectMethodHandleDesc;
+import java.lang.constant.DynamicCallSiteDesc;
 import java.lang.constant.DynamicConstantDesc;
 import java.lang.constant.MethodHandleDesc;
 import java.lang.constant.MethodTypeDesc;
 import java.lang.invoke.MethodHandle;
 import java.lang.invoke.MethodType;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
 
 public final class Constants {
     private Constants() {}
 
+    private static final ClassValue<ClassDesc> CLASS_DESCS = new ClassValue<>() {
+        @Override
+        protected ClassDesc computeValue(Class<?> type) {
+            return type.describeConstable().orElseThrow();
+        }
+    };
+
+    private static final DirectMethodHandleDesc INLINE_CACHE_BOOTSTRAP = ConstantDescs.ofCallsiteBootstrap(
+        ClassDesc.of("dev.lukebemish.bytecodebuilder.runtime.InlineCache"),
+        "bootstrap",
+        ConstantDescs.CD_CallSite,
+        ConstantDescs.CD_MethodHandle,
+        ConstantDescs.CD_int
+    );
+
+    private static final DirectMethodHandleDesc STRING_SWITCH_BOOTSTRAP = ConstantDescs.ofCallsiteBootstrap(
+        ClassDesc.of("dev.lukebemish.bytecodebuilder.runtime.StringSwitch"),
+        "bootstrap",
+        ConstantDescs.CD_CallSite,
+        ConstantDescs.CD_String.arrayType()
+    );
+    private static final MethodTypeDesc STRING_SWITCH_TYPE = MethodTypeDesc.of(ConstantDescs.CD_int, ConstantDescs.CD_String);
+
+    private static final DirectMethodHandleDesc UNPACK_BOOTSTRAP = ConstantDescs.ofConstantBootstrap(
+        ClassDesc.of("dev.lukebemish.bytecodebuilder.runtime.ConstantTables"),
+        "unpack",
+        ConstantDescs.CD_Object,
+        ConstantDescs.CD_int,
+        ConstantDescs.CD_String.arrayType()
+    );
+    // Each packed character takes at most two bytes of modified UTF-8, and a constant pool string at most 65535 bytes
+    private static final int PACKED_CHUNK = 32767;
+
+    // The foreign memory API is only referred to by descriptor, as it is a preview API on Java 21
+    private static final ClassDesc CD_MEMORY_LAYOUT = ClassDesc.of("java.lang.foreign.MemoryLayout");
+    private static final ClassDesc CD_PATH_ELEMENT = CD_MEMORY_LAYOUT.nested("PathElement");
+    private static final DirectMethodHandleDesc LAYOUT_VAR_HANDLE = MethodHandleDesc.ofMethod(
+        DirectMethodHandleDesc.Kind.INTERFACE_VIRTUAL,
+        CD_MEMORY_LAYOUT,
+        "varHandle",
+        MethodTypeDesc.of(ConstantDescs.CD_VarHandle, CD_PATH_ELEMENT.arrayType())
+    );
+    private static final DirectMethodHandleDesc LAYOUT_BYTE_OFFSET = MethodHandleDesc.ofMethod(
+        DirectMethodHandleDesc.Kind.INTERFACE_VIRTUAL,
+        CD_MEMORY_LAYOUT,
+        "byteOffset",
+        MethodTypeDesc.of(ConstantDescs.CD_long, CD_PATH_ELEMENT.arrayType())
+    );
+
+    // Only holds method types made up entirely of bootstrap classes, which are never unloaded
+    private static final ConcurrentHashMap<MethodType, MethodTypeDesc> METHOD_TYPE_DESCS = new ConcurrentHashMap<>();
+
     public static DynamicConstantDesc<?> cast(ConstantDesc value, ClassDesc type) {
         return DynamicConstantDesc.ofNamed(
             ConstantDescs.BSM_EXPLICIT_CAST,
@@ -77,6 +135,26 @@ public static DynamicConstantDesc<?> invokeConstant(ClassDesc descriptor, Consta
         );
     }
 
+    /**
+     * Describes a constant computed by invoking a handle with the given arguments the first time it is loaded in a
+     * class, after which the JVM reuses the result for that class. Unlike a static final field, this needs no field or
+     * static initializer, and a constant that is never loaded is never computed.
+     * @param name distinguishes constants that would otherwise be identical, and so share a single value
+     * @param handle a method handle, or a constant resolving to one, such as {@link #classDataAt}
+     * @param args the arguments to invoke the handle with, which may themselves be dynamic constants
+     */
+    public static DynamicConstantDesc<?> lazyConstant(String name, ClassDesc descriptor, ConstantDesc handle, ConstantDesc... args) {
+        var allArgs = new ConstantDesc[args.length + 1];
+        allArgs[0] = handle;
+        System.arraycopy(args, 0, allArgs, 1, args.length);
+        return DynamicConstantDesc.ofNamed(
+            ConstantDescs.BSM_INVOKE,
+            name,
+            descriptor,
+            allArgs
+        );
+    }
+
     public static DynamicConstantDesc<?> fieldVarHandle(ClassDesc owner, String name, ClassDesc descriptor) {
         return DynamicConstantDesc.ofNamed(
             ConstantDescs.BSM_VARHANDLE_FIELD,
@@ -106,12 +184,172 @@ public static DynamicConstantDesc<?> arrayVarHandle(ClassDesc descriptor) {
         );
     }
 
+    /**
+     * Describes a var handle accessing memory segments through a memory layout, as given by
+     * {@code MemoryLayout.varHandle}. Its coordinates are the segment and then an index for each sequence element in
+     * the path that is not given an index; from Java 22, where the foreign memory API is no longer a preview, a base
+     * offset within the segment comes between the segment and the indices. The layout is typically loaded from class
+     * data, with {@link ClassDataTracker#dataConstant}.
+     * @param layout a constant resolving to a {@code MemoryLayout}
+     * @param path constants resolving to path elements, such as {@link #groupElement} or {@link #sequenceElement()}
+     */
+    public static DynamicConstantDesc<?> layoutVarHandle(ConstantDesc layout, ConstantDesc... path) {
+        return invokeConstant(ConstantDescs.CD_VarHandle, LAYOUT_VAR_HANDLE, withFirst(layout, path));
+    }
+
+    /**
+     * Describes the offset in bytes of the element a path selects within a memory layout, as given by
+     * {@code MemoryLayout.byteOffset}.
+     * @param layout a constant resolving to a {@code MemoryLayout}
+     * @param path constants resolving to path elements, which must not leave any sequence element open
+     */
+    public static DynamicConstantDesc<?> layoutByteOffset(ConstantDesc layout, ConstantDesc... path) {
+        return invokeConstant(ConstantDescs.CD_long, LAYOUT_BYTE_OFFSET, withFirst(layout, path));
+    }
+
+    public static DynamicConstantDesc<?> groupElement(String name) {
+        return invokeConstant(CD_PATH_ELEMENT, pathElement("groupElement", ConstantDescs.CD_String), name);
+    }
+
+    public static DynamicConstantDesc<?> groupElement(long index) {
+        return invokeConstant(CD_PATH_ELEMENT, pathElement("groupElement", ConstantDescs.CD_long), index);
+    }
+
+    public static DynamicConstantDesc<?> sequenceElement() {
+        return invokeConstant(CD_PATH_ELEMENT, pathElement("sequenceElement"));
+    }
+
+    public static DynamicConstantDesc<?> sequenceElement(long index) {
+        return invokeConstant(CD_PATH_ELEMENT, pathElement("sequenceElement", ConstantDescs.CD_long), index);
+    }
+
+    private static DirectMethodHandleDesc pathElement(String name, ClassDesc... parameters) {
+        return MethodHandleDesc.ofMethod(
+            DirectMethodHandleDesc.Kind.INTERFACE_STATIC,
+            CD_PATH_ELEMENT,
+            name,
+            MethodTypeDesc.of(CD_PATH_ELEMENT, parameters)
+        );
+    }
+
+    private static ConstantDesc[] withFirst(ConstantDesc first, ConstantDesc[] rest) {
+        var all = new ConstantDesc[rest.length + 1];
+        all[0] = first;
+        System.arraycopy(rest, 0, all, 1, rest.length);
+        return all;
+    }
+
+    /**
+     * Describes a {@code byte[]} constant packed into strings in the constant pool, and decoded by
+     * {@link dev.lukebemish.bytecodebuilder.runtime.ConstantTables} the first time it is loaded. Each load of the
+     * constant in a class gives the same array, which generated code must not modify. Hidden classes may instead carry
+     * tables as class data, with {@link ClassDataTracker#arrayConstant(byte[])}.
+     */
+    public static DynamicConstantDesc<?> packedArray(byte[] values) {
+        return packed(ConstantDescs.CD_byte.arrayType(), values.length, values.clone());
+    }
+
+    public static DynamicConstantDesc<?> packedArray(short[] values) {
+        var data = ByteBuffer.allocate(values.length * Short.BYTES);
+        data.asShortBuffer().put(values);
+        return packed(ConstantDescs.CD_short.arrayType(), values.length, data.array());
+    }
+
+    public static DynamicConstantDesc<?> packedArray(char[] values) {
+        var data = ByteBuffer.allocate(values.length * Character.BYTES);
+        data.asCharBuffer().put(values);
+        return packed(ConstantDescs.CD_char.arrayType(), values.length, data.array());
+    }
+
+    public static DynamicConstantDesc<?> packedArray(int[] values) {
+        var data = ByteBuffer.allocate(values.length * Integer.BYTES);
+        data.asIntBuffer().put(values);
+        return packed(ConstantDescs.CD_int.arrayType(), values.length, data.array());
+    }
+
+    public static DynamicConstantDesc<?> packedArray(long[] values) {
+        var data = ByteBuffer.allocate(values.length * Long.BYTES);
+        data.asLongBuffer().put(values);
+        return packed(ConstantDescs.CD_long.arrayType(), values.length, data.array());
+    }
+
+    private static DynamicConstantDesc<?> packed(ClassDesc type, int length, byte[] bytes) {
+        var chunks = new ArrayList<ConstantDesc>();
+        chunks.add(length);
+        var chunk = new StringBuilder();
+        int buffer = 0;
+        int bits = 0;
+        for (int i = 0; i <= bytes.length; i++) {
+            if (i < bytes.length) {
+                buffer = (buffer << 8) | (bytes[i] & 0xFF);
+                bits += 8;
+            } else if (bits > 0) {
+                buffer <<= 7 - bits;
+                bits = 7;
+            }
+            while (bits >= 7) {
+                bits -= 7;
+                chunk.append((char) ((((buffer >>> bits) & 0x7F) + 1) & 0x7F));
+                if (chunk.length() == PACKED_CHUNK) {
+                    chunks.add(chunk.toString());
+                    chunk.setLength(0);
+                }
+            }
+        }
+        if (!chunk.isEmpty() || chunks.size() == 1) {
+            chunks.add(chunk.toString());
+        }
+        return DynamicConstantDesc.ofNamed(
+            UNPACK_BOOTSTRAP,
+            ConstantDescs.DEFAULT_NAME,
+            type,
+            chunks.toArray(ConstantDesc[]::new)
+        );
+    }
+
+    /**
+     * Describes a call site dispatching on the exact class of its first argument through a polymorphic inline cache,
+     * as linked by {@link dev.lukebemish.bytecodebuilder.runtime.InlineCache}.
+     * @param resolver a static method of type {@code (MethodHandles.Lookup, String, MethodType, Class)MethodHandle}
+     *                 resolving the target for a given receiver class
+     * @param limit the number of receiver classes to check for before falling back to a class value lookup
+     */
+    public static DynamicCallSiteDesc inlineCache(String name, MethodTypeDesc descriptor, DirectMethodHandleDesc resolver, int limit) {
+        return DynamicCallSiteDesc.of(
+            INLINE_CACHE_BOOTSTRAP,
+            name,
+            descriptor,
+            resolver,
+            limit
+        );
+    }
+
+    /**
+     * Describes a call site of type {@code (String)int} returning the index of its argument among a fixed set of keys,
+     * or {@code -1} if it is not one of them, through a perfect hash as linked by
+     * {@link dev.lukebemish.bytecodebuilder.runtime.StringSwitch}. The result can be dispatched on with
+     * {@link CodeContext#tableSwitch}.
+     * @param keys the keys to switch on, which must be distinct
+     */
+    public static DynamicCallSiteDesc stringSwitch(String name, List<String> keys) {
+        return DynamicCallSiteDesc.of(
+            STRING_SWITCH_BOOTSTRAP,
+            name,
+            STRING_SWITCH_TYPE,
+            keys.toArray(ConstantDesc[]::new)
+        );
+    }
+
     public static ConstantDesc from(Constable value) {
-        return value.describeConstable().orElseThrow();
+        return switch (value) {
+            case Class<?> clazz -> from(clazz);
+            case MethodType type -> from(type);
+            default -> value.describeConstable().orElseThrow();
+        };
     }
 
     public static ClassDesc from(Class<?> clazz) {
-        return clazz.describeConstable().orElseThrow();
+        return CLASS_DESCS.get(clazz);
     }
 
     public static MethodHandleDesc from(MethodHandle handle) {
@@ -119,7 +357,22 @@ public static MethodHandleDesc from(MethodHandle handle) {
     }
 
     public static MethodTypeDesc from(MethodType type) {
-        return type.describeConstable().orElseThrow();
+        var cached = METHOD_TYPE_DESCS.get(type);
+        if (cached != null) {
+            return cached;
+        }
+        var shareable = type.returnType().getClassLoader() == null;
+        var parameters = new ClassDesc[type.parameterCount()];
+        for (int i = 0; i < parameters.length; i++) {
+            var parameter = type.parameterType(i);
+            parameters[i] = from(parameter);
+            shareable &= parameter.getClassLoader() == null;
+        }
+        var descriptor = MethodTypeDesc.of(from(type.returnType()), parameters);
+        if (shareable) {
+            METHOD_TYPE_DESCS.putIfAbsent(type, descriptor);
+        }
+        return descriptor;
     }
 
     public static int sizeOf(ClassDesc descriptor) {
@@ -0,0 +1,32 @@
+package dev.lukebemish.bytecodebuilder;
+
+import org.jspecify.annotations.Nullable;
+
+import java.lang.constant.ClassDesc;
+import java.lang.constant.MethodTypeDesc;
+import java.util.List;
+
+/**
+ * Remembers the encoded methods of the last class built by a {@link ClassContext} it is attached to, keyed by the
+ * structure of their recorded code. When a class with the same name, superclass and version is next built with the
+ * same cache, methods whose recorded code is unchanged are copied from the previous build as-is rather than being
+ * re-emitted and having their frames recomputed. Methods that use backend-specific escape hatches cannot be compared
+ * structurally, and are always re-emitted. A cache should be used for one class at a time, and is not thread-safe.
+ */
+public final class MethodCache {
+    // Copying methods carries the previous constant pool forward, so periodically rebuild from scratch to compact it
+    static final int MAX_INCREMENTAL_BUILDS = 16;
+
+    record MethodKey(String name, int access, MethodTypeDesc descriptor, @Nullable String signature, @Nullable List<ClassDesc> exceptions, List<Object> code) {}
+
+    /**
+     * The backend-specific state of the previous build, if any.
+     */
+    @Nullable Object previous;
+
+    public MethodCache() {}
+
+    public void clear() {
+        previous = null;
+    }
+}
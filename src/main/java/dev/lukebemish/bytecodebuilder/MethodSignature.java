@@ -1,17 +1,51 @@
 package dev.lukebemish.bytecodebuilder;
 
+import org.jspecify.annotations.Nullable;
+
 import java.util.Collection;
 
 public final class MethodSignature {
     private final String signature;
-    
+
+    /**
+     * Backend-specific parsed form of this signature, filled in lazily by backends that need one so that a given
+     * signature is only ever parsed once.
+     */
+    @Nullable Object parsed;
+
     private MethodSignature(String signature) {
         this.signature = signature;
     }
-    
+
     public String signature() {
         return signature;
     }
+
+    @Override
+    public boolean equals(Object o) {
+        return this == o || o instanceof MethodSignature other && signature.equals(other.signature);
+    }
+
+    @Override
+    public int hashCode() {
+        return signature.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return signature;
+    }
+
+    /**
+     * Parses a method signature, as found in a {@code Signature} attribute on a method.
+     * @param signature the signature to parse
+     * @return the parsed signature
+     * @throws IllegalArgumentException if the signature is malformed
+     */
+    public static MethodSignature parse(String signature) {
+        SignatureParser.validateMethod(signature);
+        return new MethodSignature(signature);
+    }
     
     public static final class Builder {
         private final StringBuilder signature = new StringBuilder();
@@ -59,7 +93,7 @@ public MethodSignature build(Signature returnType, Collection<Signature> throwsS
         }
     }
     
-    public Builder create() {
+    public static Builder create() {
         return new Builder();
     }
 }
@@ -0,0 +1,13 @@
+package dev.lukebemish.bytecodebuilder;
+
+import org.jspecify.annotations.Nullable;
+
+import java.lang.constant.ClassDesc;
+import java.util.Collection;
+import java.util.function.BiConsumer;
+
+/**
+ * Describes one class of a nest defined by {@link ClassContext#nest}.
+ * @param consumer generates the class, given a tracker for its class data and its references to the rest of the nest
+ */
+public record NestMember(int access, ClassDesc name, ClassDesc superName, @Nullable Collection<ClassDesc> interfaces, @Nullable ClassSignature signature, BiConsumer<? super ClassContext<?, ?, ?>, NestTracker> consumer) {}
@@ -0,0 +1,162 @@
+package dev.lukebemish.bytecodebuilder;
+
+import org.jspecify.annotations.Nullable;
+
+import java.lang.constant.ClassDesc;
+import java.lang.constant.ConstantDesc;
+import java.lang.constant.ConstantDescs;
+import java.lang.constant.DirectMethodHandleDesc;
+import java.lang.constant.DynamicCallSiteDesc;
+import java.lang.constant.DynamicConstantDesc;
+import java.lang.constant.MethodTypeDesc;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tracks the references one class of a nest being generated by {@link ClassContext#nest} makes to the other classes of
+ * the nest. Hidden classes cannot be named in the constant pool of another class, so these references resolve the real
+ * hidden classes through dynamic constants instead; see {@link dev.lukebemish.bytecodebuilder.runtime.Nests}. Where a
+ * class of the nest would appear in a descriptor, such as the type of a local or of a parameter, its
+ * {@linkplain #erased erasure} must be used instead. A class may still refer to itself by name as usual.
+ */
+public final class NestTracker {
+    private static final ClassDesc CD_NESTS = ClassDesc.of("dev.lukebemish.bytecodebuilder.runtime.Nests");
+    private static final DirectMethodHandleDesc MEMBER_BOOTSTRAP = ConstantDescs.ofConstantBootstrap(
+        CD_NESTS,
+        "member",
+        ConstantDescs.CD_Class,
+        ConstantDescs.CD_Class.arrayType(),
+        ConstantDescs.CD_int,
+        ConstantDescs.CD_int
+    );
+    private static final DirectMethodHandleDesc REFERENCE_BOOTSTRAP = ConstantDescs.ofCallsiteBootstrap(
+        CD_NESTS,
+        "bootstrap",
+        ConstantDescs.CD_CallSite,
+        ConstantDescs.CD_int,
+        ConstantDescs.CD_Class,
+        ConstantDescs.CD_Class,
+        ConstantDescs.CD_Class.arrayType()
+    );
+
+    private final Map<ClassDesc, Integer> indices;
+    private final Map<ClassDesc, ClassDesc> superNames;
+    private final Class<?>[] table;
+    private final ClassDataTracker data;
+    private @Nullable DynamicConstantDesc<?> tableConstant;
+
+    NestTracker(ClassContext<?, ?, ?> context, Map<ClassDesc, Integer> indices, Map<ClassDesc, ClassDesc> superNames, Class<?>[] table) {
+        this.data = new ClassDataTracker(context);
+        this.indices = indices;
+        this.superNames = superNames;
+        this.table = table;
+    }
+
+    /**
+     * {@return the tracker for the class data of this class}
+     */
+    public ClassDataTracker data() {
+        return data;
+    }
+
+    /**
+     * {@return the type a class of the nest, or an array of one, should be referred to by in descriptors} This is its
+     * superclass, which is never part of the nest; other types are returned unchanged.
+     */
+    public ClassDesc erased(ClassDesc type) {
+        if (type.isArray()) {
+            var component = erased(type.componentType());
+            return component.equals(type.componentType()) ? type : component.arrayType();
+        }
+        return superNames.getOrDefault(type, type);
+    }
+
+    /**
+     * {@return a constant of type {@link Class} loading the given type, which may be a class of the nest or an array of
+     * one}
+     */
+    public ConstantDesc classConstant(ClassDesc type) {
+        var dimensions = 0;
+        var component = type;
+        while (component.isArray()) {
+            component = component.componentType();
+            dimensions++;
+        }
+        var index = indices.get(component);
+        if (index == null) {
+            return type;
+        }
+        return DynamicConstantDesc.ofNamed(MEMBER_BOOTSTRAP, ConstantDescs.DEFAULT_NAME, ConstantDescs.CD_Class, table(), index, dimensions);
+    }
+
+    /**
+     * {@return a call site invoking a method of a class of the nest} The call site takes the same arguments as an
+     * invoke instruction would, with every class of the nest erased.
+     * @param kind the kind of invocation, which must be static, virtual, or interface virtual or static
+     * @param descriptor the descriptor of the method, in terms of the real classes of the nest
+     */
+    public DynamicCallSiteDesc method(DirectMethodHandleDesc.Kind kind, ClassDesc owner, String name, MethodTypeDesc descriptor) {
+        var type = erased(descriptor);
+        switch (kind) {
+            case STATIC, INTERFACE_STATIC -> {}
+            case VIRTUAL, INTERFACE_VIRTUAL -> type = type.insertParameterTypes(0, erased(owner));
+            default -> throw new IllegalArgumentException("Cannot invoke a method of the nest with kind " + kind);
+        }
+        return reference(kind, owner, name, type, descriptor.returnType(), descriptor.parameterList());
+    }
+
+    /**
+     * {@return a call site constructing an instance of a class of the nest} The call site takes the constructor's
+     * arguments, and returns the erased instance.
+     * @param constructorDescriptor the descriptor of the constructor, in terms of the real classes of the nest
+     */
+    public DynamicCallSiteDesc newInstance(ClassDesc owner, MethodTypeDesc constructorDescriptor) {
+        var type = erased(constructorDescriptor).changeReturnType(erased(owner));
+        // Call sites may not be named <init>, and the bootstrap ignores the name of a constructor
+        return reference(DirectMethodHandleDesc.Kind.CONSTRUCTOR, owner, "new", type, ConstantDescs.CD_void, constructorDescriptor.parameterList());
+    }
+
+    /**
+     * {@return a call site accessing a field of a class of the nest} The call site takes the same arguments as a field
+     * instruction would, with every class of the nest erased.
+     * @param operation the kind of access, which must be a getter or setter
+     */
+    public DynamicCallSiteDesc field(DirectMethodHandleDesc.Kind operation, ClassDesc owner, String name, ClassDesc descriptor) {
+        var erasedType = erased(descriptor);
+        var type = switch (operation) {
+            case GETTER -> MethodTypeDesc.of(erasedType, erased(owner));
+            case SETTER -> MethodTypeDesc.of(ConstantDescs.CD_void, erased(owner), erasedType);
+            case STATIC_GETTER -> MethodTypeDesc.of(erasedType);
+            case STATIC_SETTER -> MethodTypeDesc.of(ConstantDescs.CD_void, erasedType);
+            default -> throw new IllegalArgumentException("Cannot access a field of the nest with kind " + operation);
+        };
+        return reference(operation, owner, name, type, descriptor, List.of());
+    }
+
+    private DynamicCallSiteDesc reference(DirectMethodHandleDesc.Kind kind, ClassDesc owner, String name, MethodTypeDesc type, ClassDesc returnType, List<ClassDesc> parameterTypes) {
+        if (!indices.containsKey(owner)) {
+            throw new IllegalArgumentException("Class " + owner.displayName() + " is not part of the nest");
+        }
+        var args = new ArrayList<ConstantDesc>();
+        args.add(kind.refKind);
+        args.add(classConstant(owner));
+        args.add(classConstant(returnType));
+        for (var parameterType : parameterTypes) {
+            args.add(classConstant(parameterType));
+        }
+        return DynamicCallSiteDesc.of(REFERENCE_BOOTSTRAP, name, type, args.toArray(ConstantDesc[]::new));
+    }
+
+    private MethodTypeDesc erased(MethodTypeDesc descriptor) {
+        var parameters = descriptor.parameterList().stream().map(this::erased).toArray(ClassDesc[]::new);
+        return MethodTypeDesc.of(erased(descriptor.returnType()), parameters);
+    }
+
+    private synchronized DynamicConstantDesc<?> table() {
+        if (tableConstant == null) {
+            tableConstant = data.dataConstant(ConstantDescs.CD_Class.arrayType(), table);
+        }
+        return tableConstant;
+    }
+}
@@ -1,73 +1,95 @@
 package dev.lukebemish.bytecodebuilder;
 
+import org.jspecify.annotations.Nullable;
+
 import java.lang.constant.ClassDesc;
 import java.util.Collection;
 import java.util.List;
-import java.util.Optional;
-import java.util.stream.Collectors;
+import java.util.Map;
 
 public abstract sealed class Signature {
-    private static final class SimpleSignature extends Signature {
-        private final String signature;
+    private static final Map<String, Signature> COMMON = Map.ofEntries(
+        common(new SimpleSignature("B")),
+        common(new SimpleSignature("C")),
+        common(new SimpleSignature("D")),
+        common(new SimpleSignature("F")),
+        common(new SimpleSignature("I")),
+        common(new SimpleSignature("J")),
+        common(new SimpleSignature("S")),
+        common(new SimpleSignature("Z")),
+        common(new SimpleSignature("V")),
+        common(new ClassSignature("java/lang/Object", null)),
+        common(new ClassSignature("java/lang/String", null)),
+        common(new ClassSignature("java/lang/Class", null))
+    );
 
-        public SimpleSignature(String signature) {
-            this.signature = signature;
-        }
+    private static Map.Entry<String, Signature> common(Signature signature) {
+        return Map.entry(signature.signature(), signature);
+    }
+
+    private final String signature;
+
+    /**
+     * Backend-specific parsed form of this signature, filled in lazily by backends that need one so that a given
+     * signature is only ever parsed once.
+     */
+    @Nullable Object parsed;
 
-        public String signature() {
-            return signature;
+    private Signature(String signature) {
+        this.signature = signature;
+    }
+
+    private static final class SimpleSignature extends Signature {
+        private SimpleSignature(String signature) {
+            super(signature);
         }
     }
 
     private static sealed abstract class ClassSignatureLike extends Signature {
-        abstract protected String partial();
+        private final String partial;
 
-        @Override
-        public String signature() {
-            return "L" + partial() + ";";
+        private ClassSignatureLike(String partial) {
+            super("L" + partial + ";");
+            this.partial = partial;
         }
 
         @Override
         public Signature inner(String name, Collection<TypeArgument> typeArguments) {
-            return new InnerClassSignature(name, this, Optional.of(typeArguments.stream().toList()));
+            return new InnerClassSignature(name, this, List.copyOf(typeArguments));
         }
 
         @Override
         public Signature inner(String name) {
-            return new InnerClassSignature(name, this, Optional.empty());
+            return new InnerClassSignature(name, this, null);
         }
     }
 
     private static final class ClassSignature extends ClassSignatureLike {
-        private final String classInternalName;
-        private final Optional<List<TypeArgument>> typeArguments;
-
-        private ClassSignature(String classInternalName, Optional<List<TypeArgument>> typeArguments) {
-            this.classInternalName = classInternalName;
-            this.typeArguments = typeArguments;
-        }
-
-        @Override
-        public String partial() {
-            return classInternalName + typeArguments.map(l -> "<"+l.stream().map(arg -> arg.typeArgument).collect(Collectors.joining())+">").orElse("");
+        private ClassSignature(String classInternalName, @Nullable List<TypeArgument> typeArguments) {
+            super(classInternalName + typeArguments(typeArguments));
         }
     }
 
     private static final class InnerClassSignature extends ClassSignatureLike {
-        private final String innerName;
-        private final ClassSignatureLike parent;
-        private final Optional<List<TypeArgument>> typeArguments;
-
-        private InnerClassSignature(String innerName, ClassSignatureLike parent, Optional<List<TypeArgument>> typeArguments) {
-            this.innerName = innerName;
-            this.parent = parent;
-            this.typeArguments = typeArguments;
+        private InnerClassSignature(String innerName, ClassSignatureLike parent, @Nullable List<TypeArgument> typeArguments) {
+            super(parent.partial + "." + innerName + typeArguments(typeArguments));
         }
+    }
 
-        @Override
-        public String partial() {
-            return parent.partial() + "." + innerName + typeArguments.map(l -> "<"+l.stream().map(arg -> arg.typeArgument).collect(Collectors.joining())+">").orElse("");
+    private static String typeArguments(@Nullable List<TypeArgument> typeArguments) {
+        if (typeArguments == null) {
+            return "";
+        }
+        var builder = new StringBuilder("<");
+        for (var typeArgument : typeArguments) {
+            builder.append(typeArgument.typeArgument);
         }
+        return builder.append('>').toString();
+    }
+
+    private static Signature simple(String signature) {
+        var common = COMMON.get(signature);
+        return common != null ? common : new SimpleSignature(signature);
     }
 
     public Signature inner(String name) {
@@ -83,10 +105,38 @@ public Signature array() {
         return new SimpleSignature("["+this.signature());
     }
 
-    abstract public String signature();
+    public final String signature() {
+        return signature;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return this == o || o instanceof Signature other && signature.equals(other.signature);
+    }
+
+    @Override
+    public int hashCode() {
+        return signature.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return signature;
+    }
+
+    /**
+     * Parses a field or type signature, as found in a {@code Signature} attribute on a field.
+     * @param signature the signature to parse
+     * @return the parsed signature
+     * @throws IllegalArgumentException if the signature is malformed
+     */
+    public static Signature parse(String signature) {
+        return SignatureParser.parseType(signature);
+    }
 
     public static Signature classType(String name) {
-        return new ClassSignature(name, Optional.empty());
+        var common = COMMON.get("L" + name + ";");
+        return common != null ? common : new ClassSignature(name, null);
     }
 
     public static Signature classType(String name, TypeArgument... typeArguments) {
@@ -94,19 +144,19 @@ public static Signature classType(String name, TypeArgument... typeArguments) {
     }
 
     public static Signature classType(String name, Collection<TypeArgument> typeArguments) {
-        return new ClassSignature(name, Optional.of(typeArguments.stream().toList()));
+        return new ClassSignature(name, List.copyOf(typeArguments));
     }
 
     public static Signature classType(ClassDesc type) {
         if (type.isPrimitive() || type.isArray()) {
-            return new SimpleSignature(type.descriptorString());
+            return simple(type.descriptorString());
         }
 
         if (!type.isClassOrInterface()) {
             throw new IllegalArgumentException("Type "+type+" is not an object type");
         }
         var name = type.descriptorString().substring(1, type.descriptorString().length()-1); // remove L and ;
-        return new ClassSignature(name, Optional.empty());
+        return classType(name);
     }
 
     public static Signature classType(ClassDesc type, TypeArgument... typeArguments) {
@@ -115,14 +165,14 @@ public static Signature classType(ClassDesc type, TypeArgument... typeArguments)
 
     public static Signature classType(ClassDesc type, Collection<TypeArgument> typeArguments) {
         if (type.isPrimitive()) {
-            return new SimpleSignature(type.descriptorString());
+            return simple(type.descriptorString());
         }
 
         if (!type.isClassOrInterface()) {
             throw new IllegalArgumentException("Type "+type+" is not an object type");
         }
         var name = type.descriptorString().substring(1, type.descriptorString().length()-1); // remove L and ;
-        return new ClassSignature(name, Optional.of(typeArguments.stream().toList()));
+        return new ClassSignature(name, List.copyOf(typeArguments));
     }
 
     public static Signature classType(Class<?> clazz) {
@@ -142,15 +192,36 @@ public static Signature typeVariable(String name) {
     }
 
     public static final class TypeArgument {
+        private static final TypeArgument WILDCARD = new TypeArgument("*");
+
         private final String typeArgument;
 
         private TypeArgument(String typeArgument) {
             this.typeArgument = typeArgument;
         }
+
+        @Override
+        public boolean equals(Object o) {
+            return this == o || o instanceof TypeArgument other && typeArgument.equals(other.typeArgument);
+        }
+
+        @Override
+        public int hashCode() {
+            return typeArgument.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return typeArgument;
+        }
     }
 
     public static TypeArgument wildcard() {
-        return new TypeArgument("*");
+        return TypeArgument.WILDCARD;
+    }
+
+    public static TypeArgument exact(Signature signature) {
+        return new TypeArgument(signature.signature());
     }
 
     public static TypeArgument extendsBound(Signature signature) {
@@ -0,0 +1,177 @@
+package dev.lukebemish.bytecodebuilder;
+
+import java.lang.constant.ClassDesc;
+import java.util.ArrayList;
+import java.util.List;
+
+final class SignatureParser {
+    private final String signature;
+    private int position;
+
+    private SignatureParser(String signature) {
+        this.signature = signature;
+    }
+
+    static Signature parseType(String signature) {
+        var parser = new SignatureParser(signature);
+        var result = parser.referenceOrBase();
+        parser.end();
+        return result;
+    }
+
+    static void validateMethod(String signature) {
+        var parser = new SignatureParser(signature);
+        parser.typeParameters();
+        parser.expect('(');
+        while (parser.peek() != ')') {
+            parser.referenceOrBase();
+        }
+        parser.expect(')');
+        if (parser.peek() == 'V') {
+            parser.position++;
+        } else {
+            parser.referenceOrBase();
+        }
+        while (parser.position < signature.length()) {
+            parser.expect('^');
+            if (parser.peek() == 'T') {
+                parser.typeVariable();
+            } else {
+                parser.classType();
+            }
+        }
+    }
+
+    static void validateClass(String signature) {
+        var parser = new SignatureParser(signature);
+        parser.typeParameters();
+        parser.classType();
+        while (parser.position < signature.length()) {
+            parser.classType();
+        }
+    }
+
+    private void typeParameters() {
+        if (peek() != '<') {
+            return;
+        }
+        position++;
+        do {
+            identifier();
+            expect(':');
+            if (peek() != ':') {
+                reference();
+            }
+            while (peek() == ':') {
+                position++;
+                reference();
+            }
+        } while (peek() != '>');
+        position++;
+    }
+
+    private Signature referenceOrBase() {
+        return switch (peek()) {
+            case 'B', 'C', 'D', 'F', 'I', 'J', 'S', 'Z' -> Signature.classType(ClassDesc.ofDescriptor(String.valueOf(signature.charAt(position++))));
+            default -> reference();
+        };
+    }
+
+    private Signature reference() {
+        return switch (peek()) {
+            case 'L' -> classType();
+            case 'T' -> typeVariable();
+            case '[' -> {
+                position++;
+                yield referenceOrBase().array();
+            }
+            default -> throw malformed();
+        };
+    }
+
+    private Signature typeVariable() {
+        expect('T');
+        var name = identifier();
+        expect(';');
+        return Signature.typeVariable(name);
+    }
+
+    private Signature classType() {
+        expect('L');
+        var start = position;
+        while (position < signature.length() && ";<.".indexOf(signature.charAt(position)) == -1) {
+            position++;
+        }
+        if (start == position) {
+            throw malformed();
+        }
+        var name = signature.substring(start, position);
+        var result = peek() == '<' ? Signature.classType(name, typeArguments()) : Signature.classType(name);
+        while (peek() == '.') {
+            position++;
+            var inner = identifier();
+            result = peek() == '<' ? result.inner(inner, typeArguments()) : result.inner(inner);
+        }
+        expect(';');
+        return result;
+    }
+
+    private List<Signature.TypeArgument> typeArguments() {
+        expect('<');
+        var arguments = new ArrayList<Signature.TypeArgument>();
+        do {
+            arguments.add(switch (peek()) {
+                case '*' -> {
+                    position++;
+                    yield Signature.wildcard();
+                }
+                case '+' -> {
+                    position++;
+                    yield Signature.extendsBound(reference());
+                }
+                case '-' -> {
+                    position++;
+                    yield Signature.superBound(reference());
+                }
+                default -> Signature.exact(reference());
+            });
+        } while (peek() != '>');
+        position++;
+        return arguments;
+    }
+
+    private String identifier() {
+        var start = position;
+        while (position < signature.length() && ".;[/<>:".indexOf(signature.charAt(position)) == -1) {
+            position++;
+        }
+        if (start == position) {
+            throw malformed();
+        }
+        return signature.substring(start, position);
+    }
+
+    private char peek() {
+        if (position >= signature.length()) {
+            throw malformed();
+        }
+        return signature.charAt(position);
+    }
+
+    private void expect(char c) {
+        if (peek() != c) {
+            throw malformed();
+        }
+        position++;
+    }
+
+    private void end() {
+        if (position != signature.length()) {
+            throw malformed();
+        }
+    }
+
+    private IllegalArgumentException malformed() {
+        return new IllegalArgumentException("Malformed signature " + signature + " at index " + position);
+    }
+}
@@ -0,0 +1,1542 @@
+package dev.lukebemish.bytecodebuilder;
+
+import org.jspecify.annotations.Nullable;
+import org.objectweb.asm.AnnotationVisitor;
+import org.objectweb.asm.Attribute;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ConstantDynamic;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.RecordComponentVisitor;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.TypePath;
+import org.objectweb.asm.signature.SignatureReader;
+import org.objectweb.asm.signature.SignatureVisitor;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Rewrites a generic class compiled by javac so that some of its class type variables are replaced by primitive types.
+ * Which values are of a replaced type variable is found by following them through each method from where they are
+ * declared to be: parameters, fields, array elements, and return values of the class's own members, and locals
+ * declared in the local variable type table if there is one. Values of a replaced type variable are boxed where they
+ * meet code expecting a reference, and references are unboxed where code expects a replaced type variable.
+ */
+final class Specializer extends ClassVisitor {
+    private static final Type OBJECT = Type.getObjectType("java/lang/Object");
+    private static final SignatureVisitor IGNORED = new SignatureVisitor(Opcodes.ASM9) {};
+
+    private record Value(int tag, @Nullable String variable, int origin) {
+        static final int INT = 0;
+        static final int FLOAT = 1;
+        static final int LONG = 2;
+        static final int DOUBLE = 3;
+        static final int REFERENCE = 4;
+        static final int NULL = 5;
+        // A value of a replaced type variable
+        static final int VARIABLE = 6;
+        // An array of a replaced type variable
+        static final int ARRAY = 7;
+        // An array of the erasure of a type variable, which may turn out to be an array of that variable
+        static final int FRESH = 8;
+        static final int TOP = 9;
+
+        static final Value INT_VALUE = new Value(INT, null, -1);
+        static final Value FLOAT_VALUE = new Value(FLOAT, null, -1);
+        static final Value LONG_VALUE = new Value(LONG, null, -1);
+        static final Value DOUBLE_VALUE = new Value(DOUBLE, null, -1);
+        static final Value REFERENCE_VALUE = new Value(REFERENCE, null, -1);
+        static final Value NULL_VALUE = new Value(NULL, null, -1);
+        static final Value TOP_VALUE = new Value(TOP, null, -1);
+
+        static Value of(Type type) {
+            return switch (type.getSort()) {
+                case Type.BOOLEAN, Type.CHAR, Type.BYTE, Type.SHORT, Type.INT -> INT_VALUE;
+                case Type.FLOAT -> FLOAT_VALUE;
+                case Type.LONG -> LONG_VALUE;
+                case Type.DOUBLE -> DOUBLE_VALUE;
+                default -> REFERENCE_VALUE;
+            };
+        }
+
+        int size() {
+            return tag == LONG || tag == DOUBLE ? 2 : 1;
+        }
+
+        @Override
+        public String toString() {
+            return switch (tag) {
+                case INT -> "int";
+                case FLOAT -> "float";
+                case LONG -> "long";
+                case DOUBLE -> "double";
+                case NULL -> "null";
+                case VARIABLE -> variable;
+                case ARRAY -> variable + "[]";
+                case TOP -> "an unknown value";
+                default -> "a reference";
+            };
+        }
+    }
+
+    private record MethodShape(String descriptor, @Nullable Value returned, @Nullable Value[] parameters, Set<String> shadowed, boolean bridged) {}
+
+    private final String template;
+    private final String target;
+    private final boolean isInterface;
+    private final Map<String, Type> bindings;
+    private final Map<String, Type> erasures = new HashMap<>();
+    private final Map<String, Value> fields = new HashMap<>();
+    private final Map<String, MethodShape> methods = new HashMap<>();
+    private final List<String[]> bridges = new ArrayList<>();
+    private final Map<String, Runnable> arrayCopiers = new LinkedHashMap<>();
+
+    private Specializer(ClassVisitor classVisitor, ClassReader reader, String target, Map<String, Type> bindings) {
+        super(Opcodes.ASM9, classVisitor);
+        this.template = reader.getClassName();
+        this.target = target;
+        this.isInterface = (reader.getAccess() & Opcodes.ACC_INTERFACE) != 0;
+        this.bindings = bindings;
+        reader.accept(new ClassVisitor(Opcodes.ASM9) {
+            @Override
+            public void visit(int version, int access, String name, @Nullable String signature, String superName, String[] interfaces) {
+                if (signature == null) {
+                    throw new IllegalArgumentException("Class " + name + " is not generic");
+                }
+                new SignatureReader(signature).accept(new SignatureVisitor(Opcodes.ASM9) {
+                    private @Nullable String parameter;
+
+                    @Override
+                    public void visitFormalTypeParameter(String name) {
+                        parameter = name;
+                    }
+
+                    @Override
+                    public SignatureVisitor visitClassBound() {
+                        return bound();
+                    }
+
+                    @Override
+                    public SignatureVisitor visitInterfaceBound() {
+                        return bound();
+                    }
+
+                    @Override
+                    public SignatureVisitor visitSuperclass() {
+                        parameter = null;
+                        return IGNORED;
+                    }
+
+                    @Override
+                    public SignatureVisitor visitInterface() {
+                        return IGNORED;
+                    }
+
+                    // The erasure of a type variable is that of its first bound
+                    private SignatureVisitor bound() {
+                        var variable = parameter;
+                        if (variable == null || erasures.containsKey(variable)) {
+                            return IGNORED;
+                        }
+                        return new SignatureVisitor(Opcodes.ASM9) {
+                            @Override
+                            public void visitClassType(String name) {
+                                erasures.putIfAbsent(variable, Type.getObjectType(name));
+                            }
+
+                            @Override
+                            public void visitTypeVariable(String name) {
+                                erasures.putIfAbsent(variable, erasures.getOrDefault(name, OBJECT));
+                            }
+
+                            @Override
+                            public SignatureVisitor visitTypeArgument(char wildcard) {
+                                return IGNORED;
+                            }
+                        };
+                    }
+                });
+                for (var variable : bindings.keySet()) {
+                    if (!erasures.containsKey(variable)) {
+                        throw new IllegalArgumentException("Class " + name + " has no type variable " + variable);
+                    }
+                }
+            }
+
+            @Override
+            public @Nullable FieldVisitor visitField(int access, String name, String descriptor, @Nullable String signature, @Nullable Object value) {
+                var shape = signature == null ? null : shape(signature, Set.of());
+                if (shape != null) {
+                    fields.put(name + descriptor, shape);
+                }
+                return null;
+            }
+
+            @Override
+            public @Nullable MethodVisitor visitMethod(int access, String name, String descriptor, @Nullable String signature, String @Nullable [] exceptions) {
+                if (signature != null) {
+                    var shape = methodShape(access, name, descriptor, signature);
+                    methods.put(name + descriptor, shape);
+                    if (shape.bridged()) {
+                        bridges.add(new String[] {Integer.toString(access), name, descriptor});
+                    }
+                }
+                return null;
+            }
+        }, ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+    }
+
+    static void specialize(ClassVisitor classVisitor, ClassReader reader, String target, Map<String, Type> bindings) {
+        reader.accept(new Specializer(classVisitor, reader, target, bindings), ClassReader.SKIP_FRAMES);
+    }
+
+    private @Nullable Value shape(String signature, Set<String> shadowed) {
+        var shape = new TypeShape(shadowed);
+        new SignatureReader(signature).acceptType(shape);
+        return shape.value();
+    }
+
+    private MethodShape methodShape(int access, String name, String descriptor, String signature) {
+        var shadowed = new HashSet<String>();
+        var parameters = new ArrayList<TypeShape>();
+        var returned = new TypeShape[1];
+        new SignatureReader(signature).accept(new SignatureVisitor(Opcodes.ASM9) {
+            @Override
+            public void visitFormalTypeParameter(String name) {
+                shadowed.add(name);
+            }
+
+            @Override
+            public SignatureVisitor visitClassBound() {
+                return IGNORED;
+            }
+
+            @Override
+            public SignatureVisitor visitInterfaceBound() {
+                return IGNORED;
+            }
+
+            @Override
+            public SignatureVisitor visitParameterType() {
+                var shape = new TypeShape(shadowed);
+                parameters.add(shape);
+                return shape;
+            }
+
+            @Override
+            public SignatureVisitor visitReturnType() {
+                returned[0] = new TypeShape(shadowed);
+                return returned[0];
+            }
+
+            @Override
+            public SignatureVisitor visitExceptionType() {
+                return IGNORED;
+            }
+        });
+        var arguments = Type.getArgumentTypes(descriptor);
+        // Signatures may leave out synthetic parameters, such as those of enum constructors
+        var values = new Value[arguments.length];
+        if (parameters.size() == arguments.length) {
+            for (int i = 0; i < values.length; i++) {
+                values[i] = parameters.get(i).value();
+            }
+        }
+        var returnValue = returned[0] == null ? null : returned[0].value();
+        var newArguments = new Type[arguments.length];
+        for (int i = 0; i < arguments.length; i++) {
+            newArguments[i] = values[i] == null ? rename(arguments[i]) : type(values[i]);
+        }
+        var newDescriptor = Type.getMethodDescriptor(returnValue == null ? rename(Type.getReturnType(descriptor)) : type(returnValue), newArguments);
+        var changed = returnValue != null || Arrays.stream(values).anyMatch(v -> v != null);
+        var bridged = changed && (access & (Opcodes.ACC_STATIC | Opcodes.ACC_PRIVATE)) == 0 && !name.equals("<init>");
+        return new MethodShape(newDescriptor, returnValue, values, Set.copyOf(shadowed), bridged);
+    }
+
+    // Records whether a type signature is exactly a replaced type variable, or a one-dimensional array of one
+    private final class TypeShape extends SignatureVisitor {
+        private final Set<String> shadowed;
+        private int dimensions;
+        private @Nullable String variable;
+        private boolean other;
+
+        private TypeShape(Set<String> shadowed) {
+            super(Opcodes.ASM9);
+            this.shadowed = shadowed;
+        }
+
+        @Override
+        public SignatureVisitor visitArrayType() {
+            dimensions++;
+            return this;
+        }
+
+        @Override
+        public void visitTypeVariable(String name) {
+            variable = name;
+        }
+
+        @Override
+        public void visitBaseType(char descriptor) {
+            other = true;
+        }
+
+        @Override
+        public void visitClassType(String name) {
+            other = true;
+        }
+
+        @Override
+        public SignatureVisitor visitTypeArgument(char wildcard) {
+            return IGNORED;
+        }
+
+        @Nullable Value value() {
+            if (other || variable == null || shadowed.contains(variable) || !bindings.containsKey(variable)) {
+                return null;
+            }
+            return switch (dimensions) {
+                case 0 -> new Value(Value.VARIABLE, variable, -1);
+                case 1 -> new Value(Value.ARRAY, variable, -1);
+                default -> null;
+            };
+        }
+    }
+
+    private Type type(Value value) {
+        return switch (value.tag()) {
+            case Value.INT -> Type.INT_TYPE;
+            case Value.FLOAT -> Type.FLOAT_TYPE;
+            case Value.LONG -> Type.LONG_TYPE;
+            case Value.DOUBLE -> Type.DOUBLE_TYPE;
+            case Value.VARIABLE -> bindings.get(value.variable());
+            case Value.ARRAY -> Type.getType("[" + bindings.get(value.variable()).getDescriptor());
+            default -> OBJECT;
+        };
+    }
+
+    private Type rename(Type type) {
+        return switch (type.getSort()) {
+            case Type.OBJECT -> type.getInternalName().equals(template) ? Type.getObjectType(target) : type;
+            case Type.ARRAY -> Type.getType("[".repeat(type.getDimensions()) + rename(type.getElementType()).getDescriptor());
+            case Type.METHOD -> Type.getMethodType(rename(type.getReturnType()), Arrays.stream(type.getArgumentTypes()).map(this::rename).toArray(Type[]::new));
+            default -> type;
+        };
+    }
+
+    private String renameInternal(String name) {
+        return rename(Type.getObjectType(name)).getInternalName();
+    }
+
+    private String renameDescriptor(String descriptor) {
+        return rename(Type.getType(descriptor)).getDescriptor();
+    }
+
+    private Object renameConstant(Object constant) {
+        return switch (constant) {
+            case Type type -> rename(type);
+            case Handle handle -> rename(handle);
+            case ConstantDynamic dynamic -> {
+                var arguments = new Object[dynamic.getBootstrapMethodArgumentCount()];
+                for (int i = 0; i < arguments.length; i++) {
+                    arguments[i] = renameConstant(dynamic.getBootstrapMethodArgument(i));
+                }
+                yield new ConstantDynamic(dynamic.getName(), renameDescriptor(dynamic.getDescriptor()), rename(dynamic.getBootstrapMethod()), arguments);
+            }
+            default -> constant;
+        };
+    }
+
+    private Handle rename(Handle handle) {
+        var descriptor = handle.getDesc();
+        if (handle.getOwner().equals(template)) {
+            if (handle.getTag() <= Opcodes.H_PUTSTATIC) {
+                var field = fields.get(handle.getName() + descriptor);
+                if (field != null) {
+                    return new Handle(handle.getTag(), target, handle.getName(), type(field).getDescriptor(), handle.isInterface());
+                }
+            } else {
+                var method = methods.get(handle.getName() + descriptor);
+                if (method != null && !method.bridged() && !method.descriptor().equals(renameDescriptor(descriptor))) {
+                    throw new IllegalArgumentException("Cannot refer to specialized method " + handle.getName() + descriptor + " of " + template + " with a method handle");
+                }
+            }
+        }
+        return new Handle(handle.getTag(), renameInternal(handle.getOwner()), handle.getName(), renameDescriptor(descriptor), handle.isInterface());
+    }
+
+    private static String wrapper(Type primitive) {
+        return switch (primitive.getSort()) {
+            case Type.BOOLEAN -> "java/lang/Boolean";
+            case Type.CHAR -> "java/lang/Character";
+            case Type.BYTE -> "java/lang/Byte";
+            case Type.SHORT -> "java/lang/Short";
+            case Type.INT -> "java/lang/Integer";
+            case Type.FLOAT -> "java/lang/Float";
+            case Type.LONG -> "java/lang/Long";
+            case Type.DOUBLE -> "java/lang/Double";
+            default -> throw new IllegalArgumentException("Type " + primitive + " is not primitive");
+        };
+    }
+
+    private static int arrayType(Type primitive) {
+        return switch (primitive.getSort()) {
+            case Type.BOOLEAN -> Opcodes.T_BOOLEAN;
+            case Type.CHAR -> Opcodes.T_CHAR;
+            case Type.BYTE -> Opcodes.T_BYTE;
+            case Type.SHORT -> Opcodes.T_SHORT;
+            case Type.INT -> Opcodes.T_INT;
+            case Type.FLOAT -> Opcodes.T_FLOAT;
+            case Type.LONG -> Opcodes.T_LONG;
+            case Type.DOUBLE -> Opcodes.T_DOUBLE;
+            default -> throw new IllegalArgumentException("Type " + primitive + " is not primitive");
+        };
+    }
+
+    @Override
+    public void visit(int version, int access, String name, @Nullable String signature, @Nullable String superName, String @Nullable [] interfaces) {
+        // The header is written by the class context
+    }
+
+    @Override
+    public void visitOuterClass(String owner, @Nullable String name, @Nullable String descriptor) {}
+
+    @Override
+    public void visitNestHost(String nestHost) {}
+
+    @Override
+    public void visitNestMember(String nestMember) {}
+
+    @Override
+    public void visitInnerClass(String name, @Nullable String outerName, @Nullable String innerName, int access) {}
+
+    @Override
+    public void visitPermittedSubclass(String permittedSubclass) {}
+
+    @Override
+    public @Nullable RecordComponentVisitor visitRecordComponent(String name, String descriptor, @Nullable String signature) {
+        var shape = signature == null ? null : shape(signature, Set.of());
+        return super.visitRecordComponent(name, shape == null ? renameDescriptor(descriptor) : type(shape).getDescriptor(), null);
+    }
+
+    @Override
+    public @Nullable FieldVisitor visitField(int access, String name, String descriptor, @Nullable String signature, @Nullable Object value) {
+        var shape = fields.get(name + descriptor);
+        return super.visitField(access, name, shape == null ? renameDescriptor(descriptor) : type(shape).getDescriptor(), null, value);
+    }
+
+    @Override
+    public @Nullable MethodVisitor visitMethod(int access, String name, String descriptor, @Nullable String signature, String @Nullable [] exceptions) {
+        var shape = methods.get(name + descriptor);
+        var newDescriptor = shape == null ? renameDescriptor(descriptor) : shape.descriptor();
+        var methodVisitor = super.visitMethod(access, name, newDescriptor, null, exceptions);
+        if (methodVisitor == null) {
+            return null;
+        }
+        return new MethodSpecializer(methodVisitor, access, name, descriptor, shape);
+    }
+
+    @Override
+    public void visitEnd() {
+        // Methods that changed descriptor keep their erased form as a bridge, which may implement an erased supertype method
+        for (var bridge : bridges) {
+            var access = Integer.parseInt(bridge[0]);
+            var name = bridge[1];
+            var descriptor = bridge[2];
+            var shape = methods.get(name + descriptor);
+            var mv = super.visitMethod((access & (Opcodes.ACC_PUBLIC | Opcodes.ACC_PROTECTED)) | Opcodes.ACC_BRIDGE | Opcodes.ACC_SYNTHETIC, name, renameDescriptor(descriptor), null, null);
+            mv.visitCode();
+            mv.visitVarInsn(Opcodes.ALOAD, 0);
+            var arguments = Type.getArgumentTypes(descriptor);
+            var slot = 1;
+            for (int i = 0; i < arguments.length; i++) {
+                var argument = rename(arguments[i]);
+                mv.visitVarInsn(argument.getOpcode(Opcodes.ILOAD), slot);
+                slot += argument.getSize();
+                var value = shape.parameters()[i];
+                if (value != null && value.tag() == Value.VARIABLE) {
+                    unbox(mv, bindings.get(value.variable()));
+                } else if (value != null && value.tag() == Value.ARRAY) {
+                    var copier = arrayCopier(false, argument, bindings.get(value.variable()));
+                    mv.visitMethodInsn(Opcodes.INVOKESTATIC, target, copier[0], copier[1], isInterface);
+                } else if (value != null) {
+                    mv.visitTypeInsn(Opcodes.CHECKCAST, type(value).getInternalName());
+                }
+            }
+            mv.visitMethodInsn(isInterface ? Opcodes.INVOKEINTERFACE : Opcodes.INVOKEVIRTUAL, target, name, shape.descriptor(), isInterface);
+            var returned = shape.returned();
+            var returnType = rename(Type.getReturnType(descriptor));
+            if (returned != null && returned.tag() == Value.VARIABLE) {
+                box(mv, bindings.get(returned.variable()));
+            } else if (returned != null && returned.tag() == Value.ARRAY) {
+                var copier = arrayCopier(true, returnType, bindings.get(returned.variable()));
+                mv.visitMethodInsn(Opcodes.INVOKESTATIC, target, copier[0], copier[1], isInterface);
+            }
+            mv.visitInsn(returnType.getOpcode(Opcodes.IRETURN));
+            mv.visitMaxs(0, 0);
+            mv.visitEnd();
+        }
+        for (var copier : arrayCopiers.values()) {
+            copier.run();
+        }
+        // The end of the class is visited by the class context
+    }
+
+    // Finds or declares a helper copying an array of a replaced type variable to or from its erased form, element by
+    // element, as a bridge cannot pass one array off as the other; returns its name and descriptor
+    private String[] arrayCopier(boolean boxing, Type erased, Type primitive) {
+        var primitiveArray = Type.getType("[" + primitive.getDescriptor());
+        var descriptor = boxing ? Type.getMethodDescriptor(erased, primitiveArray) : Type.getMethodDescriptor(primitiveArray, erased);
+        var name = (boxing ? "box$" : "unbox$") + primitive.getDescriptor() + "$" + erased.getElementType().getInternalName().replace('/', '$');
+        arrayCopiers.computeIfAbsent(name + descriptor, k -> () -> {
+            var mv = super.visitMethod(Opcodes.ACC_PRIVATE | Opcodes.ACC_STATIC | Opcodes.ACC_SYNTHETIC, name, descriptor, null, null);
+            mv.visitCode();
+            var nonNull = new Label();
+            mv.visitVarInsn(Opcodes.ALOAD, 0);
+            mv.visitJumpInsn(Opcodes.IFNONNULL, nonNull);
+            mv.visitInsn(Opcodes.ACONST_NULL);
+            mv.visitInsn(Opcodes.ARETURN);
+            mv.visitLabel(nonNull);
+            mv.visitVarInsn(Opcodes.ALOAD, 0);
+            mv.visitInsn(Opcodes.ARRAYLENGTH);
+            if (boxing) {
+                mv.visitTypeInsn(Opcodes.ANEWARRAY, erased.getElementType().getInternalName());
+            } else {
+                mv.visitIntInsn(Opcodes.NEWARRAY, arrayType(primitive));
+            }
+            mv.visitVarInsn(Opcodes.ASTORE, 1);
+            mv.visitInsn(Opcodes.ICONST_0);
+            mv.visitVarInsn(Opcodes.ISTORE, 2);
+            var loop = new Label();
+            var end = new Label();
+            mv.visitLabel(loop);
+            mv.visitVarInsn(Opcodes.ILOAD, 2);
+            mv.visitVarInsn(Opcodes.ALOAD, 1);
+            mv.visitInsn(Opcodes.ARRAYLENGTH);
+            mv.visitJumpInsn(Opcodes.IF_ICMPGE, end);
+            mv.visitVarInsn(Opcodes.ALOAD, 1);
+            mv.visitVarInsn(Opcodes.ILOAD, 2);
+            mv.visitVarInsn(Opcodes.ALOAD, 0);
+            mv.visitVarInsn(Opcodes.ILOAD, 2);
+            if (boxing) {
+                mv.visitInsn(primitive.getOpcode(Opcodes.IALOAD));
+                box(mv, primitive);
+                mv.visitInsn(Opcodes.AASTORE);
+            } else {
+                mv.visitInsn(Opcodes.AALOAD);
+                unbox(mv, primitive);
+                mv.visitInsn(primitive.getOpcode(Opcodes.IASTORE));
+            }
+            mv.visitIincInsn(2, 1);
+            mv.visitJumpInsn(Opcodes.GOTO, loop);
+            mv.visitLabel(end);
+            mv.visitVarInsn(Opcodes.ALOAD, 1);
+            mv.visitInsn(Opcodes.ARETURN);
+            mv.visitMaxs(0, 0);
+            mv.visitEnd();
+        });
+        return new String[] {name, descriptor};
+    }
+
+    private static void box(MethodVisitor mv, Type primitive) {
+        var wrapper = wrapper(primitive);
+        mv.visitMethodInsn(Opcodes.INVOKESTATIC, wrapper, "valueOf", Type.getMethodDescriptor(Type.getObjectType(wrapper), primitive), false);
+    }
+
+    private static void unbox(MethodVisitor mv, Type primitive) {
+        var wrapper = wrapper(primitive);
+        mv.visitTypeInsn(Opcodes.CHECKCAST, wrapper);
+        mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, wrapper, primitive.getClassName() + "Value", Type.getMethodDescriptor(primitive), false);
+    }
+
+    // Leaves the result of comparing two values of a primitive type on the stack, as their wrapper's equals and compareTo do
+    private static void compare(MethodVisitor mv, Type primitive) {
+        mv.visitMethodInsn(Opcodes.INVOKESTATIC, wrapper(primitive), "compare", Type.getMethodDescriptor(Type.INT_TYPE, primitive, primitive), false);
+    }
+
+    private sealed interface Insn {}
+    private record Plain(int opcode) implements Insn {}
+    private record IntOperand(int opcode, int operand) implements Insn {}
+    private record Local(int opcode, int index) implements Insn {}
+    private record TypeOperand(int opcode, String type) implements Insn {}
+    private record FieldAccess(int opcode, String owner, String name, String descriptor) implements Insn {}
+    private record Invoke(int opcode, String owner, String name, String descriptor, boolean isInterface) implements Insn {}
+    private record Dynamic(String name, String descriptor, Handle bootstrap, Object[] arguments) implements Insn {}
+    private record Jump(int opcode, Label label) implements Insn {}
+    private record Mark(Label label) implements Insn {}
+    private record Line(int line, Label start) implements Insn {}
+    private record Constant(Object value) implements Insn {}
+    private record Increment(int index, int increment) implements Insn {}
+    private record Switch(int min, int max, int @Nullable [] keys, Label fallback, Label[] labels) implements Insn {}
+    private record MultiArray(String descriptor, int dimensions) implements Insn {}
+
+    private record TryCatch(Label start, Label end, Label handler, @Nullable String type) {}
+    private record Declared(int index, Label start, Label end, Value value) {}
+
+    private static final class Frame {
+        private final Value[] locals;
+        private final ArrayList<Value> stack;
+
+        private Frame(Value[] locals, ArrayList<Value> stack) {
+            this.locals = locals;
+            this.stack = stack;
+        }
+
+        private Frame copy() {
+            return new Frame(locals.clone(), new ArrayList<>(stack));
+        }
+
+        private Value peek(int depth) {
+            return stack.get(stack.size() - 1 - depth);
+        }
+
+        private void set(int depth, Value value) {
+            stack.set(stack.size() - 1 - depth, value);
+        }
+
+        private Value pop() {
+            return stack.removeLast();
+        }
+
+        private void pop(int count) {
+            for (int i = 0; i < count; i++) {
+                stack.removeLast();
+            }
+        }
+
+        private void push(Value value) {
+            stack.add(value);
+        }
+
+        private void store(int index, Value value) {
+            if (index > 0 && locals[index - 1].size() == 2) {
+                locals[index - 1] = Value.TOP_VALUE;
+            }
+            locals[index] = value;
+            if (value.size() == 2) {
+                locals[index + 1] = Value.TOP_VALUE;
+            }
+        }
+    }
+
+    private final class MethodSpecializer extends MethodVisitor {
+        private final String name;
+        private final String descriptor;
+        private final boolean isStatic;
+        private final @Nullable MethodShape shape;
+        private final List<Insn> insns = new ArrayList<>();
+        private final List<TryCatch> tryCatches = new ArrayList<>();
+        private final List<Declared> declared = new ArrayList<>();
+        private final Map<Label, Integer> positions = new HashMap<>();
+        private final Map<Integer, Value> resolutions = new HashMap<>();
+        private int[] parameterSlots = new int[0];
+        private int oldParameterSize;
+        private int newParameterSize;
+        private int temporaries;
+        private @Nullable Frame @Nullable [] frames;
+        private @Nullable MethodVisitor out;
+
+        private MethodSpecializer(MethodVisitor methodVisitor, int access, String name, String descriptor, @Nullable MethodShape shape) {
+            super(Opcodes.ASM9, methodVisitor);
+            this.name = name;
+            this.descriptor = descriptor;
+            this.isStatic = (access & Opcodes.ACC_STATIC) != 0;
+            this.shape = shape;
+        }
+
+        @Override
+        public void visitFrame(int type, int numLocal, Object[] local, int numStack, Object[] stack) {}
+
+        @Override
+        public void visitInsn(int opcode) {
+            insns.add(new Plain(opcode));
+        }
+
+        @Override
+        public void visitIntInsn(int opcode, int operand) {
+            insns.add(new IntOperand(opcode, operand));
+        }
+
+        @Override
+        public void visitVarInsn(int opcode, int varIndex) {
+            insns.add(new Local(opcode, varIndex));
+        }
+
+        @Override
+        public void visitTypeInsn(int opcode, String type) {
+            insns.add(new TypeOperand(opcode, type));
+        }
+
+        @Override
+        public void visitFieldInsn(int opcode, String owner, String name, String descriptor) {
+            insns.add(new FieldAccess(opcode, owner, name, descriptor));
+        }
+
+        @Override
+        public void visitMethodInsn(int opcode, String owner, String name, String descriptor, boolean isInterface) {
+            insns.add(new Invoke(opcode, owner, name, descriptor, isInterface));
+        }
+
+        @Override
+        public void visitInvokeDynamicInsn(String name, String descriptor, Handle bootstrapMethodHandle, Object... bootstrapMethodArguments) {
+            insns.add(new Dynamic(name, descriptor, bootstrapMethodHandle, bootstrapMethodArguments));
+        }
+
+        @Override
+        public void visitJumpInsn(int opcode, Label label) {
+            insns.add(new Jump(opcode, label));
+        }
+
+        @Override
+        public void visitLabel(Label label) {
+            positions.put(label, insns.size());
+            insns.add(new Mark(label));
+        }
+
+        @Override
+        public void visitLdcInsn(Object value) {
+            insns.add(new Constant(value));
+        }
+
+        @Override
+        public void visitIincInsn(int varIndex, int increment) {
+            insns.add(new Increment(varIndex, increment));
+        }
+
+        @Override
+        public void visitTableSwitchInsn(int min, int max, Label dflt, Label... labels) {
+            insns.add(new Switch(min, max, null, dflt, labels));
+        }
+
+        @Override
+        public void visitLookupSwitchInsn(Label dflt, int[] keys, Label[] labels) {
+            insns.add(new Switch(0, 0, keys, dflt, labels));
+        }
+
+        @Override
+        public void visitMultiANewArrayInsn(String descriptor, int numDimensions) {
+            insns.add(new MultiArray(descriptor, numDimensions));
+        }
+
+        @Override
+        public void visitTryCatchBlock(Label start, Label end, Label handler, @Nullable String type) {
+            tryCatches.add(new TryCatch(start, end, handler, type));
+        }
+
+        @Override
+        public void visitLineNumber(int line, Label start) {
+            insns.add(new Line(line, start));
+        }
+
+        @Override
+        public void visitLocalVariable(String name, String descriptor, @Nullable String signature, Label start, Label end, int index) {
+            var value = signature == null ? null : shape(signature, shape == null ? Set.of() : shape.shadowed());
+            if (value != null) {
+                declared.add(new Declared(index, start, end, value));
+            }
+        }
+
+        @Override
+        public @Nullable AnnotationVisitor visitInsnAnnotation(int typeRef, @Nullable TypePath typePath, String descriptor, boolean visible) {
+            return null;
+        }
+
+        @Override
+        public @Nullable AnnotationVisitor visitTryCatchAnnotation(int typeRef, @Nullable TypePath typePath, String descriptor, boolean visible) {
+            return null;
+        }
+
+        @Override
+        public @Nullable AnnotationVisitor visitLocalVariableAnnotation(int typeRef, @Nullable TypePath typePath, Label[] start, Label[] end, int[] index, String descriptor, boolean visible) {
+            return null;
+        }
+
+        @Override
+        public void visitAttribute(Attribute attribute) {
+            if (!attribute.isCodeAttribute()) {
+                super.visitAttribute(attribute);
+            }
+        }
+
+        @Override
+        public void visitMaxs(int maxStack, int maxLocals) {
+            var arguments = Type.getArgumentTypes(descriptor);
+            parameterSlots = new int[Type.getArgumentsAndReturnSizes(descriptor) >> 2];
+            var oldSlot = isStatic ? 0 : 1;
+            var newSlot = oldSlot;
+            for (int i = 0; i < arguments.length; i++) {
+                var value = shape == null ? null : shape.parameters()[i];
+                parameterSlots[oldSlot] = newSlot;
+                if (arguments[i].getSize() == 2) {
+                    parameterSlots[oldSlot + 1] = newSlot + 1;
+                }
+                oldSlot += arguments[i].getSize();
+                newSlot += value == null ? arguments[i].getSize() : type(value).getSize();
+            }
+            oldParameterSize = oldSlot;
+            newParameterSize = newSlot;
+            var locals = Math.max(maxLocals, oldParameterSize);
+            temporaries = newParameterSize + 2 * (locals - oldParameterSize);
+
+            // Arrays of an erasure are only known to be arrays of a type variable once they meet one, so repeat until
+            // no more are found
+            while (true) {
+                var resolved = resolutions.size();
+                analyze(locals, arguments);
+                if (resolutions.size() == resolved) {
+                    break;
+                }
+            }
+
+            out = mv;
+            for (var tryCatch : tryCatches) {
+                mv.visitTryCatchBlock(tryCatch.start(), tryCatch.end(), tryCatch.handler(), tryCatch.type() == null ? null : renameInternal(tryCatch.type()));
+            }
+            for (int i = 0; i < insns.size(); i++) {
+                var insn = insns.get(i);
+                var frame = frames[i];
+                if (insn instanceof Mark mark) {
+                    mv.visitLabel(mark.label());
+                } else if (insn instanceof Line line) {
+                    mv.visitLineNumber(line.line(), line.start());
+                } else if (frame != null) {
+                    step(i, frame.copy());
+                }
+            }
+            super.visitMaxs(0, 0);
+        }
+
+        private IllegalArgumentException unsupported(int index, String message) {
+            return new IllegalArgumentException("Cannot specialize " + template + "." + name + descriptor + " at instruction " + index + ": " + message);
+        }
+
+        private void analyze(int maxLocals, Type[] arguments) {
+            out = null;
+            frames = new Frame[insns.size()];
+            if (insns.isEmpty()) {
+                return;
+            }
+            var locals = new Value[maxLocals];
+            Arrays.fill(locals, Value.TOP_VALUE);
+            var entry = new Frame(locals, new ArrayList<>());
+            var slot = 0;
+            if (!isStatic) {
+                locals[slot++] = Value.REFERENCE_VALUE;
+            }
+            for (int i = 0; i < arguments.length; i++) {
+                var value = shape == null ? null : shape.parameters()[i];
+                entry.store(slot, value == null ? Value.of(arguments[i]) : value);
+                slot += arguments[i].getSize();
+            }
+            var worklist = new ArrayDeque<Integer>();
+            frames[0] = entry;
+            worklist.add(0);
+            while (!worklist.isEmpty()) {
+                int i = worklist.removeFirst();
+                var in = frames[i];
+                var after = step(i, in.copy());
+                for (var successor : successors(i)) {
+                    if (merge(successor, after, i)) {
+                        worklist.add(successor);
+                    }
+                }
+                for (var tryCatch : tryCatches) {
+                    int start = positions.get(tryCatch.start());
+                    int end = positions.get(tryCatch.end());
+                    if (i >= start && i < end) {
+                        var handler = positions.get(tryCatch.handler());
+                        var stack = new ArrayList<Value>();
+                        stack.add(Value.REFERENCE_VALUE);
+                        var changed = merge(handler, new Frame(in.locals.clone(), stack), i);
+                        changed |= merge(handler, new Frame(after.locals.clone(), stack), i);
+                        if (changed) {
+                            worklist.add(handler);
+                        }
+                    }
+                }
+            }
+        }
+
+        private List<Integer> successors(int i) {
+            var insn = insns.get(i);
+            var successors = new ArrayList<Integer>();
+            switch (insn) {
+                case Jump jump -> {
+                    if (jump.opcode() != Opcodes.GOTO) {
+                        successors.add(i + 1);
+                    }
+                    successors.add(positions.get(jump.label()));
+                }
+                case Switch table -> {
+                    successors.add(positions.get(table.fallback()));
+                    for (var label : table.labels()) {
+                        successors.add(positions.get(label));
+                    }
+                }
+                case Plain plain when (plain.opcode() >= Opcodes.IRETURN && plain.opcode() <= Opcodes.RETURN) || plain.opcode() == Opcodes.ATHROW -> {}
+                default -> {
+                    if (i + 1 < insns.size()) {
+                        successors.add(i + 1);
+                    }
+                }
+            }
+            return successors;
+        }
+
+        private boolean merge(int index, Frame incoming, int from) {
+            var existing = frames[index];
+            if (existing == null) {
+                frames[index] = incoming.copy();
+                return true;
+            }
+            if (existing.stack.size() != incoming.stack.size()) {
+                throw unsupported(from, "stack heights differ at a jump target");
+            }
+            var changed = false;
+            for (int i = 0; i < existing.locals.length; i++) {
+                var merged = merge(existing.locals[i], incoming.locals[i]);
+                if (merged == null) {
+                    merged = Value.TOP_VALUE;
+                }
+                if (!merged.equals(existing.locals[i])) {
+                    existing.locals[i] = merged;
+                    changed = true;
+                }
+            }
+            for (int i = 0; i < existing.stack.size(); i++) {
+                var merged = merge(existing.stack.get(i), incoming.stack.get(i));
+                if (merged == null) {
+                    throw unsupported(from, "a jump target is reached with both " + existing.stack.get(i) + " and " + incoming.stack.get(i) + " on the stack");
+                }
+                if (!merged.equals(existing.stack.get(i))) {
+                    existing.stack.set(i, merged);
+                    changed = true;
+                }
+            }
+            return changed;
+        }
+
+        private @Nullable Value merge(Value a, Value b) {
+            if (a.equals(b)) {
+                return a;
+            } else if (a.tag() == Value.TOP || b.tag() == Value.TOP) {
+                return Value.TOP_VALUE;
+            } else if (a.tag() == Value.NULL && b.tag() >= Value.REFERENCE && b.tag() != Value.VARIABLE) {
+                return b;
+            } else if (b.tag() == Value.NULL && a.tag() >= Value.REFERENCE && a.tag() != Value.VARIABLE) {
+                return a;
+            } else if ((a.tag() == Value.REFERENCE || a.tag() == Value.FRESH) && (b.tag() == Value.REFERENCE || b.tag() == Value.FRESH)) {
+                return Value.REFERENCE_VALUE;
+            }
+            return null;
+        }
+
+        private void resolve(int index, int origin, Value value) {
+            var existing = resolutions.putIfAbsent(origin, value);
+            if (existing != null && !existing.equals(value)) {
+                throw unsupported(index, "an array created at instruction " + origin + " is used both as " + existing + " and as " + value);
+            }
+        }
+
+        private @Nullable Value declared(int index, int position) {
+            for (var declaration : declared) {
+                if (declaration.index() == index && positions.get(declaration.start()) <= position && position < positions.get(declaration.end())) {
+                    return declaration.value();
+                }
+            }
+            return null;
+        }
+
+        private int local(int index) {
+            return index < oldParameterSize ? parameterSlots[index] : newParameterSize + 2 * (index - oldParameterSize);
+        }
+
+        // Converts the value at the given depth to what a consumer expects, spilling the values above it if needed
+        private void sink(int index, Frame frame, int depth, Type expected, @Nullable Value expectedValue) {
+            var value = frame.peek(depth);
+            if (expectedValue != null && expectedValue.tag() == Value.VARIABLE) {
+                if (value.equals(expectedValue)) {
+                    return;
+                } else if (value.tag() != Value.REFERENCE) {
+                    throw unsupported(index, "found " + value + " where " + expectedValue + " is expected");
+                }
+                var primitive = bindings.get(expectedValue.variable());
+                convert(frame, depth, mv -> unbox(mv, primitive));
+                frame.set(depth, expectedValue);
+            } else if (expectedValue != null) {
+                if (value.tag() == Value.FRESH) {
+                    resolve(index, value.origin(), expectedValue);
+                } else if (!value.equals(expectedValue) && value.tag() != Value.NULL) {
+                    throw unsupported(index, "found " + value + " where " + expectedValue + " is expected");
+                }
+            } else if (expected.getSort() == Type.OBJECT || expected.getSort() == Type.ARRAY) {
+                if (value.tag() == Value.VARIABLE) {
+                    var primitive = bindings.get(value.variable());
+                    convert(frame, depth, mv -> box(mv, primitive));
+                    frame.set(depth, Value.REFERENCE_VALUE);
+                } else if (expected.getSort() == Type.ARRAY && value.tag() == Value.FRESH) {
+                    resolve(index, value.origin(), Value.REFERENCE_VALUE);
+                } else if (expected.getSort() == Type.ARRAY && value.tag() == Value.ARRAY) {
+                    throw unsupported(index, "found " + value + " where " + expected.getDescriptor() + " is expected");
+                }
+            }
+        }
+
+        private void convert(Frame frame, int depth, java.util.function.Consumer<MethodVisitor> conversion) {
+            var mv = out;
+            if (mv == null) {
+                return;
+            }
+            var slots = new int[depth];
+            var slot = temporaries;
+            for (int d = 0; d < depth; d++) {
+                var type = type(frame.peek(d));
+                slots[d] = slot;
+                mv.visitVarInsn(type.getOpcode(Opcodes.ISTORE), slot);
+                slot += type.getSize();
+            }
+            conversion.accept(mv);
+            for (int d = depth - 1; d >= 0; d--) {
+                mv.visitVarInsn(type(frame.peek(d)).getOpcode(Opcodes.ILOAD), slots[d]);
+            }
+        }
+
+        private Frame step(int index, Frame frame) {
+            var mv = out;
+            switch (insns.get(index)) {
+                case Plain plain -> plain(index, frame, plain.opcode());
+                case IntOperand intOperand -> {
+                    if (intOperand.opcode() == Opcodes.NEWARRAY) {
+                        frame.pop();
+                        frame.push(Value.REFERENCE_VALUE);
+                    } else {
+                        frame.push(Value.INT_VALUE);
+                    }
+                    if (mv != null) {
+                        mv.visitIntInsn(intOperand.opcode(), intOperand.operand());
+                    }
+                }
+                case Local local -> local(index, frame, local.opcode(), local.index());
+                case TypeOperand typeOperand -> typeOperand(index, frame, typeOperand.opcode(), typeOperand.type());
+                case FieldAccess field -> field(index, frame, field);
+                case Invoke invoke -> invoke(index, frame, invoke);
+                case Dynamic dynamic -> {
+                    var arguments = Type.getArgumentTypes(dynamic.descriptor());
+                    for (int a = arguments.length - 1, depth = 0; a >= 0; a--, depth++) {
+                        sink(index, frame, depth, arguments[a], null);
+                    }
+                    frame.pop(arguments.length);
+                    var returned = Type.getReturnType(dynamic.descriptor());
+                    if (returned.getSort() != Type.VOID) {
+                        frame.push(Value.of(returned));
+                    }
+                    if (mv != null) {
+                        var bootstrapArguments = new Object[dynamic.arguments().length];
+                        for (int i = 0; i < bootstrapArguments.length; i++) {
+                            bootstrapArguments[i] = renameConstant(dynamic.arguments()[i]);
+                        }
+                        mv.visitInvokeDynamicInsn(dynamic.name(), renameDescriptor(dynamic.descriptor()), rename(dynamic.bootstrap()), bootstrapArguments);
+                    }
+                }
+                case Jump jump -> jump(index, frame, jump);
+                case Mark ignored -> {}
+                case Line ignored -> {}
+                case Constant constant -> {
+                    frame.push(switch (constant.value()) {
+                        case Integer ignored -> Value.INT_VALUE;
+                        case Float ignored -> Value.FLOAT_VALUE;
+                        case Long ignored -> Value.LONG_VALUE;
+                        case Double ignored -> Value.DOUBLE_VALUE;
+                        case ConstantDynamic dynamic -> Value.of(Type.getType(dynamic.getDescriptor()));
+                        default -> Value.REFERENCE_VALUE;
+                    });
+                    if (mv != null) {
+                        mv.visitLdcInsn(renameConstant(constant.value()));
+                    }
+                }
+                case Increment increment -> {
+                    if (mv != null) {
+                        mv.visitIincInsn(local(increment.index()), increment.increment());
+                    }
+                }
+                case Switch table -> {
+                    frame.pop();
+                    if (mv != null) {
+                        if (table.keys() == null) {
+                            mv.visitTableSwitchInsn(table.min(), table.max(), table.fallback(), table.labels());
+                        } else {
+                            mv.visitLookupSwitchInsn(table.fallback(), table.keys(), table.labels());
+                        }
+                    }
+                }
+                case MultiArray multiArray -> {
+                    frame.pop(multiArray.dimensions());
+                    frame.push(Value.REFERENCE_VALUE);
+                    if (mv != null) {
+                        mv.visitMultiANewArrayInsn(renameDescriptor(multiArray.descriptor()), multiArray.dimensions());
+                    }
+                }
+            }
+            return frame;
+        }
+
+        private void plain(int index, Frame frame, int opcode) {
+            var mv = out;
+            switch (opcode) {
+                case Opcodes.NOP -> {}
+                case Opcodes.ACONST_NULL -> frame.push(Value.NULL_VALUE);
+                case Opcodes.ICONST_M1, Opcodes.ICONST_0, Opcodes.ICONST_1, Opcodes.ICONST_2, Opcodes.ICONST_3, Opcodes.ICONST_4, Opcodes.ICONST_5 -> frame.push(Value.INT_VALUE);
+                case Opcodes.LCONST_0, Opcodes.LCONST_1 -> frame.push(Value.LONG_VALUE);
+                case Opcodes.FCONST_0, Opcodes.FCONST_1, Opcodes.FCONST_2 -> frame.push(Value.FLOAT_VALUE);
+                case Opcodes.DCONST_0, Opcodes.DCONST_1 -> frame.push(Value.DOUBLE_VALUE);
+                case Opcodes.AALOAD -> {
+                    var array = frame.peek(1);
+                    frame.pop(2);
+                    if (array.tag() == Value.ARRAY) {
+                        var primitive = bindings.get(array.variable());
+                        frame.push(new Value(Value.VARIABLE, array.variable(), -1));
+                        if (mv != null) {
+                            mv.visitInsn(primitive.getOpcode(Opcodes.IALOAD));
+                        }
+                        return;
+                    }
+                    frame.push(Value.REFERENCE_VALUE);
+                }
+                case Opcodes.AASTORE -> {
+                    var array = frame.peek(2);
+                    if (array.tag() == Value.ARRAY) {
+                        var primitive = bindings.get(array.variable());
+                        sink(index, frame, 0, primitive, new Value(Value.VARIABLE, array.variable(), -1));
+                        frame.pop(3);
+                        if (mv != null) {
+                            mv.visitInsn(primitive.getOpcode(Opcodes.IASTORE));
+                        }
+                        return;
+                    }
+                    sink(index, frame, 0, OBJECT, null);
+                    frame.pop(3);
+                }
+                case Opcodes.IALOAD, Opcodes.BALOAD, Opcodes.CALOAD, Opcodes.SALOAD -> {
+                    frame.pop(2);
+                    frame.push(Value.INT_VALUE);
+                }
+                case Opcodes.LALOAD -> {
+                    frame.pop(2);
+                    frame.push(Value.LONG_VALUE);
+                }
+                case Opcodes.FALOAD -> {
+                    frame.pop(2);
+                    frame.push(Value.FLOAT_VALUE);
+                }
+                case Opcodes.DALOAD -> {
+                    frame.pop(2);
+                    frame.push(Value.DOUBLE_VALUE);
+                }
+                case Opcodes.IASTORE, Opcodes.LASTORE, Opcodes.FASTORE, Opcodes.DASTORE, Opcodes.BASTORE, Opcodes.CASTORE, Opcodes.SASTORE -> frame.pop(3);
+                case Opcodes.POP, Opcodes.POP2, Opcodes.DUP, Opcodes.DUP_X1, Opcodes.DUP_X2, Opcodes.DUP2, Opcodes.DUP2_X1, Opcodes.DUP2_X2, Opcodes.SWAP -> {
+                    shuffle(frame, opcode);
+                    return;
+                }
+                case Opcodes.ARETURN -> {
+                    var returned = shape == null ? null : shape.returned();
+                    var returnType = Type.getReturnType(descriptor);
+                    sink(index, frame, 0, returned == null ? rename(returnType) : type(returned), returned);
+                    frame.pop();
+                    if (mv != null) {
+                        mv.visitInsn(returned == null ? Opcodes.ARETURN : type(returned).getOpcode(Opcodes.IRETURN));
+                    }
+                    return;
+                }
+                case Opcodes.IRETURN, Opcodes.LRETURN, Opcodes.FRETURN, Opcodes.DRETURN -> frame.pop();
+                case Opcodes.RETURN -> {}
+                case Opcodes.ARRAYLENGTH -> {
+                    frame.pop();
+                    frame.push(Value.INT_VALUE);
+                }
+                case Opcodes.ATHROW, Opcodes.MONITORENTER, Opcodes.MONITOREXIT -> {
+                    sink(index, frame, 0, OBJECT, null);
+                    frame.pop();
+                }
+                case Opcodes.LCMP, Opcodes.FCMPL, Opcodes.FCMPG, Opcodes.DCMPL, Opcodes.DCMPG -> {
+                    frame.pop(2);
+                    frame.push(Value.INT_VALUE);
+                }
+                default -> {
+                    if (opcode >= Opcodes.IADD && opcode <= Opcodes.DREM) {
+                        frame.pop(2);
+                        frame.push(arithmetic((opcode - Opcodes.IADD) % 4));
+                    } else if (opcode >= Opcodes.INEG && opcode <= Opcodes.DNEG) {
+                        frame.pop();
+                        frame.push(arithmetic(opcode - Opcodes.INEG));
+                    } else if (opcode >= Opcodes.ISHL && opcode <= Opcodes.LXOR) {
+                        frame.pop(2);
+                        frame.push((opcode - Opcodes.ISHL) % 2 == 0 ? Value.INT_VALUE : Value.LONG_VALUE);
+                    } else if (opcode >= Opcodes.I2L && opcode <= Opcodes.I2S) {
+                        frame.pop();
+                        frame.push(switch (opcode) {
+                            case Opcodes.I2L, Opcodes.F2L, Opcodes.D2L -> Value.LONG_VALUE;
+                            case Opcodes.I2F, Opcodes.L2F, Opcodes.D2F -> Value.FLOAT_VALUE;
+                            case Opcodes.I2D, Opcodes.L2D, Opcodes.F2D -> Value.DOUBLE_VALUE;
+                            default -> Value.INT_VALUE;
+                        });
+                    } else {
+                        throw unsupported(index, "unknown opcode " + opcode);
+                    }
+                }
+            }
+            if (mv != null) {
+                mv.visitInsn(opcode);
+            }
+        }
+
+        private Value arithmetic(int kind) {
+            return switch (kind) {
+                case 0 -> Value.INT_VALUE;
+                case 1 -> Value.LONG_VALUE;
+                case 2 -> Value.FLOAT_VALUE;
+                default -> Value.DOUBLE_VALUE;
+            };
+        }
+
+        // Stack manipulation is described in terms of values rather than slots, so that it survives values changing size
+        private void shuffle(Frame frame, int opcode) {
+            var top = frame.peek(0).size();
+            var second = frame.stack.size() > 1 ? frame.peek(1).size() : 0;
+            var third = frame.stack.size() > 2 ? frame.peek(2).size() : 0;
+            int[] order = switch (opcode) {
+                case Opcodes.POP -> new int[] {1};
+                case Opcodes.POP2 -> top == 2 ? new int[] {1} : new int[] {2};
+                case Opcodes.DUP -> new int[] {1, 0, 0};
+                case Opcodes.DUP_X1 -> new int[] {2, 1, 0, 1};
+                case Opcodes.DUP_X2 -> second == 2 ? new int[] {2, 1, 0, 1} : new int[] {3, 2, 0, 1, 2};
+                case Opcodes.DUP2 -> top == 2 ? new int[] {1, 0, 0} : new int[] {2, 0, 1, 0, 1};
+                case Opcodes.DUP2_X1 -> top == 2 ? new int[] {2, 1, 0, 1} : new int[] {3, 1, 2, 0, 1, 2};
+                case Opcodes.DUP2_X2 -> {
+                    if (top == 2 && second == 2) {
+                        yield new int[] {2, 1, 0, 1};
+                    } else if (top == 2) {
+                        yield new int[] {3, 2, 0, 1, 2};
+                    } else if (third == 2) {
+                        yield new int[] {3, 1, 2, 0, 1, 2};
+                    }
+                    yield new int[] {4, 2, 3, 0, 1, 2, 3};
+                }
+                default -> new int[] {2, 1, 0};
+            };
+            var count = order[0];
+            var consumed = new Value[count];
+            var resized = false;
+            for (int i = 0; i < count; i++) {
+                consumed[i] = frame.peek(count - 1 - i);
+                resized |= type(consumed[i]).getSize() != consumed[i].size();
+            }
+            var mv = out;
+            if (mv != null) {
+                if (!resized) {
+                    mv.visitInsn(opcode);
+                } else {
+                    var slots = new int[count];
+                    var slot = temporaries;
+                    for (int i = count - 1; i >= 0; i--) {
+                        var type = type(consumed[i]);
+                        slots[i] = slot;
+                        mv.visitVarInsn(type.getOpcode(Opcodes.ISTORE), slot);
+                        slot += type.getSize();
+                    }
+                    for (int i = 1; i < order.length; i++) {
+                        mv.visitVarInsn(type(consumed[order[i]]).getOpcode(Opcodes.ILOAD), slots[order[i]]);
+                    }
+                }
+            }
+            frame.pop(count);
+            for (int i = 1; i < order.length; i++) {
+                frame.push(consumed[order[i]]);
+            }
+        }
+
+        private void local(int index, Frame frame, int opcode, int local) {
+            var mv = out;
+            switch (opcode) {
+                case Opcodes.ILOAD, Opcodes.LLOAD, Opcodes.FLOAD, Opcodes.DLOAD -> {
+                    frame.push(Value.of(opcodeType(opcode - Opcodes.ILOAD)));
+                    if (mv != null) {
+                        mv.visitVarInsn(opcode, local(local));
+                    }
+                }
+                case Opcodes.ALOAD -> {
+                    var value = frame.locals[local];
+                    if (value.tag() == Value.TOP) {
+                        throw unsupported(index, "local " + local + " does not have a single type; compile the template with local variable tables (-g)");
+                    }
+                    frame.push(value);
+                    if (mv != null) {
+                        mv.visitVarInsn(type(value).getOpcode(Opcodes.ILOAD), local(local));
+                    }
+                }
+                case Opcodes.ISTORE, Opcodes.LSTORE, Opcodes.FSTORE, Opcodes.DSTORE -> {
+                    frame.store(local, frame.pop());
+                    if (mv != null) {
+                        mv.visitVarInsn(opcode, local(local));
+                    }
+                }
+                case Opcodes.ASTORE -> {
+                    var declaredValue = declared(local, index + 1);
+                    if (declaredValue != null) {
+                        sink(index, frame, 0, type(declaredValue), declaredValue);
+                    }
+                    var value = frame.pop();
+                    frame.store(local, value);
+                    if (mv != null) {
+                        mv.visitVarInsn(type(value).getOpcode(Opcodes.ISTORE), local(local));
+                    }
+                }
+                default -> throw unsupported(index, "subroutines are not supported");
+            }
+        }
+
+        private Type opcodeType(int kind) {
+            return switch (kind) {
+                case 0 -> Type.INT_TYPE;
+                case 1 -> Type.LONG_TYPE;
+                case 2 -> Type.FLOAT_TYPE;
+                default -> Type.DOUBLE_TYPE;
+            };
+        }
+
+        private void typeOperand(int index, Frame frame, int opcode, String type) {
+            var mv = out;
+            switch (opcode) {
+                case Opcodes.NEW -> frame.push(Value.REFERENCE_VALUE);
+                case Opcodes.ANEWARRAY -> {
+                    frame.pop();
+                    if (erasures.values().stream().anyMatch(erasure -> erasure.getInternalName().equals(type))) {
+                        var resolved = resolutions.get(index);
+                        if (resolved != null && resolved.tag() == Value.ARRAY) {
+                            frame.push(resolved);
+                            if (mv != null) {
+                                mv.visitIntInsn(Opcodes.NEWARRAY, arrayType(bindings.get(resolved.variable())));
+                            }
+                            return;
+                        }
+                        frame.push(resolved == null ? new Value(Value.FRESH, null, index) : Value.REFERENCE_VALUE);
+                    } else {
+                        frame.push(Value.REFERENCE_VALUE);
+                    }
+                }
+                case Opcodes.CHECKCAST -> {
+                    var value = frame.peek(0);
+                    if (value.tag() == Value.VARIABLE && erasures.get(value.variable()).getInternalName().equals(type)) {
+                        return;
+                    } else if (value.tag() == Value.ARRAY) {
+                        if (type.equals("[" + erasures.get(value.variable()).getDescriptor())) {
+                            return;
+                        }
+                        throw unsupported(index, "cannot cast " + value + " to " + type);
+                    } else if (value.tag() == Value.FRESH && type.startsWith("[")) {
+                        // Still an array of an erasure, whichever it turns out to be
+                        if (mv != null) {
+                            mv.visitTypeInsn(opcode, renameInternal(type));
+                        }
+                        return;
+                    }
+                    sink(index, frame, 0, OBJECT, null);
+                    frame.pop();
+                    frame.push(Value.REFERENCE_VALUE);
+                }
+                default -> {
+                    sink(index, frame, 0, OBJECT, null);
+                    frame.pop();
+                    frame.push(Value.INT_VALUE);
+                }
+            }
+            if (mv != null) {
+                mv.visitTypeInsn(opcode, renameInternal(type));
+            }
+        }
+
+        private void field(int index, Frame frame, FieldAccess field) {
+            var own = field.owner().equals(template);
+            var value = own ? fields.get(field.name() + field.descriptor()) : null;
+            var type = value == null ? rename(Type.getType(field.descriptor())) : type(value);
+            switch (field.opcode()) {
+                case Opcodes.GETSTATIC -> frame.push(value == null ? Value.of(type) : value);
+                case Opcodes.GETFIELD -> {
+                    frame.pop();
+                    frame.push(value == null ? Value.of(type) : value);
+                }
+                case Opcodes.PUTSTATIC -> {
+                    sink(index, frame, 0, type, value);
+                    frame.pop();
+                }
+                default -> {
+                    sink(index, frame, 0, type, value);
+                    frame.pop(2);
+                }
+            }
+            if (out != null) {
+                out.visitFieldInsn(field.opcode(), renameInternal(field.owner()), field.name(), type.getDescriptor());
+            }
+        }
+
+        private void invoke(int index, Frame frame, Invoke invoke) {
+            var mv = out;
+            var arguments = Type.getArgumentTypes(invoke.descriptor());
+            var returnType = Type.getReturnType(invoke.descriptor());
+            var isStatic = invoke.opcode() == Opcodes.INVOKESTATIC;
+
+            if (!isStatic && frame.peek(arguments.length).tag() == Value.VARIABLE) {
+                var receiver = frame.peek(arguments.length);
+                var primitive = bindings.get(receiver.variable());
+                var method = invoke.name() + invoke.descriptor();
+                if (method.equals("hashCode()I")) {
+                    frame.pop();
+                    frame.push(Value.INT_VALUE);
+                    if (mv != null) {
+                        mv.visitMethodInsn(Opcodes.INVOKESTATIC, wrapper(primitive), "hashCode", Type.getMethodDescriptor(Type.INT_TYPE, primitive), false);
+                    }
+                    return;
+                } else if (method.equals("toString()Ljava/lang/String;")) {
+                    frame.pop();
+                    frame.push(Value.REFERENCE_VALUE);
+                    if (mv != null) {
+                        var argument = primitive.getSort() == Type.BYTE || primitive.getSort() == Type.SHORT ? Type.INT_TYPE : primitive;
+                        mv.visitMethodInsn(Opcodes.INVOKESTATIC, "java/lang/String", "valueOf", Type.getMethodDescriptor(Type.getType(String.class), argument), false);
+                    }
+                    return;
+                } else if (arguments.length == 1 && frame.peek(0).equals(receiver) && (method.equals("equals(Ljava/lang/Object;)Z") || (invoke.name().equals("compareTo") && returnType.getSort() == Type.INT))) {
+                    frame.pop(2);
+                    frame.push(Value.INT_VALUE);
+                    if (mv != null) {
+                        compare(mv, primitive);
+                        if (invoke.name().equals("equals")) {
+                            var notEqual = new Label();
+                            var end = new Label();
+                            mv.visitJumpInsn(Opcodes.IFNE, notEqual);
+                            mv.visitInsn(Opcodes.ICONST_1);
+                            mv.visitJumpInsn(Opcodes.GOTO, end);
+                            mv.visitLabel(notEqual);
+                            mv.visitInsn(Opcodes.ICONST_0);
+                            mv.visitLabel(end);
+                        }
+                    }
+                    return;
+                }
+            }
+
+            var method = invoke.owner().equals(template) ? methods.get(invoke.name() + invoke.descriptor()) : null;
+            var expected = new @Nullable Value[arguments.length];
+            var types = new Type[arguments.length];
+            @Nullable Value returned = null;
+            String descriptor;
+            if (method != null) {
+                descriptor = method.descriptor();
+                returned = method.returned();
+                System.arraycopy(method.parameters(), 0, expected, 0, arguments.length);
+                var newArguments = Type.getArgumentTypes(descriptor);
+                System.arraycopy(newArguments, 0, types, 0, arguments.length);
+            } else {
+                descriptor = renameDescriptor(invoke.descriptor());
+                for (int a = 0; a < arguments.length; a++) {
+                    types[a] = rename(arguments[a]);
+                }
+                // The primitive overloads in Arrays stand in for its generic methods, given arrays of a type variable
+                if (isStatic && invoke.owner().equals("java/util/Arrays")) {
+                    String variable = null;
+                    for (int a = 0; a < arguments.length; a++) {
+                        var value = frame.peek(arguments.length - 1 - a);
+                        if (arguments[a].getDescriptor().equals("[Ljava/lang/Object;") && value.tag() == Value.ARRAY) {
+                            variable = value.variable();
+                        }
+                    }
+                    if (variable != null) {
+                        var primitive = bindings.get(variable);
+                        var array = Type.getType("[" + primitive.getDescriptor());
+                        for (int a = 0; a < arguments.length; a++) {
+                            if (arguments[a].getDescriptor().equals("[Ljava/lang/Object;")) {
+                                types[a] = array;
+                                expected[a] = new Value(Value.ARRAY, variable, -1);
+                            } else if (arguments[a].equals(OBJECT)) {
+                                types[a] = primitive;
+                                expected[a] = new Value(Value.VARIABLE, variable, -1);
+                            }
+                        }
+                        if (returnType.getDescriptor().equals("[Ljava/lang/Object;")) {
+                            returned = new Value(Value.ARRAY, variable, -1);
+                        } else if (returnType.equals(OBJECT)) {
+                            returned = new Value(Value.VARIABLE, variable, -1);
+                        }
+                        descriptor = Type.getMethodDescriptor(returned == null ? returnType : type(returned), types);
+                    }
+                }
+            }
+
+            for (int a = arguments.length - 1, depth = 0; a >= 0; a--, depth++) {
+                sink(index, frame, depth, types[a], expected[a]);
+            }
+            if (!isStatic) {
+                sink(index, frame, arguments.length, OBJECT, null);
+                frame.pop();
+            }
+            frame.pop(arguments.length);
+            if (returnType.getSort() != Type.VOID) {
+                frame.push(returned == null ? Value.of(returnType) : returned);
+            }
+            if (mv != null) {
+                mv.visitMethodInsn(invoke.opcode(), renameInternal(invoke.owner()), invoke.name(), descriptor, invoke.isInterface());
+            }
+        }
+
+        private void jump(int index, Frame frame, Jump jump) {
+            var mv = out;
+            var opcode = jump.opcode();
+            switch (opcode) {
+                case Opcodes.IF_ACMPEQ, Opcodes.IF_ACMPNE -> {
+                    var first = frame.peek(1);
+                    var second = frame.peek(0);
+                    if (first.tag() == Value.VARIABLE && first.equals(second)) {
+                        frame.pop(2);
+                        if (mv != null) {
+                            compare(mv, bindings.get(first.variable()));
+                            mv.visitJumpInsn(opcode == Opcodes.IF_ACMPEQ ? Opcodes.IFEQ : Opcodes.IFNE, jump.label());
+                        }
+                        return;
+                    }
+                    sink(index, frame, 0, OBJECT, null);
+                    sink(index, frame, 1, OBJECT, null);
+                    frame.pop(2);
+                }
+                case Opcodes.IFNULL, Opcodes.IFNONNULL -> {
+                    var value = frame.pop();
+                    if (value.tag() == Value.VARIABLE) {
+                        // A primitive is never null
+                        if (mv != null) {
+                            mv.visitInsn(type(value).getSize() == 2 ? Opcodes.POP2 : Opcodes.POP);
+                            if (opcode == Opcodes.IFNONNULL) {
+                                mv.visitJumpInsn(Opcodes.GOTO, jump.label());
+                            }
+                        }
+                        return;
+                    }
+                }
+                case Opcodes.GOTO -> {}
+                case Opcodes.JSR -> throw unsupported(index, "subroutines are not supported");
+                default -> frame.pop(opcode >= Opcodes.IF_ICMPEQ ? 2 : 1);
+            }
+            if (mv != null) {
+                mv.visitJumpInsn(opcode, jump.label());
+            }
+        }
+    }
+}
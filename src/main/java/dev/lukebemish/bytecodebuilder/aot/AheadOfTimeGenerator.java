@@ -0,0 +1,129 @@
+package dev.lukebemish.bytecodebuilder.aot;
+
+import dev.lukebemish.bytecodebuilder.ClassContext;
+import dev.lukebemish.bytecodebuilder.ClassSignature;
+import org.jspecify.annotations.Nullable;
+
+import java.io.IOException;
+import java.lang.constant.ClassDesc;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.ServiceLoader;
+import java.util.function.Consumer;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+/**
+ * Runs {@link ClassGenerator}s at build time, writing the classes they define and a registry for
+ * {@link PregeneratedClasses} to a jar or class directory. Classes are built in parallel, but the output is
+ * deterministic for a given set of generators. As the results are ordinary named classes, they can be archived by
+ * class-data sharing like any other class on the classpath. From Gradle, this may be run with a {@code JavaExec} task
+ * whose classpath contains the generators, with the output path as its only argument.
+ */
+public final class AheadOfTimeGenerator {
+    private AheadOfTimeGenerator() {}
+
+    // 1980-02-01, the same fixed timestamp Gradle uses for reproducible archives
+    private static final long ENTRY_TIME = 318211200000L;
+
+    private record Definition(String key, int version, int access, ClassDesc name, ClassDesc superName, @Nullable List<ClassDesc> interfaces, @Nullable ClassSignature signature, Consumer<? super ClassContext<?, ?, ?>> consumer) {
+        String internalName() {
+            var descriptor = name.descriptorString();
+            return descriptor.substring(1, descriptor.length() - 1);
+        }
+
+        byte[] build() {
+            return ClassContext.create(consumer).build(version, access, name, superName, interfaces, signature);
+        }
+    }
+
+    private record Generated(Definition definition, byte[] bytes) {}
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            throw new IllegalArgumentException("Expected a single argument, the output jar or directory");
+        }
+        generate(Path.of(args[0]), ServiceLoader.load(ClassGenerator.class));
+    }
+
+    public static void generate(Path output, Iterable<? extends ClassGenerator> generators) throws IOException {
+        var sortedGenerators = new ArrayList<ClassGenerator>();
+        generators.forEach(sortedGenerators::add);
+        sortedGenerators.sort(Comparator.comparing(generator -> generator.getClass().getName()));
+
+        var definitions = new ArrayList<Definition>();
+        var keys = new HashSet<String>();
+        var names = new HashSet<ClassDesc>();
+        for (var generator : sortedGenerators) {
+            generator.generate((key, version, access, name, superName, interfaces, signature, consumer) -> {
+                if (!keys.add(key)) {
+                    throw new IllegalStateException("Duplicate pre-generated class key " + key);
+                }
+                if (!names.add(name)) {
+                    throw new IllegalStateException("Duplicate pre-generated class " + name.descriptorString());
+                }
+                definitions.add(new Definition(key, version, access, name, superName, interfaces == null ? null : List.copyOf(interfaces), signature, consumer));
+            });
+        }
+        definitions.sort(Comparator.comparing(Definition::internalName));
+
+        var generated = definitions.parallelStream()
+            .map(definition -> new Generated(definition, definition.build()))
+            .toList();
+
+        var registry = new StringBuilder();
+        generated.stream()
+            .map(Generated::definition)
+            .sorted(Comparator.comparing(Definition::key))
+            .forEach(definition -> registry.append(definition.key()).append('=').append(definition.internalName().replace('/', '.')).append('\n'));
+        var registryBytes = registry.toString().getBytes(StandardCharsets.UTF_8);
+
+        if (output.getFileName().toString().endsWith(".jar")) {
+            if (output.getParent() != null) {
+                Files.createDirectories(output.getParent());
+            }
+            try (var jar = new JarOutputStream(Files.newOutputStream(output))) {
+                var directories = new HashSet<String>();
+                for (var entry : generated) {
+                    writeEntry(jar, directories, entry.definition().internalName() + ".class", entry.bytes());
+                }
+                writeEntry(jar, directories, PregeneratedClasses.REGISTRY, registryBytes);
+            }
+        } else {
+            for (var entry : generated) {
+                write(output.resolve(entry.definition().internalName() + ".class"), entry.bytes());
+            }
+            write(output.resolve(PregeneratedClasses.REGISTRY), registryBytes);
+        }
+    }
+
+    private static void writeEntry(JarOutputStream jar, Collection<String> directories, String name, byte[] bytes) throws IOException {
+        var parts = name.split("/");
+        var directory = new StringBuilder();
+        for (int i = 0; i < parts.length - 1; i++) {
+            directory.append(parts[i]).append('/');
+            if (directories.add(directory.toString())) {
+                var entry = new JarEntry(directory.toString());
+                entry.setTime(ENTRY_TIME);
+                jar.putNextEntry(entry);
+                jar.closeEntry();
+            }
+        }
+        var entry = new JarEntry(name);
+        entry.setTime(ENTRY_TIME);
+        jar.putNextEntry(entry);
+        jar.write(bytes);
+        jar.closeEntry();
+    }
+
+    private static void write(Path path, byte[] bytes) throws IOException {
+        Files.createDirectories(path.getParent());
+        Files.write(path, bytes);
+    }
+}
@@ -0,0 +1,27 @@
+package dev.lukebemish.bytecodebuilder.aot;
+
+import dev.lukebemish.bytecodebuilder.ClassContext;
+import dev.lukebemish.bytecodebuilder.ClassSignature;
+import org.jspecify.annotations.Nullable;
+
+import java.lang.constant.ClassDesc;
+import java.util.Collection;
+import java.util.function.Consumer;
+
+/**
+ * A source of classes that are known ahead of time, and may thus be generated at build time by
+ * {@link AheadOfTimeGenerator} rather than spun at runtime. Implementations are discovered with
+ * {@link java.util.ServiceLoader}.
+ */
+public interface ClassGenerator {
+    void generate(Target target);
+
+    interface Target {
+        /**
+         * Registers a class to generate. Unlike classes defined with {@link ClassContext#hidden}, pre-generated classes
+         * are ordinary named classes and cannot carry class data.
+         * @param key the key the class will be registered under in {@link PregeneratedClasses}
+         */
+        void define(String key, int version, int access, ClassDesc name, ClassDesc superName, @Nullable Collection<ClassDesc> interfaces, @Nullable ClassSignature signature, Consumer<? super ClassContext<?, ?, ?>> consumer);
+    }
+}
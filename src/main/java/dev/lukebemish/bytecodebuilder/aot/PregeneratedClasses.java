@@ -0,0 +1,82 @@
+package dev.lukebemish.bytecodebuilder.aot;
+
+import org.jspecify.annotations.Nullable;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Runtime view of the classes written by {@link AheadOfTimeGenerator}, as recorded in the
+ * {@value #REGISTRY} resources visible to a lookup class's loader.
+ */
+public final class PregeneratedClasses {
+    private PregeneratedClasses() {}
+
+    public static final String REGISTRY = "META-INF/dev.lukebemish.bytecodebuilder/pregenerated";
+
+    // Registries are read once per loader rather than once per lookup class; loaders are held weakly, and registries
+    // hold no reference back to them
+    private static final Map<ClassLoader, Map<String, String>> REGISTRIES = Collections.synchronizedMap(new WeakHashMap<>());
+
+    private static Map<String, String> registry(@Nullable ClassLoader loader) {
+        if (loader == null) {
+            return Map.of();
+        }
+        return REGISTRIES.computeIfAbsent(loader, PregeneratedClasses::read);
+    }
+
+    private static Map<String, String> read(ClassLoader loader) {
+        var registry = new HashMap<String, String>();
+        try {
+            var resources = loader.getResources(REGISTRY);
+            while (resources.hasMoreElements()) {
+                try (var reader = new BufferedReader(new InputStreamReader(resources.nextElement().openStream(), StandardCharsets.UTF_8))) {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        var separator = line.lastIndexOf('=');
+                        if (separator != -1) {
+                            registry.putIfAbsent(line.substring(0, separator), line.substring(separator + 1));
+                        }
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return Map.copyOf(registry);
+    }
+
+    /**
+     * Finds the class pre-generated under the given key, if one is visible to the lookup.
+     * @param lookup a lookup with full privilege access, used to load and access the pre-generated class
+     * @param key the key the class was generated under
+     * @param initialize whether the class should be initialized before it is returned
+     * @return a full privilege lookup on the pre-generated class, or {@code null} if none is registered for the key
+     */
+    public static MethodHandles.@Nullable Lookup find(MethodHandles.Lookup lookup, String key, boolean initialize) throws IllegalAccessException {
+        var name = registry(lookup.lookupClass().getClassLoader()).get(key);
+        if (name == null) {
+            return null;
+        }
+        Class<?> clazz;
+        try {
+            clazz = Class.forName(name, false, lookup.lookupClass().getClassLoader());
+        } catch (ClassNotFoundException e) {
+            return null;
+        }
+        lookup.accessClass(clazz);
+        var classLookup = MethodHandles.privateLookupIn(clazz, lookup);
+        if (initialize) {
+            classLookup.ensureInitialized(clazz);
+        }
+        return classLookup;
+    }
+}
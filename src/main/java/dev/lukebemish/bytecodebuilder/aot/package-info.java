@@ -0,0 +1,4 @@
+@NullMarked
+package dev.lukebemish.bytecodebuilder.aot;
+
+import org.jspecify.annotations.NullMarked;
@@ -0,0 +1,440 @@
+package dev.lukebemish.bytecodebuilder.runtime;
+
+import dev.lukebemish.bytecodebuilder.ClassContext;
+import dev.lukebemish.bytecodebuilder.ClassDataTracker;
+import dev.lukebemish.bytecodebuilder.CodeContext;
+import dev.lukebemish.bytecodebuilder.Constants;
+import org.jspecify.annotations.Nullable;
+
+import java.lang.constant.ClassDesc;
+import java.lang.constant.ConstantDescs;
+import java.lang.constant.DirectMethodHandleDesc;
+import java.lang.constant.MethodTypeDesc;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Executable;
+import java.lang.reflect.Field;
+import java.lang.reflect.Member;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+/**
+ * Reflection-free accessors for fields, methods and constructors, generated as a batch. The members of each declaring
+ * class share one hidden class, which implements each of the accessor interfaces below that any of them supports; each
+ * member's accessor is an instance of that class holding the member's index, and each interface method selects the
+ * member with a {@code tableswitch} on it. Members of the lookup's nest are accessed directly by field and invoke
+ * instructions, as the class joins that nest; other members, and constructors, through an exact invocation of their
+ * handle held as a constant.
+ * <p>
+ * Getters and setters take the instance to access, which is ignored for static fields. Invokers take the receiver, if
+ * any, followed by the arguments; constructors are invoked as if they were static methods returning the new instance.
+ */
+public final class Accessors {
+    public interface Getter { Object get(Object instance); }
+    public interface BooleanGetter { boolean get(Object instance); }
+    public interface ByteGetter { byte get(Object instance); }
+    public interface CharGetter { char get(Object instance); }
+    public interface ShortGetter { short get(Object instance); }
+    public interface IntGetter { int get(Object instance); }
+    public interface LongGetter { long get(Object instance); }
+    public interface FloatGetter { float get(Object instance); }
+    public interface DoubleGetter { double get(Object instance); }
+
+    public interface Setter { void set(Object instance, Object value); }
+    public interface BooleanSetter { void set(Object instance, boolean value); }
+    public interface ByteSetter { void set(Object instance, byte value); }
+    public interface CharSetter { void set(Object instance, char value); }
+    public interface ShortSetter { void set(Object instance, short value); }
+    public interface IntSetter { void set(Object instance, int value); }
+    public interface LongSetter { void set(Object instance, long value); }
+    public interface FloatSetter { void set(Object instance, float value); }
+    public interface DoubleSetter { void set(Object instance, double value); }
+
+    public interface Invoker { Object invoke(Object... arguments); }
+    public interface Invoker0 { Object invoke(); }
+    public interface Invoker1 { Object invoke(Object argument0); }
+    public interface Invoker2 { Object invoke(Object argument0, Object argument1); }
+    public interface Invoker3 { Object invoke(Object argument0, Object argument1, Object argument2); }
+    public interface Invoker4 { Object invoke(Object argument0, Object argument1, Object argument2, Object argument3); }
+
+    private record Kind(Class<?> type, String name, MethodType methodType) {
+        private static Kind of(Class<?> type) {
+            for (var method : type.getMethods()) {
+                if (Modifier.isAbstract(method.getModifiers())) {
+                    return new Kind(type, method.getName(), MethodType.methodType(method.getReturnType(), method.getParameterTypes()));
+                }
+            }
+            throw new IllegalArgumentException("No abstract method on " + type);
+        }
+    }
+
+    private static final List<Class<?>> PRIMITIVES = List.of(boolean.class, byte.class, char.class, short.class, int.class, long.class, float.class, double.class);
+    private static final Kind GETTER = Kind.of(Getter.class);
+    private static final List<Kind> PRIMITIVE_GETTERS = List.of(
+        Kind.of(BooleanGetter.class), Kind.of(ByteGetter.class), Kind.of(CharGetter.class), Kind.of(ShortGetter.class),
+        Kind.of(IntGetter.class), Kind.of(LongGetter.class), Kind.of(FloatGetter.class), Kind.of(DoubleGetter.class)
+    );
+    private static final Kind SETTER = Kind.of(Setter.class);
+    private static final List<Kind> PRIMITIVE_SETTERS = List.of(
+        Kind.of(BooleanSetter.class), Kind.of(ByteSetter.class), Kind.of(CharSetter.class), Kind.of(ShortSetter.class),
+        Kind.of(IntSetter.class), Kind.of(LongSetter.class), Kind.of(FloatSetter.class), Kind.of(DoubleSetter.class)
+    );
+    private static final Kind INVOKER = Kind.of(Invoker.class);
+    private static final List<Kind> FIXED_INVOKERS = List.of(
+        Kind.of(Invoker0.class), Kind.of(Invoker1.class), Kind.of(Invoker2.class), Kind.of(Invoker3.class), Kind.of(Invoker4.class)
+    );
+
+    private static final ClassDesc CD_OBJECTS = ClassDesc.of("java.util.Objects");
+    private static final ClassDesc CD_UNSUPPORTED = ClassDesc.of("java.lang.UnsupportedOperationException");
+
+    private final Map<Member, Object> accessors;
+    private final Map<Member, Set<Class<?>>> kinds;
+
+    private Accessors(Map<Member, Object> accessors, Map<Member, Set<Class<?>>> kinds) {
+        this.accessors = accessors;
+        this.kinds = kinds;
+    }
+
+    /**
+     * Generates accessors for a batch of members, typically of a single class. The lookup must have full privilege
+     * access, and be able to access every member; the generated classes are defined in the lookup's class's package.
+     * @throws IllegalAccessException if the lookup cannot access one of the members
+     */
+    public static Accessors create(MethodHandles.Lookup lookup, Collection<? extends Member> members) throws IllegalAccessException {
+        var byOwner = new LinkedHashMap<Class<?>, List<Target>>();
+        for (var member : new LinkedHashSet<>(members)) {
+            var memberKinds = new ArrayList<Kind>();
+            MethodHandle handle;
+            @Nullable MethodHandle setter = null;
+            switch (member) {
+                case Field field -> {
+                    var primitive = PRIMITIVES.indexOf(field.getType());
+                    handle = lookup.unreflectGetter(field);
+                    memberKinds.add(GETTER);
+                    if (primitive != -1) {
+                        memberKinds.add(PRIMITIVE_GETTERS.get(primitive));
+                    }
+                    if (!Modifier.isFinal(field.getModifiers())) {
+                        setter = lookup.unreflectSetter(field);
+                        memberKinds.add(SETTER);
+                        if (primitive != -1) {
+                            memberKinds.add(PRIMITIVE_SETTERS.get(primitive));
+                        }
+                    }
+                }
+                case Executable executable -> {
+                    handle = (executable instanceof Constructor<?> constructor ? lookup.unreflectConstructor(constructor) : lookup.unreflect((Method) executable)).asFixedArity();
+                    var arity = handle.type().parameterCount();
+                    memberKinds.add(INVOKER);
+                    if (arity < FIXED_INVOKERS.size()) {
+                        memberKinds.add(FIXED_INVOKERS.get(arity));
+                    }
+                }
+                default -> throw new IllegalArgumentException("Unsupported member " + member);
+            }
+            var target = new Target(member, handle, setter, List.copyOf(memberKinds), isDirect(lookup, member));
+            byOwner.computeIfAbsent(member.getDeclaringClass(), owner -> new ArrayList<>()).add(target);
+        }
+
+        var accessors = new HashMap<Member, Object>();
+        var kinds = new HashMap<Member, Set<Class<?>>>();
+        for (var targets : byOwner.values()) {
+            var instances = generate(lookup, targets);
+            for (int i = 0; i < targets.size(); i++) {
+                var target = targets.get(i);
+                accessors.put(target.member(), instances.get(i));
+                kinds.put(target.member(), target.kinds().stream().map(Kind::type).collect(Collectors.toUnmodifiableSet()));
+            }
+        }
+        return new Accessors(Map.copyOf(accessors), Map.copyOf(kinds));
+    }
+
+    private record Target(Member member, MethodHandle handle, @Nullable MethodHandle setter, List<Kind> kinds, boolean direct) {
+        private ClassDesc owner() {
+            return Constants.from(member.getDeclaringClass());
+        }
+    }
+
+    /**
+     * Members of the lookup's nest are accessed directly, as the accessor joins that nest, and other members through
+     * their handles. Constructors are always invoked through their handles, as a direct invocation would need the new
+     * instance on the stack below its arguments.
+     */
+    private static boolean isDirect(MethodHandles.Lookup lookup, Member member) {
+        var declaring = member.getDeclaringClass();
+        if (member instanceof Constructor<?> || declaring.isHidden() || declaring.getNestHost() != lookup.lookupClass().getNestHost()) {
+            return false;
+        }
+        // Hidden classes cannot be named in descriptors
+        return switch (member) {
+            case Field field -> !isHidden(field.getType());
+            case Method method -> !isHidden(method.getReturnType()) && Arrays.stream(method.getParameterTypes()).noneMatch(Accessors::isHidden);
+            default -> false;
+        };
+    }
+
+    private static boolean isHidden(Class<?> type) {
+        while (type.isArray()) {
+            type = type.getComponentType();
+        }
+        return type.isHidden();
+    }
+
+    private static List<Object> generate(MethodHandles.Lookup lookup, List<Target> targets) throws IllegalAccessException {
+        ClassDesc name = GeneratedNames.generatedName(lookup, "$$Accessor");
+        var kinds = new LinkedHashSet<Kind>();
+        targets.forEach(target -> kinds.addAll(target.kinds()));
+        // Handles can be invoked from any class, so the class only joins the lookup's nest when a member needs it to
+        var nestmate = targets.stream().anyMatch(Target::direct);
+        var hiddenLookup = ClassContext.hidden(
+            lookup,
+            true,
+            nestmate ? Set.of(MethodHandles.Lookup.ClassOption.NESTMATE) : Set.of(),
+            65,
+            Modifier.FINAL,
+            name,
+            ConstantDescs.CD_Object,
+            kinds.stream().map(kind -> Constants.from(kind.type())).toList(),
+            null,
+            (context, tracker) -> {
+                context.field("index", Modifier.PRIVATE | Modifier.FINAL, ConstantDescs.CD_int, null, null, field -> {});
+
+                context.constructor(
+                    Modifier.PRIVATE,
+                    MethodTypeDesc.of(ConstantDescs.CD_void, ConstantDescs.CD_int),
+                    null,
+                    method -> method.code(code -> {
+                        code.loadThis();
+                        code.method(DirectMethodHandleDesc.Kind.SPECIAL, ConstantDescs.CD_Object, "<init>", MethodTypeDesc.of(ConstantDescs.CD_void));
+                        code.loadThis();
+                        code.load(ConstantDescs.CD_int, 1);
+                        code.field(DirectMethodHandleDesc.Kind.SETTER, name, "index", ConstantDescs.CD_int);
+                        code.returnValue(ConstantDescs.CD_void);
+                    })
+                );
+
+                for (var kind : kinds) {
+                    context.method(
+                        kind.name(),
+                        Modifier.PUBLIC | Modifier.FINAL,
+                        Constants.from(kind.methodType()),
+                        null,
+                        null,
+                        method -> method.code(code -> {
+                            // Members without this kind of accessor are never handed out as one
+                            var cases = new ArrayList<Consumer<CodeContext<?>>>();
+                            for (var target : targets) {
+                                cases.add(target.kinds().contains(kind) ? memberCase -> accessMember(memberCase, tracker, target, kind) : Accessors::unsupported);
+                            }
+                            code.loadThis();
+                            code.field(DirectMethodHandleDesc.Kind.GETTER, name, "index", ConstantDescs.CD_int);
+                            code.tableSwitch(0, cases, Accessors::unsupported);
+                        })
+                    );
+                }
+            }
+        );
+
+        try {
+            var constructor = hiddenLookup.findConstructor(hiddenLookup.lookupClass(), MethodType.methodType(void.class, int.class));
+            var instances = new ArrayList<Object>(targets.size());
+            for (int i = 0; i < targets.size(); i++) {
+                instances.add(constructor.invoke(i));
+            }
+            return instances;
+        } catch (Throwable t) {
+            throw new IllegalStateException("Could not create accessors for " + targets.getFirst().member().getDeclaringClass(), t);
+        }
+    }
+
+    private static void accessMember(CodeContext<?> code, ClassDataTracker tracker, Target target, Kind kind) {
+        var methodType = kind.methodType();
+        var set = kind == SETTER || PRIMITIVE_SETTERS.contains(kind);
+        var handle = set ? Objects.requireNonNull(target.setter()) : target.handle();
+        if (!target.direct()) {
+            code.constant(tracker.dataConstant(ConstantDescs.CD_MethodHandle, handle));
+        }
+        var parameters = handle.type().parameterList();
+        if (kind == INVOKER) {
+            // Throws unless the array holds exactly as many arguments as the member takes
+            code.constant(parameters.size());
+            code.load(ConstantDescs.CD_Object.arrayType(), 1);
+            code.arrayLength();
+            code.constant(parameters.size());
+            code.method(DirectMethodHandleDesc.Kind.STATIC, CD_OBJECTS, "checkFromToIndex", MethodTypeDesc.of(ConstantDescs.CD_int, ConstantDescs.CD_int, ConstantDescs.CD_int, ConstantDescs.CD_int));
+            code.pop(ConstantDescs.CD_int);
+            for (int i = 0; i < parameters.size(); i++) {
+                code.load(ConstantDescs.CD_Object.arrayType(), 1);
+                code.constant(i);
+                code.arrayLoad(ConstantDescs.CD_Object);
+                TypeConversions.convert(code, Object.class, parameters.get(i));
+            }
+        } else {
+            // Static fields take no instance, but their accessors are still passed one
+            var slot = 1;
+            var skipped = target.member() instanceof Field field && Modifier.isStatic(field.getModifiers()) ? 1 : 0;
+            for (int i = 0; i < methodType.parameterCount(); i++) {
+                var parameter = methodType.parameterType(i);
+                if (i >= skipped) {
+                    code.load(Constants.from(parameter), slot);
+                    TypeConversions.convert(code, parameter, parameters.get(i - skipped));
+                }
+                slot += Constants.sizeOf(Constants.from(parameter));
+            }
+        }
+        if (target.direct()) {
+            access(code, target, set);
+        } else {
+            code.method(DirectMethodHandleDesc.Kind.VIRTUAL, ConstantDescs.CD_MethodHandle, "invokeExact", Constants.from(handle.type()));
+        }
+        TypeConversions.convert(code, handle.type().returnType(), methodType.returnType());
+        code.returnValue(Constants.from(methodType.returnType()));
+    }
+
+    private static void unsupported(CodeContext<?> code) {
+        code.newInstance(CD_UNSUPPORTED, MethodTypeDesc.of(ConstantDescs.CD_void));
+        code.throwException();
+    }
+
+    private static void access(CodeContext<?> code, Target target, boolean set) {
+        var owner = target.owner();
+        var isStatic = Modifier.isStatic(target.member().getModifiers());
+        switch (target.member()) {
+            case Field field -> {
+                var operation = set
+                    ? (isStatic ? DirectMethodHandleDesc.Kind.STATIC_SETTER : DirectMethodHandleDesc.Kind.SETTER)
+                    : (isStatic ? DirectMethodHandleDesc.Kind.STATIC_GETTER : DirectMethodHandleDesc.Kind.GETTER);
+                code.field(operation, owner, field.getName(), Constants.from(field.getType()));
+            }
+            case Method method -> {
+                var isInterface = method.getDeclaringClass().isInterface();
+                var operation = isStatic
+                    ? (isInterface ? DirectMethodHandleDesc.Kind.INTERFACE_STATIC : DirectMethodHandleDesc.Kind.STATIC)
+                    : (isInterface ? DirectMethodHandleDesc.Kind.INTERFACE_VIRTUAL : DirectMethodHandleDesc.Kind.VIRTUAL);
+                code.method(operation, owner, method.getName(), Constants.from(MethodType.methodType(method.getReturnType(), method.getParameterTypes())));
+            }
+            default -> throw new IllegalStateException("Unexpected direct member " + target.member());
+        }
+    }
+
+    public Getter getter(Field field) {
+        return accessor(field, Getter.class);
+    }
+
+    public BooleanGetter booleanGetter(Field field) {
+        return accessor(field, BooleanGetter.class);
+    }
+
+    public ByteGetter byteGetter(Field field) {
+        return accessor(field, ByteGetter.class);
+    }
+
+    public CharGetter charGetter(Field field) {
+        return accessor(field, CharGetter.class);
+    }
+
+    public ShortGetter shortGetter(Field field) {
+        return accessor(field, ShortGetter.class);
+    }
+
+    public IntGetter intGetter(Field field) {
+        return accessor(field, IntGetter.class);
+    }
+
+    public LongGetter longGetter(Field field) {
+        return accessor(field, LongGetter.class);
+    }
+
+    public FloatGetter floatGetter(Field field) {
+        return accessor(field, FloatGetter.class);
+    }
+
+    public DoubleGetter doubleGetter(Field field) {
+        return accessor(field, DoubleGetter.class);
+    }
+
+    public Setter setter(Field field) {
+        return accessor(field, Setter.class);
+    }
+
+    public BooleanSetter booleanSetter(Field field) {
+        return accessor(field, BooleanSetter.class);
+    }
+
+    public ByteSetter byteSetter(Field field) {
+        return accessor(field, ByteSetter.class);
+    }
+
+    public CharSetter charSetter(Field field) {
+        return accessor(field, CharSetter.class);
+    }
+
+    public ShortSetter shortSetter(Field field) {
+        return accessor(field, ShortSetter.class);
+    }
+
+    public IntSetter intSetter(Field field) {
+        return accessor(field, IntSetter.class);
+    }
+
+    public LongSetter longSetter(Field field) {
+        return accessor(field, LongSetter.class);
+    }
+
+    public FloatSetter floatSetter(Field field) {
+        return accessor(field, FloatSetter.class);
+    }
+
+    public DoubleSetter doubleSetter(Field field) {
+        return accessor(field, DoubleSetter.class);
+    }
+
+    public Invoker invoker(Executable executable) {
+        return accessor(executable, Invoker.class);
+    }
+
+    public Invoker0 invoker0(Executable executable) {
+        return accessor(executable, Invoker0.class);
+    }
+
+    public Invoker1 invoker1(Executable executable) {
+        return accessor(executable, Invoker1.class);
+    }
+
+    public Invoker2 invoker2(Executable executable) {
+        return accessor(executable, Invoker2.class);
+    }
+
+    public Invoker3 invoker3(Executable executable) {
+        return accessor(executable, Invoker3.class);
+    }
+
+    public Invoker4 invoker4(Executable executable) {
+        return accessor(executable, Invoker4.class);
+    }
+
+    private <T> T accessor(Member member, Class<T> type) {
+        var accessor = accessors.get(member);
+        if (accessor == null) {
+            throw new IllegalArgumentException("Member " + member + " is not part of this batch");
+        }
+        if (!kinds.get(member).contains(type)) {
+            throw new IllegalArgumentException("Member " + member + " has no accessor of type " + type.getSimpleName());
+        }
+        return type.cast(accessor);
+    }
+}
@@ -7,6 +7,7 @@
 import java.lang.reflect.AccessFlag;
 import java.lang.reflect.Method;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
@@ -14,8 +15,18 @@
 public final class Coercion {
     private Coercion() {}
 
-    @SuppressWarnings("unchecked")
     public static <T> T coerce(MethodHandle handle, Class<T> targetSamClass) throws LambdaConversionException {
+        return coerce(handle, targetSamClass, List.of());
+    }
+
+    /**
+     * Coerces a handle to a single abstract method type, binding its leading parameters to link-time constants. Unlike
+     * binding them with {@link MethodHandles#insertArguments}, the constants are embedded in the generated class, so the
+     * result is a singleton that does not capture them and the JIT can fold through them.
+     * @param constants values for the leading parameters of the handle, which may contain {@code null}
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> T coerce(MethodHandle handle, Class<T> targetSamClass, List<?> constants) throws LambdaConversionException {
         var method = findAbstractMethod(targetSamClass);
         var samMethodType = MethodType.methodType(method.getReturnType(), method.getParameterTypes());
 
@@ -25,7 +36,8 @@ public static <T> T coerce(MethodHandle handle, Class<T> targetSamClass) throws
             MethodType.methodType(targetSamClass),
             samMethodType,
             handle,
-            samMethodType
+            samMethodType,
+            constants
         );
 
         try {
@@ -41,13 +53,25 @@ public static <F> F coerceCapturing(MethodHandle handle, Class<?> targetSamClass
     }
 
     public static MethodHandle coerceCapturing(MethodHandle handle, Class<?> targetSamClass) throws LambdaConversionException {
+        return coerceCapturing(handle, targetSamClass, List.of());
+    }
+
+    /**
+     * Like {@link #coerceCapturing(MethodHandle, Class)}, but binds the leading parameters of the handle to link-time
+     * constants as {@link #coerce(MethodHandle, Class, List)} does; the parameters after those are captured.
+     * @param constants values for the leading parameters of the handle, which may contain {@code null}
+     */
+    public static MethodHandle coerceCapturing(MethodHandle handle, Class<?> targetSamClass, List<?> constants) throws LambdaConversionException {
         var method = findAbstractMethod(targetSamClass);
         var samMethodType = MethodType.methodType(method.getReturnType(), method.getParameterTypes());
-        var capturedArgArity = handle.type().parameterCount() - samMethodType.parameterCount();
+        var capturedArgArity = handle.type().parameterCount() - samMethodType.parameterCount() - constants.size();
+        if (capturedArgArity < 0) {
+            throw new LambdaConversionException("Handle " + handle + " has too few parameters for " + targetSamClass.getName() + " with " + constants.size() + " constants");
+        }
 
         var ctorArgs = new Class[capturedArgArity];
         for (var i = 0; i < capturedArgArity; i++) {
-            ctorArgs[i] = handle.type().parameterType(i);
+            ctorArgs[i] = handle.type().parameterType(i + constants.size());
         }
 
         var targetType = MethodType.methodType(targetSamClass, ctorArgs);
@@ -58,7 +82,8 @@ public static MethodHandle coerceCapturing(MethodHandle handle, Class<?> targetS
             targetType,
             samMethodType,
             handle,
-            samMethodType
+            samMethodType,
+            constants
         );
 
         return callsite.dynamicInvoker();
@@ -0,0 +1,631 @@
+package dev.lukebemish.bytecodebuilder.runtime;
+
+import dev.lukebemish.bytecodebuilder.ClassContext;
+import dev.lukebemish.bytecodebuilder.ClassDataTracker;
+import dev.lukebemish.bytecodebuilder.CodeContext;
+import dev.lukebemish.bytecodebuilder.Constants;
+import org.jspecify.annotations.Nullable;
+
+import java.lang.constant.ClassDesc;
+import java.lang.constant.ConstantDesc;
+import java.lang.constant.ConstantDescs;
+import java.lang.constant.DirectMethodHandleDesc;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A tree of method handle combinators, mirroring the common operations of {@link MethodHandles}, that is compiled into
+ * a single static method of a single hidden class rather than a tree of lambda forms. Leaf handles are invoked
+ * directly where the compiling lookup could reference their members, and exactly through class data otherwise;
+ * everything else becomes straight-line bytecode, with intermediate values kept in locals.
+ * <p>
+ * Each operation checks types as its {@link MethodHandles} counterpart does, except that types must match exactly
+ * where that counterpart would otherwise adapt them; use {@link #asType} to convert.
+ */
+public abstract class Combinator {
+    private final MethodType type;
+
+    private Combinator(MethodType type) {
+        this.type = type;
+    }
+
+    public final MethodType type() {
+        return type;
+    }
+
+    abstract void emit(Compiler compiler, CodeContext<?> code, List<Source> arguments);
+
+    /**
+     * Compiles this combinator into a hidden nestmate of the lookup class.
+     * @return a handle to the compiled method, of this combinator's type
+     * @throws IllegalAccessException if the lookup cannot define hidden classes
+     */
+    public final MethodHandle compile(MethodHandles.Lookup lookup) throws IllegalAccessException {
+        ClassDesc target = GeneratedNames.generatedName(lookup, "$$Combinator");
+        var hiddenLookup = ClassContext.hidden(
+            lookup,
+            true,
+            Set.of(MethodHandles.Lookup.ClassOption.NESTMATE),
+            65,
+            Modifier.FINAL,
+            target,
+            ConstantDescs.CD_Object,
+            List.of(),
+            null,
+            (context, tracker) -> context.method(
+                "invoke",
+                Modifier.STATIC,
+                Constants.from(type),
+                null,
+                null,
+                method -> method.code(code -> {
+                    var compiler = new Compiler(lookup, tracker);
+                    var arguments = new ArrayList<Source>();
+                    for (var parameter : type.parameterList()) {
+                        arguments.add(compiler.parameter(parameter));
+                    }
+                    emit(compiler, code, arguments);
+                    code.returnValue(Constants.from(type.returnType()));
+                })
+            )
+        );
+        try {
+            return hiddenLookup.findStatic(hiddenLookup.lookupClass(), "invoke", type);
+        } catch (NoSuchMethodException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static Combinator of(MethodHandle handle) {
+        return new Leaf(handle);
+    }
+
+    /**
+     * @see MethodHandles#constant(Class, Object)
+     */
+    public static Combinator constant(Class<?> type, @Nullable Object value) {
+        checkValue(type, value);
+        return new Value(type, value);
+    }
+
+    /**
+     * @see MethodHandles#identity(Class)
+     */
+    public static Combinator identity(Class<?> type) {
+        if (type == void.class) {
+            throw new IllegalArgumentException("Cannot create identity of void");
+        }
+        return new Identity(type);
+    }
+
+    /**
+     * @see MethodHandles#insertArguments(MethodHandle, int, Object...)
+     */
+    public final Combinator insertArguments(int pos, @Nullable Object... values) {
+        checkRange(pos, values.length);
+        for (int i = 0; i < values.length; i++) {
+            checkValue(type.parameterType(pos + i), values[i]);
+        }
+        return new Insert(this, pos, values.clone());
+    }
+
+    /**
+     * @see MethodHandles#dropArguments(MethodHandle, int, Class...)
+     */
+    public final Combinator dropArguments(int pos, Class<?>... types) {
+        if (pos < 0 || pos > type.parameterCount()) {
+            throw new IllegalArgumentException("Invalid position " + pos + " for " + type);
+        }
+        return new Drop(this, pos, List.of(types));
+    }
+
+    /**
+     * @see MethodHandles#permuteArguments(MethodHandle, MethodType, int...)
+     */
+    public final Combinator permuteArguments(MethodType newType, int... reorder) {
+        if (reorder.length != type.parameterCount() || newType.returnType() != type.returnType()) {
+            throw new IllegalArgumentException("Cannot permute " + type + " to " + newType + " with " + Arrays.toString(reorder));
+        }
+        for (int i = 0; i < reorder.length; i++) {
+            if (reorder[i] < 0 || reorder[i] >= newType.parameterCount() || newType.parameterType(reorder[i]) != type.parameterType(i)) {
+                throw new IllegalArgumentException("Cannot permute " + type + " to " + newType + " with " + Arrays.toString(reorder));
+            }
+        }
+        return new Permute(this, newType, reorder.clone());
+    }
+
+    /**
+     * @see MethodHandles#filterArguments(MethodHandle, int, MethodHandle...)
+     */
+    public final Combinator filterArguments(int pos, @Nullable Combinator... filters) {
+        checkRange(pos, filters.length);
+        var newType = type;
+        for (int i = 0; i < filters.length; i++) {
+            var filter = filters[i];
+            if (filter == null) {
+                continue;
+            }
+            if (filter.type.parameterCount() != 1 || filter.type.returnType() != type.parameterType(pos + i)) {
+                throw new IllegalArgumentException("Filter " + filter.type + " does not match parameter " + (pos + i) + " of " + type);
+            }
+            newType = newType.changeParameterType(pos + i, filter.type.parameterType(0));
+        }
+        return new Filter(this, newType, pos, filters.clone());
+    }
+
+    /**
+     * @see MethodHandles#filterReturnValue(MethodHandle, MethodHandle)
+     */
+    public final Combinator filterReturnValue(Combinator filter) {
+        var expected = type.returnType() == void.class ? List.<Class<?>>of() : List.<Class<?>>of(type.returnType());
+        if (!filter.type.parameterList().equals(expected)) {
+            throw new IllegalArgumentException("Filter " + filter.type + " does not accept the return value of " + type);
+        }
+        return new FilterReturn(this, filter);
+    }
+
+    /**
+     * @see MethodHandles#foldArguments(MethodHandle, int, MethodHandle)
+     */
+    public final Combinator foldArguments(int pos, Combinator combiner) {
+        var folded = combiner.type.returnType();
+        var newType = type;
+        if (folded != void.class) {
+            if (pos >= type.parameterCount() || type.parameterType(pos) != folded) {
+                throw new IllegalArgumentException("Combiner " + combiner.type + " does not match parameter " + pos + " of " + type);
+            }
+            newType = type.dropParameterTypes(pos, pos + 1);
+        }
+        var count = combiner.type.parameterCount();
+        if (pos < 0 || pos + count > newType.parameterCount() || !newType.parameterList().subList(pos, pos + count).equals(combiner.type.parameterList())) {
+            throw new IllegalArgumentException("Combiner " + combiner.type + " does not match the arguments of " + newType + " at " + pos);
+        }
+        return new Fold(this, newType, pos, combiner);
+    }
+
+    /**
+     * Converts arguments and the return value as {@link MethodHandle#asType} would.
+     */
+    public final Combinator asType(MethodType newType) {
+        if (newType.parameterCount() != type.parameterCount()) {
+            throw new IllegalArgumentException("Cannot convert " + type + " to " + newType);
+        }
+        for (int i = 0; i < newType.parameterCount(); i++) {
+            if (!TypeConversions.isConvertible(newType.parameterType(i), type.parameterType(i))) {
+                throw new IllegalArgumentException("Cannot convert " + type + " to " + newType);
+            }
+        }
+        if (!TypeConversions.isConvertible(type.returnType(), newType.returnType())) {
+            throw new IllegalArgumentException("Cannot convert " + type + " to " + newType);
+        }
+        return new Convert(this, newType);
+    }
+
+    /**
+     * @see MethodHandles#catchException(MethodHandle, Class, MethodHandle)
+     */
+    public final Combinator catchException(Class<? extends Throwable> exceptionType, Combinator handler) {
+        var handlerType = handler.type;
+        if (handlerType.returnType() != type.returnType() || handlerType.parameterCount() < 1 || !handlerType.parameterType(0).isAssignableFrom(exceptionType)) {
+            throw new IllegalArgumentException("Handler " + handlerType + " does not handle " + exceptionType.getName() + " for " + type);
+        }
+        checkPrefix(handlerType.dropParameterTypes(0, 1), type);
+        return new Catch(this, exceptionType, handler);
+    }
+
+    /**
+     * @see MethodHandles#guardWithTest(MethodHandle, MethodHandle, MethodHandle)
+     */
+    public static Combinator guardWithTest(Combinator test, Combinator target, Combinator fallback) {
+        if (!target.type.equals(fallback.type) || test.type.returnType() != boolean.class) {
+            throw new IllegalArgumentException("Cannot guard " + target.type + " and " + fallback.type + " with " + test.type);
+        }
+        checkPrefix(test.type, target.type);
+        return new Guard(test, target, fallback);
+    }
+
+    /**
+     * @see MethodHandles#countedLoop(MethodHandle, MethodHandle, MethodHandle)
+     */
+    public static Combinator countedLoop(Combinator iterations, @Nullable Combinator init, Combinator body) {
+        var bodyType = body.type;
+        var loopType = bodyType.returnType();
+        var leading = loopType == void.class ? 1 : 2;
+        if (bodyType.parameterCount() < leading || bodyType.parameterType(leading - 1) != int.class || (leading == 2 && bodyType.parameterType(0) != loopType)) {
+            throw new IllegalArgumentException("Loop body " + bodyType + " does not take the loop value and index");
+        }
+        var type = bodyType.dropParameterTypes(0, leading);
+        if (iterations.type.returnType() != int.class) {
+            throw new IllegalArgumentException("Iterations " + iterations.type + " does not return int");
+        }
+        checkPrefix(iterations.type, type);
+        if (init != null) {
+            if (init.type.returnType() != loopType) {
+                throw new IllegalArgumentException("Initializer " + init.type + " does not return " + loopType.getName());
+            }
+            checkPrefix(init.type, type);
+        }
+        return new Loop(type, iterations, init, body);
+    }
+
+    private void checkRange(int pos, int count) {
+        if (pos < 0 || pos + count > type.parameterCount()) {
+            throw new IllegalArgumentException("Invalid range " + pos + " to " + (pos + count) + " for " + type);
+        }
+    }
+
+    private static void checkPrefix(MethodType prefix, MethodType type) {
+        var count = prefix.parameterCount();
+        if (count > type.parameterCount() || !type.parameterList().subList(0, count).equals(prefix.parameterList())) {
+            throw new IllegalArgumentException("Parameters of " + prefix + " are not a prefix of those of " + type);
+        }
+    }
+
+    private static void checkValue(Class<?> type, @Nullable Object value) {
+        if (type == void.class) {
+            throw new IllegalArgumentException("Cannot have a value of type void");
+        }
+        var boxed = type.isPrimitive() ? TypeConversions.wrapper(type) : type;
+        if (value == null ? type.isPrimitive() : !boxed.isInstance(value)) {
+            throw new ClassCastException("Cannot use " + value + " as " + type.getName());
+        }
+    }
+
+    private static List<Source> prefix(List<Source> arguments, MethodType type) {
+        return arguments.subList(0, type.parameterCount());
+    }
+
+    static final class Compiler {
+        private final MethodHandles.Lookup lookup;
+        private final ClassDataTracker tracker;
+        private final IdentityHashMap<MethodHandle, ConstantDesc> handles = new IdentityHashMap<>();
+        private int nextLocal;
+
+        private Compiler(MethodHandles.Lookup lookup, ClassDataTracker tracker) {
+            this.lookup = lookup;
+            this.tracker = tracker;
+        }
+
+        private ConstantDesc handle(MethodHandle handle) {
+            return handles.computeIfAbsent(handle, h -> tracker.dataConstant(ConstantDescs.CD_MethodHandle, h));
+        }
+
+        private Local parameter(Class<?> type) {
+            var local = new Local(type, nextLocal);
+            nextLocal += Constants.sizeOf(Constants.from(type));
+            return local;
+        }
+
+        private Local store(CodeContext<?> code, Class<?> type) {
+            var local = parameter(type);
+            code.store(Constants.from(type), local.slot());
+            return local;
+        }
+    }
+
+    sealed interface Source {
+        void push(Compiler compiler, CodeContext<?> code);
+    }
+
+    private record Local(Class<?> type, int slot) implements Source {
+        @Override
+        public void push(Compiler compiler, CodeContext<?> code) {
+            code.load(Constants.from(type), slot);
+        }
+    }
+
+    private record Data(Class<?> type, @Nullable Object value) implements Source {
+        @Override
+        public void push(Compiler compiler, CodeContext<?> code) {
+            var descriptor = Constants.from(type);
+            code.constant(value == null ? Constants.nullConstant(descriptor) : compiler.tracker.dataConstant(descriptor, value));
+        }
+    }
+
+    // Every node is emitted with an empty stack, and leaves only its result, so that caught exceptions lose nothing
+    private static final class Leaf extends Combinator {
+        private final MethodHandle handle;
+
+        private Leaf(MethodHandle handle) {
+            super(handle.type());
+            this.handle = handle;
+        }
+
+        @Override
+        void emit(Compiler compiler, CodeContext<?> code, List<Source> arguments) {
+            var direct = DirectReferences.direct(compiler.lookup, handle);
+            if (direct == null) {
+                code.constant(compiler.handle(handle));
+            }
+            for (var argument : arguments) {
+                argument.push(compiler, code);
+            }
+            if (direct == null) {
+                code.method(DirectMethodHandleDesc.Kind.VIRTUAL, ConstantDescs.CD_MethodHandle, "invokeExact", Constants.from(handle.type()));
+            } else {
+                direct.accept(code);
+            }
+        }
+    }
+
+    private static final class Value extends Combinator {
+        private final Data data;
+
+        private Value(Class<?> type, @Nullable Object value) {
+            super(MethodType.methodType(type));
+            this.data = new Data(type, value);
+        }
+
+        @Override
+        void emit(Compiler compiler, CodeContext<?> code, List<Source> arguments) {
+            data.push(compiler, code);
+        }
+    }
+
+    private static final class Identity extends Combinator {
+        private Identity(Class<?> type) {
+            super(MethodType.methodType(type, type));
+        }
+
+        @Override
+        void emit(Compiler compiler, CodeContext<?> code, List<Source> arguments) {
+            arguments.getFirst().push(compiler, code);
+        }
+    }
+
+    private static final class Insert extends Combinator {
+        private final Combinator target;
+        private final int pos;
+        private final @Nullable Object[] values;
+
+        private Insert(Combinator target, int pos, @Nullable Object[] values) {
+            super(target.type.dropParameterTypes(pos, pos + values.length));
+            this.target = target;
+            this.pos = pos;
+            this.values = values;
+        }
+
+        @Override
+        void emit(Compiler compiler, CodeContext<?> code, List<Source> arguments) {
+            var inserted = new ArrayList<>(arguments);
+            for (int i = 0; i < values.length; i++) {
+                inserted.add(pos + i, new Data(target.type.parameterType(pos + i), values[i]));
+            }
+            target.emit(compiler, code, inserted);
+        }
+    }
+
+    private static final class Drop extends Combinator {
+        private final Combinator target;
+        private final int pos;
+        private final int count;
+
+        private Drop(Combinator target, int pos, List<Class<?>> types) {
+            super(target.type.insertParameterTypes(pos, types));
+            this.target = target;
+            this.pos = pos;
+            this.count = types.size();
+        }
+
+        @Override
+        void emit(Compiler compiler, CodeContext<?> code, List<Source> arguments) {
+            var kept = new ArrayList<>(arguments);
+            kept.subList(pos, pos + count).clear();
+            target.emit(compiler, code, kept);
+        }
+    }
+
+    private static final class Permute extends Combinator {
+        private final Combinator target;
+        private final int[] reorder;
+
+        private Permute(Combinator target, MethodType newType, int[] reorder) {
+            super(newType);
+            this.target = target;
+            this.reorder = reorder;
+        }
+
+        @Override
+        void emit(Compiler compiler, CodeContext<?> code, List<Source> arguments) {
+            var permuted = new ArrayList<Source>(reorder.length);
+            for (var index : reorder) {
+                permuted.add(arguments.get(index));
+            }
+            target.emit(compiler, code, permuted);
+        }
+    }
+
+    private static final class Filter extends Combinator {
+        private final Combinator target;
+        private final int pos;
+        private final @Nullable Combinator[] filters;
+
+        private Filter(Combinator target, MethodType newType, int pos, @Nullable Combinator[] filters) {
+            super(newType);
+            this.target = target;
+            this.pos = pos;
+            this.filters = filters;
+        }
+
+        @Override
+        void emit(Compiler compiler, CodeContext<?> code, List<Source> arguments) {
+            var filtered = new ArrayList<>(arguments);
+            for (int i = 0; i < filters.length; i++) {
+                var filter = filters[i];
+                if (filter != null) {
+                    filter.emit(compiler, code, List.of(arguments.get(pos + i)));
+                    filtered.set(pos + i, compiler.store(code, filter.type.returnType()));
+                }
+            }
+            target.emit(compiler, code, filtered);
+        }
+    }
+
+    private static final class FilterReturn extends Combinator {
+        private final Combinator target;
+        private final Combinator filter;
+
+        private FilterReturn(Combinator target, Combinator filter) {
+            super(target.type.changeReturnType(filter.type.returnType()));
+            this.target = target;
+            this.filter = filter;
+        }
+
+        @Override
+        void emit(Compiler compiler, CodeContext<?> code, List<Source> arguments) {
+            target.emit(compiler, code, arguments);
+            var returnType = target.type.returnType();
+            filter.emit(compiler, code, returnType == void.class ? List.of() : List.of(compiler.store(code, returnType)));
+        }
+    }
+
+    private static final class Fold extends Combinator {
+        private final Combinator target;
+        private final int pos;
+        private final Combinator combiner;
+
+        private Fold(Combinator target, MethodType newType, int pos, Combinator combiner) {
+            super(newType);
+            this.target = target;
+            this.pos = pos;
+            this.combiner = combiner;
+        }
+
+        @Override
+        void emit(Compiler compiler, CodeContext<?> code, List<Source> arguments) {
+            combiner.emit(compiler, code, arguments.subList(pos, pos + combiner.type.parameterCount()));
+            var folded = combiner.type.returnType();
+            if (folded == void.class) {
+                target.emit(compiler, code, arguments);
+            } else {
+                var combined = new ArrayList<>(arguments);
+                combined.add(pos, compiler.store(code, folded));
+                target.emit(compiler, code, combined);
+            }
+        }
+    }
+
+    private static final class Convert extends Combinator {
+        private final Combinator target;
+
+        private Convert(Combinator target, MethodType newType) {
+            super(newType);
+            this.target = target;
+        }
+
+        @Override
+        void emit(Compiler compiler, CodeContext<?> code, List<Source> arguments) {
+            var converted = new ArrayList<>(arguments);
+            for (int i = 0; i < arguments.size(); i++) {
+                var from = type().parameterType(i);
+                var to = target.type.parameterType(i);
+                if (from != to) {
+                    arguments.get(i).push(compiler, code);
+                    TypeConversions.convert(code, from, to);
+                    converted.set(i, compiler.store(code, to));
+                }
+            }
+            target.emit(compiler, code, converted);
+            TypeConversions.convert(code, target.type.returnType(), type().returnType());
+        }
+    }
+
+    private static final class Catch extends Combinator {
+        private final Combinator target;
+        private final Class<? extends Throwable> exceptionType;
+        private final Combinator handler;
+
+        private Catch(Combinator target, Class<? extends Throwable> exceptionType, Combinator handler) {
+            super(target.type);
+            this.target = target;
+            this.exceptionType = exceptionType;
+            this.handler = handler;
+        }
+
+        @Override
+        void emit(Compiler compiler, CodeContext<?> code, List<Source> arguments) {
+            code.tryCatch(
+                body -> target.emit(compiler, body, arguments),
+                Constants.from(exceptionType),
+                handling -> {
+                    var handlerArguments = new ArrayList<Source>();
+                    handlerArguments.add(compiler.store(handling, exceptionType));
+                    handlerArguments.addAll(arguments.subList(0, handler.type.parameterCount() - 1));
+                    handler.emit(compiler, handling, handlerArguments);
+                }
+            );
+        }
+    }
+
+    private static final class Guard extends Combinator {
+        private final Combinator test;
+        private final Combinator target;
+        private final Combinator fallback;
+
+        private Guard(Combinator test, Combinator target, Combinator fallback) {
+            super(target.type);
+            this.test = test;
+            this.target = target;
+            this.fallback = fallback;
+        }
+
+        @Override
+        void emit(Compiler compiler, CodeContext<?> code, List<Source> arguments) {
+            test.emit(compiler, code, prefix(arguments, test.type));
+            code.ifThenElse(
+                whenTrue -> target.emit(compiler, whenTrue, arguments),
+                whenFalse -> fallback.emit(compiler, whenFalse, arguments)
+            );
+        }
+    }
+
+    private static final class Loop extends Combinator {
+        private final Combinator iterations;
+        private final @Nullable Combinator init;
+        private final Combinator body;
+
+        private Loop(MethodType type, Combinator iterations, @Nullable Combinator init, Combinator body) {
+            super(type);
+            this.iterations = iterations;
+            this.init = init;
+            this.body = body;
+        }
+
+        @Override
+        void emit(Compiler compiler, CodeContext<?> code, List<Source> arguments) {
+            var loopType = type().returnType();
+            iterations.emit(compiler, code, prefix(arguments, iterations.type));
+            var bound = compiler.store(code, int.class);
+            if (init != null) {
+                init.emit(compiler, code, prefix(arguments, init.type));
+            } else {
+                TypeConversions.convert(code, void.class, loopType);
+            }
+            var value = loopType == void.class ? null : compiler.store(code, loopType);
+            var index = compiler.parameter(int.class);
+            bound.push(compiler, code);
+            code.countedLoop(index.slot(), bound.slot(), loop -> {
+                var bodyArguments = new ArrayList<Source>();
+                if (value != null) {
+                    bodyArguments.add(value);
+                }
+                bodyArguments.add(index);
+                bodyArguments.addAll(arguments);
+                body.emit(compiler, loop, bodyArguments);
+                if (value != null) {
+                    loop.store(Constants.from(loopType), value.slot());
+                }
+            });
+            if (value != null) {
+                value.push(compiler, code);
+            }
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package dev.lukebemish.bytecodebuilder.runtime;
+
+import java.lang.invoke.MethodHandles;
+import java.nio.ByteBuffer;
+
+/**
+ * Bootstraps for primitive array constants packed into strings, as described by
+ * {@link dev.lukebemish.bytecodebuilder.Constants#packedArray(int[])} and its overloads. A table of thousands of
+ * elements takes a little over one byte of constant pool per byte of data this way, rather than several bytes of
+ * static initializer per element, and is decoded in a single pass the first time it is loaded.
+ * <p>
+ * The elements are written big-endian, and the resulting bytes split into groups of seven bits, each stored as one
+ * character whose code is one more than the group, wrapping the group of all ones around to zero, so that nearly every
+ * character takes a single byte in the class file. Long tables are split over several strings to fit
+ * within the limit of a constant pool entry.
+ */
+public final class ConstantTables {
+    private ConstantTables() {}
+
+    /**
+     * Decodes a packed primitive array.
+     * @param type the array type to decode, which must be {@code byte[]}, {@code short[]}, {@code char[]},
+     *             {@code int[]}, or {@code long[]}
+     * @param length the number of elements in the array
+     * @param chunks the packed strings, in order
+     */
+    public static Object unpack(MethodHandles.Lookup lookup, String name, Class<?> type, int length, String... chunks) {
+        var width = width(type);
+        var bytes = new byte[length * width];
+        int index = 0;
+        int buffer = 0;
+        int bits = 0;
+        for (var chunk : chunks) {
+            for (int i = 0; i < chunk.length(); i++) {
+                buffer = (buffer << 7) | ((chunk.charAt(i) - 1) & 0x7F);
+                bits += 7;
+                if (bits >= 8) {
+                    bits -= 8;
+                    if (index < bytes.length) {
+                        bytes[index++] = (byte) (buffer >>> bits);
+                    }
+                }
+            }
+        }
+        if (index != bytes.length) {
+            throw new IllegalArgumentException("Packed table has " + index + " bytes, but " + bytes.length + " were expected");
+        }
+        var data = ByteBuffer.wrap(bytes);
+        if (type == byte[].class) {
+            return bytes;
+        } else if (type == short[].class) {
+            var array = new short[length];
+            data.asShortBuffer().get(array);
+            return array;
+        } else if (type == char[].class) {
+            var array = new char[length];
+            data.asCharBuffer().get(array);
+            return array;
+        } else if (type == int[].class) {
+            var array = new int[length];
+            data.asIntBuffer().get(array);
+            return array;
+        } else {
+            var array = new long[length];
+            data.asLongBuffer().get(array);
+            return array;
+        }
+    }
+
+    private static int width(Class<?> type) {
+        if (type == byte[].class) {
+            return Byte.BYTES;
+        } else if (type == short[].class) {
+            return Short.BYTES;
+        } else if (type == char[].class) {
+            return Character.BYTES;
+        } else if (type == int[].class) {
+            return Integer.BYTES;
+        } else if (type == long[].class) {
+            return Long.BYTES;
+        }
+        throw new IllegalArgumentException("Cannot unpack a table of type " + type.getName());
+    }
+}
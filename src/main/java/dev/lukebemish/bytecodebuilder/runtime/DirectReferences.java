@@ -0,0 +1,79 @@
+package dev.lukebemish.bytecodebuilder.runtime;
+
+import dev.lukebemish.bytecodebuilder.CodeContext;
+import dev.lukebemish.bytecodebuilder.Constants;
+import org.jspecify.annotations.Nullable;
+
+import java.lang.constant.DirectMethodHandleDesc;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandleInfo;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.function.Consumer;
+
+/**
+ * Recovers the member behind a direct method handle, so that a hidden nestmate of the lookup class can reference it
+ * with a plain instruction instead of invoking the handle.
+ */
+final class DirectReferences {
+    private DirectReferences() {}
+
+    /**
+     * {@return an emitter for a direct reference to the handle's member, if a hidden nestmate of the lookup class could
+     * make one to the same effect, or {@code null} otherwise} The emitted instruction expects the handle's arguments on
+     * the stack, and leaves its result.
+     */
+    static @Nullable Consumer<CodeContext<?>> direct(MethodHandles.Lookup caller, MethodHandle handle) {
+        MethodHandleInfo info;
+        try {
+            info = caller.revealDirect(handle);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        var declaring = info.getDeclaringClass();
+        if (declaring.isHidden() || Modifier.isProtected(info.getModifiers()) || isCallerSensitive(caller, info)) {
+            return null;
+        }
+        try {
+            if (caller.findClass(declaring.getName()) != declaring) {
+                return null;
+            }
+        } catch (ClassNotFoundException | IllegalAccessException e) {
+            return null;
+        }
+
+        var owner = Constants.from(declaring);
+        var name = info.getName();
+        var methodType = info.getMethodType();
+        return switch (info.getReferenceKind()) {
+            case MethodHandleInfo.REF_invokeStatic -> code -> code.method(declaring.isInterface() ? DirectMethodHandleDesc.Kind.INTERFACE_STATIC : DirectMethodHandleDesc.Kind.STATIC, owner, name, Constants.from(methodType));
+            case MethodHandleInfo.REF_invokeVirtual -> code -> code.method(DirectMethodHandleDesc.Kind.VIRTUAL, owner, name, Constants.from(methodType));
+            case MethodHandleInfo.REF_invokeInterface -> code -> code.method(DirectMethodHandleDesc.Kind.INTERFACE_VIRTUAL, owner, name, Constants.from(methodType));
+            case MethodHandleInfo.REF_getField -> code -> code.field(DirectMethodHandleDesc.Kind.GETTER, owner, name, Constants.from(methodType.returnType()));
+            case MethodHandleInfo.REF_getStatic -> code -> code.field(DirectMethodHandleDesc.Kind.STATIC_GETTER, owner, name, Constants.from(methodType.returnType()));
+            case MethodHandleInfo.REF_putField -> code -> code.field(DirectMethodHandleDesc.Kind.SETTER, owner, name, Constants.from(methodType.parameterType(0)));
+            case MethodHandleInfo.REF_putStatic -> code -> code.field(DirectMethodHandleDesc.Kind.STATIC_SETTER, owner, name, Constants.from(methodType.parameterType(0)));
+            // Special invocations are bound to the caller, and constructors need their arguments after the new instance
+            default -> null;
+        };
+    }
+
+    private static boolean isCallerSensitive(MethodHandles.Lookup caller, MethodHandleInfo info) {
+        var kind = info.getReferenceKind();
+        if (kind != MethodHandleInfo.REF_invokeStatic && kind != MethodHandleInfo.REF_invokeVirtual && kind != MethodHandleInfo.REF_invokeInterface) {
+            return false;
+        }
+        try {
+            var method = info.reflectAs(Method.class, caller);
+            for (var annotation : method.getDeclaredAnnotations()) {
+                if (annotation.annotationType().getName().equals("jdk.internal.reflect.CallerSensitive")) {
+                    return true;
+                }
+            }
+            return false;
+        } catch (RuntimeException e) {
+            return true;
+        }
+    }
+}
@@ -2,58 +2,221 @@
 
 import dev.lukebemish.bytecodebuilder.ClassContext;
 import dev.lukebemish.bytecodebuilder.Constants;
+import org.jspecify.annotations.Nullable;
 
 import java.lang.constant.ClassDesc;
 import java.lang.constant.ConstantDescs;
 import java.lang.constant.DirectMethodHandleDesc;
+import java.lang.constant.MethodHandleDesc;
 import java.lang.invoke.CallSite;
 import java.lang.invoke.ConstantCallSite;
 import java.lang.invoke.LambdaConversionException;
 import java.lang.invoke.MethodHandle;
 import java.lang.invoke.MethodHandles;
 import java.lang.invoke.MethodType;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
 import java.lang.reflect.Modifier;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
 
 public final class FlexibleLambdaMetafactory {
     private FlexibleLambdaMetafactory() {}
 
+    private record LinkageShape(
+        int lookupModes,
+        String interfaceMethodName,
+        MethodType factoryType,
+        MethodType samMethodType,
+        MethodHandle implementation,
+        MethodType dynamicMethodType,
+        List<ConstantIdentity> constants
+    ) {}
+
+    // Constants are compared by identity, as equal but distinct objects are not necessarily interchangeable once embedded
+    private record ConstantIdentity(@Nullable Object value) {
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof ConstantIdentity other && value == other.value;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(value);
+        }
+    }
+
+    private static final class Linked extends WeakReference<MethodHandle> {
+        private final ConcurrentHashMap<LinkageShape, Object> linkages;
+        private final LinkageShape shape;
+
+        private Linked(MethodHandle factory, ConcurrentHashMap<LinkageShape, Object> linkages, LinkageShape shape) {
+            super(factory, CLEARED);
+            this.linkages = linkages;
+            this.shape = shape;
+        }
+    }
+
+    // Values are either a CompletableFuture<MethodHandle> for a shape that is currently being generated, or a Linked
+    // reference to the factory of a shape that has already been generated. Shapes are held by the lookup class, so that
+    // their implementations and constants are released along with it.
+    private static final ClassValue<ConcurrentHashMap<LinkageShape, Object>> LINKAGES = new ClassValue<>() {
+        @Override
+        protected ConcurrentHashMap<LinkageShape, Object> computeValue(Class<?> type) {
+            return new ConcurrentHashMap<>();
+        }
+    };
+    private static final ReferenceQueue<MethodHandle> CLEARED = new ReferenceQueue<>();
+
     public static CallSite metafactory(MethodHandles.Lookup caller,
                                        String interfaceMethodName,
                                        MethodType factoryType,
                                        MethodType samMethodType,
                                        MethodHandle implementation,
                                        MethodType dynamicMethodType) throws LambdaConversionException {
+        return metafactory(caller, interfaceMethodName, factoryType, samMethodType, implementation, dynamicMethodType, List.of());
+    }
+
+    /**
+     * Like {@link #metafactory(MethodHandles.Lookup, String, MethodType, MethodType, MethodHandle, MethodType)}, but
+     * binds the leading parameters of the implementation to link-time constants. Rather than being captured in fields,
+     * these are embedded in the generated class as class data and loaded as dynamic constants, so the JIT may fold
+     * through them; if every captured value is such a constant, the resulting factory returns a singleton.
+     * @param constants values for the leading parameters of the implementation, which may contain {@code null}
+     */
+    public static CallSite metafactory(MethodHandles.Lookup caller,
+                                       String interfaceMethodName,
+                                       MethodType factoryType,
+                                       MethodType samMethodType,
+                                       MethodHandle implementation,
+                                       MethodType dynamicMethodType,
+                                       List<?> constants) throws LambdaConversionException {
+        return new ConstantCallSite(link(caller, interfaceMethodName, factoryType, samMethodType, implementation, dynamicMethodType, constants));
+    }
+
+    /**
+     * Finds or generates the factory for a shape, as {@link #metafactory} does; shared with {@link PreSpin}.
+     */
+    static MethodHandle link(MethodHandles.Lookup caller,
+                             String interfaceMethodName,
+                             MethodType factoryType,
+                             MethodType samMethodType,
+                             MethodHandle implementation,
+                             MethodType dynamicMethodType,
+                             List<?> constants) throws LambdaConversionException {
+        expungeCleared();
+        var constantIdentities = new ArrayList<ConstantIdentity>(constants.size());
+        for (var constant : constants) {
+            constantIdentities.add(new ConstantIdentity(constant));
+        }
+        var linkages = LINKAGES.get(caller.lookupClass());
+        var shape = new LinkageShape(caller.lookupModes(), interfaceMethodName, factoryType, samMethodType, implementation, dynamicMethodType, constantIdentities);
+        while (true) {
+            var pending = new CompletableFuture<MethodHandle>();
+            var existing = linkages.putIfAbsent(shape, pending);
+            if (existing == null) {
+                MethodHandle factory;
+                try {
+                    if (Thread.currentThread().isVirtual()) {
+                        // Defining a class pins the carrier, so virtual threads wait for a platform thread to do it
+                        factory = await(CompletableFuture.supplyAsync(() -> {
+                            try {
+                                return spin(caller, interfaceMethodName, factoryType, samMethodType, implementation, dynamicMethodType, constantIdentities);
+                            } catch (LambdaConversionException e) {
+                                throw new CompletionException(e);
+                            }
+                        }, ClassContext.generationExecutor()));
+                    } else {
+                        factory = spin(caller, interfaceMethodName, factoryType, samMethodType, implementation, dynamicMethodType, constantIdentities);
+                    }
+                } catch (Throwable t) {
+                    linkages.remove(shape, pending);
+                    pending.completeExceptionally(t);
+                    throw t;
+                }
+                linkages.replace(shape, pending, new Linked(factory, linkages, shape));
+                pending.complete(factory);
+                return factory;
+            } else if (existing instanceof Linked linked) {
+                var factory = linked.get();
+                if (factory != null) {
+                    return factory;
+                }
+                linkages.remove(shape, linked);
+            } else {
+                @SuppressWarnings("unchecked") var inFlight = (CompletableFuture<MethodHandle>) existing;
+                return await(inFlight);
+            }
+        }
+    }
+
+    private static MethodHandle await(CompletableFuture<MethodHandle> inFlight) throws LambdaConversionException {
+        try {
+            // join parks rather than blocking on a monitor, so waiting virtual threads do not pin their carrier
+            return inFlight.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof LambdaConversionException lambdaConversionException) {
+                throw new LambdaConversionException(lambdaConversionException.getMessage(), lambdaConversionException);
+            }
+            throw e;
+        }
+    }
+
+    private static void expungeCleared() {
+        Reference<? extends MethodHandle> reference;
+        while ((reference = CLEARED.poll()) != null) {
+            var linked = (Linked) reference;
+            linked.linkages.remove(linked.shape, linked);
+        }
+    }
+
+    private static MethodHandle spin(MethodHandles.Lookup caller,
+                                     String interfaceMethodName,
+                                     MethodType factoryType,
+                                     MethodType samMethodType,
+                                     MethodHandle implementation,
+                                     MethodType dynamicMethodType,
+                                     List<ConstantIdentity> constants) throws LambdaConversionException {
         var samType = factoryType.returnType();
         var isInterface = samType.isInterface();
 
-        ClassDesc target = ClassDesc.of(caller.lookupClass().getName() + "$$FlexibleLambdaMetafactory$" + interfaceMethodName);
+        ClassDesc target = GeneratedNames.generatedName(caller, "$$FlexibleLambdaMetafactory$" + interfaceMethodName);
         ClassDesc toImplement = Constants.from(samType);
 
         var ctorType = factoryType.changeReturnType(void.class);
 
         var capturedArity = ctorType.parameterCount();
 
-        var handleType = implementation.type();
+        var constantArity = constants.size();
+
+        var implementationType = implementation.type();
+        if (implementationType.parameterCount() != constantArity + capturedArity + samMethodType.parameterCount() || dynamicMethodType.parameterCount() != samMethodType.parameterCount()) {
+            throw new LambdaConversionException("Mismatched arity between implementation " + implementationType + ", factory " + factoryType + ", SAM type " + samMethodType + ", and " + constantArity + " constants");
+        }
+        for (var i = 0; i < constantArity; i++) {
+            var value = constants.get(i).value();
+            var parameterType = implementationType.parameterType(i);
+            if (value == null ? parameterType.isPrimitive() : !(parameterType.isPrimitive() ? TypeConversions.isConvertible(value.getClass(), parameterType) : parameterType.isInstance(value))) {
+                throw new LambdaConversionException("Constant " + value + " is not applicable to parameter of type " + parameterType.getName());
+            }
+        }
         // We get in types of sam arg type, need to convert them to functional type, and then convert _that_ to the implementation type
         // Similarly, we get _out_ types of the implementation type, need to convert them to the functional type, and then to the sam type
-
-        // First conversion: impl -> functional
-        handleType = handleType.changeReturnType(dynamicMethodType.returnType());
-        for (var i = 0; i < dynamicMethodType.parameterCount(); i++) {
-            var argType = dynamicMethodType.parameterType(i);
-            handleType = handleType.changeParameterType(i + capturedArity, argType);
+        // These conversions are emitted in the generated method itself, so that the implementation is invoked exactly
+        for (var i = 0; i < capturedArity; i++) {
+            TypeConversions.check(ctorType.parameterType(i), implementationType.parameterType(i + constantArity));
         }
-        implementation = implementation.asType(handleType);
-
-        // Second conversion: functional -> sam
-        handleType = handleType.changeReturnType(samMethodType.returnType());
         for (var i = 0; i < samMethodType.parameterCount(); i++) {
-            var argType = samMethodType.parameterType(i);
-            handleType = handleType.changeParameterType(i + capturedArity, argType);
+            TypeConversions.check(samMethodType.parameterType(i), dynamicMethodType.parameterType(i));
+            TypeConversions.check(dynamicMethodType.parameterType(i), implementationType.parameterType(i + constantArity + capturedArity));
         }
-        implementation = implementation.asType(handleType);
+        TypeConversions.check(implementationType.returnType(), dynamicMethodType.returnType());
+        TypeConversions.check(dynamicMethodType.returnType(), samMethodType.returnType());
         var finalImplementation = implementation;
 
         var doStaticInit = capturedArity == 0;
@@ -75,11 +238,6 @@ public static CallSite metafactory(MethodHandles.Lookup caller,
                         });
                     }
 
-                    if (doStaticInit) {
-                        context.field("$INSTANCE", Modifier.STATIC | Modifier.PRIVATE | Modifier.FINAL, toImplement, null, null, field -> {
-                        });
-                    }
-
                     context.constructor(
                         Modifier.PRIVATE,
                         Constants.from(ctorType),
@@ -106,9 +264,22 @@ public static CallSite metafactory(MethodHandles.Lookup caller,
                         method -> method.code(code -> {
                             code.constant(tracker.dataConstant(ConstantDescs.CD_MethodHandle, finalImplementation));
 
+                            for (int i = 0; i < constantArity; i++) {
+                                var value = constants.get(i).value();
+                                if (value == null) {
+                                    code.constant(ConstantDescs.NULL);
+                                } else if (implementationType.parameterType(i).isPrimitive()) {
+                                    code.constant(tracker.dataConstant(Constants.from(value.getClass()), value));
+                                    TypeConversions.convert(code, value.getClass(), implementationType.parameterType(i));
+                                } else {
+                                    code.constant(tracker.dataConstant(Constants.from(implementationType.parameterType(i)), value));
+                                }
+                            }
+
                             for (int i = 0; i < ctorType.parameterCount(); i++) {
                                 code.loadThis();
                                 code.field(DirectMethodHandleDesc.Kind.GETTER, target, "arg$" + i, Constants.from(factoryType.parameterType(i)));
+                                TypeConversions.convert(code, ctorType.parameterType(i), implementationType.parameterType(i + constantArity));
                             }
 
                             var lvIndex = 0;
@@ -116,6 +287,8 @@ public static CallSite metafactory(MethodHandles.Lookup caller,
                                 var samArgType = samMethodType.parameterType(i);
                                 code.load(Constants.from(samArgType), lvIndex + 1);
                                 lvIndex += Constants.sizeOf(Constants.from(samArgType));
+                                TypeConversions.convert(code, samArgType, dynamicMethodType.parameterType(i));
+                                TypeConversions.convert(code, dynamicMethodType.parameterType(i), implementationType.parameterType(i + constantArity + capturedArity));
                             }
 
                             // We have all the arguments of the implementation present now
@@ -124,25 +297,27 @@ public static CallSite metafactory(MethodHandles.Lookup caller,
                                 DirectMethodHandleDesc.Kind.VIRTUAL,
                                 ConstantDescs.CD_MethodHandle,
                                 "invokeExact",
-                                Constants.from(finalImplementation.type())
+                                Constants.from(implementationType)
                             );
 
-                            // Now just return
-                            code.returnValue(Constants.from(finalImplementation.type().returnType()));
+                            // Now convert the result and return
+                            TypeConversions.convert(code, implementationType.returnType(), dynamicMethodType.returnType());
+                            TypeConversions.convert(code, dynamicMethodType.returnType(), samMethodType.returnType());
+                            code.returnValue(Constants.from(samMethodType.returnType()));
                         })
                     );
 
                     if (doStaticInit) {
+                        // The instance is a lazy constant, so defining the class does not construct it
                         context.method(
-                            "<clinit>",
-                            Modifier.STATIC,
-                            Constants.from(MethodType.methodType(void.class)),
+                            "$instance",
+                            Modifier.STATIC | Modifier.PRIVATE,
+                            Constants.from(MethodType.methodType(samType)),
                             null,
                             null,
                             method -> method.code(code -> {
-                                code.newInstance(target, Constants.from(MethodType.methodType(void.class)));
-                                code.field(DirectMethodHandleDesc.Kind.STATIC_SETTER, target, "$INSTANCE", toImplement);
-                                code.returnValue(ConstantDescs.CD_void);
+                                code.constant(Constants.lazyConstant("$INSTANCE", toImplement, MethodHandleDesc.ofConstructor(target)));
+                                code.returnValue(toImplement);
                             })
                         );
                     }
@@ -151,13 +326,12 @@ public static CallSite metafactory(MethodHandles.Lookup caller,
 
             MethodHandle handle;
             if (doStaticInit) {
-                handle = hiddenLookup.findStaticGetter(hiddenLookup.lookupClass(), "$INSTANCE", samType);
+                handle = hiddenLookup.findStatic(hiddenLookup.lookupClass(), "$instance", MethodType.methodType(samType));
             } else {
                 handle = hiddenLookup.findConstructor(hiddenLookup.lookupClass(), ctorType);
             }
-            handle = handle.asType(factoryType);
-            return new ConstantCallSite(handle);
-        } catch (NoSuchFieldException | IllegalAccessException | NoSuchMethodException e) {
+            return handle.asType(factoryType);
+        } catch (IllegalAccessException | NoSuchMethodException e) {
             throw new LambdaConversionException(e);
         }
     }
@@ -0,0 +1,20 @@
+package dev.lukebemish.bytecodebuilder.runtime;
+
+import java.lang.constant.ClassDesc;
+import java.lang.invoke.MethodHandles;
+
+/**
+ * Names the hidden classes generated on behalf of a lookup class.
+ */
+final class GeneratedNames {
+    private GeneratedNames() {}
+
+    /**
+     * {@return the name of a class generated for the lookup class, formed by appending the suffix to its name} The
+     * name of a hidden lookup class is not a valid binary name, so the suffix after its {@code /} is folded into the
+     * generated name.
+     */
+    static ClassDesc generatedName(MethodHandles.Lookup lookup, String suffix) {
+        return ClassDesc.of(lookup.lookupClass().getName().replace('/', '_') + suffix);
+    }
+}
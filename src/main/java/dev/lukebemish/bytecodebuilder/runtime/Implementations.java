@@ -0,0 +1,236 @@
+package dev.lukebemish.bytecodebuilder.runtime;
+
+import dev.lukebemish.bytecodebuilder.ClassContext;
+import dev.lukebemish.bytecodebuilder.Constants;
+
+import java.lang.constant.ClassDesc;
+import java.lang.constant.ConstantDescs;
+import java.lang.constant.DirectMethodHandleDesc;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.WrongMethodTypeException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Implements interfaces and abstract classes with any number of abstract methods by dispatching each method to a
+ * method handle, as a replacement for {@link java.lang.reflect.Proxy} that neither boxes arguments nor allocates per
+ * call. The generated hidden class invokes each handle exactly, loaded as class data, with any captured state stored
+ * in fields and passed as leading arguments.
+ * <p>
+ * Implementations are matched to methods by name and parameter types; an abstract method with no such implementation,
+ * such as a bridge introduced by a generic supertype, uses the only implementation with the same name and arity if
+ * there is one. Default and other concrete methods are inherited unless an implementation is given for them.
+ */
+public final class Implementations {
+    private Implementations() {}
+
+    /**
+     * Implements a type with no captured state.
+     * @return the single instance of the implementation
+     */
+    public static <T> T implement(MethodHandles.Lookup lookup, Class<T> type, Map<Method, MethodHandle> implementations) throws IllegalAccessException {
+        try {
+            return type.cast(factory(lookup, type, implementations, List.of()).invoke());
+        } catch (IllegalAccessException | RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new IllegalStateException("Could not create implementation of " + type.getName(), t);
+        }
+    }
+
+    /**
+     * Implements a type, capturing state. Each implementation handle takes the captured values followed by the
+     * parameters of the method it implements, and must be adaptable to that with {@link MethodHandle#asType}.
+     * @param captures the types of the captured values
+     * @return a handle taking the captured values and returning a new instance of the implementation
+     * @throws IllegalAccessException if the lookup cannot access the type, or the constructor of an abstract class
+     * @throws IllegalArgumentException if the constructor of an abstract class is package-private, and the lookup class
+     * is in another package
+     */
+    public static MethodHandle factory(MethodHandles.Lookup lookup, Class<?> type, Map<Method, MethodHandle> implementations, List<Class<?>> captures) throws IllegalAccessException {
+        lookup.accessClass(type);
+        var isInterface = type.isInterface();
+        if (!isInterface && (!Modifier.isAbstract(type.getModifiers()) || Modifier.isFinal(type.getModifiers()))) {
+            throw new IllegalArgumentException("Type " + type.getName() + " is neither an interface nor an abstract class");
+        }
+        if (!isInterface) {
+            try {
+                var superConstructor = type.getDeclaredConstructor();
+                var modifiers = superConstructor.getModifiers();
+                var lookupClass = lookup.lookupClass();
+                if (Modifier.isPrivate(modifiers) && type.getNestHost() != lookupClass.getNestHost()) {
+                    throw new IllegalAccessException("Cannot access no-argument constructor of " + type.getName());
+                }
+                // The implementation is defined in the lookup class's package, so it can only call a package-private constructor from there
+                var packagePrivate = (modifiers & (Modifier.PUBLIC | Modifier.PROTECTED | Modifier.PRIVATE)) == 0;
+                if (packagePrivate && (type.getClassLoader() != lookupClass.getClassLoader() || !type.getPackageName().equals(lookupClass.getPackageName()))) {
+                    throw new IllegalArgumentException("No-argument constructor of " + type.getName() + " is package-private, and " + lookupClass.getName() + " is in another package");
+                }
+            } catch (NoSuchMethodException e) {
+                throw new IllegalArgumentException("Abstract class " + type.getName() + " has no no-argument constructor", e);
+            }
+        }
+
+        var byKey = new LinkedHashMap<String, MethodHandle>();
+        implementations.forEach((method, handle) -> byKey.put(key(method), handle));
+
+        var methods = methods(type);
+        var implemented = new ArrayList<Method>();
+        var handles = new ArrayList<MethodHandle>();
+        methods.forEach((key, method) -> {
+            var handle = byKey.get(key);
+            if (handle == null && Modifier.isAbstract(method.getModifiers())) {
+                handle = byNameAndArity(implementations, method);
+                if (handle == null) {
+                    throw new IllegalArgumentException("No implementation given for " + method);
+                }
+            }
+            if (handle != null) {
+                var methodType = MethodType.methodType(method.getReturnType(), method.getParameterTypes()).insertParameterTypes(0, captures);
+                try {
+                    handles.add(handle.asType(methodType));
+                } catch (WrongMethodTypeException e) {
+                    throw new IllegalArgumentException("Implementation of " + method + " cannot be adapted to " + methodType, e);
+                }
+                implemented.add(method);
+            }
+        });
+        for (var key : byKey.keySet()) {
+            if (!methods.containsKey(key)) {
+                throw new IllegalArgumentException("Implementation given for " + key + ", which is not a method of " + type.getName());
+            }
+        }
+
+        ClassDesc target = GeneratedNames.generatedName(lookup, "$$Implementation");
+        ClassDesc toImplement = Constants.from(type);
+        ClassDesc superClass = isInterface ? ConstantDescs.CD_Object : toImplement;
+        var ctorType = MethodType.methodType(void.class, captures);
+
+        var hiddenLookup = ClassContext.hidden(
+            lookup,
+            true,
+            Set.of(MethodHandles.Lookup.ClassOption.NESTMATE),
+            65,
+            Modifier.FINAL,
+            target,
+            superClass,
+            isInterface ? List.of(toImplement) : List.of(),
+            null,
+            (context, tracker) -> {
+                for (int i = 0; i < captures.size(); i++) {
+                    context.field("arg$" + i, Modifier.PRIVATE | Modifier.FINAL, Constants.from(captures.get(i)), null, null, field -> {});
+                }
+
+                context.constructor(
+                    Modifier.PRIVATE,
+                    Constants.from(ctorType),
+                    null,
+                    method -> method.code(code -> {
+                        code.loadThis();
+                        code.method(DirectMethodHandleDesc.Kind.SPECIAL, superClass, "<init>", Constants.from(MethodType.methodType(void.class)));
+                        var lvIndex = 1;
+                        for (int i = 0; i < captures.size(); i++) {
+                            var argType = Constants.from(captures.get(i));
+                            code.loadThis();
+                            code.load(argType, lvIndex);
+                            lvIndex += Constants.sizeOf(argType);
+                            code.field(DirectMethodHandleDesc.Kind.SETTER, target, "arg$" + i, argType);
+                        }
+                        code.returnValue(ConstantDescs.CD_void);
+                    })
+                );
+
+                for (int m = 0; m < implemented.size(); m++) {
+                    var implementedMethod = implemented.get(m);
+                    var handle = handles.get(m);
+                    var methodType = MethodType.methodType(implementedMethod.getReturnType(), implementedMethod.getParameterTypes());
+                    context.method(
+                        implementedMethod.getName(),
+                        Modifier.PUBLIC,
+                        Constants.from(methodType),
+                        null,
+                        null,
+                        method -> method.code(code -> {
+                            code.constant(tracker.dataConstant(ConstantDescs.CD_MethodHandle, handle));
+                            for (int i = 0; i < captures.size(); i++) {
+                                code.loadThis();
+                                code.field(DirectMethodHandleDesc.Kind.GETTER, target, "arg$" + i, Constants.from(captures.get(i)));
+                            }
+                            var lvIndex = 1;
+                            for (var parameter : methodType.parameterList()) {
+                                code.load(Constants.from(parameter), lvIndex);
+                                lvIndex += Constants.sizeOf(Constants.from(parameter));
+                            }
+                            code.method(DirectMethodHandleDesc.Kind.VIRTUAL, ConstantDescs.CD_MethodHandle, "invokeExact", Constants.from(handle.type()));
+                            code.returnValue(Constants.from(methodType.returnType()));
+                        })
+                    );
+                }
+            }
+        );
+
+        try {
+            var constructor = hiddenLookup.findConstructor(hiddenLookup.lookupClass(), ctorType);
+            return constructor.asType(MethodType.methodType(type, captures));
+        } catch (NoSuchMethodException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // Collects the overridable methods of a type, keeping the most specific of each signature
+    private static Map<String, Method> methods(Class<?> type) {
+        var methods = new LinkedHashMap<String, Method>();
+        for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+            for (var method : c.getDeclaredMethods()) {
+                var modifiers = method.getModifiers();
+                if (!Modifier.isStatic(modifiers) && !Modifier.isPrivate(modifiers) && !Modifier.isFinal(modifiers) && !method.isBridge()) {
+                    methods.putIfAbsent(key(method), method);
+                }
+            }
+        }
+        for (var method : type.getMethods()) {
+            if (!Modifier.isStatic(method.getModifiers()) && !Modifier.isFinal(method.getModifiers())) {
+                var existing = methods.get(key(method));
+                if (existing == null || Modifier.isAbstract(existing.getModifiers()) && !Modifier.isAbstract(method.getModifiers())) {
+                    methods.put(key(method), method);
+                }
+            }
+        }
+        if (type.isInterface()) {
+            // Abstract redeclarations of Object's public methods are implemented by Object
+            for (var method : Object.class.getMethods()) {
+                var key = key(method);
+                var existing = methods.get(key);
+                if (existing != null && Modifier.isAbstract(existing.getModifiers())) {
+                    methods.remove(key);
+                }
+            }
+        }
+        return methods;
+    }
+
+    private static MethodHandle byNameAndArity(Map<Method, MethodHandle> implementations, Method method) {
+        MethodHandle found = null;
+        for (var entry : implementations.entrySet()) {
+            var candidate = entry.getKey();
+            if (candidate.getName().equals(method.getName()) && candidate.getParameterCount() == method.getParameterCount()) {
+                if (found != null) {
+                    return null;
+                }
+                found = entry.getValue();
+            }
+        }
+        return found;
+    }
+
+    private static String key(Method method) {
+        return method.getName() + MethodType.methodType(method.getReturnType(), method.getParameterTypes()).toMethodDescriptorString();
+    }
+}
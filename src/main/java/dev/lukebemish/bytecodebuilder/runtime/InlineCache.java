@@ -0,0 +1,120 @@
+package dev.lukebemish.bytecodebuilder.runtime;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.MutableCallSite;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Bootstraps for call sites that dispatch on the exact class of their first argument through a polymorphic inline
+ * cache. Each site starts out unlinked; on a miss, the target for the receiver's class is resolved by a user-supplied
+ * resolver and prepended to a chain of exact class checks, so that monomorphic and bimorphic sites inline like
+ * ordinary virtual calls. Once a site has seen more receiver classes than its limit, the chain is replaced with a
+ * lookup of the resolved targets through a {@link ClassValue}.
+ * <p>
+ * Resolvers take the caller's lookup, the call site's name and type, and a receiver class, and return a handle that
+ * can be adapted to the call site's type with {@link MethodHandle#asType}. A resolver is invoked at most once per
+ * receiver class per call site.
+ */
+public final class InlineCache {
+    private InlineCache() {}
+
+    public static final int DEFAULT_LIMIT = 4;
+
+    private static final MethodHandle MISS;
+    private static final MethodHandle CHECK_CLASS;
+    private static final MethodHandle SELECT;
+
+    static {
+        try {
+            var lookup = MethodHandles.lookup();
+            MISS = lookup.findVirtual(InlineCacheCallSite.class, "miss", MethodType.methodType(Object.class, Object[].class));
+            CHECK_CLASS = lookup.findStatic(InlineCache.class, "checkClass", MethodType.methodType(boolean.class, Class.class, Object.class));
+            SELECT = lookup.findVirtual(InlineCacheCallSite.class, "select", MethodType.methodType(MethodHandle.class, Object.class));
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    public static CallSite bootstrap(MethodHandles.Lookup caller, String name, MethodType type, MethodHandle resolver) {
+        return bootstrap(caller, name, type, resolver, DEFAULT_LIMIT);
+    }
+
+    /**
+     * Links a call site dispatching on the class of its first argument.
+     * @param resolver a handle of type {@code (MethodHandles.Lookup, String, MethodType, Class)MethodHandle} resolving
+     *                 the target for a given receiver class
+     * @param limit the number of receiver classes to check for before falling back to a class value lookup, which
+     *              may be zero to always use the lookup
+     */
+    public static CallSite bootstrap(MethodHandles.Lookup caller, String name, MethodType type, MethodHandle resolver, int limit) {
+        if (type.parameterCount() == 0 || type.parameterType(0).isPrimitive()) {
+            throw new IllegalArgumentException("Inline cached call site must have a reference receiver, but had type " + type);
+        }
+        if (limit < 0) {
+            throw new IllegalArgumentException("Limit must not be negative, but was " + limit);
+        }
+        var resolverType = MethodType.methodType(MethodHandle.class, MethodHandles.Lookup.class, String.class, MethodType.class, Class.class);
+        return new InlineCacheCallSite(caller, name, type, resolver.asType(resolverType), limit);
+    }
+
+    private static boolean checkClass(Class<?> expected, Object receiver) {
+        return receiver.getClass() == expected;
+    }
+
+    private static final class InlineCacheCallSite extends MutableCallSite {
+        private final int limit;
+        private final ClassValue<MethodHandle> targets;
+        // Guarded by this
+        private final Set<Class<?>> cached = new HashSet<>();
+        private boolean megamorphic;
+
+        private InlineCacheCallSite(MethodHandles.Lookup caller, String name, MethodType type, MethodHandle resolver, int limit) {
+            super(type);
+            this.limit = limit;
+            this.targets = new ClassValue<>() {
+                @Override
+                protected MethodHandle computeValue(Class<?> receiver) {
+                    try {
+                        var target = (MethodHandle) resolver.invokeExact(caller, name, type, (Class<?>) receiver);
+                        return target.asType(type);
+                    } catch (RuntimeException | Error e) {
+                        throw e;
+                    } catch (Throwable t) {
+                        throw new IllegalStateException("Could not resolve target for " + receiver.getName(), t);
+                    }
+                }
+            };
+            setTarget(limit == 0 ? megamorphicTarget() : MISS.bindTo(this).asCollector(Object[].class, type.parameterCount()).asType(type));
+        }
+
+        private Object miss(Object[] arguments) throws Throwable {
+            var receiver = arguments[0].getClass();
+            var target = targets.get(receiver);
+            synchronized (this) {
+                if (!megamorphic && cached.add(receiver)) {
+                    if (cached.size() > limit) {
+                        megamorphic = true;
+                        setTarget(megamorphicTarget());
+                    } else {
+                        var check = CHECK_CLASS.bindTo(receiver).asType(MethodType.methodType(boolean.class, type().parameterType(0)));
+                        setTarget(MethodHandles.guardWithTest(check, target, getTarget()));
+                    }
+                }
+            }
+            return target.invokeWithArguments(arguments);
+        }
+
+        private MethodHandle select(Object receiver) {
+            return targets.get(receiver.getClass());
+        }
+
+        private MethodHandle megamorphicTarget() {
+            var select = SELECT.bindTo(this).asType(MethodType.methodType(MethodHandle.class, type().parameterType(0)));
+            return MethodHandles.foldArguments(MethodHandles.exactInvoker(type()), select);
+        }
+    }
+}
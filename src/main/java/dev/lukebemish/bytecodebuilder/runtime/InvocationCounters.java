@@ -0,0 +1,80 @@
+package dev.lukebemish.bytecodebuilder.runtime;
+
+import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Registry of the invocation counters woven into generated methods when
+ * {@link dev.lukebemish.bytecodebuilder.ClassContext#countInvocations(boolean) invocation counting} is enabled. Each
+ * counted method increments a striped counter on entry, which is resolved once per method as a dynamic constant.
+ * Counters are held weakly by the class they belong to, so unloaded classes drop out of the registry.
+ */
+public final class InvocationCounters {
+    private InvocationCounters() {}
+
+    public record Count(Class<?> owner, String name, String descriptor, long count) {}
+
+    private static final class Counter {
+        private final String descriptor;
+        private final LongAdder adder = new LongAdder();
+        private long drained;
+
+        private Counter(String descriptor) {
+            this.descriptor = descriptor;
+        }
+    }
+
+    // Guarded by itself
+    private static final Map<Class<?>, Map<String, Counter>> COUNTERS = new WeakHashMap<>();
+
+    /**
+     * Bootstrap for the dynamic constant holding a counted method's counter.
+     * @param descriptor the descriptor of the counted method
+     */
+    public static LongAdder counter(MethodHandles.Lookup lookup, String name, Class<?> type, String descriptor) {
+        var counter = new Counter(descriptor);
+        synchronized (COUNTERS) {
+            var counters = COUNTERS.computeIfAbsent(lookup.lookupClass(), k -> new LinkedHashMap<>());
+            var existing = counters.putIfAbsent(name + descriptor, counter);
+            return existing == null ? counter.adder : existing.adder;
+        }
+    }
+
+    /**
+     * {@return the number of times each counted method has been invoked since its class was loaded}
+     */
+    public static List<Count> snapshot() {
+        return collect(false);
+    }
+
+    /**
+     * Returns the number of times each counted method has been invoked since the last call to this method, starting a
+     * new sampling window. Windows do not affect the totals reported by {@link #snapshot()}.
+     */
+    public static List<Count> window() {
+        return collect(true);
+    }
+
+    private static List<Count> collect(boolean drain) {
+        var counts = new ArrayList<Count>();
+        synchronized (COUNTERS) {
+            COUNTERS.forEach((owner, counters) -> counters.forEach((key, counter) -> {
+                var name = key.substring(0, key.length() - counter.descriptor.length());
+                long count;
+                if (drain) {
+                    count = counter.adder.sumThenReset();
+                    counter.drained += count;
+                } else {
+                    count = counter.drained + counter.adder.sum();
+                }
+                counts.add(new Count(owner, name, counter.descriptor, count));
+            }));
+        }
+        return counts;
+    }
+}
@@ -0,0 +1,60 @@
+package dev.lukebemish.bytecodebuilder.runtime;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.ConstantCallSite;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandleInfo;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+/**
+ * Bootstraps resolving references between the hidden classes of a nest, as handed out by
+ * {@link dev.lukebemish.bytecodebuilder.NestTracker}. A hidden class cannot be named in the constant pool of any class
+ * but itself, so each class of a nest holds a table of the real classes in its class data, filled in once every class
+ * of the nest is defined. A reference to a member of another class is linked to a constant call site bound to a direct
+ * handle on that member, found with the caller's own lookup; as the classes are nestmates, this reaches private members
+ * as well, and once linked the JIT inlines through the site as it would a plain invoke instruction.
+ */
+public final class Nests {
+    private Nests() {}
+
+    /**
+     * {@return a class of the nest, or an array of one}
+     * @param table the classes of the nest, in the order they were given
+     * @param index the index of the class in the table
+     * @param dimensions the number of array dimensions to wrap the class in
+     */
+    public static Class<?> member(MethodHandles.Lookup lookup, String name, Class<?> type, Class<?>[] table, int index, int dimensions) {
+        var member = table[index];
+        if (member == null) {
+            throw new IllegalStateException("Class " + index + " of the nest has not been defined yet");
+        }
+        for (int i = 0; i < dimensions; i++) {
+            member = member.arrayType();
+        }
+        return member;
+    }
+
+    /**
+     * Links a call site to a member of a class of the nest. The type of the site may be erased from the real type of
+     * the member, which it is adapted to.
+     * @param kind the {@linkplain MethodHandleInfo reference kind} of the member
+     * @param owner the class declaring the member
+     * @param returnType the return type of the method, or the type of the field
+     * @param parameterTypes the parameter types of the method, or nothing for a field
+     */
+    public static CallSite bootstrap(MethodHandles.Lookup caller, String name, MethodType type, int kind, Class<?> owner, Class<?> returnType, Class<?>... parameterTypes) throws NoSuchMethodException, NoSuchFieldException, IllegalAccessException {
+        var methodType = MethodType.methodType(returnType, parameterTypes);
+        MethodHandle handle = switch (kind) {
+            case MethodHandleInfo.REF_invokeStatic -> caller.findStatic(owner, name, methodType);
+            case MethodHandleInfo.REF_invokeVirtual, MethodHandleInfo.REF_invokeInterface -> caller.findVirtual(owner, name, methodType);
+            case MethodHandleInfo.REF_newInvokeSpecial -> caller.findConstructor(owner, methodType);
+            case MethodHandleInfo.REF_getField -> caller.findGetter(owner, name, returnType);
+            case MethodHandleInfo.REF_putField -> caller.findSetter(owner, name, returnType);
+            case MethodHandleInfo.REF_getStatic -> caller.findStaticGetter(owner, name, returnType);
+            case MethodHandleInfo.REF_putStatic -> caller.findStaticSetter(owner, name, returnType);
+            default -> throw new IllegalArgumentException("Unsupported reference kind " + MethodHandleInfo.referenceKindToString(kind));
+        };
+        return new ConstantCallSite(handle.asType(type));
+    }
+}
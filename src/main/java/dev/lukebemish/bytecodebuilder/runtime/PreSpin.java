@@ -0,0 +1,110 @@
+package dev.lukebemish.bytecodebuilder.runtime;
+
+import dev.lukebemish.bytecodebuilder.ClassContext;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A registry of generation work to warm in the background once an application has started, so that the first use of a
+ * declared shape finds it already generated instead of generating it on a latency-sensitive thread. Work is declared
+ * with {@link #register} or {@link #lambda}, typically from static initializers, and runs on the
+ * {@linkplain ClassContext#generationExecutor() generation executor} once {@link #start} is called; work declared
+ * afterwards runs immediately.
+ */
+public final class PreSpin {
+    private PreSpin() {}
+
+    private record Work(Runnable task, CompletableFuture<?> future) {}
+
+    private static final ReentrantLock LOCK = new ReentrantLock();
+    private static final List<Work> PENDING = new ArrayList<>();
+    private static boolean started;
+    // The linkage cache only holds factories weakly, so pre-spun ones are kept for as long as the class they were spun
+    // for, rather than being released before the call site they were spun for is linked
+    private static final ClassValue<Set<MethodHandle>> PRESPUN = new ClassValue<>() {
+        @Override
+        protected Set<MethodHandle> computeValue(Class<?> type) {
+            return ConcurrentHashMap.newKeySet();
+        }
+    };
+
+    /**
+     * Declares generation work to run in the background.
+     * @return a future completing with the result of the work
+     */
+    public static <R> CompletableFuture<R> register(Callable<R> work) {
+        var future = new CompletableFuture<R>();
+        Runnable task = () -> {
+            try {
+                future.complete(work.call());
+            } catch (Throwable t) {
+                future.completeExceptionally(t);
+            }
+        };
+        LOCK.lock();
+        try {
+            if (!started) {
+                PENDING.add(new Work(task, future));
+                return future;
+            }
+        } finally {
+            LOCK.unlock();
+        }
+        ClassContext.generationExecutor().execute(task);
+        return future;
+    }
+
+    /**
+     * Declares a {@link FlexibleLambdaMetafactory} shape to link in the background, so that a later
+     * {@link FlexibleLambdaMetafactory#metafactory} call for the same shape finds it already generated. The lookup must
+     * have the same lookup class and modes as the one the call site will be linked with. The factory is kept for as long
+     * as the lookup class is.
+     * @return a future completing with the factory handle for the shape
+     */
+    public static CompletableFuture<MethodHandle> lambda(MethodHandles.Lookup caller,
+                                                         String interfaceMethodName,
+                                                         MethodType factoryType,
+                                                         MethodType samMethodType,
+                                                         MethodHandle implementation,
+                                                         MethodType dynamicMethodType,
+                                                         List<?> constants) {
+        var copiedConstants = new ArrayList<Object>(constants);
+        return register(() -> {
+            var factory = FlexibleLambdaMetafactory.link(caller, interfaceMethodName, factoryType, samMethodType, implementation, dynamicMethodType, copiedConstants);
+            PRESPUN.get(caller.lookupClass()).add(factory);
+            return factory;
+        });
+    }
+
+    /**
+     * Starts all work declared so far, and any declared from now on. Calling this more than once has no further effect.
+     * @return a future completing once the work declared before this call has finished, successfully or not
+     */
+    public static CompletableFuture<Void> start() {
+        List<Work> pending;
+        LOCK.lock();
+        try {
+            started = true;
+            pending = List.copyOf(PENDING);
+            PENDING.clear();
+        } finally {
+            LOCK.unlock();
+        }
+        var executor = ClassContext.generationExecutor();
+        for (var work : pending) {
+            executor.execute(work.task());
+        }
+        return CompletableFuture.allOf(pending.stream()
+            .map(work -> work.future().exceptionally(t -> null))
+            .toArray(CompletableFuture[]::new));
+    }
+}
@@ -0,0 +1,283 @@
+package dev.lukebemish.bytecodebuilder.runtime;
+
+import dev.lukebemish.bytecodebuilder.ClassContext;
+import dev.lukebemish.bytecodebuilder.ClassDataTracker;
+import dev.lukebemish.bytecodebuilder.CodeContext;
+import dev.lukebemish.bytecodebuilder.Constants;
+import org.jspecify.annotations.Nullable;
+
+import java.lang.constant.ClassDesc;
+import java.lang.constant.ConstantDescs;
+import java.lang.constant.DirectMethodHandleDesc;
+import java.lang.constant.MethodTypeDesc;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Member;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A binary codec for a record or value class, generated as a hidden class with straight-line encode and decode
+ * methods. Primitive components are written in the buffer's byte order without boxing, strings are written as their
+ * UTF-8 length followed by their bytes, and nested records are inlined into their parent. Components other than
+ * strings must not be {@code null}. On Java 24 and later, {@code SegmentCodec} encodes the same way to and from a
+ * {@code MemorySegment}.
+ * @param <T> the type encoded
+ */
+public abstract class RecordCodec<T> {
+    private static final ClassDesc CD_BYTE_BUFFER = ClassDesc.of("java.nio.ByteBuffer");
+
+    protected RecordCodec() {}
+
+    public abstract void encode(T value, ByteBuffer buffer);
+
+    public abstract T decode(ByteBuffer buffer);
+
+    // Shared with the memory segment codecs of later Java versions
+    record Component(Class<?> type, Member member, MethodHandle handle, @Nullable Shape nested) {}
+
+    record Shape(Class<?> type, List<Component> components, MethodHandle constructor, boolean direct) {
+        boolean anyDirect() {
+            return direct || components.stream().anyMatch(component -> component.nested() != null && component.nested().anyDirect());
+        }
+    }
+
+    /**
+     * Generates a codec for a record class, reading its components through their accessors and constructing it
+     * through its canonical constructor. Members are accessed directly if the lookup's class is a nestmate of the
+     * record, and through handles found with the lookup otherwise.
+     * @throws IllegalAccessException if the lookup cannot access the record's accessors or canonical constructor
+     */
+    public static <T extends Record> RecordCodec<T> of(MethodHandles.Lookup lookup, Class<T> type) throws IllegalAccessException {
+        return generate(lookup, shape(lookup, type, new HashSet<>()));
+    }
+
+    /**
+     * Generates a codec for a value class, given the fields making up its state and a constructor taking those fields'
+     * values in order.
+     * @throws IllegalAccessException if the lookup cannot access the fields or constructor
+     */
+    public static <T> RecordCodec<T> of(MethodHandles.Lookup lookup, Class<T> type, List<Field> components, Constructor<T> constructor) throws IllegalAccessException {
+        return generate(lookup, shape(lookup, type, components, constructor));
+    }
+
+    static Shape shape(MethodHandles.Lookup lookup, Class<?> type, List<Field> components, Constructor<?> constructor) throws IllegalAccessException {
+        var parameters = constructor.getParameterTypes();
+        if (constructor.getDeclaringClass() != type || parameters.length != components.size()) {
+            throw new IllegalArgumentException("Constructor " + constructor + " does not take the components " + components);
+        }
+        var visiting = new HashSet<Class<?>>();
+        visiting.add(type);
+        var shapeComponents = new ArrayList<Component>();
+        for (int i = 0; i < parameters.length; i++) {
+            var field = components.get(i);
+            if (field.getType() != parameters[i] || Modifier.isStatic(field.getModifiers()) || !field.getDeclaringClass().isAssignableFrom(type)) {
+                throw new IllegalArgumentException("Field " + field + " does not match parameter " + i + " of " + constructor);
+            }
+            shapeComponents.add(new Component(field.getType(), field, lookup.unreflectGetter(field), nested(lookup, field.getType(), visiting)));
+        }
+        return new Shape(type, shapeComponents, lookup.unreflectConstructor(constructor), isNestmate(lookup, type));
+    }
+
+    static Shape shape(MethodHandles.Lookup lookup, Class<?> type, Set<Class<?>> visiting) throws IllegalAccessException {
+        if (!visiting.add(type)) {
+            throw new IllegalArgumentException("Record " + type.getName() + " contains itself");
+        }
+        var recordComponents = type.getRecordComponents();
+        var components = new ArrayList<Component>(recordComponents.length);
+        var parameters = new Class<?>[recordComponents.length];
+        for (int i = 0; i < recordComponents.length; i++) {
+            var component = recordComponents[i];
+            var accessor = component.getAccessor();
+            components.add(new Component(component.getType(), accessor, lookup.unreflect(accessor), nested(lookup, component.getType(), visiting)));
+            parameters[i] = component.getType();
+        }
+        visiting.remove(type);
+        MethodHandle constructor;
+        try {
+            constructor = lookup.unreflectConstructor(type.getDeclaredConstructor(parameters));
+        } catch (NoSuchMethodException e) {
+            throw new IllegalStateException("Record " + type.getName() + " has no canonical constructor", e);
+        }
+        return new Shape(type, components, constructor, isNestmate(lookup, type));
+    }
+
+    private static @Nullable Shape nested(MethodHandles.Lookup lookup, Class<?> type, Set<Class<?>> visiting) throws IllegalAccessException {
+        if (type.isRecord()) {
+            return shape(lookup, type, visiting);
+        } else if (!type.isPrimitive() && type != String.class) {
+            throw new IllegalArgumentException("Unsupported component type " + type.getName());
+        }
+        return null;
+    }
+
+    private static boolean isNestmate(MethodHandles.Lookup lookup, Class<?> type) {
+        return lookup.lookupClass().getNestHost() == type.getNestHost();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> RecordCodec<T> generate(MethodHandles.Lookup lookup, Shape shape) throws IllegalAccessException {
+        ClassDesc target = GeneratedNames.generatedName(lookup, "$$RecordCodec");
+        ClassDesc codec = Constants.from(RecordCodec.class);
+        var hiddenLookup = ClassContext.hidden(
+            lookup,
+            true,
+            shape.anyDirect() ? Set.of(MethodHandles.Lookup.ClassOption.NESTMATE) : Set.of(),
+            65,
+            Modifier.FINAL,
+            target,
+            codec,
+            List.of(),
+            null,
+            (context, tracker) -> {
+                context.constructor(
+                    Modifier.PRIVATE,
+                    MethodTypeDesc.of(ConstantDescs.CD_void),
+                    null,
+                    method -> method.code(code -> {
+                        code.loadThis();
+                        code.method(DirectMethodHandleDesc.Kind.SPECIAL, codec, "<init>", MethodTypeDesc.of(ConstantDescs.CD_void));
+                        code.returnValue(ConstantDescs.CD_void);
+                    })
+                );
+
+                context.method(
+                    "encode",
+                    Modifier.PUBLIC | Modifier.FINAL,
+                    MethodTypeDesc.of(ConstantDescs.CD_void, ConstantDescs.CD_Object, CD_BYTE_BUFFER),
+                    null,
+                    null,
+                    method -> method.code(code -> {
+                        code.load(ConstantDescs.CD_Object, 1);
+                        code.checkCast(Constants.from(shape.type()));
+                        code.store(Constants.from(shape.type()), 1);
+                        encode(code, tracker, shape, 1, 3);
+                        code.returnValue(ConstantDescs.CD_void);
+                    })
+                );
+
+                context.method(
+                    "decode",
+                    Modifier.PUBLIC | Modifier.FINAL,
+                    MethodTypeDesc.of(ConstantDescs.CD_Object, CD_BYTE_BUFFER),
+                    null,
+                    null,
+                    method -> method.code(code -> {
+                        decode(code, tracker, shape);
+                        code.returnValue(ConstantDescs.CD_Object);
+                    })
+                );
+            }
+        );
+
+        try {
+            return (RecordCodec<T>) hiddenLookup.findConstructor(hiddenLookup.lookupClass(), MethodType.methodType(void.class)).invoke();
+        } catch (Throwable t) {
+            throw new IllegalStateException("Could not create codec for " + shape.type().getName(), t);
+        }
+    }
+
+    private static void encode(CodeContext<?> code, ClassDataTracker tracker, Shape shape, int local, int nextLocal) {
+        for (var component : shape.components()) {
+            var type = Constants.from(component.type());
+            if (component.nested() != null) {
+                read(code, tracker, shape, component, local);
+                code.store(type, nextLocal);
+                encode(code, tracker, component.nested(), nextLocal, nextLocal + 1);
+                continue;
+            }
+            code.load(CD_BYTE_BUFFER, 2);
+            read(code, tracker, shape, component, local);
+            if (component.type() == boolean.class || component.type() == String.class) {
+                code.method(DirectMethodHandleDesc.Kind.STATIC, Constants.from(RecordCodec.class), component.type() == String.class ? "putString" : "putBoolean", MethodTypeDesc.of(ConstantDescs.CD_void, CD_BYTE_BUFFER, type));
+            } else {
+                code.method(DirectMethodHandleDesc.Kind.VIRTUAL, CD_BYTE_BUFFER, "put" + suffix(component.type()), MethodTypeDesc.of(CD_BYTE_BUFFER, type));
+                code.pop(CD_BYTE_BUFFER);
+            }
+        }
+    }
+
+    private static void decode(CodeContext<?> code, ClassDataTracker tracker, Shape shape) {
+        code.constant(tracker.dataConstant(ConstantDescs.CD_MethodHandle, shape.constructor()));
+        for (var component : shape.components()) {
+            var type = Constants.from(component.type());
+            if (component.nested() != null) {
+                decode(code, tracker, component.nested());
+            } else if (component.type() == boolean.class || component.type() == String.class) {
+                code.load(CD_BYTE_BUFFER, 1);
+                code.method(DirectMethodHandleDesc.Kind.STATIC, Constants.from(RecordCodec.class), component.type() == String.class ? "getString" : "getBoolean", MethodTypeDesc.of(type, CD_BYTE_BUFFER));
+            } else {
+                code.load(CD_BYTE_BUFFER, 1);
+                code.method(DirectMethodHandleDesc.Kind.VIRTUAL, CD_BYTE_BUFFER, "get" + suffix(component.type()), MethodTypeDesc.of(type));
+            }
+        }
+        code.method(DirectMethodHandleDesc.Kind.VIRTUAL, ConstantDescs.CD_MethodHandle, "invokeExact", Constants.from(shape.constructor().type()));
+    }
+
+    static void read(CodeContext<?> code, ClassDataTracker tracker, Shape shape, Component component, int local) {
+        var owner = Constants.from(shape.type());
+        var type = Constants.from(component.type());
+        if (shape.direct()) {
+            code.load(owner, local);
+            switch (component.member()) {
+                case Method method -> code.method(DirectMethodHandleDesc.Kind.VIRTUAL, owner, method.getName(), MethodTypeDesc.of(type));
+                case Field field -> code.field(DirectMethodHandleDesc.Kind.GETTER, Constants.from(field.getDeclaringClass()), field.getName(), type);
+                default -> throw new IllegalStateException("Unexpected component member " + component.member());
+            }
+        } else {
+            code.constant(tracker.dataConstant(ConstantDescs.CD_MethodHandle, component.handle()));
+            code.load(owner, local);
+            code.method(DirectMethodHandleDesc.Kind.VIRTUAL, ConstantDescs.CD_MethodHandle, "invokeExact", Constants.from(component.handle().type()));
+        }
+    }
+
+    private static String suffix(Class<?> type) {
+        return switch (type.getName()) {
+            case "byte" -> "";
+            case "char" -> "Char";
+            case "short" -> "Short";
+            case "int" -> "Int";
+            case "long" -> "Long";
+            case "float" -> "Float";
+            case "double" -> "Double";
+            default -> throw new IllegalArgumentException("Unsupported component type " + type.getName());
+        };
+    }
+
+    protected static void putBoolean(ByteBuffer buffer, boolean value) {
+        buffer.put(value ? (byte) 1 : (byte) 0);
+    }
+
+    protected static boolean getBoolean(ByteBuffer buffer) {
+        return buffer.get() != 0;
+    }
+
+    protected static void putString(ByteBuffer buffer, String value) {
+        if (value == null) {
+            buffer.putInt(-1);
+            return;
+        }
+        var bytes = value.getBytes(StandardCharsets.UTF_8);
+        buffer.putInt(bytes.length);
+        buffer.put(bytes);
+    }
+
+    protected static String getString(ByteBuffer buffer) {
+        var length = buffer.getInt();
+        if (length == -1) {
+            return null;
+        }
+        var bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,46 @@
+package dev.lukebemish.bytecodebuilder.runtime;
+
+import dev.lukebemish.bytecodebuilder.BackendASM;
+import dev.lukebemish.bytecodebuilder.Constants;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.constant.ClassDesc;
+import java.lang.invoke.MethodHandles;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Defines primitive specializations of generic classes at runtime, as described in {@link BackendASM#specialize}. A
+ * specialization of a class such as {@code Box<T>} with {@code T} bound to {@code int} stores and passes around plain
+ * {@code int}s, with no boxing where the generic class would box. The specialized class is a hidden class in the
+ * package of the lookup, so the lookup should usually be in the package of the template. This relies on ASM being
+ * present at runtime.
+ */
+public final class Specializations {
+    private Specializations() {}
+
+    /**
+     * Defines a specialization of a generic class as a hidden class.
+     * @param lookup the lookup to define the specialization with
+     * @param template the generic class, whose class file must be readable as a resource
+     * @param bindings the primitive class to replace each type variable with, by name
+     * @return a lookup on the specialized class
+     * @throws IllegalAccessException if the lookup cannot define hidden classes
+     */
+    public static MethodHandles.Lookup define(MethodHandles.Lookup lookup, Class<?> template, Map<String, Class<?>> bindings) throws IllegalAccessException {
+        byte[] bytes;
+        try (var stream = template.getResourceAsStream("/" + template.getName().replace('.', '/') + ".class")) {
+            if (stream == null) {
+                throw new IllegalArgumentException("Cannot find class file of " + template.getName());
+            }
+            bytes = stream.readAllBytes();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        var descs = new HashMap<String, ClassDesc>();
+        bindings.forEach((variable, type) -> descs.put(variable, Constants.from(type)));
+        var specialized = BackendASM.specialize(bytes, GeneratedNames.generatedName(lookup, "$$Specialized"), descs);
+        return lookup.defineHiddenClass(specialized, true);
+    }
+}
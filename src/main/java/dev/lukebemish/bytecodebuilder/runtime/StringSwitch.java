@@ -0,0 +1,323 @@
+package dev.lukebemish.bytecodebuilder.runtime;
+
+import dev.lukebemish.bytecodebuilder.ClassContext;
+import dev.lukebemish.bytecodebuilder.CodeContext;
+import dev.lukebemish.bytecodebuilder.Constants;
+import org.jspecify.annotations.Nullable;
+
+import java.lang.constant.ClassDesc;
+import java.lang.constant.ConstantDescs;
+import java.lang.constant.DirectMethodHandleDesc;
+import java.lang.constant.MethodTypeDesc;
+import java.lang.invoke.CallSite;
+import java.lang.invoke.ConstantCallSite;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.Consumer;
+
+/**
+ * Bootstraps for call sites mapping a string to its index in a fixed set of keys, or to {@code -1} if it is not one of
+ * them. When the site is linked, a perfect hash is found for the keys: a hash of the length and of the characters at a
+ * few chosen positions, from the start or end of the string, adjusted by a per-bucket displacement so that every key
+ * lands in its own slot of a table. A lookup then hashes only those characters, and confirms the match with one
+ * {@link String#equals} call against the single key in the slot.
+ * <p>
+ * The table is compiled into a hidden class rather than held in arrays. A switch on the length rejects strings of a
+ * length no key has and hashes the characters at their positions for the others; it is a {@code tableswitch} where key
+ * lengths are dense, and a {@code lookupswitch} where they are sparse. Further {@code tableswitch} instructions pick
+ * the bucket's displacement and the slot's key, which are all constants.
+ */
+public final class StringSwitch {
+    private StringSwitch() {}
+
+    private static final int ATTEMPTS = 32;
+    private static final int SEEDS_PER_SIZE = 8;
+    private static final int DISPLACEMENTS = 1 << 16;
+    private static final int PRIME = 0x01000193;
+
+    private static final ClassDesc CD_STRING_SWITCH = Constants.from(StringSwitch.class);
+    private static final MethodTypeDesc INDEX_OF = MethodTypeDesc.of(ConstantDescs.CD_int, ConstantDescs.CD_String);
+    private static final MethodTypeDesc INT_BINARY = MethodTypeDesc.of(ConstantDescs.CD_int, ConstantDescs.CD_int, ConstantDescs.CD_int);
+
+    // Positions below zero count from the end of the string
+    private record Table(int[] positions, int seed, int[] displacements, int mask, @Nullable String[] keys, int[] indices) {}
+
+    /**
+     * Links a call site of type {@code (String)int} returning the index of its argument among the keys, or {@code -1}
+     * if it is not one of them.
+     * @param keys the keys to switch on, which must be distinct
+     */
+    public static CallSite bootstrap(MethodHandles.Lookup caller, String name, MethodType type, String... keys) {
+        if (!type.equals(MethodType.methodType(int.class, String.class))) {
+            throw new IllegalArgumentException("String switch call site must have type (String)int, but had type " + type);
+        }
+        return new ConstantCallSite(indexOf(List.of(keys)));
+    }
+
+    /**
+     * Creates a handle of type {@code (String)int} returning the index of its argument among the keys, or {@code -1} if
+     * it is not one of them.
+     * @param keys the keys to switch on, which must be distinct
+     */
+    public static MethodHandle indexOf(List<String> keys) {
+        var table = table(keys);
+        try {
+            var lookup = ClassContext.hidden(
+                MethodHandles.lookup(),
+                true,
+                Set.of(MethodHandles.Lookup.ClassOption.NESTMATE),
+                65,
+                Modifier.FINAL,
+                ClassDesc.of(StringSwitch.class.getName() + "$$Table"),
+                ConstantDescs.CD_Object,
+                List.of(),
+                null,
+                (context, tracker) -> context.method("indexOf", Modifier.STATIC, INDEX_OF, null, null, method -> method.code(code -> generate(code, table)))
+            );
+            return lookup.findStatic(lookup.lookupClass(), "indexOf", MethodType.methodType(int.class, String.class));
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void generate(CodeContext<?> code, Table table) {
+        // Each key length hashes the characters at its own positions, and stores the hash in local 1
+        var keyLengths = new TreeSet<Integer>();
+        for (var key : table.keys()) {
+            if (key != null) {
+                keyLengths.add(key.length());
+            }
+        }
+        Consumer<CodeContext<?>> miss = missCase -> missCase.constant(-1).returnValue(ConstantDescs.CD_int);
+        var lengths = new ArrayList<Consumer<CodeContext<?>>>();
+        for (var length : keyLengths) {
+            lengths.add(lengthCase -> {
+                lengthCase.constant((table.seed() ^ length) * PRIME);
+                for (var position : table.positions()) {
+                    var index = position < 0 ? length + position : position;
+                    if (index >= 0 && index < length) {
+                        lengthCase.load(ConstantDescs.CD_String, 0);
+                        lengthCase.constant(index);
+                        lengthCase.method(DirectMethodHandleDesc.Kind.VIRTUAL, ConstantDescs.CD_String, "charAt", MethodTypeDesc.of(ConstantDescs.CD_char, ConstantDescs.CD_int));
+                    } else {
+                        lengthCase.constant(0);
+                    }
+                    lengthCase.method(DirectMethodHandleDesc.Kind.STATIC, CD_STRING_SWITCH, "step", INT_BINARY);
+                }
+                lengthCase.method(DirectMethodHandleDesc.Kind.STATIC, CD_STRING_SWITCH, "finish", MethodTypeDesc.of(ConstantDescs.CD_int, ConstantDescs.CD_int));
+                lengthCase.store(ConstantDescs.CD_int, 1);
+            });
+        }
+        code.load(ConstantDescs.CD_String, 0);
+        code.method(DirectMethodHandleDesc.Kind.VIRTUAL, ConstantDescs.CD_String, "length", MethodTypeDesc.of(ConstantDescs.CD_int));
+        if (keyLengths.isEmpty()) {
+            code.pop(ConstantDescs.CD_int);
+            miss.accept(code);
+            return;
+        }
+        // Weighs size against the cost of a lookup as javac does when choosing between the two
+        long range = (long) keyLengths.last() - keyLengths.first() + 1;
+        if (4 + range + 3 * 3 <= 3 + 2L * keyLengths.size() + 3L * keyLengths.size()) {
+            var cases = new ArrayList<Consumer<CodeContext<?>>>();
+            var keyCases = lengths.iterator();
+            for (int length = keyLengths.first(); length <= keyLengths.last(); length++) {
+                cases.add(keyLengths.contains(length) ? keyCases.next() : miss);
+            }
+            code.tableSwitch(keyLengths.first(), cases, miss);
+        } else {
+            code.lookupSwitch(keyLengths.stream().mapToInt(Integer::intValue).toArray(), lengths, miss);
+        }
+
+        var displacements = new ArrayList<Consumer<CodeContext<?>>>();
+        for (var displacement : table.displacements()) {
+            displacements.add(bucketCase -> bucketCase.constant(displacement));
+        }
+        code.load(ConstantDescs.CD_int, 1);
+        code.constant(table.displacements().length - 1);
+        code.method(DirectMethodHandleDesc.Kind.STATIC, CD_STRING_SWITCH, "bucket", INT_BINARY);
+        // Every bucket has a case, so the default is never taken
+        code.tableSwitch(0, displacements, unused -> unused.constant(0));
+
+        var slots = new ArrayList<Consumer<CodeContext<?>>>();
+        for (int slot = 0; slot < table.keys().length; slot++) {
+            var key = table.keys()[slot];
+            var index = table.indices()[slot];
+            slots.add(slotCase -> {
+                if (key == null) {
+                    slotCase.constant(-1);
+                } else {
+                    slotCase.constant(key);
+                    slotCase.load(ConstantDescs.CD_String, 0);
+                    slotCase.method(DirectMethodHandleDesc.Kind.VIRTUAL, ConstantDescs.CD_String, "equals", MethodTypeDesc.of(ConstantDescs.CD_boolean, ConstantDescs.CD_Object));
+                    slotCase.ifThenElse(found -> found.constant(index), missing -> missing.constant(-1));
+                }
+            });
+        }
+        code.load(ConstantDescs.CD_int, 1);
+        code.constant(table.mask());
+        code.method(DirectMethodHandleDesc.Kind.STATIC, CD_STRING_SWITCH, "slot", MethodTypeDesc.of(ConstantDescs.CD_int, ConstantDescs.CD_int, ConstantDescs.CD_int, ConstantDescs.CD_int));
+        code.tableSwitch(0, slots, unused -> unused.constant(-1));
+        code.returnValue(ConstantDescs.CD_int);
+    }
+
+    private static Table table(List<String> keys) {
+        if (new HashSet<>(keys).size() != keys.size()) {
+            throw new IllegalArgumentException("Keys must be distinct, but were " + keys);
+        }
+        int maxLength = keys.stream().mapToInt(String::length).max().orElse(0);
+        var positions = positions(keys, maxLength);
+
+        // Keys are hashed into buckets of about two, and each bucket is given a displacement that moves its keys into
+        // free slots of the table, trying the largest buckets first while the table is emptiest
+        var minimumSize = Integer.highestOneBit(Math.max(1, keys.size() - 1)) << 1;
+        var bucketCount = Math.max(1, minimumSize >> 1);
+        var random = new Random(keys.hashCode());
+        for (int attempt = 0; attempt < ATTEMPTS; attempt++) {
+            var size = minimumSize << (attempt / SEEDS_PER_SIZE);
+            var seed = random.nextInt();
+            var hashes = new int[keys.size()];
+            var buckets = new ArrayList<List<Integer>>();
+            for (int i = 0; i < bucketCount; i++) {
+                buckets.add(new ArrayList<>());
+            }
+            for (int i = 0; i < keys.size(); i++) {
+                hashes[i] = hash(keys.get(i), positions, seed);
+                buckets.get(bucket(hashes[i], bucketCount - 1)).add(i);
+            }
+            var order = new ArrayList<Integer>();
+            for (int i = 0; i < bucketCount; i++) {
+                order.add(i);
+            }
+            order.sort((a, b) -> Integer.compare(buckets.get(b).size(), buckets.get(a).size()));
+
+            var mask = size - 1;
+            var slots = new String[size];
+            var indices = new int[size];
+            var displacements = new int[bucketCount];
+            var placedAll = true;
+            for (var bucket : order) {
+                var members = buckets.get(bucket);
+                if (members.isEmpty()) {
+                    break;
+                }
+                var placed = false;
+                for (int displacement = 0; displacement < DISPLACEMENTS && !placed; displacement++) {
+                    placed = true;
+                    for (int j = 0; j < members.size() && placed; j++) {
+                        var slot = slot(displacement, hashes[members.get(j)], mask);
+                        if (slots[slot] != null) {
+                            placed = false;
+                        } else {
+                            for (int k = 0; k < j; k++) {
+                                if (slot(displacement, hashes[members.get(k)], mask) == slot) {
+                                    placed = false;
+                                }
+                            }
+                        }
+                    }
+                    if (placed) {
+                        displacements[bucket] = displacement;
+                        for (var member : members) {
+                            var slot = slot(displacement, hashes[member], mask);
+                            slots[slot] = keys.get(member);
+                            indices[slot] = member;
+                        }
+                    }
+                }
+                if (!placed) {
+                    placedAll = false;
+                    break;
+                }
+            }
+            if (placedAll) {
+                return new Table(positions, seed, displacements, mask, slots, indices);
+            }
+        }
+        throw new IllegalArgumentException("Could not find a perfect hash for keys " + keys);
+    }
+
+    // Picks positions greedily until the length and the characters at them tell every key apart
+    private static int[] positions(List<String> keys, int maxLength) {
+        var chosen = new ArrayList<Integer>();
+        var distinct = distinct(keys, chosen);
+        while (distinct < keys.size()) {
+            int best = 0;
+            int bestDistinct = distinct;
+            for (int candidate = -maxLength; candidate < maxLength; candidate++) {
+                if (chosen.contains(candidate)) {
+                    continue;
+                }
+                chosen.add(candidate);
+                var count = distinct(keys, chosen);
+                chosen.removeLast();
+                if (count > bestDistinct) {
+                    best = candidate;
+                    bestDistinct = count;
+                }
+            }
+            if (bestDistinct == distinct) {
+                throw new IllegalStateException("No position distinguishes the remaining keys of " + keys);
+            }
+            chosen.add(best);
+            distinct = bestDistinct;
+        }
+        return chosen.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    private static int distinct(List<String> keys, List<Integer> positions) {
+        var signatures = new HashSet<String>();
+        for (var key : keys) {
+            var signature = new StringBuilder().append(key.length()).append(':');
+            for (var position : positions) {
+                signature.append(charAt(key, position));
+            }
+            signatures.add(signature.toString());
+        }
+        return signatures.size();
+    }
+
+    private static char charAt(String key, int position) {
+        var index = position < 0 ? key.length() + position : position;
+        return index >= 0 && index < key.length() ? key.charAt(index) : 0;
+    }
+
+    private static int hash(String key, int[] positions, int seed) {
+        int hash = (seed ^ key.length()) * PRIME;
+        for (var position : positions) {
+            hash = step(hash, charAt(key, position));
+        }
+        return finish(hash);
+    }
+
+    // The steps of a lookup, shared by the table's construction and the generated code
+
+    private static int step(int hash, int character) {
+        return (hash ^ character) * PRIME;
+    }
+
+    private static int finish(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    private static int bucket(int hash, int bucketMask) {
+        return hash & bucketMask;
+    }
+
+    private static int slot(int displacement, int hash, int mask) {
+        return mix(hash ^ displacement) & mask;
+    }
+
+    private static int mix(int hash) {
+        hash = (hash ^ (hash >>> 16)) * 0x85ebca6b;
+        hash = (hash ^ (hash >>> 13)) * 0xc2b2ae35;
+        return hash ^ (hash >>> 16);
+    }
+}
@@ -0,0 +1,172 @@
+package dev.lukebemish.bytecodebuilder.runtime;
+
+import dev.lukebemish.bytecodebuilder.ClassContext;
+import dev.lukebemish.bytecodebuilder.Constants;
+
+import java.lang.constant.ClassDesc;
+import java.lang.constant.ConstantDescs;
+import java.lang.constant.DirectMethodHandleDesc;
+import java.lang.invoke.CallSite;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.MutableCallSite;
+import java.lang.invoke.VarHandle;
+import java.lang.reflect.Modifier;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A call site that is first linked to its implementation through a plain method handle chain which counts invocations.
+ * Once the site has been invoked often enough, a hidden class specialized to the implementation is generated in the
+ * background and swapped in, so rarely used sites never pay for class generation. The specialized class invokes the
+ * implementation directly where it can, and performs argument and return conversions in bytecode. The implementation
+ * is always treated as fixed-arity.
+ */
+public final class TieredCallSite extends MutableCallSite {
+    public static final int DEFAULT_THRESHOLD = 10_000;
+
+    private static final MethodHandle COUNT;
+    private static final VarHandle SPECIALIZING;
+
+    static {
+        try {
+            var lookup = MethodHandles.lookup();
+            COUNT = lookup.findVirtual(TieredCallSite.class, "count", MethodType.methodType(void.class));
+            SPECIALIZING = lookup.findVarHandle(TieredCallSite.class, "specializing", boolean.class);
+        } catch (NoSuchMethodException | NoSuchFieldException | IllegalAccessException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final MethodHandles.Lookup caller;
+    private final MethodHandle implementation;
+    private final MethodHandle generic;
+    private final int threshold;
+    private final CompletableFuture<Void> specialization = new CompletableFuture<>();
+    private int invocations;
+    private volatile boolean specializing;
+
+    private TieredCallSite(MethodHandles.Lookup caller, MethodType type, MethodHandle implementation, int threshold) {
+        super(type);
+        this.caller = caller;
+        this.implementation = implementation.asFixedArity();
+        this.generic = this.implementation.asType(type);
+        this.threshold = threshold;
+        setTarget(MethodHandles.foldArguments(generic, COUNT.bindTo(this)));
+    }
+
+    public static CallSite bootstrap(MethodHandles.Lookup caller, String name, MethodType type, MethodHandle implementation) {
+        return bootstrap(caller, name, type, implementation, DEFAULT_THRESHOLD);
+    }
+
+    /**
+     * Links a call site of the given type to the implementation, which is specialized once the site has been invoked
+     * {@code threshold} times. The lookup must have full privilege access, as the specialized class is defined as a
+     * nestmate of its lookup class.
+     * @param threshold the number of invocations after which to specialize the site
+     */
+    public static CallSite bootstrap(MethodHandles.Lookup caller, String name, MethodType type, MethodHandle implementation, int threshold) {
+        return of(caller, type, implementation, threshold);
+    }
+
+    public static TieredCallSite of(MethodHandles.Lookup caller, MethodType type, MethodHandle implementation, int threshold) {
+        if (threshold <= 0) {
+            throw new IllegalArgumentException("Threshold must be positive, but was " + threshold);
+        }
+        return new TieredCallSite(caller, type, implementation, threshold);
+    }
+
+    /**
+     * {@return a future completed once this site has been specialized, or completed exceptionally if specialization
+     * failed, in which case the site stays on its generic target}
+     */
+    public CompletableFuture<Void> specialization() {
+        return specialization.copy();
+    }
+
+    private void count() {
+        // Racy on purpose; a few lost increments only delay specialization slightly
+        if (++invocations >= threshold && !specializing && SPECIALIZING.compareAndSet(this, false, true)) {
+            ClassContext.generationExecutor().execute(this::specialize);
+        }
+    }
+
+    private void specialize() {
+        MethodHandle target;
+        Throwable failure = null;
+        try {
+            target = spin();
+        } catch (Throwable t) {
+            // Stop counting, but keep the generic chain
+            target = generic;
+            failure = t;
+        }
+        setTarget(target);
+        syncAll(new MutableCallSite[] {this});
+        if (failure == null) {
+            specialization.complete(null);
+        } else {
+            specialization.completeExceptionally(failure);
+        }
+    }
+
+    private MethodHandle spin() throws Throwable {
+        var type = type();
+        var implementationType = implementation.type();
+        for (int i = 0; i < type.parameterCount(); i++) {
+            TypeConversions.check(type.parameterType(i), implementationType.parameterType(i));
+        }
+        TypeConversions.check(implementationType.returnType(), type.returnType());
+        var direct = DirectReferences.direct(caller, implementation);
+
+        ClassDesc target = GeneratedNames.generatedName(caller, "$$TieredCallSite");
+        var hiddenLookup = ClassContext.hidden(
+            caller,
+            true,
+            Set.of(MethodHandles.Lookup.ClassOption.NESTMATE),
+            65,
+            Modifier.FINAL,
+            target,
+            ConstantDescs.CD_Object,
+            List.of(),
+            null,
+            (context, tracker) -> context.method(
+                "invoke",
+                Modifier.STATIC,
+                Constants.from(type),
+                null,
+                null,
+                method -> method.code(code -> {
+                    if (direct == null) {
+                        code.constant(tracker.dataConstant(ConstantDescs.CD_MethodHandle, implementation));
+                    }
+
+                    var lvIndex = 0;
+                    for (int i = 0; i < type.parameterCount(); i++) {
+                        var argType = type.parameterType(i);
+                        code.load(Constants.from(argType), lvIndex);
+                        lvIndex += Constants.sizeOf(Constants.from(argType));
+                        TypeConversions.convert(code, argType, implementationType.parameterType(i));
+                    }
+
+                    if (direct == null) {
+                        code.method(
+                            DirectMethodHandleDesc.Kind.VIRTUAL,
+                            ConstantDescs.CD_MethodHandle,
+                            "invokeExact",
+                            Constants.from(implementationType)
+                        );
+                    } else {
+                        direct.accept(code);
+                    }
+
+                    TypeConversions.convert(code, implementationType.returnType(), type.returnType());
+                    code.returnValue(Constants.from(type.returnType()));
+                })
+            )
+        );
+        return hiddenLookup.findStatic(hiddenLookup.lookupClass(), "invoke", type);
+    }
+}
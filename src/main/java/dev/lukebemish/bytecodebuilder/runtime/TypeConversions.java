@@ -0,0 +1,122 @@
+package dev.lukebemish.bytecodebuilder.runtime;
+
+import dev.lukebemish.bytecodebuilder.CodeContext;
+import dev.lukebemish.bytecodebuilder.Constants;
+
+import java.lang.constant.ConstantDesc;
+import java.lang.constant.ConstantDescs;
+import java.lang.constant.DirectMethodHandleDesc;
+import java.lang.constant.MethodTypeDesc;
+import java.lang.invoke.LambdaConversionException;
+import java.util.List;
+
+/**
+ * Emits, in bytecode, the conversions {@link java.lang.invoke.MethodHandle#asType} would apply between two types, so
+ * that generated adapters can invoke an unadapted handle exactly rather than going through asType's adapter layers.
+ */
+final class TypeConversions {
+    private TypeConversions() {}
+
+    private static final List<Class<?>> PRIMITIVES = List.of(
+        boolean.class, byte.class, char.class, short.class, int.class, long.class, float.class, double.class
+    );
+    private static final List<Class<?>> WRAPPERS = List.of(
+        Boolean.class, Byte.class, Character.class, Short.class, Integer.class, Long.class, Float.class, Double.class
+    );
+
+    static void check(Class<?> from, Class<?> to) throws LambdaConversionException {
+        if (!isConvertible(from, to)) {
+            throw new LambdaConversionException("Cannot convert from " + from.getName() + " to " + to.getName());
+        }
+    }
+
+    static boolean isConvertible(Class<?> from, Class<?> to) {
+        if (from == to || to == void.class || from == void.class) {
+            return true;
+        }
+        if (from.isPrimitive() && to.isPrimitive()) {
+            return isWidening(from, to);
+        } else if (from.isPrimitive()) {
+            return to.isAssignableFrom(wrapper(from));
+        } else if (to.isPrimitive()) {
+            if (WRAPPERS.contains(from)) {
+                return isWidening(unwrapped(from), to);
+            }
+            for (var wrapper : WRAPPERS) {
+                if (from.isAssignableFrom(wrapper) && isWidening(unwrapped(wrapper), to)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Converts the value on top of the stack; the conversion must have been {@linkplain #check checked} beforehand.
+     * Conversions from {@code void} push a zero or {@code null} value, and conversions to {@code void} discard the value.
+     */
+    static void convert(CodeContext<?> code, Class<?> from, Class<?> to) {
+        if (from == to) {
+            return;
+        }
+        if (to == void.class) {
+            code.pop(Constants.from(from));
+        } else if (from == void.class) {
+            code.constant(zero(to));
+        } else if (from.isPrimitive() && to.isPrimitive()) {
+            code.convert(Constants.from(from), Constants.from(to));
+        } else if (from.isPrimitive()) {
+            var wrapper = Constants.from(wrapper(from));
+            code.method(DirectMethodHandleDesc.Kind.STATIC, wrapper, "valueOf", MethodTypeDesc.of(wrapper, Constants.from(from)));
+        } else if (to.isPrimitive()) {
+            if (WRAPPERS.contains(from)) {
+                var unwrapped = unwrapped(from);
+                code.method(DirectMethodHandleDesc.Kind.VIRTUAL, Constants.from(from), unwrapped.getName() + "Value", MethodTypeDesc.of(Constants.from(unwrapped)));
+                if (unwrapped != to) {
+                    code.convert(Constants.from(unwrapped), Constants.from(to));
+                }
+            } else {
+                var name = "to" + Character.toUpperCase(to.getName().charAt(0)) + to.getName().substring(1);
+                code.method(DirectMethodHandleDesc.Kind.STATIC, Constants.from(Unboxing.class), name, MethodTypeDesc.of(Constants.from(to), ConstantDescs.CD_Object));
+            }
+        } else if (!to.isInterface() && !to.isAssignableFrom(from)) {
+            // Like asType, casts to interfaces are left to the verifier's leniency rather than checked
+            code.checkCast(Constants.from(to));
+        }
+    }
+
+    private static ConstantDesc zero(Class<?> type) {
+        if (!type.isPrimitive()) {
+            return ConstantDescs.NULL;
+        }
+        return switch (Constants.from(type).descriptorString()) {
+            case "J" -> 0L;
+            case "F" -> 0f;
+            case "D" -> 0d;
+            default -> 0;
+        };
+    }
+
+    private static boolean isWidening(Class<?> from, Class<?> to) {
+        if (from == to) {
+            return true;
+        }
+        return switch (from.getName()) {
+            case "byte" -> to == short.class || to == int.class || to == long.class || to == float.class || to == double.class;
+            case "short", "char" -> to == int.class || to == long.class || to == float.class || to == double.class;
+            case "int" -> to == long.class || to == float.class || to == double.class;
+            case "long" -> to == float.class || to == double.class;
+            case "float" -> to == double.class;
+            default -> false;
+        };
+    }
+
+    static Class<?> wrapper(Class<?> primitive) {
+        return WRAPPERS.get(PRIMITIVES.indexOf(primitive));
+    }
+
+    private static Class<?> unwrapped(Class<?> wrapper) {
+        return PRIMITIVES.get(WRAPPERS.indexOf(wrapper));
+    }
+}
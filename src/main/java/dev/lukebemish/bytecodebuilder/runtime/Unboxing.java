@@ -0,0 +1,63 @@
+package dev.lukebemish.bytecodebuilder.runtime;
+
+/**
+ * Unboxing conversions called from generated adapters when a value whose static type is not a wrapper class (such
+ * as {@link Object} or {@link Number}) must be converted to a primitive. These follow the rules of
+ * {@link java.lang.invoke.MethodHandle#asType}: the value is unboxed from whichever wrapper it is an instance of, and
+ * then widened to the target type.
+ */
+public final class Unboxing {
+    private Unboxing() {}
+
+    public static boolean toBoolean(Object value) {
+        return (Boolean) value;
+    }
+
+    public static byte toByte(Object value) {
+        return (Byte) value;
+    }
+
+    public static char toChar(Object value) {
+        return (Character) value;
+    }
+
+    public static short toShort(Object value) {
+        if (value instanceof Short s) {
+            return s;
+        }
+        return (Byte) value;
+    }
+
+    public static int toInt(Object value) {
+        return switch (value) {
+            case Integer i -> i;
+            case Character c -> c;
+            case Short s -> s;
+            default -> (Byte) value;
+        };
+    }
+
+    public static long toLong(Object value) {
+        if (value instanceof Long l) {
+            return l;
+        }
+        return toInt(value);
+    }
+
+    public static float toFloat(Object value) {
+        return switch (value) {
+            case Float f -> f;
+            case Long l -> l;
+            default -> toInt(value);
+        };
+    }
+
+    public static double toDouble(Object value) {
+        return switch (value) {
+            case Double d -> d;
+            case Float f -> f;
+            case Long l -> l;
+            default -> toInt(value);
+        };
+    }
+}
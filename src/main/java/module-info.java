@@ -3,5 +3,8 @@
     requires static org.objectweb.asm;
 
     exports dev.lukebemish.bytecodebuilder;
+    exports dev.lukebemish.bytecodebuilder.aot;
     exports dev.lukebemish.bytecodebuilder.runtime;
+
+    uses dev.lukebemish.bytecodebuilder.aot.ClassGenerator;
 }
@@ -0,0 +1,22 @@
+package dev.lukebemish.bytecodebuilder.test;
+
+import java.util.Objects;
+
+/**
+ * Assertions shared by the tests, which run as plain main methods and fail by throwing {@link AssertionError}.
+ */
+final class Checks {
+    private Checks() {}
+
+    static void check(Object actual, Object expected) {
+        if (!Objects.equals(expected, actual)) {
+            throw new AssertionError("Expected " + expected + " but got " + actual);
+        }
+    }
+
+    static void check(String what, Object actual, Object expected) {
+        if (!Objects.equals(expected, actual)) {
+            throw new AssertionError("Expected " + what + " to be " + expected + " but got " + actual);
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package dev.lukebemish.bytecodebuilder.test;
+
+import dev.lukebemish.bytecodebuilder.runtime.Accessors;
+
+import java.lang.invoke.MethodHandles;
+import java.util.List;
+
+import static dev.lukebemish.bytecodebuilder.test.Checks.check;
+
+public class TestAccessors {
+    private int count;
+    private final String name;
+    private static long total;
+
+    private TestAccessors(String name) {
+        this.name = name;
+    }
+
+    private String describe(int times) {
+        return name.repeat(times) + count;
+    }
+
+    public static void main(String[] args) throws Throwable {
+        var count = TestAccessors.class.getDeclaredField("count");
+        var name = TestAccessors.class.getDeclaredField("name");
+        var total = TestAccessors.class.getDeclaredField("total");
+        var constructor = TestAccessors.class.getDeclaredConstructor(String.class);
+        var describe = TestAccessors.class.getDeclaredMethod("describe", int.class);
+        var accessors = Accessors.create(MethodHandles.lookup(), List.of(count, name, total, constructor, describe));
+
+        var instance = (TestAccessors) accessors.invoker1(constructor).invoke("ab");
+        accessors.intSetter(count).set(instance, 3);
+        check(accessors.intGetter(count).get(instance), 3);
+        check(accessors.getter(count).get(instance), 3);
+        check(accessors.getter(name).get(instance), "ab");
+        check(accessors.invoker2(describe).invoke(instance, 2), "abab3");
+        check(accessors.invoker(describe).invoke(instance, 1), "ab3");
+        accessors.longSetter(total).set(null, 42L);
+        check(accessors.longGetter(total).get(null), 42L);
+
+        try {
+            accessors.setter(name);
+            throw new AssertionError("Final field should have no setter");
+        } catch (IllegalArgumentException expected) {
+            // expected
+        }
+        try {
+            accessors.invoker(describe).invoke(instance, 1, 2);
+            throw new AssertionError("Invoker should reject the wrong number of arguments");
+        } catch (IndexOutOfBoundsException expected) {
+            // expected
+        }
+        if (accessors.getter(count).getClass().getNestHost() != TestAccessors.class) {
+            throw new AssertionError("Accessors of members of the nest should join it");
+        }
+        // Every member of one class is accessed through the same generated class
+        var batch = accessors.getter(count).getClass();
+        for (var accessor : List.of(accessors.getter(name), accessors.getter(total), accessors.invoker(constructor), accessors.invoker(describe))) {
+            if (accessor.getClass() != batch) {
+                throw new AssertionError("Expected the members of one class to share a generated class");
+            }
+        }
+        try {
+            // The shared class implements IntGetter for count, but the accessor of name does not support it
+            ((Accessors.IntGetter) accessors.getter(name)).get(instance);
+            throw new AssertionError("Expected an unsupported accessor to throw");
+        } catch (UnsupportedOperationException expected) {
+            // expected
+        }
+
+        // Members outside the lookup's nest go through their handles
+        var value = Outside.class.getDeclaredField("value");
+        var outsideConstructor = Outside.class.getDeclaredConstructor(int.class);
+        var twice = Outside.class.getDeclaredMethod("twice", int.class);
+        var outsideAccessors = Accessors.create(MethodHandles.lookup(), List.of(value, outsideConstructor, twice));
+        var outside = (Outside) outsideAccessors.invoker1(outsideConstructor).invoke(5);
+        check(outsideAccessors.intGetter(value).get(outside), 5);
+        outsideAccessors.setter(value).set(outside, 7);
+        check(outside.value, 7);
+        check(outsideAccessors.invoker(twice).invoke(4), 8);
+        if (outsideAccessors.getter(value).getClass().getNestHost() == TestAccessors.class) {
+            throw new AssertionError("Accessors of members outside the nest should not join it");
+        }
+        if (outsideAccessors.invoker(twice).getClass() != outsideAccessors.getter(value).getClass()) {
+            throw new AssertionError("Expected the members of one class to share a generated class");
+        }
+        System.out.println("Accessed members through generated accessors");
+    }
+}
+
+final class Outside {
+    int value;
+
+    Outside(int value) {
+        this.value = value;
+    }
+
+    static int twice(int value) {
+        return value * 2;
+    }
+}
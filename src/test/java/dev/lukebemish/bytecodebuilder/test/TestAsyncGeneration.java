@@ -0,0 +1,88 @@
+package dev.lukebemish.bytecodebuilder.test;
+
+import dev.lukebemish.bytecodebuilder.ClassContext;
+import dev.lukebemish.bytecodebuilder.runtime.FlexibleLambdaMetafactory;
+import dev.lukebemish.bytecodebuilder.runtime.PreSpin;
+
+import java.lang.constant.ClassDesc;
+import java.lang.constant.ConstantDescs;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Modifier;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+public class TestAsyncGeneration {
+    public static void main(String[] args) throws Throwable {
+        var lookup = MethodHandles.lookup();
+
+        var generatingThread = new AtomicReference<Thread>();
+        var virtual = Thread.ofVirtual().start(() -> {
+            var hidden = ClassContext.hiddenAsync(lookup, true, Set.of(), 65, Modifier.FINAL, ClassDesc.of("dev.lukebemish.bytecodebuilder.test.TestAsyncGeneration$Generated"), ConstantDescs.CD_Object, List.of(), null, (context, tracker) ->
+                generatingThread.set(Thread.currentThread())
+            ).join();
+            if (!hidden.lookupClass().isHidden()) {
+                throw new AssertionError("Expected a hidden class");
+            }
+        });
+        virtual.join();
+        if (generatingThread.get() == null || generatingThread.get().isVirtual()) {
+            throw new AssertionError("Expected generation on a platform thread, but was " + generatingThread.get());
+        }
+
+        var implementation = lookup.findStatic(TestAsyncGeneration.class, "greeting", MethodType.methodType(String.class));
+        var factoryType = MethodType.methodType(Supplier.class);
+        var erased = MethodType.methodType(Object.class);
+        var instantiated = MethodType.methodType(String.class);
+        var prespun = PreSpin.lambda(lookup, "get", factoryType, erased, implementation, instantiated, List.of());
+        if (prespun.isDone()) {
+            throw new AssertionError("Expected pre-spinning to wait for start");
+        }
+        PreSpin.start().join();
+        var factory = prespun.join();
+
+        var linked = new AtomicReference<Object>();
+        var linker = Thread.ofVirtual().start(() -> {
+            try {
+                linked.set(FlexibleLambdaMetafactory.metafactory(lookup, "get", factoryType, erased, implementation, instantiated).getTarget());
+            } catch (Throwable t) {
+                linked.set(t);
+            }
+        });
+        linker.join();
+        if (linked.get() != factory) {
+            throw new AssertionError("Expected linkage to reuse the pre-spun factory, but got " + linked.get());
+        }
+        @SuppressWarnings("unchecked") var supplier = (Supplier<String>) factory.invoke();
+        if (!supplier.get().equals("hello")) {
+            throw new AssertionError("Expected hello but got " + supplier.get());
+        }
+
+        // Nothing but the pre-spinning holds on to this factory until its call site is linked
+        var echo = lookup.findStatic(TestAsyncGeneration.class, "echo", MethodType.methodType(String.class, String.class));
+        var pinned = new WeakReference<>(PreSpin.lambda(lookup, "get", factoryType, erased, echo, instantiated, List.of("pinned")).join());
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+        }
+        if (pinned.get() == null) {
+            throw new AssertionError("Expected the pre-spun factory to be kept until its call site is linked");
+        }
+        MethodHandle target = FlexibleLambdaMetafactory.metafactory(lookup, "get", factoryType, erased, echo, instantiated, List.of("pinned")).getTarget();
+        if (target != pinned.get()) {
+            throw new AssertionError("Expected linkage to reuse the pre-spun factory, but got " + target);
+        }
+        System.out.println("Generated asynchronously");
+    }
+
+    private static String echo(String value) {
+        return value;
+    }
+
+    private static String greeting() {
+        return "hello";
+    }
+}
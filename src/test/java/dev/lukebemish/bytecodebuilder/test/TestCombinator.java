@@ -0,0 +1,69 @@
+package dev.lukebemish.bytecodebuilder.test;
+
+import dev.lukebemish.bytecodebuilder.ClassContext;
+import dev.lukebemish.bytecodebuilder.runtime.Combinator;
+
+import java.lang.constant.ClassDesc;
+import java.lang.constant.ConstantDescs;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Modifier;
+
+import static dev.lukebemish.bytecodebuilder.test.Checks.check;
+
+public class TestCombinator {
+    public static void main(String[] args) throws Throwable {
+        var lookup = MethodHandles.lookup();
+        var parse = Combinator.of(lookup.findStatic(Integer.class, "parseInt", MethodType.methodType(int.class, String.class)));
+        var isEmpty = Combinator.of(lookup.findVirtual(String.class, "isEmpty", MethodType.methodType(boolean.class)));
+        var trim = Combinator.of(lookup.findVirtual(String.class, "trim", MethodType.methodType(String.class)));
+        var add = Combinator.of(lookup.findStatic(Integer.class, "sum", MethodType.methodType(int.class, int.class, int.class)));
+        var multiply = Combinator.of(lookup.findStatic(TestCombinator.class, "multiply", MethodType.methodType(int.class, int.class, int.class)));
+
+        // (String, int)int: parse the trimmed string, multiplying by the scale, with a fallback for empty and bad input
+        var parsed = multiply.filterArguments(0, parse).filterArguments(0, trim);
+        var empty = Combinator.constant(int.class, -1).dropArguments(0, String.class, int.class);
+        var guarded = Combinator.guardWithTest(isEmpty, empty, parsed);
+        var bad = Combinator.constant(int.class, -2).dropArguments(0, NumberFormatException.class, String.class, int.class);
+        var pipeline = guarded.catchException(NumberFormatException.class, bad);
+
+        var compiled = pipeline.compile(lookup);
+        check((int) compiled.invokeExact(" 21 ", 2), 42);
+        check((int) compiled.invokeExact("", 2), -1);
+        check((int) compiled.invokeExact("x", 2), -2);
+
+        // Sums (i * scale) for i below n, folding in an offset and permuting the arguments
+        var body = add.filterArguments(1, multiply.insertArguments(1, 3)).dropArguments(2, int.class);
+        var loop = Combinator.countedLoop(Combinator.identity(int.class), null, body);
+        var folded = add.foldArguments(1, Combinator.constant(int.class, 100)).filterArguments(0, loop);
+        var permuted = folded.permuteArguments(MethodType.methodType(int.class, long.class, int.class), 1).dropArguments(0, String.class).asType(MethodType.methodType(Integer.class, Object.class, long.class, short.class)).compile(lookup);
+        check((Integer) permuted.invokeExact((Object) "ignored", 0L, (short) 4), 118);
+
+        // Nested handlers must not catch each other's exceptions
+        var throwing = Combinator.of(lookup.findStatic(TestCombinator.class, "fail", MethodType.methodType(String.class, String.class)));
+        var inner = throwing.catchException(IllegalStateException.class, Combinator.constant(String.class, "inner").dropArguments(0, IllegalStateException.class, String.class));
+        var outer = inner.catchException(RuntimeException.class, Combinator.constant(String.class, "outer").dropArguments(0, RuntimeException.class, String.class)).compile(lookup);
+        check((String) outer.invokeExact("state"), "inner");
+        check((String) outer.invokeExact("other"), "outer");
+        check((String) outer.invokeExact("none"), "none");
+
+        // A hidden lookup class, such as a generated class, has a name that is not a valid binary name
+        var bytes = ClassContext.create().build(65, Modifier.PUBLIC | Modifier.FINAL, ClassDesc.of("dev.lukebemish.bytecodebuilder.test.TestCombinator$Hidden"), ConstantDescs.CD_Object, null, null);
+        var hidden = lookup.defineHiddenClass(bytes, true);
+        var fromHidden = add.insertArguments(1, 2).compile(hidden);
+        check((int) fromHidden.invokeExact(40), 42);
+        System.out.println("Compiled combinators");
+    }
+
+    private static int multiply(int a, int b) {
+        return a * b;
+    }
+
+    private static String fail(String kind) {
+        return switch (kind) {
+            case "state" -> throw new IllegalStateException();
+            case "other" -> throw new UnsupportedOperationException();
+            default -> kind;
+        };
+    }
+}
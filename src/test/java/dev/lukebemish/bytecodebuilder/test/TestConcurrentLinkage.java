@@ -0,0 +1,139 @@
+package dev.lukebemish.bytecodebuilder.test;
+
+import dev.lukebemish.bytecodebuilder.ClassContext;
+import dev.lukebemish.bytecodebuilder.runtime.FlexibleLambdaMetafactory;
+
+import java.lang.constant.ClassDesc;
+import java.lang.constant.ConstantDescs;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+public class TestConcurrentLinkage {
+    private static final int THREADS = 200;
+
+    public static void main(String[] args) throws Throwable {
+        var lookup = MethodHandles.lookup();
+        var shapes = List.of(
+            lookup.findStatic(TestConcurrentLinkage.class, "first", MethodType.methodType(String.class)),
+            lookup.findStatic(TestConcurrentLinkage.class, "second", MethodType.methodType(String.class)),
+            lookup.findStatic(TestConcurrentLinkage.class, "prefixed", MethodType.methodType(String.class, String.class))
+        );
+        var defined = new ArrayList<Set<Class<?>>>();
+        for (int i = 0; i < shapes.size(); i++) {
+            defined.add(ConcurrentHashMap.newKeySet());
+        }
+
+        var start = new CountDownLatch(1);
+        var results = new ArrayList<Future<Object>>();
+        try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < THREADS; i++) {
+                var shape = i % shapes.size();
+                results.add(executor.submit(() -> {
+                    start.await();
+                    Object instance;
+                    try {
+                        instance = link(lookup, shapes.get(shape));
+                    } catch (Throwable t) {
+                        throw new RuntimeException(t);
+                    }
+                    defined.get(shape).add(instance.getClass());
+                    return instance;
+                }));
+            }
+            start.countDown();
+            for (var result : results) {
+                result.get();
+            }
+        }
+
+        for (int i = 0; i < defined.size(); i++) {
+            if (defined.get(i).size() != 1) {
+                throw new AssertionError("Expected exactly one class for shape " + i + " but found " + defined.get(i));
+            }
+        }
+        if (defined.get(0).equals(defined.get(1))) {
+            throw new AssertionError("Distinct shapes shared a class");
+        }
+
+        var released = linkFromCollectableCaller(lookup);
+        for (int i = 0; i < 100 && !released.stream().allMatch(reference -> reference.refersTo(null)); i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        if (!released.stream().allMatch(reference -> reference.refersTo(null))) {
+            throw new AssertionError("Expected a linkage to be released along with its caller");
+        }
+    }
+
+    // Links a shape capturing a constant from a hidden caller, returning references to both
+    private static List<WeakReference<?>> linkFromCollectableCaller(MethodHandles.Lookup lookup) throws Throwable {
+        var bytes = ClassContext.create().build(65, Modifier.PUBLIC | Modifier.FINAL, ClassDesc.of("dev.lukebemish.bytecodebuilder.test.TestConcurrentLinkage$Caller"), ConstantDescs.CD_Object, null, null);
+        var caller = lookup.defineHiddenClass(bytes, true);
+        var constant = new Object();
+        var supplier = (Supplier<?>) FlexibleLambdaMetafactory.metafactory(
+            caller,
+            "get",
+            MethodType.methodType(Supplier.class),
+            MethodType.methodType(Object.class),
+            lookup.findStatic(TestConcurrentLinkage.class, "captured", MethodType.methodType(Object.class, Object.class)),
+            MethodType.methodType(Object.class),
+            List.of(constant)
+        ).dynamicInvoker().invokeExact();
+        if (supplier.get() != constant) {
+            throw new AssertionError("Expected the captured constant");
+        }
+        return List.of(new WeakReference<>(caller.lookupClass()), new WeakReference<>(constant));
+    }
+
+    private static Object captured(Object constant) {
+        return constant;
+    }
+
+    private static Object link(MethodHandles.Lookup lookup, MethodHandle implementation) throws Throwable {
+        if (implementation.type().parameterCount() == 0) {
+            var supplier = (Supplier<?>) FlexibleLambdaMetafactory.metafactory(
+                lookup,
+                "get",
+                MethodType.methodType(Supplier.class),
+                MethodType.methodType(Object.class),
+                implementation,
+                MethodType.methodType(String.class)
+            ).dynamicInvoker().invokeExact();
+            supplier.get();
+            return supplier;
+        }
+        var function = (Function<?, ?>) FlexibleLambdaMetafactory.metafactory(
+            lookup,
+            "apply",
+            MethodType.methodType(Function.class),
+            MethodType.methodType(Object.class, Object.class),
+            implementation,
+            MethodType.methodType(String.class, String.class)
+        ).dynamicInvoker().invokeExact();
+        return function;
+    }
+
+    private static String first() {
+        return "first";
+    }
+
+    private static String second() {
+        return "second";
+    }
+
+    private static String prefixed(String s) {
+        return "prefixed: " + s;
+    }
+}
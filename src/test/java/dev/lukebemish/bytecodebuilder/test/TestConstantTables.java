@@ -0,0 +1,81 @@
+package dev.lukebemish.bytecodebuilder.test;
+
+import dev.lukebemish.bytecodebuilder.ClassContext;
+import dev.lukebemish.bytecodebuilder.Constants;
+
+import java.lang.constant.ClassDesc;
+import java.lang.constant.ConstantDescs;
+import java.lang.constant.DynamicConstantDesc;
+import java.lang.constant.MethodTypeDesc;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Modifier;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+public class TestConstantTables {
+    public static void main(String[] args) throws Throwable {
+        var lookup = MethodHandles.lookup();
+        var random = new Random(47);
+
+        var bytes = new byte[1000];
+        random.nextBytes(bytes);
+        var shorts = new short[1000];
+        var chars = new char[1000];
+        for (int i = 0; i < shorts.length; i++) {
+            shorts[i] = (short) random.nextInt();
+            chars[i] = (char) random.nextInt();
+        }
+        // Large enough to be split over several strings
+        var ints = random.ints(40000).toArray();
+        var longs = random.longs(3).toArray();
+        var empty = new int[0];
+
+        var context = ClassContext.create();
+        method(context, "bytes", Constants.packedArray(bytes));
+        method(context, "shorts", Constants.packedArray(shorts));
+        method(context, "chars", Constants.packedArray(chars));
+        method(context, "ints", Constants.packedArray(ints));
+        method(context, "longs", Constants.packedArray(longs));
+        method(context, "empty", Constants.packedArray(empty));
+        var generated = lookup.defineHiddenClass(context.build(65, Modifier.PUBLIC | Modifier.FINAL, ClassDesc.of("dev.lukebemish.bytecodebuilder.test.TestConstantTables$Packed"), ConstantDescs.CD_Object, null, null), true);
+
+        check("bytes", Arrays.equals(bytes, (byte[]) load(generated, "bytes", byte[].class)));
+        check("shorts", Arrays.equals(shorts, (short[]) load(generated, "shorts", short[].class)));
+        check("chars", Arrays.equals(chars, (char[]) load(generated, "chars", char[].class)));
+        check("ints", Arrays.equals(ints, (int[]) load(generated, "ints", int[].class)));
+        check("longs", Arrays.equals(longs, (long[]) load(generated, "longs", long[].class)));
+        check("empty", Arrays.equals(empty, (int[]) load(generated, "empty", int[].class)));
+        check("identity", load(generated, "ints", int[].class) == load(generated, "ints", int[].class));
+
+        var map = Map.of("a", 1, "b", 2);
+        var data = ClassContext.hidden(lookup, true, Set.of(), 65, Modifier.FINAL, ClassDesc.of("dev.lukebemish.bytecodebuilder.test.TestConstantTables$Data"), ConstantDescs.CD_Object, List.of(), null, (c, tracker) -> {
+            method(c, "ints", tracker.arrayConstant(ints));
+            method(c, "map", tracker.mapConstant(map));
+        });
+        check("class data ints", Arrays.equals(ints, (int[]) load(data, "ints", int[].class)));
+        check("class data map", map.equals(load(data, "map", Map.class)));
+
+        System.out.println("Constant table tests passed.");
+    }
+
+    private static void method(ClassContext<?, ?, ?> context, String name, DynamicConstantDesc<?> constant) {
+        context.method(name, Modifier.PUBLIC | Modifier.STATIC, MethodTypeDesc.of(constant.constantType()), null, null, method -> method.code(code -> {
+            code.constant(constant);
+            code.returnValue(constant.constantType());
+        }));
+    }
+
+    private static Object load(MethodHandles.Lookup lookup, String name, Class<?> type) throws Throwable {
+        return lookup.findStatic(lookup.lookupClass(), name, MethodType.methodType(type)).invoke();
+    }
+
+    private static void check(String what, boolean condition) {
+        if (!condition) {
+            throw new AssertionError("Expected " + what + " to round trip");
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package dev.lukebemish.bytecodebuilder.test;
+
+import dev.lukebemish.bytecodebuilder.ClassContext;
+
+import java.lang.constant.ClassDesc;
+import java.lang.constant.ConstantDescs;
+import java.lang.constant.DirectMethodHandleDesc;
+import java.lang.constant.MethodTypeDesc;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Modifier;
+import java.util.Arrays;
+
+public class TestCountedLoop {
+    public static void main(String[] args) throws Throwable {
+        var intArray = ConstantDescs.CD_int.arrayType();
+        var sum = MethodTypeDesc.of(ConstantDescs.CD_int, ConstantDescs.CD_int, ConstantDescs.CD_int);
+        var bytes = ClassContext.create()
+            .method("copy", Modifier.PUBLIC | Modifier.STATIC, MethodTypeDesc.of(ConstantDescs.CD_void, intArray, intArray), null, null, m -> m.code(c -> c
+                .arrayLoop(intArray, 0, 2, 3, body -> body
+                    .load(intArray, 1)
+                    .load(ConstantDescs.CD_int, 2)
+                    .load(intArray, 0)
+                    .load(ConstantDescs.CD_int, 2)
+                    .arrayLoad(ConstantDescs.CD_int)
+                    .arrayStore(ConstantDescs.CD_int)
+                )
+                .returnValue(ConstantDescs.CD_void)
+            ))
+            // Sums every fourth element in the main loop, then every element in the remainder
+            .method("sample", Modifier.PUBLIC | Modifier.STATIC, MethodTypeDesc.of(ConstantDescs.CD_int, intArray), null, null, m -> m.code(c -> c
+                .constant(0)
+                .store(ConstantDescs.CD_int, 3)
+                .load(intArray, 0)
+                .arrayLength()
+                .countedLoop(1, 2, 4, body -> body
+                    .load(ConstantDescs.CD_int, 3)
+                    .load(intArray, 0)
+                    .load(ConstantDescs.CD_int, 1)
+                    .arrayLoad(ConstantDescs.CD_int)
+                    .method(DirectMethodHandleDesc.Kind.STATIC, ConstantDescs.CD_Integer, "sum", sum)
+                    .store(ConstantDescs.CD_int, 3), remainder -> remainder
+                    .load(ConstantDescs.CD_int, 3)
+                    .load(intArray, 0)
+                    .load(ConstantDescs.CD_int, 1)
+                    .arrayLoad(ConstantDescs.CD_int)
+                    .method(DirectMethodHandleDesc.Kind.STATIC, ConstantDescs.CD_Integer, "sum", sum)
+                    .store(ConstantDescs.CD_int, 3)
+                )
+                .load(ConstantDescs.CD_int, 3)
+                .returnValue(ConstantDescs.CD_int)
+            ))
+            .build(65, Modifier.PUBLIC | Modifier.FINAL, ClassDesc.of("dev.lukebemish.bytecodebuilder.test.TestCountedLoop$Generated"), ConstantDescs.CD_Object, null, null);
+        var lookup = MethodHandles.lookup().defineHiddenClass(bytes, true);
+        var copy = lookup.findStatic(lookup.lookupClass(), "copy", MethodType.methodType(void.class, int[].class, int[].class));
+        var sample = lookup.findStatic(lookup.lookupClass(), "sample", MethodType.methodType(int.class, int[].class));
+
+        for (int length = 0; length < 12; length++) {
+            var source = new int[length];
+            for (int i = 0; i < length; i++) {
+                source[i] = i + 1;
+            }
+            var target = new int[length];
+            copy.invokeExact(source, target);
+            if (!Arrays.equals(source, target)) {
+                throw new AssertionError("Expected " + Arrays.toString(source) + " but got " + Arrays.toString(target));
+            }
+
+            var expected = 0;
+            var i = 0;
+            for (; i < length - 3; i += 4) {
+                expected += source[i];
+            }
+            for (; i < length; i++) {
+                expected += source[i];
+            }
+            var actual = (int) sample.invokeExact(source);
+            if (actual != expected) {
+                throw new AssertionError("Expected " + expected + " but got " + actual + " for length " + length);
+            }
+        }
+        System.out.println("Ran counted loops");
+    }
+}
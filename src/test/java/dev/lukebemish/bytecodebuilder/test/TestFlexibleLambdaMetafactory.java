@@ -6,7 +6,10 @@
 
 import java.lang.invoke.MethodHandles;
 import java.lang.invoke.MethodType;
+import java.util.List;
 import java.util.function.Consumer;
+import java.util.function.IntUnaryOperator;
+import java.util.function.LongSupplier;
 
 public class TestFlexibleLambdaMetafactory {
     // TODO: proper junit testing
@@ -31,6 +34,33 @@ public static void main(String[] args) throws Throwable {
 
         ConsumerFactory factory = Coercion.coerceCapturing(combined, Consumer.class, ConsumerFactory.class);
         factory.create("prefix").accept("string");
+
+        @SuppressWarnings("unchecked") Consumer<String> constantConsumer = Coercion.coerce(combined, Consumer.class, List.of("constant"));
+        constantConsumer.accept("string");
+        var constantFactory = Coercion.coerceCapturing(combined, Consumer.class, List.of("constant"));
+        if (constantFactory.invoke() != constantFactory.invoke()) {
+            throw new AssertionError("Constant-bound consumer should be a shared singleton");
+        }
+
+        var increment = lookup.findStatic(TestFlexibleLambdaMetafactory.class, "increment", MethodType.methodType(Object.class, Object.class));
+        var intOperator = Coercion.coerce(increment, IntUnaryOperator.class);
+        var incremented = intOperator.applyAsInt(41);
+        if (incremented != 42) {
+            throw new AssertionError("Expected the boxed increment to return 42 but got " + incremented);
+        }
+        var widened = Coercion.coerce(lookup.findStatic(TestFlexibleLambdaMetafactory.class, "shortValue", MethodType.methodType(Object.class)), LongSupplier.class);
+        var widenedValue = widened.getAsLong();
+        if (widenedValue != 7L) {
+            throw new AssertionError("Expected the short to widen to 7 but got " + widenedValue);
+        }
+    }
+
+    private static Object increment(Object value) {
+        return (Integer) value + 1;
+    }
+
+    private static Object shortValue() {
+        return (short) 7;
     }
 
     public interface ConsumerFactory {
@@ -0,0 +1,103 @@
+package dev.lukebemish.bytecodebuilder.test;
+
+import dev.lukebemish.bytecodebuilder.ClassContext;
+import dev.lukebemish.bytecodebuilder.runtime.Implementations;
+import dev.lukebemish.bytecodebuilder.test.elsewhere.Restricted;
+
+import java.lang.constant.ClassDesc;
+import java.lang.constant.ConstantDescs;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Modifier;
+import java.util.List;
+import java.util.Map;
+
+import static dev.lukebemish.bytecodebuilder.test.Checks.check;
+
+public class TestImplementations {
+    public interface Source<T> {
+        T next();
+    }
+
+    public interface Counter extends Source<Integer> {
+        @Override
+        Integer next();
+
+        int add(int amount);
+
+        long total(long base);
+
+        default String describe() {
+            return "counter";
+        }
+    }
+
+    public static abstract class Shape {
+        protected Shape() {}
+
+        public abstract double area();
+
+        public String name() {
+            return "shape";
+        }
+    }
+
+    public static void main(String[] args) throws Throwable {
+        var lookup = MethodHandles.lookup();
+        var next = lookup.findStatic(TestImplementations.class, "next", MethodType.methodType(Integer.class, int[].class));
+        var add = lookup.findStatic(TestImplementations.class, "add", MethodType.methodType(int.class, int[].class, int.class));
+        var total = lookup.findStatic(TestImplementations.class, "total", MethodType.methodType(long.class, int[].class, long.class));
+        var factory = Implementations.factory(lookup, Counter.class, Map.of(
+            Counter.class.getMethod("next"), next,
+            Counter.class.getMethod("add", int.class), add,
+            Counter.class.getMethod("total", long.class), total
+        ), List.of(int[].class));
+
+        var counter = (Counter) factory.invoke(new int[] {5});
+        check(counter.add(3), 8);
+        check(counter.next(), 9);
+        @SuppressWarnings("unchecked") var source = (Source<Integer>) counter;
+        check(source.next(), 10);
+        check(counter.total(100L), 110L);
+        check(counter.describe(), "counter");
+
+        var area = MethodHandles.constant(double.class, 2.5);
+        var name = MethodHandles.constant(String.class, "square");
+        var shape = Implementations.implement(lookup, Shape.class, Map.of(
+            Shape.class.getMethod("area"), area,
+            Shape.class.getMethod("name"), name
+        ));
+        check(shape.area(), 2.5);
+        check(shape.name(), "square");
+
+        // A hidden lookup class, such as a generated class, has a name that is not a valid binary name
+        var bytes = ClassContext.create().build(65, Modifier.PUBLIC | Modifier.FINAL, ClassDesc.of("dev.lukebemish.bytecodebuilder.test.TestImplementations$Hidden"), ConstantDescs.CD_Object, null, null);
+        var hidden = lookup.defineHiddenClass(bytes, true);
+        var hiddenShape = Implementations.implement(hidden, Shape.class, Map.of(Shape.class.getMethod("area"), area));
+        check(hiddenShape.area(), 2.5);
+        check(hiddenShape.name(), "shape");
+
+        try {
+            Implementations.implement(lookup, Counter.class, Map.of(Counter.class.getMethod("add", int.class), MethodHandles.identity(int.class)));
+            throw new AssertionError("Expected missing implementations to be rejected");
+        } catch (IllegalArgumentException ignored) {}
+        try {
+            Implementations.implement(lookup, Restricted.class, Map.of(Restricted.class.getMethod("value"), MethodHandles.constant(int.class, 1)));
+            throw new AssertionError("Expected a package-private constructor in another package to be rejected");
+        } catch (IllegalArgumentException ignored) {}
+        System.out.println("Implemented interfaces and abstract classes");
+    }
+
+    private static Integer next(int[] state) {
+        return ++state[0];
+    }
+
+    private static int add(int[] state, int amount) {
+        return state[0] += amount;
+    }
+
+    private static long total(int[] state, long base) {
+        return base + state[0];
+    }
+}
@@ -0,0 +1,75 @@
+package dev.lukebemish.bytecodebuilder.test;
+
+import dev.lukebemish.bytecodebuilder.ClassContext;
+import dev.lukebemish.bytecodebuilder.Constants;
+
+import java.lang.constant.ClassDesc;
+import java.lang.constant.ConstantDescs;
+import java.lang.constant.DirectMethodHandleDesc;
+import java.lang.constant.MethodHandleDesc;
+import java.lang.constant.MethodTypeDesc;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.List;
+
+import static dev.lukebemish.bytecodebuilder.test.Checks.check;
+
+public class TestInlineCache {
+    private static final List<Class<?>> RESOLVED = new ArrayList<>();
+
+    public static void main(String[] args) throws Throwable {
+        var resolver = MethodHandleDesc.ofMethod(
+            DirectMethodHandleDesc.Kind.STATIC,
+            Constants.from(TestInlineCache.class),
+            "resolve",
+            Constants.from(MethodType.methodType(MethodHandle.class, MethodHandles.Lookup.class, String.class, MethodType.class, Class.class))
+        );
+        var descriptor = MethodTypeDesc.of(ConstantDescs.CD_String, ConstantDescs.CD_Object);
+        var bytes = ClassContext.create()
+            .method("describe", Modifier.PUBLIC | Modifier.STATIC, descriptor, null, null, m -> m.code(c -> c
+                .load(ConstantDescs.CD_Object, 0)
+                .invokeDynamic(Constants.inlineCache("describe", descriptor, resolver, 1))
+                .returnValue(ConstantDescs.CD_String)
+            ))
+            .build(65, Modifier.PUBLIC | Modifier.FINAL, ClassDesc.of("dev.lukebemish.bytecodebuilder.test.TestInlineCache$Generated"), ConstantDescs.CD_Object, null, null);
+        var lookup = MethodHandles.lookup().defineHiddenClass(bytes, true);
+        var describe = lookup.findStatic(lookup.lookupClass(), "describe", MethodType.methodType(String.class, Object.class));
+
+        // The second receiver class makes the site megamorphic
+        for (int i = 0; i < 3; i++) {
+            check((String) describe.invokeExact((Object) "string"), "String: string");
+            check((String) describe.invokeExact((Object) Integer.valueOf(i)), "Integer: " + i);
+            check((String) describe.invokeExact((Object) List.of()), "Other: []");
+        }
+        if (RESOLVED.size() != 3) {
+            throw new AssertionError("Expected each receiver class to be resolved once, but resolved " + RESOLVED);
+        }
+        System.out.println("Dispatched through inline cache");
+    }
+
+    public static MethodHandle resolve(MethodHandles.Lookup lookup, String name, MethodType type, Class<?> receiver) throws ReflectiveOperationException {
+        RESOLVED.add(receiver);
+        var self = MethodHandles.lookup();
+        if (receiver == String.class) {
+            return self.findStatic(TestInlineCache.class, "describeString", MethodType.methodType(String.class, String.class));
+        } else if (receiver == Integer.class) {
+            return self.findStatic(TestInlineCache.class, "describeInteger", MethodType.methodType(String.class, Integer.class));
+        }
+        return self.findStatic(TestInlineCache.class, "describeOther", MethodType.methodType(String.class, Object.class));
+    }
+
+    private static String describeString(String s) {
+        return "String: " + s;
+    }
+
+    private static String describeInteger(Integer i) {
+        return "Integer: " + i;
+    }
+
+    private static String describeOther(Object o) {
+        return "Other: " + o;
+    }
+}
@@ -0,0 +1,94 @@
+package dev.lukebemish.bytecodebuilder.test;
+
+import dev.lukebemish.bytecodebuilder.ClassContext;
+import dev.lukebemish.bytecodebuilder.CodeContext;
+import dev.lukebemish.bytecodebuilder.Constants;
+
+import java.lang.constant.ClassDesc;
+import java.lang.constant.ConstantDescs;
+import java.lang.constant.MethodTypeDesc;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Modifier;
+
+import static dev.lukebemish.bytecodebuilder.test.Checks.check;
+
+public class TestInlining {
+    private final int offset;
+
+    public TestInlining(int offset) {
+        this.offset = offset;
+    }
+
+    public int shifted(int value) {
+        return value + offset;
+    }
+
+    public static int parseOr(String value, int fallback) {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            return fallback;
+        }
+    }
+
+    public static int sumTo(int limit) {
+        int sum = 0;
+        for (int i = 0; i < limit; i++) {
+            if (i % 2 == 0) {
+                continue;
+            }
+            sum += i;
+        }
+        return sum;
+    }
+
+    public static void main(String[] args) throws Throwable {
+        var binary = MethodTypeDesc.of(ConstantDescs.CD_int, ConstantDescs.CD_boolean, ConstantDescs.CD_int, ConstantDescs.CD_int);
+        // Picks one of two ints, returning from both branches
+        var choose = CodeContext.create(c -> c
+            .load(ConstantDescs.CD_boolean, 0)
+            .ifThenElse(
+                whenTrue -> whenTrue.load(ConstantDescs.CD_int, 1).returnValue(ConstantDescs.CD_int),
+                whenFalse -> whenFalse.load(ConstantDescs.CD_int, 2).returnValue(ConstantDescs.CD_int)
+            )
+        );
+        var self = Constants.from(TestInlining.class);
+        var parseOr = TestInlining.class.getMethod("parseOr", String.class, int.class);
+        var sumTo = TestInlining.class.getMethod("sumTo", int.class);
+        var shifted = TestInlining.class.getMethod("shifted", int.class);
+        var bytes = ClassContext.create()
+            .method("run", Modifier.PUBLIC | Modifier.STATIC, MethodTypeDesc.of(ConstantDescs.CD_int, ConstantDescs.CD_String, ConstantDescs.CD_boolean, self), null, null, m -> m.code(c -> c
+                // choose(flag, parseOr(string, -1), sumTo(10)), then shifted by the receiver, choosing twice to reuse the fragment
+                // parseOr catches exceptions, so is inlined with nothing else on the stack
+                .load(ConstantDescs.CD_String, 0)
+                .constant(-1)
+                .inline(parseOr, 3)
+                .store(ConstantDescs.CD_int, 20)
+                .load(ConstantDescs.CD_boolean, 1)
+                .load(ConstantDescs.CD_int, 20)
+                .constant(10)
+                .inline(sumTo, 6)
+                .inline(choose, binary, 10)
+                .store(ConstantDescs.CD_int, 13)
+                .constant(1)
+                .load(ConstantDescs.CD_int, 13)
+                .constant(0)
+                .inline(choose, binary, 14)
+                .store(ConstantDescs.CD_int, 13)
+                .load(self, 2)
+                .load(ConstantDescs.CD_int, 13)
+                .inline(shifted, 17)
+                .returnValue(ConstantDescs.CD_int)
+            ))
+            .build(65, Modifier.PUBLIC | Modifier.FINAL, ClassDesc.of("dev.lukebemish.bytecodebuilder.test.TestInlining$Generated"), ConstantDescs.CD_Object, null, null);
+        var lookup = MethodHandles.lookup().defineHiddenClass(bytes, true, MethodHandles.Lookup.ClassOption.NESTMATE);
+        var run = lookup.findStatic(lookup.lookupClass(), "run", MethodType.methodType(int.class, String.class, boolean.class, TestInlining.class));
+
+        var receiver = new TestInlining(100);
+        check((int) run.invokeExact("7", true, receiver), 107);
+        check((int) run.invokeExact("x", true, receiver), 99);
+        check((int) run.invokeExact("7", false, receiver), 125);
+        System.out.println("Inlined fragments and methods");
+    }
+}
@@ -0,0 +1,45 @@
+package dev.lukebemish.bytecodebuilder.test;
+
+import dev.lukebemish.bytecodebuilder.ClassContext;
+import dev.lukebemish.bytecodebuilder.runtime.InvocationCounters;
+
+import java.lang.constant.ClassDesc;
+import java.lang.constant.ConstantDescs;
+import java.lang.constant.MethodTypeDesc;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Modifier;
+import java.util.List;
+
+public class TestInvocationCounters {
+    public static void main(String[] args) throws Throwable {
+        var bytes = ClassContext.create()
+            .countInvocations(true)
+            .method("counted", Modifier.PUBLIC | Modifier.STATIC, MethodTypeDesc.of(ConstantDescs.CD_int), null, null, m -> m.code(c -> c
+                .constant(42)
+                .returnValue(ConstantDescs.CD_int)
+            ))
+            .build(65, Modifier.PUBLIC | Modifier.FINAL, ClassDesc.of("dev.lukebemish.bytecodebuilder.test.TestInvocationCounters$Generated"), ConstantDescs.CD_Object, null, null);
+        var lookup = MethodHandles.lookup().defineHiddenClass(bytes, true);
+        var counted = lookup.findStatic(lookup.lookupClass(), "counted", MethodType.methodType(int.class));
+
+        for (int i = 0; i < 5; i++) {
+            var result = (int) counted.invokeExact();
+        }
+        check(InvocationCounters.window(), lookup.lookupClass(), 5);
+        var result = (int) counted.invokeExact();
+        check(InvocationCounters.window(), lookup.lookupClass(), 1);
+        check(InvocationCounters.snapshot(), lookup.lookupClass(), 6);
+        System.out.println("Counted invocations");
+    }
+
+    private static void check(List<InvocationCounters.Count> counts, Class<?> owner, long expected) {
+        var count = counts.stream()
+            .filter(c -> c.owner() == owner && c.name().equals("counted") && c.descriptor().equals("()I"))
+            .findFirst()
+            .orElseThrow(() -> new AssertionError("No counter for " + owner));
+        if (count.count() != expected) {
+            throw new AssertionError("Expected " + expected + " invocations but counted " + count.count());
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package dev.lukebemish.bytecodebuilder.test;
+
+import dev.lukebemish.bytecodebuilder.ClassContext;
+import dev.lukebemish.bytecodebuilder.Constants;
+
+import java.lang.constant.ClassDesc;
+import java.lang.constant.ConstantDescs;
+import java.lang.constant.DirectMethodHandleDesc;
+import java.lang.constant.MethodHandleDesc;
+import java.lang.constant.MethodTypeDesc;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Modifier;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static dev.lukebemish.bytecodebuilder.test.Checks.check;
+
+public class TestLazyConstants {
+    private static final AtomicInteger COMPUTED = new AtomicInteger();
+
+    public static void main(String[] args) throws Throwable {
+        var supplied = new AtomicInteger();
+        var factory = MethodHandleDesc.ofMethod(
+            DirectMethodHandleDesc.Kind.STATIC,
+            Constants.from(TestLazyConstants.class),
+            "compute",
+            MethodTypeDesc.of(ConstantDescs.CD_String, ConstantDescs.CD_String)
+        );
+        var lookup = ClassContext.hidden(
+            MethodHandles.lookup(),
+            true,
+            Set.of(),
+            65,
+            Modifier.PUBLIC | Modifier.FINAL,
+            ClassDesc.of("dev.lukebemish.bytecodebuilder.test.TestLazyConstants$Generated"),
+            ConstantDescs.CD_Object,
+            List.of(),
+            null,
+            (context, tracker) -> {
+                var fromSupplier = tracker.lazyDataConstant("supplied", ConstantDescs.CD_String, () -> "supplied " + supplied.incrementAndGet());
+                context.method("supplied", Modifier.PUBLIC | Modifier.STATIC, MethodTypeDesc.of(ConstantDescs.CD_String), null, null, m -> m.code(c -> c
+                    .constant(fromSupplier)
+                    .returnValue(ConstantDescs.CD_String)
+                ));
+                context.method("computed", Modifier.PUBLIC | Modifier.STATIC, MethodTypeDesc.of(ConstantDescs.CD_String), null, null, m -> m.code(c -> c
+                    .constant(Constants.lazyConstant("computed", ConstantDescs.CD_String, factory, "value"))
+                    .returnValue(ConstantDescs.CD_String)
+                ));
+            }
+        );
+        if (supplied.get() != 0 || COMPUTED.get() != 0) {
+            throw new AssertionError("Expected lazy constants not to be computed when the class is initialized");
+        }
+
+        var suppliedHandle = lookup.findStatic(lookup.lookupClass(), "supplied", MethodType.methodType(String.class));
+        var computedHandle = lookup.findStatic(lookup.lookupClass(), "computed", MethodType.methodType(String.class));
+        for (int i = 0; i < 3; i++) {
+            check((String) suppliedHandle.invokeExact(), "supplied 1");
+            check((String) computedHandle.invokeExact(), "computed value");
+        }
+        if (supplied.get() != 1 || COMPUTED.get() != 1) {
+            throw new AssertionError("Expected lazy constants to be computed once, but were computed " + supplied.get() + " and " + COMPUTED.get() + " times");
+        }
+        System.out.println("Computed lazy constants");
+    }
+
+    public static String compute(String value) {
+        COMPUTED.incrementAndGet();
+        return "computed " + value;
+    }
+}
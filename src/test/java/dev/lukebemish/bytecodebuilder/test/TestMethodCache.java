@@ -0,0 +1,68 @@
+package dev.lukebemish.bytecodebuilder.test;
+
+import dev.lukebemish.bytecodebuilder.ClassContext;
+import dev.lukebemish.bytecodebuilder.MethodCache;
+
+import java.lang.constant.ClassDesc;
+import java.lang.constant.ConstantDescs;
+import java.lang.constant.MethodTypeDesc;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Modifier;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+public class TestMethodCache {
+    public static void main(String[] args) throws Throwable {
+        var cache = new MethodCache();
+        for (int i = 0; i < 3; i++) {
+            var changing = "changing " + i;
+            var bytes = build(cache, changing);
+
+            var lookup = MethodHandles.lookup().defineHiddenClass(bytes, true);
+            var unchanged = (String) lookup.findStatic(lookup.lookupClass(), "unchanged", MethodType.methodType(String.class)).invokeExact();
+            var changed = (String) lookup.findStatic(lookup.lookupClass(), "changing", MethodType.methodType(String.class)).invokeExact();
+            if (!"unchanged".equals(unchanged) || !changing.equals(changed)) {
+                throw new AssertionError("Unexpected results from build " + i + ": " + unchanged + ", " + changed);
+            }
+            // The unchanged method is copied from the previous build along with its constant pool, which still holds
+            // the previous build's constants
+            if (i > 0 && !contains(bytes, "changing " + (i - 1))) {
+                throw new AssertionError("Expected build " + i + " to reuse the unchanged method of the previous build");
+            }
+        }
+
+        if (contains(build(new MethodCache(), "changing 3"), "changing 2")) {
+            throw new AssertionError("Expected a fresh cache to reuse nothing");
+        }
+        cache.clear();
+        if (contains(build(cache, "changing 3"), "changing 2")) {
+            throw new AssertionError("Expected a cleared cache to reuse nothing");
+        }
+        System.out.println("Rebuilt with method cache");
+    }
+
+    private static byte[] build(MethodCache cache, String changing) {
+        return ClassContext.create()
+            .methodCache(cache)
+            .method("unchanged", Modifier.PUBLIC | Modifier.STATIC, MethodTypeDesc.of(ConstantDescs.CD_String), null, null, m -> m.code(c -> c
+                .constant("unchanged")
+                .returnValue(ConstantDescs.CD_String)
+            ))
+            .method("changing", Modifier.PUBLIC | Modifier.STATIC, MethodTypeDesc.of(ConstantDescs.CD_String), null, null, m -> m.code(c -> c
+                .constant(changing)
+                .returnValue(ConstantDescs.CD_String)
+            ))
+            .build(65, Modifier.PUBLIC | Modifier.FINAL, ClassDesc.of("dev.lukebemish.bytecodebuilder.test.TestMethodCache$Generated"), ConstantDescs.CD_Object, null, null);
+    }
+
+    private static boolean contains(byte[] bytes, String constant) {
+        var encoded = constant.getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i + encoded.length <= bytes.length; i++) {
+            if (Arrays.equals(bytes, i, i + encoded.length, encoded, 0, encoded.length)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
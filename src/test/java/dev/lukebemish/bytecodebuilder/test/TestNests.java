@@ -0,0 +1,115 @@
+package dev.lukebemish.bytecodebuilder.test;
+
+import dev.lukebemish.bytecodebuilder.ClassContext;
+import dev.lukebemish.bytecodebuilder.NestMember;
+
+import java.lang.constant.ClassDesc;
+import java.lang.constant.ConstantDescs;
+import java.lang.constant.DirectMethodHandleDesc;
+import java.lang.constant.MethodTypeDesc;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Modifier;
+import java.util.List;
+import java.util.Set;
+
+public class TestNests {
+    public static void main(String[] args) throws Throwable {
+        var host = ClassDesc.of("dev.lukebemish.bytecodebuilder.test.TestNests$Host");
+        var counter = ClassDesc.of("dev.lukebemish.bytecodebuilder.test.TestNests$Counter");
+        var intToInt = MethodTypeDesc.of(ConstantDescs.CD_int, ConstantDescs.CD_int);
+
+        var lookups = ClassContext.nest(MethodHandles.lookup(), true, Set.of(), 65, List.of(
+            // The host creates a counter, bumps it through one of its private methods, and reads its private field
+            new NestMember(Modifier.PUBLIC | Modifier.FINAL, host, ConstantDescs.CD_Object, null, null, (context, nest) -> context
+                .method("twice", Modifier.PRIVATE | Modifier.STATIC, intToInt, null, null, method -> method.code(code -> code
+                    .load(ConstantDescs.CD_int, 0)
+                    .load(ConstantDescs.CD_int, 0)
+                    .method(DirectMethodHandleDesc.Kind.STATIC, ConstantDescs.CD_Integer, "sum", MethodTypeDesc.of(ConstantDescs.CD_int, ConstantDescs.CD_int, ConstantDescs.CD_int))
+                    .returnValue(ConstantDescs.CD_int)
+                ))
+                .method("run", Modifier.PUBLIC | Modifier.STATIC, intToInt, null, null, method -> method.code(code -> code
+                    .invokeDynamic(nest.newInstance(counter, MethodTypeDesc.of(ConstantDescs.CD_void)))
+                    .store(nest.erased(counter), 1)
+                    .load(nest.erased(counter), 1)
+                    .load(ConstantDescs.CD_int, 0)
+                    .invokeDynamic(nest.method(DirectMethodHandleDesc.Kind.VIRTUAL, counter, "bump", MethodTypeDesc.of(ConstantDescs.CD_void, ConstantDescs.CD_int)))
+                    .load(nest.erased(counter), 1)
+                    .invokeDynamic(nest.field(DirectMethodHandleDesc.Kind.GETTER, counter, "count", ConstantDescs.CD_int))
+                    .returnValue(ConstantDescs.CD_int)
+                ))
+                .method("counterType", Modifier.PUBLIC | Modifier.STATIC, MethodTypeDesc.of(ConstantDescs.CD_Class), null, null, method -> method.code(code -> code
+                    .constant(nest.classConstant(counter))
+                    .returnValue(ConstantDescs.CD_Class)
+                ))
+            ),
+            // The counter adds to its private field using a private method of the host
+            new NestMember(Modifier.FINAL, counter, ConstantDescs.CD_Object, null, null, (context, nest) -> context
+                .field("count", Modifier.PRIVATE, ConstantDescs.CD_int, null, null, field -> {})
+                .constructor(Modifier.PRIVATE, MethodTypeDesc.of(ConstantDescs.CD_void), null, method -> method.code(code -> code
+                    .loadThis()
+                    .method(DirectMethodHandleDesc.Kind.SPECIAL, ConstantDescs.CD_Object, ConstantDescs.INIT_NAME, MethodTypeDesc.of(ConstantDescs.CD_void))
+                    .returnValue(ConstantDescs.CD_void)
+                ))
+                .method("bump", Modifier.PRIVATE, MethodTypeDesc.of(ConstantDescs.CD_void, ConstantDescs.CD_int), null, null, method -> method.code(code -> code
+                    .loadThis()
+                    .loadThis()
+                    .field(DirectMethodHandleDesc.Kind.GETTER, counter, "count", ConstantDescs.CD_int)
+                    .load(ConstantDescs.CD_int, 1)
+                    .invokeDynamic(nest.method(DirectMethodHandleDesc.Kind.STATIC, host, "twice", intToInt))
+                    .method(DirectMethodHandleDesc.Kind.STATIC, ConstantDescs.CD_Integer, "sum", MethodTypeDesc.of(ConstantDescs.CD_int, ConstantDescs.CD_int, ConstantDescs.CD_int))
+                    .field(DirectMethodHandleDesc.Kind.SETTER, counter, "count", ConstantDescs.CD_int)
+                    .returnValue(ConstantDescs.CD_void)
+                ))
+            )
+        ));
+
+        var hostClass = lookups.get(0).lookupClass();
+        var counterClass = lookups.get(1).lookupClass();
+        if (!hostClass.isHidden() || !counterClass.isHidden()) {
+            throw new AssertionError("Expected every class of the nest to be hidden");
+        }
+        if (counterClass.getNestHost() != hostClass || !hostClass.isNestmateOf(counterClass)) {
+            throw new AssertionError("Expected " + counterClass + " to be a nestmate of " + hostClass);
+        }
+
+        var run = lookups.get(0).findStatic(hostClass, "run", MethodType.methodType(int.class, int.class));
+        var result = (int) run.invokeExact(21);
+        if (result != 42) {
+            throw new AssertionError("Expected 42 but got " + result);
+        }
+        var type = (Class<?>) lookups.get(0).findStatic(hostClass, "counterType", MethodType.methodType(Class.class)).invokeExact();
+        if (type != counterClass) {
+            throw new AssertionError("Expected the class constant to be " + counterClass + " but got " + type);
+        }
+
+        try {
+            ClassContext.nest(MethodHandles.lookup(), true, Set.of(), 65, List.of(
+                new NestMember(Modifier.FINAL, host, ConstantDescs.CD_Object, null, null, (context, nest) -> {}),
+                new NestMember(Modifier.FINAL, host, ConstantDescs.CD_Object, null, null, (context, nest) -> {})
+            ));
+            throw new AssertionError("Expected duplicate classes to be rejected");
+        } catch (IllegalArgumentException expected) {
+            // expected
+        }
+
+        // A class of the nest cannot be named as the supertype of another
+        var base = ClassDesc.of("dev.lukebemish.bytecodebuilder.test.TestNests$Base");
+        for (var derived : List.of(
+            new NestMember(Modifier.FINAL, counter, base, null, null, (context, nest) -> {}),
+            new NestMember(Modifier.FINAL, counter, ConstantDescs.CD_Object, List.of(base), null, (context, nest) -> {})
+        )) {
+            try {
+                ClassContext.nest(MethodHandles.lookup(), true, Set.of(), 65, List.of(
+                    new NestMember(Modifier.PUBLIC | Modifier.ABSTRACT | Modifier.INTERFACE, base, ConstantDescs.CD_Object, null, null, (context, nest) -> {}),
+                    derived
+                ));
+                throw new AssertionError("Expected a supertype within the nest to be rejected");
+            } catch (IllegalArgumentException expected) {
+                // expected
+            }
+        }
+
+        System.out.println("Nest tests passed.");
+    }
+}
@@ -0,0 +1,162 @@
+package dev.lukebemish.bytecodebuilder.test;
+
+import dev.lukebemish.bytecodebuilder.ClassContext;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.lang.constant.ClassDesc;
+import java.lang.constant.ConstantDescs;
+import java.lang.constant.MethodTypeDesc;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+public class TestParallelGeneration {
+    private static final int METHODS = 200;
+
+    public static void main(String[] args) throws Throwable {
+        var lookup = MethodHandles.lookup();
+        var executor = Executors.newFixedThreadPool(4);
+        try {
+            var serial = build(null);
+            var parallel = build(executor);
+            if (!methodNames(serial).equals(methodNames(parallel))) {
+                throw new AssertionError("Expected methods in declaration order, but got " + methodNames(parallel));
+            }
+            if (!Arrays.equals(serial, parallel)) {
+                throw new AssertionError("Expected the parallel build to be the same as the serial build");
+            }
+
+            var generated = lookup.defineHiddenClass(parallel, true);
+            for (int i = 0; i < METHODS; i++) {
+                var handle = generated.findStatic(generated.lookupClass(), "m" + i, MethodType.methodType(int.class, boolean.class));
+                var result = (int) handle.invokeExact(true);
+                if (result != i) {
+                    throw new AssertionError("Expected " + i + " but got " + result);
+                }
+                result = (int) handle.invokeExact(false);
+                if (result != -i) {
+                    throw new AssertionError("Expected " + -i + " but got " + result);
+                }
+            }
+
+            var serialData = hidden(lookup, null);
+            var parallelData = hidden(lookup, executor);
+            for (int i = 0; i < METHODS; i++) {
+                var result = (String) parallelData.findStatic(parallelData.lookupClass(), "m" + i, MethodType.methodType(String.class)).invokeExact();
+                if (!result.equals("value" + i)) {
+                    throw new AssertionError("Expected value" + i + " but got " + result);
+                }
+            }
+            var serialSlots = MethodHandles.classData(serialData, ConstantDescs.DEFAULT_NAME, List.class);
+            var parallelSlots = MethodHandles.classData(parallelData, ConstantDescs.DEFAULT_NAME, List.class);
+            if (!serialSlots.equals(parallelSlots)) {
+                throw new AssertionError("Expected class data slots in declaration order, but got " + parallelSlots);
+            }
+
+            var overlapping = overlapping(lookup, executor);
+            for (int i = 0; i < 2; i++) {
+                var result = (String) overlapping.findStatic(overlapping.lookupClass(), "m" + i, MethodType.methodType(String.class)).invokeExact();
+                if (!result.equals("value" + i)) {
+                    throw new AssertionError("Expected value" + i + " but got " + result);
+                }
+            }
+            var overlappingSlots = MethodHandles.classData(overlapping, ConstantDescs.DEFAULT_NAME, List.class);
+            if (!overlappingSlots.equals(List.of("before", "first0", "value0", "first1", "value1", "after"))) {
+                throw new AssertionError("Expected class data slots in declaration order, but got " + overlappingSlots);
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        System.out.println("Parallel generation tests passed.");
+    }
+
+    private static MethodHandles.Lookup hidden(MethodHandles.Lookup lookup, Executor executor) throws IllegalAccessException {
+        return ClassContext.hidden(lookup, true, Set.of(), 65, Modifier.FINAL, ClassDesc.of("dev.lukebemish.bytecodebuilder.test.TestParallelGeneration$Data"), ConstantDescs.CD_Object, List.of(), null, (context, tracker) -> {
+            context.parallel(executor);
+            for (int i = 0; i < METHODS; i++) {
+                var value = "value" + i;
+                context.method("m" + i, Modifier.PUBLIC | Modifier.STATIC, MethodTypeDesc.of(ConstantDescs.CD_String), null, null, method -> method.code(code -> {
+                    code.constant(tracker.dataConstant(ConstantDescs.CD_String, value));
+                    code.returnValue(ConstantDescs.CD_String);
+                }));
+                if (i % 10 == 0) {
+                    // Added by the declaring thread between methods
+                    var declared = "declared" + i;
+                    context.method("d" + i, Modifier.PUBLIC | Modifier.STATIC, MethodTypeDesc.of(ConstantDescs.CD_String), null, null, method -> method.code(code -> {
+                        code.constant(tracker.dataConstant(ConstantDescs.CD_String, declared));
+                        code.returnValue(ConstantDescs.CD_String);
+                    }));
+                    tracker.dataConstant(ConstantDescs.CD_String, "between" + i);
+                }
+            }
+        });
+    }
+
+    // Each method adds to the class data, then waits for the other to have done so too before adding more
+    private static MethodHandles.Lookup overlapping(MethodHandles.Lookup lookup, Executor executor) throws IllegalAccessException {
+        var added = new CountDownLatch(2);
+        return ClassContext.hidden(lookup, true, Set.of(), 65, Modifier.FINAL, ClassDesc.of("dev.lukebemish.bytecodebuilder.test.TestParallelGeneration$Overlapping"), ConstantDescs.CD_Object, List.of(), null, (context, tracker) -> {
+            context.parallel(executor);
+            tracker.dataConstant(ConstantDescs.CD_String, "before");
+            for (int i = 0; i < 2; i++) {
+                var value = "value" + i;
+                var first = "first" + i;
+                context.method("m" + i, Modifier.PUBLIC | Modifier.STATIC, MethodTypeDesc.of(ConstantDescs.CD_String), null, null, method -> method.code(code -> {
+                    tracker.dataConstant(ConstantDescs.CD_String, first);
+                    added.countDown();
+                    try {
+                        if (!added.await(10, TimeUnit.SECONDS)) {
+                            throw new AssertionError("Expected methods adding to the class data to be recorded at the same time");
+                        }
+                    } catch (InterruptedException e) {
+                        throw new AssertionError(e);
+                    }
+                    code.constant(tracker.dataConstant(ConstantDescs.CD_String, value));
+                    code.returnValue(ConstantDescs.CD_String);
+                }));
+            }
+            tracker.dataConstant(ConstantDescs.CD_String, "after");
+        });
+    }
+
+    private static byte[] build(Executor executor) {
+        var context = ClassContext.create();
+        context.parallel(executor);
+        for (int i = 0; i < METHODS; i++) {
+            var value = i;
+            context.method("m" + i, Modifier.PUBLIC | Modifier.STATIC, MethodTypeDesc.of(ConstantDescs.CD_int, ConstantDescs.CD_boolean), null, null, method -> method.code(code -> {
+                code.load(ConstantDescs.CD_boolean, 0);
+                code.ifThenElse(
+                    whenTrue -> whenTrue.constant(value),
+                    whenFalse -> whenFalse.constant(-value)
+                );
+                code.returnValue(ConstantDescs.CD_int);
+            }));
+        }
+        return context.build(65, Modifier.PUBLIC | Modifier.FINAL, ClassDesc.of("dev.lukebemish.bytecodebuilder.test.TestParallelGeneration$Generated"), ConstantDescs.CD_Object, null, null);
+    }
+
+    private static List<String> methodNames(byte[] bytes) {
+        var names = new ArrayList<String>();
+        new ClassReader(bytes).accept(new ClassVisitor(Opcodes.ASM9) {
+            @Override
+            public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+                names.add(name);
+                return null;
+            }
+        }, 0);
+        return names;
+    }
+}
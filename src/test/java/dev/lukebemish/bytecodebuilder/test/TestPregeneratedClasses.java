@@ -0,0 +1,101 @@
+package dev.lukebemish.bytecodebuilder.test;
+
+import dev.lukebemish.bytecodebuilder.ClassContext;
+import dev.lukebemish.bytecodebuilder.aot.AheadOfTimeGenerator;
+import dev.lukebemish.bytecodebuilder.aot.ClassGenerator;
+import dev.lukebemish.bytecodebuilder.aot.PregeneratedClasses;
+
+import java.io.IOException;
+import java.lang.constant.ClassDesc;
+import java.lang.constant.ConstantDescs;
+import java.lang.constant.DirectMethodHandleDesc;
+import java.lang.constant.MethodTypeDesc;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Modifier;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+
+import static dev.lukebemish.bytecodebuilder.test.Checks.check;
+
+public class TestPregeneratedClasses {
+    private static final String PACKAGE = "dev.lukebemish.bytecodebuilder.test.pregenerated.";
+    private static final ClassDesc ANSWER = ClassDesc.of(PACKAGE + "Answer");
+
+    public static void main(String[] args) throws Throwable {
+        var output = Files.createTempDirectory("pregenerated");
+        try {
+            AheadOfTimeGenerator.generate(output, List.<ClassGenerator>of(target -> {
+                // Gives the loader of the generated classes a full privilege lookup of its own
+                target.define("anchor", 65, Modifier.PUBLIC | Modifier.FINAL, ClassDesc.of(PACKAGE + "Anchor"), ConstantDescs.CD_Object, null, null, context ->
+                    context.method("lookup", Modifier.PUBLIC | Modifier.STATIC, MethodTypeDesc.of(ConstantDescs.CD_MethodHandles_Lookup), null, null, method -> method.code(code -> {
+                        code.method(DirectMethodHandleDesc.Kind.STATIC, ConstantDescs.CD_MethodHandles, "lookup", MethodTypeDesc.of(ConstantDescs.CD_MethodHandles_Lookup));
+                        code.returnValue(ConstantDescs.CD_MethodHandles_Lookup);
+                    }))
+                );
+                target.define("answer", 65, Modifier.PUBLIC | Modifier.FINAL, ANSWER, ConstantDescs.CD_Object, null, null, TestPregeneratedClasses::answer);
+            }));
+            try (var loader = new URLClassLoader(new URL[] {output.toUri().toURL()}, TestPregeneratedClasses.class.getClassLoader())) {
+                var anchor = (MethodHandles.Lookup) Class.forName(PACKAGE + "Anchor", true, loader).getMethod("lookup").invoke(null);
+
+                var found = PregeneratedClasses.find(anchor, "answer", true);
+                if (found == null) {
+                    throw new AssertionError("Expected a pre-generated class for key answer");
+                }
+                check("pre-generated class", found.lookupClass().getName(), PACKAGE + "Answer");
+                check("pre-generated answer", (int) found.findStatic(found.lookupClass(), "answer", MethodType.methodType(int.class)).invokeExact(), 42);
+                check("class for a missing key", PregeneratedClasses.find(anchor, "missing", true), null);
+
+                var pregenerated = ClassContext.hidden("answer", anchor, true, Set.of(), 65, Modifier.FINAL, ClassDesc.of(PACKAGE + "Spun"), ConstantDescs.CD_Object, null, null, (context, tracker) -> {
+                    throw new AssertionError("Expected the pre-generated class to be used");
+                });
+                check("class found by key", pregenerated.lookupClass(), found.lookupClass());
+
+                var spun = ClassContext.hidden("missing", anchor, true, Set.of(), 65, Modifier.FINAL, ClassDesc.of(PACKAGE + "Spun"), ConstantDescs.CD_Object, null, null, (context, tracker) -> answer(context));
+                if (!spun.lookupClass().isHidden()) {
+                    throw new AssertionError("Expected a hidden class to be spun for a missing key");
+                }
+                check("spun answer", (int) spun.findStatic(spun.lookupClass(), "answer", MethodType.methodType(int.class)).invokeExact(), 42);
+
+                try {
+                    ClassContext.hidden("answer", anchor, true, Set.of(MethodHandles.Lookup.ClassOption.NESTMATE), 65, Modifier.FINAL, ClassDesc.of(PACKAGE + "Spun"), ConstantDescs.CD_Object, null, null, (context, tracker) -> {});
+                    throw new AssertionError("Expected a pre-generated class to be rejected as a nestmate");
+                } catch (IllegalArgumentException expected) {
+                    // expected
+                }
+                try {
+                    ClassContext.hidden("missing", anchor, true, Set.of(), 65, Modifier.FINAL, ClassDesc.of(PACKAGE + "Spun"), ConstantDescs.CD_Object, null, null, (context, tracker) ->
+                        tracker.dataConstant(ConstantDescs.CD_String, "data")
+                    );
+                    throw new AssertionError("Expected class data to be rejected for a pre-generated key");
+                } catch (IllegalArgumentException expected) {
+                    // expected
+                }
+            }
+        } finally {
+            delete(output);
+        }
+
+        System.out.println("Pre-generated class tests passed.");
+    }
+
+    private static void answer(ClassContext<?, ?, ?> context) {
+        context.method("answer", Modifier.PUBLIC | Modifier.STATIC, MethodTypeDesc.of(ConstantDescs.CD_int), null, null, method -> method.code(code -> {
+            code.constant(42);
+            code.returnValue(ConstantDescs.CD_int);
+        }));
+    }
+
+    private static void delete(Path directory) throws IOException {
+        try (var paths = Files.walk(directory)) {
+            for (var path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(path);
+            }
+        }
+    }
+}
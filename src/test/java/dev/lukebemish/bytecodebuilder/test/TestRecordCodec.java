@@ -0,0 +1,62 @@
+package dev.lukebemish.bytecodebuilder.test;
+
+import dev.lukebemish.bytecodebuilder.runtime.RecordCodec;
+
+import java.lang.invoke.MethodHandles;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import static dev.lukebemish.bytecodebuilder.test.Checks.check;
+
+public class TestRecordCodec {
+    private record Point(int x, int y) {}
+
+    private record Shape(String name, Point origin, boolean filled, double scale, char marker, long id, byte flags) {}
+
+    private static final class Value {
+        private final String label;
+        private final short weight;
+
+        private Value(String label, short weight) {
+            this.label = label;
+            this.weight = weight;
+        }
+    }
+
+    public static void main(String[] args) throws Throwable {
+        var codec = RecordCodec.of(MethodHandles.lookup(), Shape.class);
+        var shape = new Shape("square", new Point(3, -4), true, 1.5, 'x', 1L << 40, (byte) 7);
+        var buffer = ByteBuffer.allocate(128);
+        codec.encode(shape, buffer);
+        codec.encode(new Shape(null, new Point(0, 0), false, 0, ' ', 0, (byte) 0), buffer);
+        buffer.flip();
+        check(codec.decode(buffer), shape);
+        check(codec.decode(buffer), new Shape(null, new Point(0, 0), false, 0, ' ', 0, (byte) 0));
+
+        var valueCodec = RecordCodec.of(
+            MethodHandles.lookup(),
+            Value.class,
+            List.of(Value.class.getDeclaredField("label"), Value.class.getDeclaredField("weight")),
+            Value.class.getDeclaredConstructor(String.class, short.class)
+        );
+        buffer.clear();
+        valueCodec.encode(new Value("heavy", (short) 300), buffer);
+        buffer.flip();
+        var value = valueCodec.decode(buffer);
+        check(value.label, "heavy");
+        check(value.weight, (short) 300);
+
+        // Records outside the lookup's nest are read and constructed through handles
+        var outsideCodec = RecordCodec.of(MethodHandles.lookup(), External.class);
+        if (outsideCodec.getClass().getNestHost() == TestRecordCodec.class) {
+            throw new AssertionError("Codec of a record outside the nest should not join it");
+        }
+        buffer.clear();
+        outsideCodec.encode(new External("far", 2, 9L), buffer);
+        buffer.flip();
+        check(outsideCodec.decode(buffer), new External("far", 2, 9L));
+        System.out.println("Round-tripped records through generated codecs");
+    }
+}
+
+record External(String label, int count, long id) {}
@@ -0,0 +1,44 @@
+package dev.lukebemish.bytecodebuilder.test;
+
+import dev.lukebemish.bytecodebuilder.ClassSignature;
+import dev.lukebemish.bytecodebuilder.MethodSignature;
+import dev.lukebemish.bytecodebuilder.Signature;
+
+import java.util.List;
+
+import static dev.lukebemish.bytecodebuilder.test.Checks.check;
+
+public class TestSignatures {
+    public static void main(String[] args) {
+        var map = Signature.classType("java/util/Map", Signature.exact(Signature.typeVariable("K")), Signature.extendsBound(Signature.classType(List.class, Signature.wildcard())));
+        var entry = map.inner("Entry", Signature.superBound(Signature.classType(String.class)));
+        check(entry.signature(), "Ljava/util/Map<TK;+Ljava/util/List<*>;>.Entry<-Ljava/lang/String;>;");
+        check(Signature.parse(entry.signature()), entry);
+        check(Signature.parse("[[I"), Signature.classType(int[][].class));
+
+        if (Signature.parse("Ljava/lang/Object;") != Signature.classType(Object.class)) {
+            throw new AssertionError("Common signatures should be interned");
+        }
+
+        var method = MethodSignature.create()
+            .typeParameter("T", Signature.classType(Object.class))
+            .build(Signature.typeVariable("T"), List.of(Signature.classType(Exception.class)), Signature.classType(int.class), Signature.typeVariable("T").array());
+        check(method.signature(), "<T:Ljava/lang/Object;>(I[TT;)TT;^Ljava/lang/Exception;");
+        check(MethodSignature.parse(method.signature()), method);
+
+        var clazz = ClassSignature.create()
+            .typeParameter("T", Signature.classType(Object.class))
+            .build(Signature.classType(Object.class), Signature.classType(Comparable.class, Signature.exact(Signature.typeVariable("T"))));
+        check(clazz.signature(), "<T:Ljava/lang/Object;>Ljava/lang/Object;Ljava/lang/Comparable<TT;>;");
+        check(ClassSignature.parse(clazz.signature()), clazz);
+
+        for (var malformed : List.of("", "L;", "Ljava/util/List<>;", "Ljava/lang/Object", "TT", "V")) {
+            try {
+                Signature.parse(malformed);
+                throw new AssertionError("Expected " + malformed + " to be rejected");
+            } catch (IllegalArgumentException ignored) {
+            }
+        }
+        System.out.println("Signatures round-tripped");
+    }
+}
@@ -0,0 +1,179 @@
+package dev.lukebemish.bytecodebuilder.test;
+
+import dev.lukebemish.bytecodebuilder.ClassContext;
+import dev.lukebemish.bytecodebuilder.runtime.Specializations;
+
+import java.lang.constant.ClassDesc;
+import java.lang.constant.ConstantDescs;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Modifier;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import static dev.lukebemish.bytecodebuilder.test.Checks.check;
+
+public class TestSpecialization {
+    public static class Buffer<T extends Comparable<T>> implements Supplier<T> {
+        private T[] values;
+        private int size;
+        private T last;
+
+        @SuppressWarnings("unchecked")
+        public Buffer() {
+            values = (T[]) new Comparable[2];
+        }
+
+        public void add(T value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+            last = value;
+        }
+
+        public void addAll(List<T> list) {
+            for (T value : list) {
+                add(value);
+            }
+        }
+
+        public void addArray(T[] array) {
+            for (T value : array) {
+                add(value);
+            }
+        }
+
+        public T[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+
+        public T set(T value) {
+            return last = value;
+        }
+
+        @Override
+        public T get() {
+            return last;
+        }
+
+        public T at(int index) {
+            return values[index];
+        }
+
+        public int indexOf(T value) {
+            for (int i = 0; i < size; i++) {
+                if (values[i].equals(value)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        public boolean containsSame(T value) {
+            for (int i = 0; i < size; i++) {
+                if (values[i] == value) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        public T max() {
+            T best = values[0];
+            for (int i = 1; i < size; i++) {
+                if (values[i].compareTo(best) > 0) {
+                    best = values[i];
+                }
+            }
+            return best;
+        }
+
+        public void sort() {
+            Arrays.sort(values, 0, size);
+        }
+
+        public int hash() {
+            int hash = 1;
+            for (int i = 0; i < size; i++) {
+                hash = hash * 31 + values[i].hashCode();
+            }
+            return hash;
+        }
+
+        public String describe() {
+            return "last " + last + " of " + size + ", " + last.toString();
+        }
+    }
+
+    public static void main(String[] args) throws Throwable {
+        var lookup = MethodHandles.lookup();
+
+        var ints = Specializations.define(lookup, Buffer.class, Map.of("T", int.class));
+        var intClass = ints.lookupClass();
+        checkFields(intClass, "[I", "I");
+        var intBuffer = ints.findConstructor(intClass, MethodType.methodType(void.class)).invoke();
+        var addInt = ints.findVirtual(intClass, "add", MethodType.methodType(void.class, int.class));
+        for (int value : new int[] {5, 3, 9}) {
+            addInt.invoke(intBuffer, value);
+        }
+        ints.findVirtual(intClass, "addAll", MethodType.methodType(void.class, List.class)).invoke(intBuffer, List.of(7, 1));
+        check("at", (int) ints.findVirtual(intClass, "at", MethodType.methodType(int.class, int.class)).invoke(intBuffer, 2), 9);
+        check("indexOf", (int) ints.findVirtual(intClass, "indexOf", MethodType.methodType(int.class, int.class)).invoke(intBuffer, 7), 3);
+        check("indexOf", (int) ints.findVirtual(intClass, "indexOf", MethodType.methodType(int.class, int.class)).invoke(intBuffer, 4), -1);
+        check("containsSame", (boolean) ints.findVirtual(intClass, "containsSame", MethodType.methodType(boolean.class, int.class)).invoke(intBuffer, 7), true);
+        check("max", (int) ints.findVirtual(intClass, "max", MethodType.methodType(int.class)).invoke(intBuffer), 9);
+        check("hash", (int) ints.findVirtual(intClass, "hash", MethodType.methodType(int.class)).invoke(intBuffer), Arrays.hashCode(new int[] {5, 3, 9, 7, 1}));
+        ints.findVirtual(intClass, "sort", MethodType.methodType(void.class)).invoke(intBuffer);
+        check("sorted", (int) ints.findVirtual(intClass, "at", MethodType.methodType(int.class, int.class)).invoke(intBuffer, 0), 1);
+        check("describe", (String) ints.findVirtual(intClass, "describe", MethodType.methodType(String.class)).invoke(intBuffer), "last 1 of 5, 1");
+        check("bridge", ((Supplier<?>) intBuffer).get(), 1);
+        check("toArray", Arrays.stream((int[]) ints.findVirtual(intClass, "toArray", MethodType.methodType(int[].class)).invoke(intBuffer)).boxed().toList(), List.of(1, 3, 5, 7, 9));
+        // The erased bridges copy arrays between their boxed and primitive forms
+        ints.findVirtual(intClass, "addArray", MethodType.methodType(void.class, Comparable[].class)).invoke(intBuffer, new Comparable<?>[] {11, 10});
+        var boxed = (Comparable<?>[]) ints.findVirtual(intClass, "toArray", MethodType.methodType(Comparable[].class)).invoke(intBuffer);
+        check("toArray bridge", Arrays.asList(boxed), List.of(1, 3, 5, 7, 9, 11, 10));
+        check("toArray bridge type", boxed.getClass(), Comparable[].class);
+        ints.findVirtual(intClass, "addArray", MethodType.methodType(void.class, int[].class)).invoke(intBuffer, new int[] {12});
+        check("addArray", (int) ints.findVirtual(intClass, "at", MethodType.methodType(int.class, int.class)).invoke(intBuffer, 7), 12);
+
+        var longs = Specializations.define(lookup, Buffer.class, Map.of("T", long.class));
+        var longClass = longs.lookupClass();
+        checkFields(longClass, "[J", "J");
+        var longBuffer = longs.findConstructor(longClass, MethodType.methodType(void.class)).invoke();
+        var addLong = longs.findVirtual(longClass, "add", MethodType.methodType(void.class, long.class));
+        for (long value : new long[] {1L << 40, -2, 1L << 41}) {
+            addLong.invoke(longBuffer, value);
+        }
+        check("max", (long) longs.findVirtual(longClass, "max", MethodType.methodType(long.class)).invoke(longBuffer), 1L << 41);
+        check("set", (long) longs.findVirtual(longClass, "set", MethodType.methodType(long.class, long.class)).invoke(longBuffer, 12L), 12L);
+        check("get", (long) longs.findVirtual(longClass, "get", MethodType.methodType(long.class)).invoke(longBuffer), 12L);
+        check("containsSame", (boolean) longs.findVirtual(longClass, "containsSame", MethodType.methodType(boolean.class, long.class)).invoke(longBuffer, -2L), true);
+        longs.findVirtual(longClass, "addArray", MethodType.methodType(void.class, Comparable[].class)).invoke(longBuffer, new Comparable<?>[] {5L});
+        check("toArray bridge", Arrays.asList((Comparable<?>[]) longs.findVirtual(longClass, "toArray", MethodType.methodType(Comparable[].class)).invoke(longBuffer)), List.of(1L << 40, -2L, 1L << 41, 5L));
+
+        // A hidden lookup class, such as a generated class, has a name that is not a valid binary name
+        var bytes = ClassContext.create().build(65, Modifier.PUBLIC | Modifier.FINAL, ClassDesc.of("dev.lukebemish.bytecodebuilder.test.TestSpecialization$Hidden"), ConstantDescs.CD_Object, null, null);
+        var hidden = lookup.defineHiddenClass(bytes, true);
+        var fromHidden = Specializations.define(hidden, Buffer.class, Map.of("T", int.class));
+        checkFields(fromHidden.lookupClass(), "[I", "I");
+
+        try {
+            Specializations.define(lookup, Buffer.class, Map.of("U", int.class));
+            throw new AssertionError("Expected unknown type variable to be rejected");
+        } catch (IllegalArgumentException expected) {
+            // expected
+        }
+
+        System.out.println("Specialization tests passed.");
+    }
+
+    private static void checkFields(Class<?> type, String values, String last) throws Exception {
+        var descriptors = type.getDeclaredField("values").getType().descriptorString() + type.getDeclaredField("last").getType().descriptorString();
+        if (!descriptors.equals(values + last)) {
+            throw new AssertionError("Expected fields " + values + " and " + last + " but got " + descriptors);
+        }
+    }
+}
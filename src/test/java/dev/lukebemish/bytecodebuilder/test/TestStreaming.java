@@ -0,0 +1,54 @@
+package dev.lukebemish.bytecodebuilder.test;
+
+import dev.lukebemish.bytecodebuilder.ClassContext;
+
+import java.lang.constant.ClassDesc;
+import java.lang.constant.ConstantDescs;
+import java.lang.constant.DirectMethodHandleDesc;
+import java.lang.constant.MethodTypeDesc;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Modifier;
+
+public class TestStreaming {
+    public static void main(String[] args) throws Throwable {
+        var name = ClassDesc.of("dev.lukebemish.bytecodebuilder.test.TestStreaming$Generated");
+        var bytes = ClassContext.stream(65, Modifier.PUBLIC | Modifier.FINAL, name, ConstantDescs.CD_Object, null, null, context -> {
+            context.field("total", Modifier.PUBLIC | Modifier.STATIC, ConstantDescs.CD_int, null, null, field -> {});
+            for (int i = 0; i < 200; i++) {
+                int value = i;
+                context.method("value" + i, Modifier.PUBLIC | Modifier.STATIC, MethodTypeDesc.of(ConstantDescs.CD_int, ConstantDescs.CD_boolean), null, null, method -> method.code(code -> code
+                    .field(DirectMethodHandleDesc.Kind.STATIC_GETTER, name, "total", ConstantDescs.CD_int)
+                    .load(ConstantDescs.CD_boolean, 0)
+                    .ifThenElse(whenTrue -> whenTrue.constant(value), whenFalse -> whenFalse.constant(-value))
+                    .method(DirectMethodHandleDesc.Kind.STATIC, ConstantDescs.CD_Integer, "sum", MethodTypeDesc.of(ConstantDescs.CD_int, ConstantDescs.CD_int, ConstantDescs.CD_int))
+                    .field(DirectMethodHandleDesc.Kind.STATIC_SETTER, name, "total", ConstantDescs.CD_int)
+                    .field(DirectMethodHandleDesc.Kind.STATIC_GETTER, name, "total", ConstantDescs.CD_int)
+                    .returnValue(ConstantDescs.CD_int)
+                ));
+            }
+            try {
+                context.build(65, Modifier.PUBLIC, name, ConstantDescs.CD_Object, null, null);
+                throw new AssertionError("Expected building a streaming context to be rejected");
+            } catch (IllegalStateException expected) {
+                // expected
+            }
+        });
+
+        var lookup = MethodHandles.lookup().defineHiddenClass(bytes, true);
+        int expected = 0;
+        for (int i = 0; i < 200; i++) {
+            var positive = i % 3 != 0;
+            expected += positive ? i : -i;
+            var result = (int) lookup.findStatic(lookup.lookupClass(), "value" + i, MethodType.methodType(int.class, boolean.class)).invokeExact(positive);
+            if (result != expected) {
+                throw new AssertionError("Expected value" + i + " to return " + expected + " but got " + result);
+            }
+        }
+        if (!Modifier.isFinal(lookup.lookupClass().getModifiers())) {
+            throw new AssertionError("Expected the streamed class to keep its access flags");
+        }
+
+        System.out.println("Streaming tests passed.");
+    }
+}
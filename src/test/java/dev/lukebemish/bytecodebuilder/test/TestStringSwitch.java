@@ -0,0 +1,110 @@
+package dev.lukebemish.bytecodebuilder.test;
+
+import dev.lukebemish.bytecodebuilder.ClassContext;
+import dev.lukebemish.bytecodebuilder.Constants;
+import dev.lukebemish.bytecodebuilder.runtime.StringSwitch;
+
+import java.lang.constant.ClassDesc;
+import java.lang.constant.ConstantDescs;
+import java.lang.constant.MethodTypeDesc;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.List;
+
+public class TestStringSwitch {
+    public static void main(String[] args) throws Throwable {
+        var headers = List.of(
+            "Accept", "Accept-Encoding", "Accept-Language", "Authorization", "Cache-Control", "Connection",
+            "Content-Length", "Content-Type", "Cookie", "Host", "If-Modified-Since", "If-None-Match", "Origin",
+            "Pragma", "Referer", "Transfer-Encoding", "Upgrade", "User-Agent", "Via", "X-Forwarded-For",
+            // Share a String.hashCode
+            "Aa", "BB"
+        );
+
+        var context = ClassContext.create();
+        context.method("index", Modifier.PUBLIC | Modifier.STATIC, MethodTypeDesc.of(ConstantDescs.CD_int, ConstantDescs.CD_String), null, null, method -> method.code(code -> {
+            code.load(ConstantDescs.CD_String, 0);
+            code.invokeDynamic(Constants.stringSwitch("index", headers));
+            code.returnValue(ConstantDescs.CD_int);
+        }));
+        var lookup = MethodHandles.lookup().defineHiddenClass(context.build(65, Modifier.PUBLIC | Modifier.FINAL, ClassDesc.of("dev.lukebemish.bytecodebuilder.test.TestStringSwitch$Generated"), ConstantDescs.CD_Object, null, null), true);
+        var index = lookup.findStatic(lookup.lookupClass(), "index", MethodType.methodType(int.class, String.class));
+
+        for (int i = 0; i < headers.size(); i++) {
+            var result = (int) index.invokeExact(headers.get(i));
+            if (result != i) {
+                throw new AssertionError("Expected " + headers.get(i) + " at " + i + " but got " + result);
+            }
+        }
+        for (var miss : List.of("", "accept", "Content-Lengths", "Hosts", "Vi", "X-Forwarded-Fox", "Ab", "a-very-long-header-name-indeed")) {
+            var result = (int) index.invokeExact(miss);
+            if (result != -1) {
+                throw new AssertionError("Expected " + miss + " to miss but got " + result);
+            }
+        }
+
+        var many = new ArrayList<String>();
+        for (int i = 0; i < 500; i++) {
+            many.add("key" + i);
+        }
+        var handle = StringSwitch.indexOf(many);
+        for (int i = 0; i < many.size(); i++) {
+            var result = (int) handle.invokeExact(many.get(i));
+            if (result != i) {
+                throw new AssertionError("Expected " + many.get(i) + " at " + i + " but got " + result);
+            }
+        }
+        if ((int) StringSwitch.indexOf(List.of()).invokeExact("anything") != -1) {
+            throw new AssertionError("Expected an empty switch to miss");
+        }
+
+        // Lengths far apart go through a lookupswitch on the length, as a case for every length between them would not fit
+        // in a method
+        var far = List.of("a", "b".repeat(20000), "cc");
+        var farHandle = StringSwitch.indexOf(far);
+        for (int i = 0; i < far.size(); i++) {
+            var result = (int) farHandle.invokeExact(far.get(i));
+            if (result != i) {
+                throw new AssertionError("Expected key of length " + far.get(i).length() + " at " + i + " but got " + result);
+            }
+        }
+        for (var miss : List.of("", "abc", "b".repeat(19999), "c".repeat(20000))) {
+            var result = (int) farHandle.invokeExact(miss);
+            if (result != -1) {
+                throw new AssertionError("Expected a string of length " + miss.length() + " to miss but got " + result);
+            }
+        }
+
+        try {
+            StringSwitch.indexOf(List.of("a", "a"));
+            throw new AssertionError("Expected duplicate keys to be rejected");
+        } catch (IllegalArgumentException expected) {
+            // expected
+        }
+
+        // Sparse keys, given out of order, go through a lookupswitch
+        var sparse = ClassContext.create();
+        sparse.method("pick", Modifier.PUBLIC | Modifier.STATIC, MethodTypeDesc.of(ConstantDescs.CD_int, ConstantDescs.CD_int), null, null, method -> method.code(code -> {
+            code.load(ConstantDescs.CD_int, 0);
+            code.lookupSwitch(new int[] {100, -5, 7}, List.of(
+                c -> c.constant(1),
+                c -> c.constant(2),
+                c -> c.constant(3)
+            ), c -> c.constant(0));
+            code.returnValue(ConstantDescs.CD_int);
+        }));
+        var sparseLookup = MethodHandles.lookup().defineHiddenClass(sparse.build(65, Modifier.PUBLIC | Modifier.FINAL, ClassDesc.of("dev.lukebemish.bytecodebuilder.test.TestStringSwitch$Sparse"), ConstantDescs.CD_Object, null, null), true);
+        var pick = sparseLookup.findStatic(sparseLookup.lookupClass(), "pick", MethodType.methodType(int.class, int.class));
+        int[][] expectations = {{100, 1}, {-5, 2}, {7, 3}, {8, 0}, {-100, 0}};
+        for (var expectation : expectations) {
+            var result = (int) pick.invokeExact(expectation[0]);
+            if (result != expectation[1]) {
+                throw new AssertionError("Expected " + expectation[0] + " to pick " + expectation[1] + " but got " + result);
+            }
+        }
+
+        System.out.println("String switch tests passed.");
+    }
+}
@@ -0,0 +1,58 @@
+package dev.lukebemish.bytecodebuilder.test;
+
+import dev.lukebemish.bytecodebuilder.ClassContext;
+import dev.lukebemish.bytecodebuilder.runtime.TieredCallSite;
+
+import java.lang.constant.ClassDesc;
+import java.lang.constant.ConstantDescs;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Modifier;
+
+import static dev.lukebemish.bytecodebuilder.test.Checks.check;
+
+public class TestTieredCallSite {
+    private static final int THRESHOLD = 16;
+
+    public static void main(String[] args) throws Throwable {
+        var lookup = MethodHandles.lookup();
+
+        var direct = TieredCallSite.of(lookup, MethodType.methodType(long.class, Integer.class, short.class), lookup.findStatic(TestTieredCallSite.class, "add", MethodType.methodType(int.class, int.class, int.class)), THRESHOLD);
+        var generic = direct.getTarget();
+        var invoker = direct.dynamicInvoker();
+        for (int i = 0; i < THRESHOLD; i++) {
+            check((long) invoker.invokeExact((Integer) i, (short) 1), i + 1L);
+        }
+        direct.specialization().join();
+        if (direct.getTarget() == generic) {
+            throw new AssertionError("Call site was not specialized");
+        }
+        check((long) invoker.invokeExact((Integer) 41, (short) 1), 42L);
+
+        // Not revealable, so the specialized class has to invoke it through class data
+        var bound = TieredCallSite.of(lookup, MethodType.methodType(Object.class, int.class), MethodHandles.insertArguments(lookup.findStatic(TestTieredCallSite.class, "add", MethodType.methodType(int.class, int.class, int.class)), 0, 2), THRESHOLD);
+        var boundInvoker = bound.dynamicInvoker();
+        for (int i = 0; i < THRESHOLD; i++) {
+            check((int) (Object) boundInvoker.invokeExact(i), i + 2);
+        }
+        bound.specialization().join();
+        check((int) (Object) boundInvoker.invokeExact(40), 42);
+
+        // A hidden caller, such as a generated class, has a name that is not a valid binary name
+        var bytes = ClassContext.create().build(65, Modifier.PUBLIC | Modifier.FINAL, ClassDesc.of("dev.lukebemish.bytecodebuilder.test.TestTieredCallSite$Caller"), ConstantDescs.CD_Object, null, null);
+        var hiddenCaller = lookup.defineHiddenClass(bytes, true);
+        var fromHidden = TieredCallSite.of(hiddenCaller, MethodType.methodType(int.class, int.class, int.class), lookup.findStatic(TestTieredCallSite.class, "add", MethodType.methodType(int.class, int.class, int.class)), THRESHOLD);
+        var hiddenInvoker = fromHidden.dynamicInvoker();
+        for (int i = 0; i < THRESHOLD; i++) {
+            check((int) hiddenInvoker.invokeExact(i, 3), i + 3);
+        }
+        fromHidden.specialization().join();
+        check((int) hiddenInvoker.invokeExact(39, 3), 42);
+
+        System.out.println("Specialized tiered call sites");
+    }
+
+    private static int add(int a, int b) {
+        return a + b;
+    }
+}
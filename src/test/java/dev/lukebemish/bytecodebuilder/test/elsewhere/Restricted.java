@@ -0,0 +1,10 @@
+package dev.lukebemish.bytecodebuilder.test.elsewhere;
+
+/**
+ * An abstract class that can only be extended from its own package.
+ */
+public abstract class Restricted {
+    Restricted() {}
+
+    public abstract int value();
+}